@@ -0,0 +1,77 @@
+package bench;
+
+import config.DatabaseConfig;
+import config.PoolSettings;
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+
+/**
+ * BenchmarkDatabase - PostgreSQL local cho benchmark
+ *
+ * Mỗi JMH fork khởi động một PostgreSQL embedded, chạy database/schema.sql
+ * rồi thêm sản phẩm cho đủ NUM_PRODUCTS (đơn hàng 5000 items cần 5000
+ * product khác nhau) với tồn kho rất lớn để benchmark không hết hàng.
+ */
+@State(Scope.Benchmark)
+public class BenchmarkDatabase {
+
+    public static final int NUM_PRODUCTS = 5000;
+    private static final int BENCH_STOCK = 2_000_000_000;
+    // Đủ cho số thread benchmark lớn nhất
+    private static final int POOL_SIZE = 64;
+
+    private EmbeddedPostgres postgres;
+
+    @Setup(Level.Trial)
+    public void start() throws Exception {
+        postgres = EmbeddedPostgres.builder().start();
+        String url = postgres.getJdbcUrl("postgres", "postgres");
+
+        try (Connection conn = DriverManager.getConnection(url);
+                Statement stmt = conn.createStatement()) {
+            stmt.execute(readSchema());
+            stmt.executeUpdate("INSERT INTO products (name, stock) "
+                    + "SELECT 'Bench product ' || g, 0 FROM generate_series("
+                    + "(SELECT COUNT(*) + 1 FROM products), " + NUM_PRODUCTS + ") g");
+            stmt.executeUpdate("UPDATE products SET stock = " + BENCH_STOCK);
+            stmt.execute("VACUUM ANALYZE");
+        }
+
+        // DatabaseConfig đọc các property này khi được load lần đầu
+        System.setProperty("db.url", url);
+        System.setProperty("db.user", "postgres");
+        System.setProperty("db.password", "");
+
+        PoolSettings settings = new PoolSettings();
+        settings.setMaxSize(POOL_SIZE);
+        settings.setMinIdle(POOL_SIZE);
+        DatabaseConfig.getInstance().setPoolSettings(settings);
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() throws Exception {
+        DatabaseConfig.getInstance().shutdownPool();
+        if (postgres != null) {
+            postgres.close();
+        }
+    }
+
+    private static String readSchema() throws Exception {
+        try (InputStream in = BenchmarkDatabase.class.getResourceAsStream("/schema.sql")) {
+            if (in == null) {
+                throw new IllegalStateException("Không tìm thấy schema.sql trong classpath");
+            }
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
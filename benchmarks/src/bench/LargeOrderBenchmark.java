@@ -0,0 +1,91 @@
+package bench;
+
+import model.Order;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import service.ConcurrencyStrategy;
+import service.ItemWriteMode;
+import service.OrderService;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * LargeOrderBenchmark - Số dòng order_items ghi được mỗi giây với đơn hàng rất lớn
+ *
+ * Tham số: số item mỗi đơn hàng, số dòng mỗi lần gửi (itemBatchSize) và
+ * cách gửi (JDBC batch, VALUES nhiều dòng, unnest mảng). Cột "rows" trong
+ * kết quả là rows/s:
+ *     java -jar benchmarks/target/benchmarks.jar LargeOrderBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class LargeOrderBenchmark {
+
+    @Param({ "1000", "5000" })
+    public int orderSize;
+
+    @Param({ "50", "500", "5000" })
+    public int itemBatchSize;
+
+    @Param({ "BATCH", "MULTI_VALUES", "UNNEST" })
+    public ItemWriteMode itemWriteMode;
+
+    @Param({ "PESSIMISTIC", "CONDITIONAL_UPDATE" })
+    public ConcurrencyStrategy concurrencyStrategy;
+
+    private OrderService orderService;
+
+    /**
+     * Đơn hàng riêng cho mỗi thread + số dòng đã ghi (JMH báo cáo theo giây)
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class RowCounter {
+        public long rows;
+
+        Order order;
+
+        @Setup(Level.Trial)
+        public void build(LargeOrderBenchmark bench) {
+            order = new Order();
+            for (int productId = 1; productId <= bench.orderSize; productId++) {
+                order.addItem(productId, 1);
+            }
+        }
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            rows = 0;
+        }
+    }
+
+    @Setup
+    public void setup(BenchmarkDatabase database) {
+        orderService = new OrderService();
+        orderService.setItemBatchSize(itemBatchSize);
+        orderService.setItemWriteMode(itemWriteMode);
+        orderService.setConcurrencyStrategy(concurrencyStrategy);
+    }
+
+    @Benchmark
+    public int createOrder(RowCounter counter) throws Exception {
+        int orderId = orderService.createOrder(counter.order);
+        counter.rows += orderSize;
+        return orderId;
+    }
+}
@@ -0,0 +1,82 @@
+package bench;
+
+import model.Order;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import service.OrderIdAllocator;
+import service.OrderService;
+import service.StockUpdateMode;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * OrderWriteBenchmark - Throughput (orders/s) và latency của createOrder
+ *
+ * Tham số: số item mỗi đơn hàng, số dòng mỗi lần executeBatch của
+ * order_items (0 = một batch), cách trừ kho và cách cấp Order ID.
+ * Số thread chỉnh bằng -t:
+ *     java -jar benchmarks/target/benchmarks.jar OrderWriteBenchmark -t 8
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class OrderWriteBenchmark {
+
+    @Param({ "1", "10", "100", "1000" })
+    public int orderSize;
+
+    @Param({ "0", "50", "500" })
+    public int itemBatchSize;
+
+    @Param({ "PER_ITEM", "SET_BASED" })
+    public StockUpdateMode stockUpdateMode;
+
+    // 0 = INSERT ... RETURNING id, > 0 = OrderIdAllocator với block size này
+    @Param({ "0", "100" })
+    public int idBlockSize;
+
+    private OrderService orderService;
+
+    /**
+     * Đơn hàng riêng cho mỗi thread (createOrder ghi Order ID vào order)
+     */
+    @State(Scope.Thread)
+    public static class OrderState {
+        Order order;
+
+        @Setup
+        public void build(OrderWriteBenchmark bench) {
+            order = new Order();
+            for (int productId = 1; productId <= bench.orderSize; productId++) {
+                order.addItem(productId, 1);
+            }
+        }
+    }
+
+    @Setup
+    public void setup(BenchmarkDatabase database) {
+        orderService = new OrderService();
+        orderService.setItemBatchSize(itemBatchSize);
+        orderService.setStockUpdateMode(stockUpdateMode);
+        if (idBlockSize > 0) {
+            orderService.setOrderIdAllocator(new OrderIdAllocator(idBlockSize));
+        }
+    }
+
+    @Benchmark
+    public int createOrder(OrderState state) throws Exception {
+        return orderService.createOrder(state.order);
+    }
+}
@@ -0,0 +1,42 @@
+package bench;
+
+import model.Product;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import service.OrderService;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ProductReadBenchmark - Latency của getProduct
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class ProductReadBenchmark {
+
+    private OrderService orderService;
+
+    @Setup
+    public void setup(BenchmarkDatabase database) {
+        orderService = new OrderService();
+    }
+
+    @Benchmark
+    public Product getProduct() throws Exception {
+        int productId = ThreadLocalRandom.current().nextInt(1, BenchmarkDatabase.NUM_PRODUCTS + 1);
+        return orderService.getProduct(productId);
+    }
+}
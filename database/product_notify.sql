@@ -0,0 +1,46 @@
+-- =====================================================
+-- JDBC Transaction & Batch Lab: NOTIFY khi products thay đổi (tùy chọn)
+-- =====================================================
+-- Dùng cùng ProductCache.startListening(): mỗi thay đổi trên products /
+-- product_stock_buckets gửi product id lên kênh product_changes, cache ở
+-- mọi JVM xóa entry tương ứng.
+--
+-- Chạy SAU schema.sql (schema.sql xóa và tạo lại các bảng):
+--   psql -U postgres -d order_system -f database/product_notify.sql
+--
+-- Lưu ý: NOTIFY thêm một bước tuần tự hóa lúc commit; chỉ cài khi cần
+-- cache nhất quán giữa nhiều JVM.
+-- =====================================================
+
+CREATE OR REPLACE FUNCTION notify_product_change() RETURNS trigger AS $$
+BEGIN
+    -- Payload trùng nhau trong cùng transaction chỉ được gửi một lần
+    IF TG_OP = 'DELETE' THEN
+        PERFORM pg_notify('product_changes', OLD.id::text);
+    ELSE
+        PERFORM pg_notify('product_changes', NEW.id::text);
+    END IF;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION notify_product_bucket_change() RETURNS trigger AS $$
+BEGIN
+    IF TG_OP = 'DELETE' THEN
+        PERFORM pg_notify('product_changes', OLD.product_id::text);
+    ELSE
+        PERFORM pg_notify('product_changes', NEW.product_id::text);
+    END IF;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS trg_products_notify ON products;
+CREATE TRIGGER trg_products_notify
+    AFTER INSERT OR UPDATE OR DELETE ON products
+    FOR EACH ROW EXECUTE FUNCTION notify_product_change();
+
+DROP TRIGGER IF EXISTS trg_product_stock_buckets_notify ON product_stock_buckets;
+CREATE TRIGGER trg_product_stock_buckets_notify
+    AFTER INSERT OR UPDATE OR DELETE ON product_stock_buckets
+    FOR EACH ROW EXECUTE FUNCTION notify_product_bucket_change();
@@ -3,6 +3,12 @@
 -- =====================================================
 
 -- Drop existing tables (nếu có)
+DROP SCHEMA IF EXISTS order_archive CASCADE;
+DROP VIEW IF EXISTS product_inventory;
+DROP TABLE IF EXISTS order_journal_checkpoints;
+DROP TABLE IF EXISTS product_sales_daily;
+DROP TABLE IF EXISTS product_sales;
+DROP TABLE IF EXISTS product_stock_buckets CASCADE;
 DROP TABLE IF EXISTS order_items CASCADE;
 DROP TABLE IF EXISTS orders CASCADE;
 DROP TABLE IF EXISTS products CASCADE;
@@ -15,37 +21,149 @@ CREATE TABLE products (
     id SERIAL PRIMARY KEY,
     name VARCHAR(255) NOT NULL,
     stock INTEGER NOT NULL CHECK (stock >= 0),
+    -- Số bucket chia tồn kho (> 1: dùng product_stock_buckets ở chế độ BUCKETED)
+    stock_buckets INTEGER NOT NULL DEFAULT 1 CHECK (stock_buckets >= 1),
     created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
     updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
 );
 
+-- =====================================================
+-- Table: product_stock_buckets
+-- Mô tả: Tồn kho của sản phẩm "hot" được chia thành nhiều dòng (bucket)
+--        để các đơn hàng đồng thời không cùng chờ lock một dòng products.
+--        StockBucketRebalancer chuyển products.stock vào các bucket và
+--        cân bằng lại định kỳ. Tồn kho thực = products.stock + SUM(bucket).
+-- =====================================================
+CREATE TABLE product_stock_buckets (
+    product_id INTEGER NOT NULL,
+    bucket_no INTEGER NOT NULL,
+    stock INTEGER NOT NULL CHECK (stock >= 0),
+    PRIMARY KEY (product_id, bucket_no),
+    FOREIGN KEY (product_id) REFERENCES products(id) ON DELETE CASCADE
+);
+
+-- =====================================================
+-- View: product_inventory
+-- Mô tả: Tồn kho thực của từng sản phẩm (gồm cả các bucket)
+-- =====================================================
+CREATE VIEW product_inventory AS
+SELECT
+    p.id,
+    p.name,
+    (p.stock + COALESCE(
+        (SELECT SUM(b.stock) FROM product_stock_buckets b WHERE b.product_id = p.id), 0))::INTEGER AS stock
+FROM products p;
+
 -- =====================================================
 -- Table: orders
 -- Mô tả: Lưu thông tin đơn hàng
+--        Chia partition theo tháng trên created_at (orders_pYYYY_MM).
+--        Khóa chính phải chứa cột partition: (id, created_at).
 -- =====================================================
 CREATE TABLE orders (
-    id SERIAL PRIMARY KEY,
-    created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
-);
+    id SERIAL,
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    PRIMARY KEY (id, created_at)
+) PARTITION BY RANGE (created_at);
 
 -- =====================================================
 -- Table: order_items
 -- Mô tả: Chi tiết đơn hàng (mối quan hệ nhiều-nhiều)
+--        order_created_at = orders.created_at của đơn hàng, dùng làm cột
+--        partition (order_items_pYYYY_MM cùng tháng với orders_pYYYY_MM)
 -- =====================================================
 CREATE TABLE order_items (
     order_id INTEGER NOT NULL,
+    order_created_at TIMESTAMP NOT NULL,
     product_id INTEGER NOT NULL,
     qty INTEGER NOT NULL CHECK (qty > 0),
-    PRIMARY KEY (order_id, product_id),
-    FOREIGN KEY (order_id) REFERENCES orders(id) ON DELETE CASCADE,
+    PRIMARY KEY (order_id, product_id, order_created_at),
+    FOREIGN KEY (order_id, order_created_at) REFERENCES orders(id, created_at) ON DELETE CASCADE,
     FOREIGN KEY (product_id) REFERENCES products(id) ON DELETE CASCADE
+) PARTITION BY RANGE (order_created_at);
+
+-- =====================================================
+-- Partition: tháng trước đến 3 tháng tới
+-- OrderPartitionMaintainer tạo trước partition các tháng tiếp theo và
+-- detach / archive partition cũ. Không có partition DEFAULT: order rơi
+-- vào tháng chưa có partition sẽ bị lỗi thay vì âm thầm dồn vào một bảng.
+-- =====================================================
+DO $$
+DECLARE
+    month_start DATE;
+BEGIN
+    FOR i IN -1..3 LOOP
+        month_start := (date_trunc('month', CURRENT_TIMESTAMP) + make_interval(months => i))::DATE;
+        EXECUTE format('CREATE TABLE %I PARTITION OF orders FOR VALUES FROM (%L) TO (%L)',
+            'orders_p' || to_char(month_start, 'YYYY_MM'), month_start, month_start + INTERVAL '1 month');
+        EXECUTE format('CREATE TABLE %I PARTITION OF order_items FOR VALUES FROM (%L) TO (%L)',
+            'order_items_p' || to_char(month_start, 'YYYY_MM'), month_start, month_start + INTERVAL '1 month');
+    END LOOP;
+END $$;
+
+-- =====================================================
+-- Table: order_journal_checkpoints
+-- Mô tả: Sequence cuối cùng của OrderJournal đã được ghi vào database.
+--        Cập nhật trong cùng transaction với các order được drain nên
+--        sau khi crash, mỗi entry của journal được ghi đúng một lần.
+-- =====================================================
+CREATE TABLE order_journal_checkpoints (
+    journal_name TEXT PRIMARY KEY,
+    last_sequence BIGINT NOT NULL
+);
+
+-- =====================================================
+-- Table: product_sales / product_sales_daily
+-- Mô tả: Số lượng đã bán, số order và lần bán cuối theo sản phẩm (tổng
+--        và theo ngày), cộng dồn trong cùng transaction với order
+--        (upsert một câu lệnh cho cả đơn hàng / cả batch). Dashboard đọc
+--        ở đây thay vì GROUP BY trên order_items.
+--        OrderService.rebuildSalesAggregates() tính lại từ order_items.
+--        Không có FK tới products: kiểm tra FK lấy KEY SHARE trên dòng
+--        products đang bị đơn hàng lock (rebuild có thể deadlock với
+--        createOrder); các truy vấn đọc luôn JOIN products.
+-- =====================================================
+CREATE TABLE product_sales (
+    product_id INTEGER NOT NULL,
+    -- Mỗi product nhiều dòng (SalesDelta.STRIPES): đơn hàng đồng thời của
+    -- sản phẩm hot lock các dòng khác nhau; đọc thì SUM theo product_id
+    stripe SMALLINT NOT NULL DEFAULT 0,
+    units_sold BIGINT NOT NULL,
+    order_count BIGINT NOT NULL,
+    last_sold_at TIMESTAMP NOT NULL,
+    PRIMARY KEY (product_id, stripe)
+);
+
+CREATE TABLE product_sales_daily (
+    product_id INTEGER NOT NULL,
+    sales_date DATE NOT NULL,
+    stripe SMALLINT NOT NULL DEFAULT 0,
+    units_sold BIGINT NOT NULL,
+    order_count BIGINT NOT NULL,
+    last_sold_at TIMESTAMP NOT NULL,
+    PRIMARY KEY (product_id, sales_date, stripe)
 );
 
 -- =====================================================
 -- Index để tối ưu query
 -- =====================================================
-CREATE INDEX idx_order_items_order_id ON order_items(order_id);
-CREATE INDEX idx_order_items_product_id ON order_items(product_id);
+-- Khóa chính (order_id, ...) đã phục vụ tìm theo order_id.
+-- Theo product: (product_id, order_created_at, order_id) cũng là thứ tự
+-- keyset của OrderService.listOrdersByProduct
+CREATE INDEX idx_order_items_product_id ON order_items(product_id, order_created_at, order_id);
+
+-- Phân trang / export order theo thời gian (keyset trên (created_at, id)):
+-- cần B-tree để đọc đúng thứ tự; khóa tăng dần nên insert chỉ chạm trang
+-- cuối của index
+CREATE INDEX idx_orders_created_at_id ON orders(created_at, id);
+
+-- BRIN cho truy vấn order_items theo khoảng thời gian: dữ liệu được insert
+-- theo thứ tự thời gian nên mỗi block range có created_at liền nhau, index
+-- rất nhỏ và gần như không làm chậm insert (khác B-tree)
+CREATE INDEX idx_order_items_created_at_brin ON order_items USING BRIN (order_created_at);
+
+-- Top-N theo khoảng ngày (tổng thì SUM các stripe của mọi product)
+CREATE INDEX idx_product_sales_daily_date ON product_sales_daily(sales_date);
 
 -- =====================================================
 -- Sample Data: Thêm sản phẩm mẫu
@@ -90,14 +208,14 @@ JOIN order_items oi ON o.id = oi.order_id
 JOIN products p ON oi.product_id = p.id
 ORDER BY o.id, p.name;
 
--- Xem tổng số lượng đã bán theo sản phẩm
+-- Xem tổng số lượng đã bán theo sản phẩm (từ product_sales, không quét order_items)
 SELECT 
     p.id,
     p.name,
     p.stock AS current_stock,
-    COALESCE(SUM(oi.qty), 0) AS total_sold
+    COALESCE(SUM(s.units_sold), 0) AS total_sold
 FROM products p
-LEFT JOIN order_items oi ON p.id = oi.product_id
+LEFT JOIN product_sales s ON s.product_id = p.id
 GROUP BY p.id, p.name, p.stock
 ORDER BY p.id;
 
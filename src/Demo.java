@@ -1,6 +1,8 @@
 import config.DatabaseConfig;
+import log.ConsoleEventSink;
 import model.Order;
 import model.OrderItem;
+import service.OrderPartitionMaintainer;
 import service.OrderService;
 
 /**
@@ -12,7 +14,12 @@ import service.OrderService;
 public class Demo {
 
     public static void main(String[] args) {
+        // Demo: in toàn bộ các bước của transaction ra console (đồng bộ)
+        DatabaseConfig.getInstance().setEventSink(new ConsoleEventSink());
         OrderService orderService = new OrderService();
+        // Tạo trước partition orders / order_items các tháng tới (-Dpartitions.*)
+        OrderPartitionMaintainer partitions = OrderPartitionMaintainer.fromSystemProperties();
+        orderService.setPartitionMaintainer(partitions);
 
         try {
             // Kiểm tra kết nối database
@@ -24,6 +31,7 @@ public class Demo {
                 System.err.println("✗ Không thể kết nối đến Database");
                 return;
             }
+            partitions.start();
 
             // Hiển thị tồn kho ban đầu
             orderService.displayCurrentStock();
@@ -54,6 +62,11 @@ public class Demo {
             // Hiển thị tồn kho sau case 2 (phải giống như sau case 1)
             orderService.displayCurrentStock();
 
+            // Số liệu connection pool
+            System.out.println("\n🔌 " + dbConfig.getPoolStats());
+            partitions.stop();
+            dbConfig.shutdownPool();
+
         } catch (Exception e) {
             System.err.println("✗ Lỗi: " + e.getMessage());
             e.printStackTrace();
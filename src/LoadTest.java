@@ -0,0 +1,435 @@
+import config.DatabaseConfig;
+import config.PoolSettings;
+import model.Order;
+import service.ConcurrencyStrategy;
+import service.FulfilmentPolicy;
+import service.OrderPartitionMaintainer;
+import service.OrderService;
+import service.StockBucketRebalancer;
+import service.StockLedger;
+import service.StockUpdateMode;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * LoadTest - Chương trình tạo tải đồng thời và kiểm tra oversell
+ *
+ * Phase 1: Hot SKU - kho còn 1 sản phẩm, 2 khách đặt cùng một thời điểm
+ *          (câu hỏi 1 trong questions.md) → đúng 1 người thắng mỗi lượt
+ * Phase 2: N client đồng thời đặt hàng theo product mix cấu hình được,
+ *          báo cáo throughput, latency p50/p99/p999, tỉ lệ rollback
+ * Kiểm tra cuối: với mỗi product, tồn kho sau + tổng qty đã bán trong lượt
+ *          chạy = tồn kho ban đầu, và tồn kho không âm
+ *
+ * Tham số (dạng --key=value):
+ *   --clients=16            Số client đồng thời
+ *   --orders=200            Số đơn hàng mỗi client
+ *   --max-items=3           Số item tối đa mỗi đơn hàng
+ *   --max-qty=3             Số lượng tối đa mỗi item
+ *   --products=1:5,2:1,4:3  Product mix (id:trọng số), mặc định tất cả product, trọng số đều
+ *   --hot-sku=2             Product dùng cho phase 1 (0 = bỏ qua phase 1)
+ *   --hot-rounds=20         Số lượt đua ở phase 1
+ *   --mode=PER_ITEM         StockUpdateMode của OrderService (PER_ITEM, SET_BASED, BUCKETED)
+ *   --hot-buckets=4         Số bucket của hot SKU ở chế độ BUCKETED
+ *   --strategy=PESSIMISTIC  ConcurrencyStrategy (PESSIMISTIC, CONDITIONAL_UPDATE, SERIALIZABLE)
+ *   --ledger=false          Bật StockLedger trước OrderService
+ *   --fulfilment=ALL_OR_NOTHING  FulfilmentPolicy (ALL_OR_NOTHING, DROP_UNAVAILABLE, PARTIAL)
+ *
+ * Lưu ý: phase 1 tạm đặt tồn kho của hot SKU về 1 rồi khôi phục lại; chỉ
+ * chạy trên database test. Exit code 1 nếu phát hiện oversell/lost update.
+ */
+public class LoadTest {
+
+    private static final String MSG_OUT_OF_STOCK = "KHÔNG ĐỦ HÀNG";
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseArgs(args);
+        int clients = Integer.parseInt(options.getOrDefault("clients", "16"));
+        int ordersPerClient = Integer.parseInt(options.getOrDefault("orders", "200"));
+        int maxItems = Integer.parseInt(options.getOrDefault("max-items", "3"));
+        int maxQty = Integer.parseInt(options.getOrDefault("max-qty", "3"));
+        int hotSku = Integer.parseInt(options.getOrDefault("hot-sku", "2"));
+        int hotRounds = Integer.parseInt(options.getOrDefault("hot-rounds", "20"));
+        StockUpdateMode mode = StockUpdateMode.valueOf(options.getOrDefault("mode", "PER_ITEM"));
+        int hotBuckets = Integer.parseInt(options.getOrDefault("hot-buckets", "4"));
+        ConcurrencyStrategy strategy = ConcurrencyStrategy.valueOf(
+                options.getOrDefault("strategy", "PESSIMISTIC"));
+        boolean useLedger = Boolean.parseBoolean(options.getOrDefault("ledger", "false"));
+        FulfilmentPolicy fulfilment = FulfilmentPolicy.valueOf(
+                options.getOrDefault("fulfilment", "ALL_OR_NOTHING"));
+
+        DatabaseConfig dbConfig = DatabaseConfig.getInstance();
+        PoolSettings poolSettings = new PoolSettings();
+        poolSettings.setMaxSize(Math.max(clients, 2));
+        dbConfig.setPoolSettings(poolSettings);
+
+        OrderPartitionMaintainer partitions = OrderPartitionMaintainer.fromSystemProperties();
+        partitions.start();
+        OrderService orderService = new OrderService();
+        orderService.setPartitionMaintainer(partitions);
+        orderService.setStockUpdateMode(mode);
+        orderService.setConcurrencyStrategy(strategy);
+        orderService.setFulfilmentPolicy(fulfilment);
+        if (useLedger) {
+            StockLedger ledger = new StockLedger();
+            ledger.load();
+            orderService.setStockLedger(ledger);
+        }
+
+        int[] productMix = parseProductMix(options.get("products"));
+        System.out.printf("🚀 LoadTest: clients=%d, orders/client=%d, mode=%s, strategy=%s, ledger=%s, fulfilment=%s, products=%d%n",
+                clients, ordersPerClient, mode, strategy, useLedger, fulfilment, productMix.length);
+
+        boolean ok = true;
+
+        // Phase 1: Hot SKU
+        if (hotSku > 0) {
+            ok &= runHotSkuRace(orderService, hotSku, hotRounds);
+        }
+
+        // Phase 2: Tải đồng thời
+        if (mode == StockUpdateMode.BUCKETED) {
+            if (hotSku > 0) {
+                setBuckets(hotSku, hotBuckets);
+            }
+            int rebalanced = new StockBucketRebalancer().rebalanceAll();
+            System.out.printf("%n🪣 Đã chia tồn kho vào bucket cho %d sản phẩm%n", rebalanced);
+        }
+        Map<Integer, Integer> stockBefore = loadStock();
+        int maxOrderIdBefore = queryInt("SELECT COALESCE(MAX(id), 0) FROM orders");
+
+        ClientResult total = runLoad(orderService, clients, ordersPerClient, maxItems, maxQty, productMix);
+        report(total);
+        System.out.println("  " + orderService.getStrategyStats(strategy));
+        System.out.println("  " + orderService.getMetrics());
+        System.out.print(orderService.getMetrics().formatPhases());
+        if (orderService.getStockLedger() != null) {
+            StockLedger ledger = orderService.getStockLedger();
+            System.out.printf("  Ledger           : %d giữ chỗ, %d từ chối sớm, %d hoàn lại%n",
+                    ledger.getReservedCount(), ledger.getRejectedCount(), ledger.getReleasedCount());
+        }
+
+        // Kiểm tra bất biến
+        ok &= verifyInvariant(stockBefore, maxOrderIdBefore);
+
+        System.out.println("\n🔌 " + dbConfig.getPoolStats());
+        partitions.stop();
+        dbConfig.shutdownPool();
+        System.exit(ok ? 0 : 1);
+    }
+
+    /**
+     * Phase 1: Kho còn đúng 1 sản phẩm, 2 client đặt cùng lúc
+     */
+    private static boolean runHotSkuRace(OrderService orderService, int productId, int rounds) throws Exception {
+        System.out.println("\n═══════════════════════════════════════════════════");
+        System.out.printf("🔥 Phase 1: Hot SKU - Product ID %d, %d lượt%n", productId, rounds);
+        System.out.println("═══════════════════════════════════════════════════");
+
+        int originalStock = loadStock().getOrDefault(productId, 0);
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        int violations = 0;
+
+        try {
+            for (int round = 1; round <= rounds; round++) {
+                setStock(orderService, productId, 1);
+                CyclicBarrier barrier = new CyclicBarrier(2);
+
+                List<Future<Boolean>> buyers = new ArrayList<>();
+                for (int i = 0; i < 2; i++) {
+                    buyers.add(pool.submit(() -> {
+                        Order order = new Order();
+                        order.addItem(productId, 1);
+                        barrier.await();
+                        try {
+                            orderService.createOrder(order);
+                            return true;
+                        } catch (Exception e) {
+                            return false;
+                        }
+                    }));
+                }
+
+                int winners = 0;
+                for (Future<Boolean> buyer : buyers) {
+                    if (buyer.get()) {
+                        winners++;
+                    }
+                }
+                int stockAfter = loadStock().get(productId);
+                if (winners != 1 || stockAfter != 0) {
+                    violations++;
+                    System.out.printf("  ✗ Lượt %d: %d người thắng, tồn kho = %d%n", round, winners, stockAfter);
+                }
+            }
+        } finally {
+            pool.shutdown();
+            setStock(orderService, productId, originalStock);
+        }
+
+        if (violations == 0) {
+            System.out.printf("✓ %d/%d lượt: đúng 1 người mua được, tồn kho = 0%n", rounds, rounds);
+        } else {
+            System.out.printf("❌ %d/%d lượt vi phạm%n", violations, rounds);
+        }
+        return violations == 0;
+    }
+
+    /**
+     * Phase 2: N client đồng thời, mỗi client đặt ordersPerClient đơn hàng
+     */
+    private static ClientResult runLoad(OrderService orderService, int clients, int ordersPerClient,
+            int maxItems, int maxQty, int[] productMix) throws Exception {
+        System.out.println("\n═══════════════════════════════════════════════════");
+        System.out.printf("📈 Phase 2: %d client × %d đơn hàng%n", clients, ordersPerClient);
+        System.out.println("═══════════════════════════════════════════════════");
+
+        ExecutorService pool = Executors.newFixedThreadPool(clients);
+        CyclicBarrier start = new CyclicBarrier(clients);
+        List<Future<ClientResult>> futures = new ArrayList<>();
+
+        long startNanos = System.nanoTime();
+        for (int c = 0; c < clients; c++) {
+            futures.add(pool.submit(() -> {
+                ClientResult result = new ClientResult(ordersPerClient);
+                start.await();
+                for (int i = 0; i < ordersPerClient; i++) {
+                    Order order = randomOrder(productMix, maxItems, maxQty);
+                    long t0 = System.nanoTime();
+                    try {
+                        orderService.createOrder(order);
+                        result.committed++;
+                        if (!order.isFullyFulfilled()) {
+                            result.partial++;
+                        }
+                    } catch (Exception e) {
+                        String message = String.valueOf(e.getMessage());
+                        if (message.contains(MSG_OUT_OF_STOCK)) {
+                            result.outOfStock++;
+                        } else {
+                            result.errors++;
+                        }
+                    }
+                    result.latencies[result.count++] = System.nanoTime() - t0;
+                }
+                return result;
+            }));
+        }
+
+        ClientResult total = new ClientResult(clients * ordersPerClient);
+        for (Future<ClientResult> future : futures) {
+            total.merge(future.get());
+        }
+        total.elapsedNanos = System.nanoTime() - startNanos;
+        pool.shutdown();
+        pool.awaitTermination(1, TimeUnit.MINUTES);
+        return total;
+    }
+
+    /**
+     * Đơn hàng ngẫu nhiên theo product mix (không trùng product trong một đơn)
+     */
+    private static Order randomOrder(int[] productMix, int maxItems, int maxQty) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int itemCount = random.nextInt(1, maxItems + 1);
+        Order order = new Order();
+        List<Integer> used = new ArrayList<>(itemCount);
+        for (int i = 0; i < itemCount; i++) {
+            int productId = productMix[random.nextInt(productMix.length)];
+            if (!used.contains(productId)) {
+                used.add(productId);
+                order.addItem(productId, random.nextInt(1, maxQty + 1));
+            }
+        }
+        return order;
+    }
+
+    private static void report(ClientResult total) {
+        long attempts = total.count;
+        double seconds = total.elapsedNanos / 1e9;
+        long[] latencies = Arrays.copyOf(total.latencies, total.count);
+        Arrays.sort(latencies);
+
+        System.out.printf("  Tổng số đơn hàng : %d (%.2f s)%n", attempts, seconds);
+        System.out.printf("  Commit           : %d (%d giao một phần)%n", total.committed, total.partial);
+        System.out.printf("  Rollback (hết hàng): %d%n", total.outOfStock);
+        System.out.printf("  Lỗi khác         : %d%n", total.errors);
+        System.out.printf("  Tỉ lệ rollback   : %.2f%%%n",
+                attempts == 0 ? 0 : 100.0 * (total.outOfStock + total.errors) / attempts);
+        System.out.printf("  Throughput       : %.1f commit/s, %.1f đơn/s%n",
+                total.committed / seconds, attempts / seconds);
+        System.out.printf("  Latency p50/p99/p999: %.2f / %.2f / %.2f ms%n",
+                percentile(latencies, 0.50), percentile(latencies, 0.99), percentile(latencies, 0.999));
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(index, 0)] / 1e6;
+    }
+
+    /**
+     * Tồn kho ban đầu = tồn kho hiện tại + tổng qty đã bán trong lượt chạy
+     */
+    private static boolean verifyInvariant(Map<Integer, Integer> stockBefore, int maxOrderIdBefore)
+            throws SQLException {
+        System.out.println("\n🔍 Kiểm tra bất biến tồn kho:");
+        Map<Integer, Integer> stockAfter = loadStock();
+        Map<Integer, Integer> sold = new HashMap<>();
+
+        String sql = "SELECT product_id, SUM(qty) FROM order_items WHERE order_id > ? GROUP BY product_id";
+        try (Connection conn = DatabaseConfig.getInstance().getConnection();
+                PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setInt(1, maxOrderIdBefore);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    sold.put(rs.getInt(1), rs.getInt(2));
+                }
+            }
+        }
+
+        int violations = 0;
+        for (Map.Entry<Integer, Integer> entry : stockBefore.entrySet()) {
+            int productId = entry.getKey();
+            int before = entry.getValue();
+            int after = stockAfter.getOrDefault(productId, 0);
+            int soldQty = sold.getOrDefault(productId, 0);
+            if (after < 0 || after + soldQty != before) {
+                violations++;
+                System.out.printf("  ✗ Product ID %d: ban đầu %d, còn %d, đã bán %d%n",
+                        productId, before, after, soldQty);
+            }
+        }
+
+        if (violations == 0) {
+            System.out.printf("✅ Không oversell, không lost update (%d product)%n", stockBefore.size());
+        } else {
+            System.out.printf("❌ %d product vi phạm bất biến%n", violations);
+        }
+        return violations == 0;
+    }
+
+    private static Map<Integer, Integer> loadStock() throws SQLException {
+        Map<Integer, Integer> stock = new LinkedHashMap<>();
+        try (Connection conn = DatabaseConfig.getInstance().getConnection();
+                Statement stmt = conn.createStatement();
+                ResultSet rs = stmt.executeQuery("SELECT id, stock FROM product_inventory ORDER BY id")) {
+            while (rs.next()) {
+                stock.put(rs.getInt("id"), rs.getInt("stock"));
+            }
+        }
+        return stock;
+    }
+
+    private static void setStock(OrderService orderService, int productId, int stock) throws SQLException {
+        // Gom tồn kho về dòng products (xóa bucket nếu có)
+        try (Connection conn = DatabaseConfig.getInstance().getConnection();
+                PreparedStatement pstmtBuckets = conn.prepareStatement(
+                        "DELETE FROM product_stock_buckets WHERE product_id = ?");
+                PreparedStatement pstmt = conn.prepareStatement("UPDATE products SET stock = ? WHERE id = ?")) {
+            pstmtBuckets.setInt(1, productId);
+            pstmtBuckets.executeUpdate();
+            pstmt.setInt(1, stock);
+            pstmt.setInt(2, productId);
+            pstmt.executeUpdate();
+        }
+        // Thay đổi tồn kho từ bên ngoài → đồng bộ lại ledger
+        if (orderService.getStockLedger() != null) {
+            orderService.getStockLedger().refresh(productId);
+        }
+    }
+
+    private static void setBuckets(int productId, int buckets) throws SQLException {
+        try (Connection conn = DatabaseConfig.getInstance().getConnection();
+                PreparedStatement pstmt = conn.prepareStatement(
+                        "UPDATE products SET stock_buckets = ? WHERE id = ?")) {
+            pstmt.setInt(1, buckets);
+            pstmt.setInt(2, productId);
+            pstmt.executeUpdate();
+        }
+    }
+
+    private static int queryInt(String sql) throws SQLException {
+        try (Connection conn = DatabaseConfig.getInstance().getConnection();
+                Statement stmt = conn.createStatement();
+                ResultSet rs = stmt.executeQuery(sql)) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+
+    /**
+     * Product mix dạng "id:trọng số,..." → mảng product ID lặp theo trọng số
+     */
+    private static int[] parseProductMix(String spec) throws SQLException {
+        List<Integer> mix = new ArrayList<>();
+        if (spec == null || spec.isBlank()) {
+            mix.addAll(loadStock().keySet());
+        } else {
+            for (String part : spec.split(",")) {
+                String[] pair = part.trim().split(":");
+                int productId = Integer.parseInt(pair[0]);
+                int weight = pair.length > 1 ? Integer.parseInt(pair[1]) : 1;
+                for (int i = 0; i < weight; i++) {
+                    mix.add(productId);
+                }
+            }
+        }
+        return mix.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private static Map<String, String> parseArgs(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (arg.startsWith("--") && arg.contains("=")) {
+                int eq = arg.indexOf('=');
+                options.put(arg.substring(2, eq), arg.substring(eq + 1));
+            }
+        }
+        return options;
+    }
+
+    /**
+     * Kết quả của một client (và tổng hợp của tất cả client)
+     */
+    private static final class ClientResult {
+        final long[] latencies;
+        int count;
+        long committed;
+        long partial;
+        long outOfStock;
+        long errors;
+        long elapsedNanos;
+
+        ClientResult(int capacity) {
+            this.latencies = new long[capacity];
+        }
+
+        void merge(ClientResult other) {
+            System.arraycopy(other.latencies, 0, latencies, count, other.count);
+            count += other.count;
+            committed += other.committed;
+            partial += other.partial;
+            outOfStock += other.outOfStock;
+            errors += other.errors;
+        }
+    }
+}
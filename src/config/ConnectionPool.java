@@ -0,0 +1,596 @@
+package config;
+
+import log.EventSink;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ConnectionPool - Pool kết nối có giới hạn (bounded) cho PostgreSQL
+ *
+ * Cơ chế:
+ * - Semaphore giới hạn số connection được mượn cùng lúc (borrow-timeout)
+ * - Connection rảnh nằm trong deque lock-free, mượn/trả theo LIFO để ưu
+ *   tiên connection "nóng"
+ * - Validate khi mượn (bỏ qua nếu connection vừa được dùng), loại bỏ
+ *   connection quá max-lifetime
+ * - Tạo sẵn minIdle connection rảnh khi khởi tạo; thread nền định kỳ đóng
+ *   connection rảnh quá idle-timeout và tạo bù cho đủ minIdle (không vượt maxSize)
+ * - Connection trả ra là proxy: gọi close() sẽ trả connection về pool
+ * - Mỗi connection giữ cache PreparedStatement theo SQL (LRU,
+ *   statementCacheSize): close() trên statement chỉ xóa tham số và giữ lại
+ *   để lần prepareStatement() sau dùng lại, không tạo lại statement và
+ *   đếm đủ số lần thực thi để driver chuyển sang server-side prepare.
+ *   SQL sinh động (số tham số thay đổi theo dữ liệu) dùng prepareUncached()
+ *   để không đẩy các statement dùng lại được ra khỏi cache
+ * - Mỗi lần mượn là một lease: statement của lease đã kết thúc bị đóng khi
+ *   trả connection, close() muộn trên statement đó không chạm vào cache
+ *   của người mượn sau
+ */
+public class ConnectionPool {
+
+    /**
+     * prepareStatement không qua cache statement của pool (prepareStatement
+     * có nhiều hơn một tham số không được cache), dùng cho SQL sinh động như
+     * VALUES (?, ?), (?, ?), ... có số dòng thay đổi theo đơn hàng
+     */
+    public static PreparedStatement prepareUncached(Connection conn, String sql) throws SQLException {
+        return conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+    }
+
+    /**
+     * Tạo connection vật lý mới (DriverManager, DataSource...)
+     */
+    @FunctionalInterface
+    public interface ConnectionFactory {
+        Connection create() throws SQLException;
+    }
+
+    private final ConnectionFactory factory;
+    private final PoolSettings settings;
+
+    private final Semaphore permits;
+    private final ConcurrentLinkedDeque<PooledEntry> idle = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger idleCount = new AtomicInteger();
+    private final AtomicInteger activeCount = new AtomicInteger();
+    private final AtomicInteger totalCount = new AtomicInteger();
+
+    private final LongAdder borrowCount = new LongAdder();
+    private final LongAdder timeoutCount = new LongAdder();
+    private final LongAdder totalWaitNanos = new LongAdder();
+    private final LongAccumulator maxWaitNanos = new LongAccumulator(Long::max, 0);
+    private final LongAdder statementHits = new LongAdder();
+    private final LongAdder statementMisses = new LongAdder();
+
+    private final ScheduledExecutorService housekeeper;
+    private volatile boolean shutdown;
+    private volatile EventSink eventSink = EventSink.noop();
+
+    public ConnectionPool(ConnectionFactory factory, PoolSettings settings) {
+        this.factory = factory;
+        this.settings = settings;
+        this.permits = new Semaphore(settings.getMaxSize());
+        this.housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "connection-pool-housekeeper");
+            t.setDaemon(true);
+            return t;
+        });
+        // Làm nóng pool; lỗi kết nối lúc này để housekeeper / borrow() thử lại
+        fillIdle();
+        long period = settings.getHousekeepingPeriodMs();
+        housekeeper.scheduleWithFixedDelay(this::housekeep, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Mượn một connection từ pool
+     *
+     * @return Connection proxy, gọi close() để trả về pool
+     * @throws SQLTimeoutException nếu chờ quá borrow-timeout
+     * @throws SQLException nếu pool đã đóng hoặc không tạo được connection
+     */
+    public Connection borrow() throws SQLException {
+        return borrow(settings.getBorrowTimeoutMs());
+    }
+
+    /**
+     * Mượn một connection, chờ tối đa timeoutMs (thay cho borrow-timeout,
+     * vd thời gian còn lại tới deadline của request)
+     */
+    public Connection borrow(long timeoutMs) throws SQLException {
+        if (shutdown) {
+            throw new SQLException("Pool đã bị đóng");
+        }
+
+        long start = System.nanoTime();
+        boolean acquired;
+        try {
+            acquired = permits.tryAcquire(Math.max(timeoutMs, 0), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Bị ngắt khi chờ connection từ pool", e);
+        }
+        long waited = System.nanoTime() - start;
+        totalWaitNanos.add(waited);
+        maxWaitNanos.accumulate(waited);
+
+        if (!acquired) {
+            timeoutCount.increment();
+            throw new SQLTimeoutException(String.format(
+                    "Hết thời gian chờ connection (%d ms) - active=%d, waiters=%d",
+                    timeoutMs, activeCount.get(), permits.getQueueLength()));
+        }
+
+        try {
+            PooledEntry entry = takeIdle();
+            if (entry == null) {
+                entry = new PooledEntry(factory.create());
+                totalCount.incrementAndGet();
+            }
+            activeCount.incrementAndGet();
+            borrowCount.increment();
+            return entry.newHandle();
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Lấy connection rảnh còn dùng được, đóng các connection hỏng/hết hạn
+     */
+    private PooledEntry takeIdle() {
+        PooledEntry entry;
+        while ((entry = idle.pollFirst()) != null) {
+            idleCount.decrementAndGet();
+            if (isUsable(entry)) {
+                return entry;
+            }
+            destroy(entry);
+        }
+        return null;
+    }
+
+    private boolean isUsable(PooledEntry entry) {
+        long now = System.currentTimeMillis();
+        if (now - entry.createdAt >= settings.getMaxLifetimeMs()) {
+            return false;
+        }
+        if (now - entry.lastUsedAt < settings.getValidationSkipMs()) {
+            return true;
+        }
+        try {
+            return entry.connection.isValid(settings.getValidationTimeoutSec());
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Trả connection về pool (gọi từ proxy khi close())
+     */
+    private void release(PooledEntry entry) {
+        activeCount.decrementAndGet();
+        entry.endLease();
+        try {
+            Connection conn = entry.connection;
+            if (shutdown || conn.isClosed()
+                    || System.currentTimeMillis() - entry.createdAt >= settings.getMaxLifetimeMs()) {
+                destroy(entry);
+                return;
+            }
+            resetState(entry);
+            entry.lastUsedAt = System.currentTimeMillis();
+            idle.offerFirst(entry);
+            idleCount.incrementAndGet();
+        } catch (SQLException e) {
+            destroy(entry);
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Đưa connection về trạng thái mặc định trước khi cho mượn lại
+     */
+    private void resetState(PooledEntry entry) throws SQLException {
+        Connection conn = entry.connection;
+        if (!conn.getAutoCommit()) {
+            conn.rollback();
+            conn.setAutoCommit(true);
+        }
+        if (entry.isolationChanged) {
+            conn.setTransactionIsolation(entry.defaultIsolation);
+            entry.isolationChanged = false;
+        }
+        if (entry.readOnlyChanged) {
+            conn.setReadOnly(false);
+            entry.readOnlyChanged = false;
+        }
+    }
+
+    private void destroy(PooledEntry entry) {
+        totalCount.decrementAndGet();
+        try {
+            entry.connection.close();
+        } catch (SQLException e) {
+            eventSink.warn("✗ Lỗi khi đóng connection của pool: %s", e.getMessage());
+        }
+    }
+
+    private void housekeep() {
+        evictIdle();
+        fillIdle();
+    }
+
+    /**
+     * Tạo connection rảnh cho đủ minIdle, tổng số connection không vượt maxSize
+     */
+    private void fillIdle() {
+        while (!shutdown && idleCount.get() < settings.getMinIdle()) {
+            int total = totalCount.get();
+            if (total >= settings.getMaxSize()) {
+                return;
+            }
+            if (!totalCount.compareAndSet(total, total + 1)) {
+                continue;
+            }
+            PooledEntry entry;
+            try {
+                entry = new PooledEntry(factory.create());
+            } catch (SQLException | RuntimeException e) {
+                totalCount.decrementAndGet();
+                eventSink.warn("✗ Không tạo được connection rảnh cho pool: %s", e.getMessage());
+                return;
+            }
+            // Cuối deque: borrow() vẫn ưu tiên connection vừa được dùng
+            idle.offerLast(entry);
+            idleCount.incrementAndGet();
+            if (shutdown && idle.remove(entry)) {
+                idleCount.decrementAndGet();
+                destroy(entry);
+            }
+        }
+    }
+
+    /**
+     * Đóng các connection rảnh quá idle-timeout hoặc quá max-lifetime
+     * (chạy định kỳ trên thread nền)
+     */
+    private void evictIdle() {
+        long now = System.currentTimeMillis();
+        Iterator<PooledEntry> it = idle.descendingIterator();
+        while (it.hasNext()) {
+            PooledEntry entry = it.next();
+            boolean expired = now - entry.createdAt >= settings.getMaxLifetimeMs();
+            boolean idleTooLong = now - entry.lastUsedAt >= settings.getIdleTimeoutMs()
+                    && idleCount.get() > settings.getMinIdle();
+            // remove() chỉ thành công nếu entry chưa bị thread khác mượn mất
+            if ((expired || idleTooLong) && idle.remove(entry)) {
+                idleCount.decrementAndGet();
+                destroy(entry);
+            }
+        }
+    }
+
+    /**
+     * Số liệu hiện tại của pool
+     */
+    public PoolStats getStats() {
+        return new PoolStats(
+                totalCount.get(),
+                activeCount.get(),
+                idleCount.get(),
+                permits.getQueueLength(),
+                borrowCount.sum(),
+                timeoutCount.sum(),
+                totalWaitNanos.sum(),
+                maxWaitNanos.get(),
+                statementHits.sum(),
+                statementMisses.sum());
+    }
+
+    public void setEventSink(EventSink eventSink) {
+        this.eventSink = eventSink;
+    }
+
+    public PoolSettings getSettings() {
+        return settings;
+    }
+
+    /**
+     * Đóng pool: đóng tất cả connection rảnh, connection đang mượn sẽ bị
+     * đóng khi được trả về
+     */
+    public void shutdown() {
+        shutdown = true;
+        housekeeper.shutdownNow();
+        PooledEntry entry;
+        while ((entry = idle.pollFirst()) != null) {
+            idleCount.decrementAndGet();
+            destroy(entry);
+        }
+    }
+
+    /**
+     * Connection vật lý cùng metadata của pool
+     */
+    private final class PooledEntry {
+        final Connection connection;
+        final long createdAt;
+        final int defaultIsolation;
+        volatile long lastUsedAt;
+        boolean isolationChanged;
+        boolean readOnlyChanged;
+        // Tăng (khi giữ lock của entry) mỗi lần cho mượn và mỗi lần trả;
+        // statements chỉ được đọc/ghi khi giữ lock của entry
+        private volatile long lease;
+        final LinkedHashMap<String, CachedStatement> statements;
+
+        PooledEntry(Connection connection) throws SQLException {
+            this.connection = connection;
+            this.createdAt = System.currentTimeMillis();
+            this.lastUsedAt = createdAt;
+            this.defaultIsolation = connection.getTransactionIsolation();
+            int cacheSize = settings.getStatementCacheSize();
+            this.statements = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CachedStatement> eldest) {
+                    if (size() <= cacheSize) {
+                        return false;
+                    }
+                    CachedStatement cached = eldest.getValue();
+                    if (cached.inUse) {
+                        cached.evicted = true; // đóng khi caller close()
+                    } else {
+                        closeQuietly(cached.statement);
+                    }
+                    return true;
+                }
+            };
+        }
+
+        /**
+         * prepareStatement(sql) qua cache: dùng lại statement rảnh cùng SQL,
+         * nếu statement đó đang được dùng thì tạo statement riêng (không cache)
+         */
+        synchronized PreparedStatement prepareCached(String sql, ConnectionHandle handle, Connection proxy)
+                throws SQLException {
+            CachedStatement cached = statements.get(sql);
+            if (cached != null && !cached.inUse) {
+                statementHits.increment();
+            } else if (cached != null) {
+                statementMisses.increment();
+                return connection.prepareStatement(sql);
+            } else {
+                statementMisses.increment();
+                cached = new CachedStatement(sql, connection.prepareStatement(sql));
+                statements.put(sql, cached);
+            }
+            cached.inUse = true;
+            return (PreparedStatement) Proxy.newProxyInstance(
+                    PreparedStatement.class.getClassLoader(),
+                    new Class<?>[] { PreparedStatement.class },
+                    new StatementHandle(this, cached, proxy, handle.lease));
+        }
+
+        /**
+         * Caller close() statement: xóa tham số/batch rồi giữ lại trong cache.
+         * Statement bị đổi cấu hình (fetch size...) hoặc đã bị đẩy khỏi cache thì đóng hẳn.
+         * Lease đã kết thúc: statement đã bị đóng khi trả connection, bỏ qua.
+         */
+        synchronized void returnStatement(CachedStatement cached, long statementLease) {
+            if (statementLease != lease) {
+                return;
+            }
+            cached.inUse = false;
+            if (cached.dirty || cached.evicted) {
+                if (!cached.evicted) {
+                    statements.remove(cached.sql);
+                }
+                closeQuietly(cached.statement);
+                return;
+            }
+            try {
+                ResultSet rs = cached.statement.getResultSet();
+                if (rs != null) {
+                    rs.close();
+                }
+                cached.statement.clearParameters();
+                cached.statement.clearBatch();
+                cached.statement.clearWarnings();
+            } catch (SQLException e) {
+                statements.remove(cached.sql);
+                closeQuietly(cached.statement);
+            }
+        }
+
+        boolean isLeaseActive(long statementLease) {
+            return statementLease == lease;
+        }
+
+        /**
+         * Kết thúc lease hiện tại (trả connection); statement caller quên
+         * close() bị đóng hẳn
+         */
+        synchronized void endLease() {
+            lease++;
+            Iterator<CachedStatement> it = statements.values().iterator();
+            while (it.hasNext()) {
+                CachedStatement cached = it.next();
+                if (cached.inUse) {
+                    it.remove();
+                    closeQuietly(cached.statement);
+                }
+            }
+        }
+
+        Connection newHandle() {
+            long handleLease;
+            synchronized (this) {
+                handleLease = ++lease;
+            }
+            return (Connection) Proxy.newProxyInstance(
+                    Connection.class.getClassLoader(),
+                    new Class<?>[] { Connection.class },
+                    new ConnectionHandle(this, handleLease));
+        }
+    }
+
+    private void closeQuietly(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            eventSink.warn("✗ Lỗi khi đóng statement: %s", e.getMessage());
+        }
+    }
+
+    /**
+     * PreparedStatement trong cache của một connection
+     */
+    private static final class CachedStatement {
+        final String sql;
+        final PreparedStatement statement;
+        boolean inUse;
+        boolean dirty;
+        boolean evicted;
+
+        CachedStatement(String sql, PreparedStatement statement) {
+            this.sql = sql;
+            this.statement = statement;
+        }
+    }
+
+    /**
+     * Proxy cho statement lấy từ cache: close() trả statement về cache
+     */
+    private static final class StatementHandle implements InvocationHandler {
+        private final PooledEntry entry;
+        private final CachedStatement cached;
+        private final Connection connectionHandle;
+        private final long lease;
+        private boolean closed;
+
+        StatementHandle(PooledEntry entry, CachedStatement cached, Connection connectionHandle, long lease) {
+            this.entry = entry;
+            this.cached = cached;
+            this.connectionHandle = connectionHandle;
+            this.lease = lease;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!closed) {
+                        closed = true;
+                        entry.returnStatement(cached, lease);
+                    }
+                    return null;
+                case "isClosed":
+                    return closed || !entry.isLeaseActive(lease) || cached.statement.isClosed();
+                case "getConnection":
+                    return connectionHandle;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Cached[" + cached.statement + "]";
+                case "setFetchSize":
+                case "setFetchDirection":
+                case "setMaxRows":
+                case "setMaxFieldSize":
+                case "setQueryTimeout":
+                case "setEscapeProcessing":
+                case "setPoolable":
+                case "closeOnCompletion":
+                    // Đổi cấu hình statement: không dùng lại cho caller khác
+                    cached.dirty = true;
+                    break;
+                default:
+                    break;
+            }
+            if (closed || !entry.isLeaseActive(lease)) {
+                throw new SQLException("Statement đã được đóng");
+            }
+            try {
+                return method.invoke(cached.statement, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+    /**
+     * Proxy cho connection đã mượn: close() trả về pool thay vì đóng thật
+     */
+    private final class ConnectionHandle implements InvocationHandler {
+        private final PooledEntry entry;
+        private final long lease;
+        private boolean closed;
+
+        ConnectionHandle(PooledEntry entry, long lease) {
+            this.entry = entry;
+            this.lease = lease;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!closed) {
+                        closed = true;
+                        release(entry);
+                    }
+                    return null;
+                case "isClosed":
+                    return closed || entry.connection.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Pooled[" + entry.connection + "]";
+                case "setTransactionIsolation":
+                    entry.isolationChanged = true;
+                    break;
+                case "setReadOnly":
+                    entry.readOnlyChanged = true;
+                    break;
+                case "prepareStatement":
+                    if (!closed && args.length == 1 && settings.getStatementCacheSize() > 0) {
+                        return entry.prepareCached((String) args[0], this, (Connection) proxy);
+                    }
+                    break;
+                default:
+                    break;
+            }
+            if (closed) {
+                throw new SQLException("Connection đã được trả về pool");
+            }
+            try {
+                return method.invoke(entry.connection, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
@@ -1,33 +1,96 @@
 package config;
 
+import log.AsyncEventSink;
+import log.ConsoleEventSink;
+import log.EventSink;
+import log.Level;
+
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * DatabaseConfig - Quản lý kết nối đến PostgreSQL Database
  * 
  * Singleton pattern để đảm bảo chỉ có một instance duy nhất
+ * 
+ * Mặc định dùng ConnectionPool (pooled mode): getConnection() mượn connection
+ * từ pool, close()/closeConnection() trả connection về pool.
+ * 
+ * EventSink dùng chung cho DatabaseConfig và OrderService. Mặc định chỉ ghi
+ * WARN/ERROR ra console qua thread nền (không chặn transaction).
+ * 
+ * Read replica (tùy chọn, -Ddb.replicas=url1,url2): getReadConnection() lấy
+ * connection từ các replica theo round-robin (mỗi replica một pool riêng),
+ * replica lỗi kết nối hoặc trễ quá replicaMaxLagMillis thì dùng replica kế
+ * tiếp, hết replica thì dùng primary. getConnection() luôn là primary.
  */
 public class DatabaseConfig {
     
-    // Database connection parameters
-    private static final String URL = "jdbc:postgresql://localhost:5432/order_system";
-    private static final String USER = "postgres";
-    private static final String PASSWORD = "whYlonElY0!";
+    // Database connection parameters (ghi đè bằng -Ddb.url, -Ddb.user, -Ddb.password)
+    private static final String URL = System.getProperty("db.url", "jdbc:postgresql://localhost:5432/order_system");
+    private static final String USER = System.getProperty("db.user", "postgres");
+    private static final String PASSWORD = System.getProperty("db.password", "whYlonElY0!");
+    
+    // Read replica: danh sách URL cách nhau bởi dấu phẩy (cùng user/password với primary)
+    private static final String REPLICA_URLS = System.getProperty("db.replicas", "");
+    // Độ trễ tối đa cho phép của replica (0 = không kiểm tra)
+    private static final long REPLICA_MAX_LAG_MS = Long.getLong("db.replica.maxLagMs", 0);
+    
+    // Replica lỗi kết nối bị bỏ qua trong khoảng này rồi mới thử lại
+    private static final long REPLICA_RETRY_MS = 5_000;
+    // Đo lại độ trễ của replica sau mỗi khoảng này
+    private static final long REPLICA_LAG_CHECK_MS = 1_000;
+    
+    // Độ trễ replay (ms): 0 nếu không phải standby, hoặc WAL receiver đang
+    // chạy và đã replay hết WAL nhận được; còn lại là thời gian từ transaction
+    // replay gần nhất. NULL nếu standby không có WAL receiver (mất kết nối
+    // tới primary: receive LSN đứng yên nên "đã replay hết" không có nghĩa gì)
+    // hoặc chưa replay transaction nào. Không có quyền pg_read_all_stats thì
+    // status của pg_stat_wal_receiver là NULL: chỉ dựa vào việc có receiver
+    private static final String SQL_REPLICA_LAG =
+            "SELECT CASE WHEN NOT pg_is_in_recovery() THEN 0"
+            + " WHEN NOT EXISTS (SELECT 1 FROM pg_stat_wal_receiver"
+            + " WHERE COALESCE(status, 'streaming') = 'streaming') THEN NULL"
+            + " WHEN pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0"
+            + " ELSE EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()) * 1000"
+            + " END::bigint";
     
     // Singleton instance
     private static DatabaseConfig instance;
     
+    // Pooled mode
+    private volatile boolean poolingEnabled = true;
+    private volatile PoolSettings poolSettings = new PoolSettings();
+    private volatile ConnectionPool pool;
+    
+    // Read replica
+    private volatile List<Replica> replicas = createReplicas(REPLICA_URLS.split(","));
+    private volatile long replicaMaxLagMillis = REPLICA_MAX_LAG_MS;
+    private final AtomicInteger nextReplica = new AtomicInteger();
+    private final LongAdder replicaReads = new LongAdder();
+    private final LongAdder primaryFallbacks = new LongAdder();
+    
+    // Log/event sink
+    private volatile EventSink eventSink = new AsyncEventSink(new ConsoleEventSink(Level.WARN), 8192);
+    
     // Private constructor để ngăn khởi tạo từ bên ngoài
     private DatabaseConfig() {
         try {
             // Load PostgreSQL JDBC Driver
             Class.forName("org.postgresql.Driver");
-            System.out.println("✓ PostgreSQL JDBC Driver đã được load");
+            eventSink.info("✓ PostgreSQL JDBC Driver đã được load");
         } catch (ClassNotFoundException e) {
-            System.err.println("✗ Không tìm thấy PostgreSQL JDBC Driver");
-            e.printStackTrace();
+            eventSink.error("✗ Không tìm thấy PostgreSQL JDBC Driver: %s", e);
         }
     }
     
@@ -46,19 +109,270 @@ public class DatabaseConfig {
     }
     
     /**
-     * Tạo connection mới đến database
+     * Lấy connection đến database
+     * 
+     * Pooled mode: mượn connection từ pool (chờ tối đa borrow-timeout).
+     * Ngược lại: tạo connection mới qua DriverManager.
      * 
      * @return Connection object
      * @throws SQLException nếu không thể kết nối
      */
     public Connection getConnection() throws SQLException {
-        Connection conn = DriverManager.getConnection(URL, USER, PASSWORD);
-        System.out.println("✓ Kết nối database thành công: " + URL);
+        if (poolingEnabled) {
+            return getPool().borrow();
+        }
+        Connection conn = createPhysicalConnection();
+        eventSink.debug("✓ Kết nối database thành công: %s", URL);
         return conn;
     }
+
+    /**
+     * Lấy connection, chờ pool tối đa timeoutMillis thay cho borrow-timeout
+     * (request có deadline không nên chờ connection lâu hơn thời gian còn lại)
+     * 
+     * @throws java.sql.SQLTimeoutException nếu chờ quá timeoutMillis
+     */
+    public Connection getConnection(long timeoutMillis) throws SQLException {
+        if (poolingEnabled) {
+            return getPool().borrow(timeoutMillis);
+        }
+        return getConnection();
+    }
+    
+    /**
+     * Lấy connection cho câu lệnh chỉ đọc
+     * 
+     * Có replica: thử lần lượt từ replica kế tiếp (round-robin), bỏ qua
+     * replica đang lỗi hoặc trễ quá replicaMaxLagMillis; không replica nào
+     * dùng được thì trả connection của primary. Dữ liệu trên replica có thể
+     * chưa có các transaction vừa commit trên primary.
+     * 
+     * @return Connection object (close() trả về pool tương ứng)
+     * @throws SQLException nếu không thể kết nối tới primary
+     */
+    public Connection getReadConnection() throws SQLException {
+        List<Replica> current = replicas;
+        int count = current.size();
+        if (count > 0) {
+            int start = Math.floorMod(nextReplica.getAndIncrement(), count);
+            for (int i = 0; i < count; i++) {
+                Connection conn = tryReplica(current.get((start + i) % count));
+                if (conn != null) {
+                    replicaReads.increment();
+                    return conn;
+                }
+            }
+            primaryFallbacks.increment();
+        }
+        return getConnection();
+    }
+    
+    /**
+     * Connection tới replica, null nếu replica đang lỗi / trễ quá giới hạn
+     */
+    private Connection tryReplica(Replica replica) {
+        long now = System.currentTimeMillis();
+        if (now < replica.unavailableUntil) {
+            return null;
+        }
+        long maxLag = replicaMaxLagMillis;
+        boolean lagCheckDue = maxLag > 0 && now - replica.lagCheckedAt >= REPLICA_LAG_CHECK_MS;
+        if (maxLag > 0 && !lagCheckDue && replica.lagMillis > maxLag) {
+            return null;
+        }
+
+        Connection conn = null;
+        try {
+            conn = replica.connect();
+            if (lagCheckDue) {
+                try (Statement stmt = conn.createStatement();
+                        ResultSet rs = stmt.executeQuery(SQL_REPLICA_LAG)) {
+                    rs.next();
+                    long lag = rs.getLong(1);
+                    // Không đo được (standby không nhận WAL): coi như trễ vô hạn
+                    replica.lagMillis = rs.wasNull() ? Long.MAX_VALUE : lag;
+                }
+                replica.lagCheckedAt = now;
+                if (replica.lagMillis == Long.MAX_VALUE) {
+                    eventSink.warn("⚠ Replica %s không nhận WAL từ primary, đọc từ nơi khác", replica.url);
+                    conn.close();
+                    return null;
+                }
+                if (replica.lagMillis > maxLag) {
+                    eventSink.warn("⚠ Replica %s trễ %d ms (tối đa %d ms), đọc từ nơi khác",
+                            replica.url, replica.lagMillis, maxLag);
+                    conn.close();
+                    return null;
+                }
+            }
+            return conn;
+        } catch (SQLException e) {
+            if (e instanceof SQLTimeoutException) {
+                // Pool của replica đang bận hết (replica vẫn sống): chỉ đọc từ nơi khác lần này
+                eventSink.warn("⚠ Replica %s: %s, đọc từ nơi khác", replica.url, e.getMessage());
+            } else {
+                // Lỗi kết nối / connection không dùng được / lỗi khi kiểm tra lag
+                replica.unavailableUntil = now + REPLICA_RETRY_MS;
+                eventSink.warn("✗ Không dùng được replica %s, thử lại sau %d ms: %s",
+                        replica.url, REPLICA_RETRY_MS, e.getMessage());
+            }
+            if (conn != null) {
+                try {
+                    conn.close();
+                } catch (SQLException closeEx) {
+                    // Connection hỏng, pool tự loại bỏ
+                }
+            }
+            return null;
+        }
+    }
+    
+    /**
+     * Connection riêng không qua pool, caller tự đóng
+     * 
+     * Dùng cho connection giữ lâu dài (VD: LISTEN của ProductCache) để không
+     * chiếm chỗ của các transaction trong pool.
+     */
+    public Connection openDedicatedConnection() throws SQLException {
+        return createPhysicalConnection();
+    }
+    
+    /**
+     * Tạo connection vật lý mới (không qua pool)
+     */
+    private Connection createPhysicalConnection() throws SQLException {
+        return createPhysicalConnection(URL);
+    }
+    
+    private Connection createPhysicalConnection(String url) throws SQLException {
+        Properties props = new Properties();
+        props.setProperty("user", USER);
+        props.setProperty("password", PASSWORD);
+        props.setProperty("prepareThreshold", String.valueOf(poolSettings.getPrepareThreshold()));
+        return DriverManager.getConnection(url, props);
+    }
+    
+    /**
+     * Lấy pool, khởi tạo lazy ở lần gọi đầu tiên
+     */
+    private ConnectionPool getPool() {
+        ConnectionPool p = pool;
+        if (p == null) {
+            synchronized (this) {
+                p = pool;
+                if (p == null) {
+                    p = new ConnectionPool(this::createPhysicalConnection, poolSettings);
+                    p.setEventSink(eventSink);
+                    pool = p;
+                    eventSink.info("✓ Đã khởi tạo connection pool: %s", poolSettings);
+                }
+            }
+        }
+        return p;
+    }
+    
+    /**
+     * Bật/tắt pooled mode. Tắt pooled mode sẽ đóng pool hiện tại.
+     */
+    public void setPoolingEnabled(boolean enabled) {
+        this.poolingEnabled = enabled;
+        if (!enabled) {
+            shutdownPool();
+        }
+    }
+    
+    public boolean isPoolingEnabled() {
+        return poolingEnabled;
+    }
+    
+    public PoolSettings getPoolSettings() {
+        return poolSettings;
+    }
+    
+    /**
+     * Thay đổi cấu hình pool. Pool hiện tại (nếu có) được đóng và sẽ được
+     * tạo lại với cấu hình mới ở lần getConnection() tiếp theo.
+     */
+    public void setPoolSettings(PoolSettings settings) {
+        this.poolSettings = settings;
+        shutdownPool();
+    }
+    
+    /**
+     * Số liệu của pool (active, idle, waiters, thời gian chờ)
+     * 
+     * @return PoolStats, hoặc null nếu pool chưa được khởi tạo
+     */
+    public PoolStats getPoolStats() {
+        ConnectionPool p = pool;
+        return p != null ? p.getStats() : null;
+    }
+    
+    /**
+     * Đóng pool và tất cả connection rảnh (cả pool của các replica)
+     */
+    public synchronized void shutdownPool() {
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+        for (Replica replica : replicas) {
+            replica.shutdown();
+        }
+    }
+    
+    /**
+     * Thay danh sách replica (rỗng = mọi câu lệnh đọc dùng primary)
+     */
+    public synchronized void setReplicaUrls(List<String> urls) {
+        List<Replica> old = replicas;
+        replicas = createReplicas(urls.toArray(new String[0]));
+        for (Replica replica : old) {
+            replica.shutdown();
+        }
+    }
+    
+    public List<String> getReplicaUrls() {
+        List<String> urls = new ArrayList<>();
+        for (Replica replica : replicas) {
+            urls.add(replica.url);
+        }
+        return urls;
+    }
+    
+    public long getReplicaMaxLagMillis() {
+        return replicaMaxLagMillis;
+    }
     
     /**
-     * Đóng connection
+     * Độ trễ tối đa của replica, đo lại mỗi REPLICA_LAG_CHECK_MS (0 = không kiểm tra)
+     */
+    public void setReplicaMaxLagMillis(long replicaMaxLagMillis) {
+        this.replicaMaxLagMillis = replicaMaxLagMillis;
+    }
+    
+    // Số lần getReadConnection() trả connection của replica
+    public long getReplicaReadCount() {
+        return replicaReads.sum();
+    }
+    
+    // Số lần getReadConnection() không có replica nào dùng được, phải đọc từ primary
+    public long getPrimaryFallbackCount() {
+        return primaryFallbacks.sum();
+    }
+    
+    private List<Replica> createReplicas(String[] urls) {
+        List<Replica> result = new ArrayList<>();
+        for (String url : urls) {
+            if (!url.isBlank()) {
+                result.add(new Replica(url.trim()));
+            }
+        }
+        return Collections.unmodifiableList(result);
+    }
+    
+    /**
+     * Đóng connection (pooled mode: trả connection về pool)
      * 
      * @param conn Connection cần đóng
      */
@@ -66,9 +380,11 @@ public class DatabaseConfig {
         if (conn != null) {
             try {
                 conn.close();
-                System.out.println("✓ Đã đóng kết nối database");
+                eventSink.debug(poolingEnabled
+                        ? "✓ Đã trả kết nối về pool"
+                        : "✓ Đã đóng kết nối database");
             } catch (SQLException e) {
-                System.err.println("✗ Lỗi khi đóng kết nối: " + e.getMessage());
+                eventSink.error("✗ Lỗi khi đóng kết nối: %s", e.getMessage());
             }
         }
     }
@@ -82,11 +398,32 @@ public class DatabaseConfig {
         try (Connection conn = getConnection()) {
             return conn != null && !conn.isClosed();
         } catch (SQLException e) {
-            System.err.println("✗ Kiểm tra kết nối thất bại: " + e.getMessage());
+            eventSink.error("✗ Kiểm tra kết nối thất bại: %s", e.getMessage());
             return false;
         }
     }
     
+    public EventSink getEventSink() {
+        return eventSink;
+    }
+    
+    /**
+     * Thay đổi sink nhận log/event (VD: ConsoleEventSink cho Demo)
+     */
+    public void setEventSink(EventSink eventSink) {
+        this.eventSink = eventSink;
+        ConnectionPool p = pool;
+        if (p != null) {
+            p.setEventSink(eventSink);
+        }
+        for (Replica replica : replicas) {
+            ConnectionPool rp = replica.pool;
+            if (rp != null) {
+                rp.setEventSink(eventSink);
+            }
+        }
+    }
+    
     // Getters cho các thông tin cấu hình
     public String getUrl() {
         return URL;
@@ -95,4 +432,45 @@ public class DatabaseConfig {
     public String getUser() {
         return USER;
     }
+    
+    /**
+     * Một read replica: pool riêng (tạo lazy) và trạng thái lỗi / độ trễ gần nhất
+     */
+    private final class Replica {
+        final String url;
+        volatile ConnectionPool pool;
+        volatile long unavailableUntil;
+        volatile long lagCheckedAt;
+        volatile long lagMillis;
+        
+        Replica(String url) {
+            this.url = url;
+        }
+        
+        Connection connect() throws SQLException {
+            if (!poolingEnabled) {
+                return createPhysicalConnection(url);
+            }
+            ConnectionPool p = pool;
+            if (p == null) {
+                synchronized (this) {
+                    p = pool;
+                    if (p == null) {
+                        p = new ConnectionPool(() -> createPhysicalConnection(url), poolSettings);
+                        p.setEventSink(eventSink);
+                        pool = p;
+                        eventSink.info("✓ Đã khởi tạo connection pool cho replica %s", url);
+                    }
+                }
+            }
+            return p.borrow();
+        }
+        
+        synchronized void shutdown() {
+            if (pool != null) {
+                pool.shutdown();
+                pool = null;
+            }
+        }
+    }
 }
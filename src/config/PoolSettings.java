@@ -0,0 +1,118 @@
+package config;
+
+/**
+ * PoolSettings - Cấu hình cho ConnectionPool
+ *
+ * Giá trị mặc định phù hợp cho môi trường dev; chỉnh lại theo số liệu
+ * từ PoolStats khi chạy thật.
+ */
+public class PoolSettings {
+    private int maxSize = 10;
+    // Số connection rảnh được tạo sẵn và giữ lại (không vượt maxSize)
+    private int minIdle = 2;
+    private long borrowTimeoutMs = 5_000;
+    private long idleTimeoutMs = 10 * 60_000;
+    private long maxLifetimeMs = 30 * 60_000;
+    private int validationTimeoutSec = 2;
+    // Bỏ qua validate nếu connection vừa được dùng trong khoảng này
+    private long validationSkipMs = 500;
+    private long housekeepingPeriodMs = 30_000;
+    // Số PreparedStatement giữ lại trên mỗi connection (0 = tắt cache)
+    private int statementCacheSize = 32;
+    // Số lần thực thi trước khi driver chuyển sang server-side prepare (prepareThreshold của pgjdbc)
+    private int prepareThreshold = 5;
+
+    // Constructor rỗng (dùng giá trị mặc định)
+    public PoolSettings() {
+    }
+
+    // Getters and Setters
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public int getMinIdle() {
+        return minIdle;
+    }
+
+    public void setMinIdle(int minIdle) {
+        this.minIdle = minIdle;
+    }
+
+    public long getBorrowTimeoutMs() {
+        return borrowTimeoutMs;
+    }
+
+    public void setBorrowTimeoutMs(long borrowTimeoutMs) {
+        this.borrowTimeoutMs = borrowTimeoutMs;
+    }
+
+    public long getIdleTimeoutMs() {
+        return idleTimeoutMs;
+    }
+
+    public void setIdleTimeoutMs(long idleTimeoutMs) {
+        this.idleTimeoutMs = idleTimeoutMs;
+    }
+
+    public long getMaxLifetimeMs() {
+        return maxLifetimeMs;
+    }
+
+    public void setMaxLifetimeMs(long maxLifetimeMs) {
+        this.maxLifetimeMs = maxLifetimeMs;
+    }
+
+    public int getValidationTimeoutSec() {
+        return validationTimeoutSec;
+    }
+
+    public void setValidationTimeoutSec(int validationTimeoutSec) {
+        this.validationTimeoutSec = validationTimeoutSec;
+    }
+
+    public long getValidationSkipMs() {
+        return validationSkipMs;
+    }
+
+    public void setValidationSkipMs(long validationSkipMs) {
+        this.validationSkipMs = validationSkipMs;
+    }
+
+    public long getHousekeepingPeriodMs() {
+        return housekeepingPeriodMs;
+    }
+
+    public void setHousekeepingPeriodMs(long housekeepingPeriodMs) {
+        this.housekeepingPeriodMs = housekeepingPeriodMs;
+    }
+
+    public int getStatementCacheSize() {
+        return statementCacheSize;
+    }
+
+    public void setStatementCacheSize(int statementCacheSize) {
+        this.statementCacheSize = statementCacheSize;
+    }
+
+    public int getPrepareThreshold() {
+        return prepareThreshold;
+    }
+
+    public void setPrepareThreshold(int prepareThreshold) {
+        this.prepareThreshold = prepareThreshold;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "PoolSettings[maxSize=%d, minIdle=%d, borrowTimeoutMs=%d, idleTimeoutMs=%d, maxLifetimeMs=%d, "
+                        + "statementCacheSize=%d, prepareThreshold=%d]",
+                maxSize, minIdle, borrowTimeoutMs, idleTimeoutMs, maxLifetimeMs,
+                statementCacheSize, prepareThreshold);
+    }
+}
@@ -0,0 +1,96 @@
+package config;
+
+/**
+ * PoolStats - Ảnh chụp (snapshot) số liệu của ConnectionPool tại một thời điểm
+ *
+ * Dùng để sizing pool: nếu waiters và thời gian chờ cao thì tăng maxSize,
+ * nếu idle luôn cao thì giảm.
+ */
+public class PoolStats {
+    private final int total;
+    private final int active;
+    private final int idle;
+    private final int waiters;
+    private final long borrowCount;
+    private final long timeoutCount;
+    private final long totalWaitNanos;
+    private final long maxWaitNanos;
+    private final long statementCacheHits;
+    private final long statementCacheMisses;
+
+    public PoolStats(int total, int active, int idle, int waiters,
+            long borrowCount, long timeoutCount, long totalWaitNanos, long maxWaitNanos,
+            long statementCacheHits, long statementCacheMisses) {
+        this.total = total;
+        this.active = active;
+        this.idle = idle;
+        this.waiters = waiters;
+        this.borrowCount = borrowCount;
+        this.timeoutCount = timeoutCount;
+        this.totalWaitNanos = totalWaitNanos;
+        this.maxWaitNanos = maxWaitNanos;
+        this.statementCacheHits = statementCacheHits;
+        this.statementCacheMisses = statementCacheMisses;
+    }
+
+    // Getters
+    public int getTotal() {
+        return total;
+    }
+
+    public int getActive() {
+        return active;
+    }
+
+    public int getIdle() {
+        return idle;
+    }
+
+    public int getWaiters() {
+        return waiters;
+    }
+
+    public long getBorrowCount() {
+        return borrowCount;
+    }
+
+    public long getTimeoutCount() {
+        return timeoutCount;
+    }
+
+    public double getTotalWaitMillis() {
+        return totalWaitNanos / 1_000_000.0;
+    }
+
+    public double getMaxWaitMillis() {
+        return maxWaitNanos / 1_000_000.0;
+    }
+
+    // Thời gian chờ trung bình cho mỗi lần mượn connection
+    public double getAvgWaitMillis() {
+        return borrowCount == 0 ? 0 : getTotalWaitMillis() / borrowCount;
+    }
+
+    // prepareStatement() lấy được statement đã prepare sẵn trên connection
+    public long getStatementCacheHits() {
+        return statementCacheHits;
+    }
+
+    public long getStatementCacheMisses() {
+        return statementCacheMisses;
+    }
+
+    public double getStatementCacheHitRatio() {
+        long total = statementCacheHits + statementCacheMisses;
+        return total == 0 ? 0 : (double) statementCacheHits / total;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "PoolStats[total=%d, active=%d, idle=%d, waiters=%d, borrows=%d, timeouts=%d, avgWait=%.3fms, maxWait=%.3fms, "
+                        + "stmtCacheHit=%.1f%%]",
+                total, active, idle, waiters, borrowCount, timeoutCount, getAvgWaitMillis(), getMaxWaitMillis(),
+                getStatementCacheHitRatio() * 100);
+    }
+}
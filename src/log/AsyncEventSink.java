@@ -0,0 +1,95 @@
+package log;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * AsyncEventSink - Chuyển event sang thread nền qua ring buffer có giới hạn
+ *
+ * Thread gọi (đang giữ transaction/row lock) chỉ đặt event vào buffer, việc
+ * format và I/O do thread nền thực hiện qua sink bên trong. Khi buffer đầy,
+ * event bị bỏ (và được đếm) thay vì chặn transaction.
+ */
+public class AsyncEventSink implements EventSink {
+
+    private final EventSink delegate;
+    private final BlockingQueue<Event> buffer;
+    private final Thread writer;
+    private final LongAdder droppedCount = new LongAdder();
+    private volatile boolean running = true;
+
+    /**
+     * @param delegate Sink thực sự ghi event (chạy trên thread nền)
+     * @param capacity Số event tối đa đang chờ ghi
+     */
+    public AsyncEventSink(EventSink delegate, int capacity) {
+        this.delegate = delegate;
+        this.buffer = new ArrayBlockingQueue<>(capacity);
+        this.writer = new Thread(this::drainLoop, "async-event-sink");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    @Override
+    public boolean isEnabled(Level level) {
+        return delegate.isEnabled(level);
+    }
+
+    @Override
+    public void write(Level level, String format, Object[] args) {
+        if (!buffer.offer(new Event(level, format, args))) {
+            droppedCount.increment();
+        }
+    }
+
+    private void drainLoop() {
+        while (running || !buffer.isEmpty()) {
+            try {
+                Event event = buffer.poll(100, TimeUnit.MILLISECONDS);
+                if (event != null) {
+                    delegate.write(event.level, event.format, event.args);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                // Lỗi format/I/O không được làm chết thread ghi log
+                System.err.println("✗ Lỗi khi ghi event: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Ghi nốt các event còn trong buffer rồi dừng thread nền
+     */
+    public void close() throws InterruptedException {
+        running = false;
+        writer.join();
+    }
+
+    // Số event bị bỏ do buffer đầy
+    public long getDroppedCount() {
+        return droppedCount.sum();
+    }
+
+    public int getPendingCount() {
+        return buffer.size();
+    }
+
+    /**
+     * Event chưa format, format trên thread nền
+     */
+    private static final class Event {
+        final Level level;
+        final String format;
+        final Object[] args;
+
+        Event(Level level, String format, Object[] args) {
+            this.level = level;
+            this.format = format;
+            this.args = args;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package log;
+
+/**
+ * ConsoleEventSink - Ghi event ra console một cách đồng bộ
+ *
+ * DEBUG/INFO ra System.out, WARN/ERROR ra System.err, giữ nguyên
+ * message tiếng Việt như output của Demo. Không nên dùng trực tiếp trên
+ * production (I/O đồng bộ trong transaction) - hãy bọc bằng AsyncEventSink.
+ */
+public class ConsoleEventSink implements EventSink {
+
+    private final Level threshold;
+
+    // Mặc định ghi tất cả (dùng cho Demo)
+    public ConsoleEventSink() {
+        this(Level.DEBUG);
+    }
+
+    public ConsoleEventSink(Level threshold) {
+        this.threshold = threshold;
+    }
+
+    @Override
+    public boolean isEnabled(Level level) {
+        return level.isAtLeast(threshold);
+    }
+
+    @Override
+    public void write(Level level, String format, Object[] args) {
+        String message = EventSink.format(format, args);
+        if (level.isAtLeast(Level.WARN)) {
+            System.err.println(message);
+        } else {
+            System.out.println(message);
+        }
+    }
+
+    public Level getThreshold() {
+        return threshold;
+    }
+}
@@ -0,0 +1,106 @@
+package log;
+
+/**
+ * EventSink - Nơi nhận log/event của OrderService và DatabaseConfig
+ *
+ * Level bị tắt không tốn chi phí format: message chỉ được format (bằng
+ * String.format) khi level được bật. Trên hot path (vòng lặp theo item),
+ * caller nên kiểm tra isEnabled() trước để tránh cả việc tạo mảng varargs
+ * và boxing tham số.
+ */
+public interface EventSink {
+
+    /**
+     * @return true nếu event ở level này sẽ được ghi
+     */
+    boolean isEnabled(Level level);
+
+    /**
+     * Ghi event (chỉ được gọi khi level đã bật)
+     *
+     * @param format Message, hoặc format string nếu args khác rỗng
+     * @param args Tham số cho format, có thể null
+     */
+    void write(Level level, String format, Object[] args);
+
+    default void debug(String message) {
+        if (isEnabled(Level.DEBUG)) {
+            write(Level.DEBUG, message, null);
+        }
+    }
+
+    default void debug(String format, Object... args) {
+        if (isEnabled(Level.DEBUG)) {
+            write(Level.DEBUG, format, args);
+        }
+    }
+
+    default void info(String message) {
+        if (isEnabled(Level.INFO)) {
+            write(Level.INFO, message, null);
+        }
+    }
+
+    default void info(String format, Object... args) {
+        if (isEnabled(Level.INFO)) {
+            write(Level.INFO, format, args);
+        }
+    }
+
+    default void warn(String message) {
+        if (isEnabled(Level.WARN)) {
+            write(Level.WARN, message, null);
+        }
+    }
+
+    default void warn(String format, Object... args) {
+        if (isEnabled(Level.WARN)) {
+            write(Level.WARN, format, args);
+        }
+    }
+
+    default void error(String message) {
+        if (isEnabled(Level.ERROR)) {
+            write(Level.ERROR, message, null);
+        }
+    }
+
+    default void error(String format, Object... args) {
+        if (isEnabled(Level.ERROR)) {
+            write(Level.ERROR, format, args);
+        }
+    }
+
+    /**
+     * Format message (dùng chung cho các implementation)
+     */
+    static String format(String format, Object[] args) {
+        return args == null || args.length == 0 ? format : String.format(format, args);
+    }
+
+    /**
+     * Sink bỏ qua mọi event
+     */
+    static EventSink noop() {
+        return NoopSink.INSTANCE;
+    }
+
+    /**
+     * Sink không ghi gì (mọi level đều tắt)
+     */
+    final class NoopSink implements EventSink {
+        static final NoopSink INSTANCE = new NoopSink();
+
+        private NoopSink() {
+        }
+
+        @Override
+        public boolean isEnabled(Level level) {
+            return false;
+        }
+
+        @Override
+        public void write(Level level, String format, Object[] args) {
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package log;
+
+/**
+ * Level - Mức độ của log/event, theo thứ tự tăng dần
+ */
+public enum Level {
+    DEBUG,
+    INFO,
+    WARN,
+    ERROR,
+    // Tắt toàn bộ output
+    OFF;
+
+    /**
+     * @return true nếu event ở mức này được ghi khi ngưỡng là threshold
+     */
+    public boolean isAtLeast(Level threshold) {
+        return this != OFF && compareTo(threshold) >= 0;
+    }
+}
@@ -1,43 +1,138 @@
 package model;
 
 import java.time.LocalDateTime;
-import java.util.ArrayList;
 import java.util.List;
 
 /**
  * Order - Model đại diện cho đơn hàng
+ * 
+ * Các dòng được lưu gọn trong OrderLines (addItem(productId, qty)) cho tới
+ * khi có code dùng API danh sách (getItems(), addItem(OrderItem), setItems):
+ * khi đó chuyển sang List<OrderItem> và giữ nguyên như trước.
  */
 public class Order {
     private int id;
     private LocalDateTime createdAt;
+    // Đúng một trong hai khác null
+    private OrderLines lines;
     private List<OrderItem> items;
+    // Bản chuyển đổi của items cho getLines() và (productId, qty) của items lúc chuyển đổi
+    private OrderLines itemLines;
+    private int[] itemSnapshot;
+    // Kết quả giao hàng một phần (FulfilmentPolicy khác ALL_OR_NOTHING), null = chưa đặt
+    private OrderLines fulfilled;
+    private OrderLines unfulfilled;
     
     // Constructor rỗng
     public Order() {
-        this.items = new ArrayList<>();
+        this.lines = new OrderLines();
     }
     
     // Constructor với id
     public Order(int id) {
         this.id = id;
-        this.items = new ArrayList<>();
+        this.lines = new OrderLines();
     }
     
     // Constructor đầy đủ
     public Order(int id, LocalDateTime createdAt) {
         this.id = id;
         this.createdAt = createdAt;
-        this.items = new ArrayList<>();
+        this.lines = new OrderLines();
+    }
+    
+    // Constructor với các dòng đã có
+    public Order(OrderLines lines) {
+        this.lines = lines;
     }
     
     // Thêm item vào order
     public void addItem(OrderItem item) {
-        this.items.add(item);
+        getItems().add(item);
     }
     
-    // Thêm item vào order (overload)
+    // Thêm item vào order (overload, cùng product thì cộng dồn qty)
     public void addItem(int productId, int qty) {
-        this.items.add(new OrderItem(this.id, productId, qty));
+        if (lines != null) {
+            lines.add(productId, qty);
+        } else {
+            this.items.add(new OrderItem(this.id, productId, qty));
+        }
+    }
+    
+    /**
+     * Các dòng của đơn hàng dạng mảng (gộp các item trùng product)
+     * 
+     * Đang dùng List<OrderItem> thì trả về bản chuyển đổi, được giữ lại cho
+     * tới khi danh sách hoặc productId / qty của một OrderItem thay đổi (so
+     * sánh với lần chuyển đổi trước, không cấp phát). Không sửa bản này:
+     * thay đổi không ảnh hưởng tới order.
+     */
+    public OrderLines getLines() {
+        if (lines != null) {
+            return lines;
+        }
+        if (itemLines == null || !itemsUnchanged()) {
+            int[] snapshot = new int[items.size() * 2];
+            int i = 0;
+            for (OrderItem item : items) {
+                snapshot[i++] = item.getProductId();
+                snapshot[i++] = item.getQty();
+            }
+            itemLines = OrderLines.of(items);
+            itemSnapshot = snapshot;
+        }
+        return itemLines;
+    }
+    
+    private boolean itemsUnchanged() {
+        int[] snapshot = itemSnapshot;
+        if (snapshot.length != items.size() * 2) {
+            return false;
+        }
+        int i = 0;
+        for (OrderItem item : items) {
+            if (item.getProductId() != snapshot[i++] || item.getQty() != snapshot[i++]) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    public void setLines(OrderLines lines) {
+        this.lines = lines;
+        this.items = null;
+        this.itemLines = null;
+        this.itemSnapshot = null;
+    }
+    
+    /**
+     * Các dòng đã giao khi đặt hàng với giao hàng một phần; chưa đặt hoặc
+     * ALL_OR_NOTHING thì là getLines(). Các dòng đã đặt (getLines(),
+     * getItems()) không bị thay đổi.
+     */
+    public OrderLines getFulfilled() {
+        return fulfilled != null ? fulfilled : getLines();
+    }
+    
+    public void setFulfilled(OrderLines fulfilled) {
+        this.fulfilled = fulfilled;
+    }
+    
+    /**
+     * Các dòng (product_id, qty còn thiếu) không giao được khi đặt hàng với
+     * giao hàng một phần; rỗng nếu đã giao đủ
+     */
+    public OrderLines getUnfulfilled() {
+        return unfulfilled != null ? unfulfilled : new OrderLines(1);
+    }
+    
+    public void setUnfulfilled(OrderLines unfulfilled) {
+        this.unfulfilled = unfulfilled;
+    }
+    
+    public boolean isFullyFulfilled() {
+        return unfulfilled == null || unfulfilled.isEmpty();
     }
     
     // Getters and Setters
@@ -45,8 +140,14 @@ public class Order {
         return id;
     }
     
+    // Gán cả orderId của các OrderItem (nếu đang dùng List<OrderItem>)
     public void setId(int id) {
         this.id = id;
+        if (items != null) {
+            for (OrderItem item : items) {
+                item.setOrderId(id);
+            }
+        }
     }
     
     public LocalDateTime getCreatedAt() {
@@ -58,21 +159,28 @@ public class Order {
     }
     
     public List<OrderItem> getItems() {
+        if (items == null) {
+            items = lines.toItems(id);
+            lines = null;
+        }
         return items;
     }
     
     public void setItems(List<OrderItem> items) {
         this.items = items;
+        this.lines = null;
+        this.itemLines = null;
+        this.itemSnapshot = null;
     }
     
     // Tính tổng số lượng items
     public int getTotalItems() {
-        return items.size();
+        return lines != null ? lines.size() : items.size();
     }
     
     // Tính tổng số lượng sản phẩm
     public int getTotalQuantity() {
-        return items.stream().mapToInt(OrderItem::getQty).sum();
+        return lines != null ? lines.getTotalQuantity() : items.stream().mapToInt(OrderItem::getQty).sum();
     }
     
     @Override
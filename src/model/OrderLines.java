@@ -0,0 +1,208 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * OrderLines - Các dòng của đơn hàng lưu trong hai mảng int song song
+ *
+ * Mỗi product chỉ có một dòng: add() cùng product_id thì cộng dồn qty
+ * (order_items có khóa chính (order_id, product_id)). Thứ tự dòng là thứ
+ * tự add() lần đầu của product. Không tạo object cho từng dòng, OrderService
+ * bind trực tiếp productId(i) / qty(i) hoặc mảng vào câu lệnh SQL.
+ */
+public final class OrderLines {
+
+    private static final int[] EMPTY = new int[0];
+
+    private int[] productIds;
+    private int[] quantities;
+    private int size;
+    private long totalQuantity;
+    private boolean sorted = true;
+
+    // Bảng băm open addressing: product_id → vị trí dòng + 1 (0 = ô trống)
+    private int[] slots = EMPTY;
+
+    public OrderLines() {
+        this(8);
+    }
+
+    /**
+     * @param expectedLines Số dòng dự kiến (tránh cấp phát lại mảng)
+     */
+    public OrderLines(int expectedLines) {
+        int capacity = Math.max(expectedLines, 1);
+        this.productIds = new int[capacity];
+        this.quantities = new int[capacity];
+    }
+
+    /**
+     * Thêm một dòng, product đã có thì cộng dồn qty
+     */
+    public OrderLines add(int productId, int qty) {
+        int line = indexOf(productId);
+        if (line >= 0) {
+            quantities[line] = Math.addExact(quantities[line], qty);
+        } else {
+            if (size == productIds.length) {
+                productIds = Arrays.copyOf(productIds, size * 2);
+                quantities = Arrays.copyOf(quantities, size * 2);
+            }
+            if (size > 0 && productId < productIds[size - 1]) {
+                sorted = false;
+            }
+            productIds[size] = productId;
+            quantities[size] = qty;
+            size++;
+            if (size * 2 > slots.length) {
+                rehash(Integer.highestOneBit(size) * 4);
+            } else {
+                insertSlot(productId, size);
+            }
+        }
+        totalQuantity += qty;
+        return this;
+    }
+
+    /**
+     * @return Vị trí dòng của product, -1 nếu không có
+     */
+    public int indexOf(int productId) {
+        if (slots.length == 0) {
+            return -1;
+        }
+        int mask = slots.length - 1;
+        for (int slot = hash(productId) & mask;; slot = (slot + 1) & mask) {
+            int entry = slots[slot];
+            if (entry == 0) {
+                return -1;
+            }
+            if (productIds[entry - 1] == productId) {
+                return entry - 1;
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int productId(int line) {
+        Objects.checkIndex(line, size);
+        return productIds[line];
+    }
+
+    public int qty(int line) {
+        Objects.checkIndex(line, size);
+        return quantities[line];
+    }
+
+    // Tổng số lượng sản phẩm của tất cả các dòng
+    public int getTotalQuantity() {
+        return Math.toIntExact(totalQuantity);
+    }
+
+    /**
+     * Bản sao product_id của các dòng (dùng cho tham số mảng ?::int[])
+     */
+    public int[] productIds() {
+        return Arrays.copyOf(productIds, size);
+    }
+
+    public int[] productIds(int from, int to) {
+        return Arrays.copyOfRange(productIds, from, Math.min(to, size));
+    }
+
+    /**
+     * Bản sao qty của các dòng, cùng thứ tự với productIds()
+     */
+    public int[] quantities() {
+        return Arrays.copyOf(quantities, size);
+    }
+
+    public int[] quantities(int from, int to) {
+        return Arrays.copyOfRange(quantities, from, Math.min(to, size));
+    }
+
+    /**
+     * Các dòng theo product_id tăng dần (chính nó nếu đã đúng thứ tự): mọi
+     * transaction lock các dòng products cùng một thứ tự nên không deadlock
+     */
+    public OrderLines sortedByProductId() {
+        if (sorted) {
+            return this;
+        }
+        // Sắp xếp một mảng long (product_id ở 32 bit cao, vị trí dòng ở 32 bit thấp)
+        long[] keys = new long[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = ((long) productIds[i] << 32) | i;
+        }
+        Arrays.sort(keys);
+
+        OrderLines result = new OrderLines(size);
+        for (int i = 0; i < size; i++) {
+            int line = (int) keys[i];
+            result.productIds[i] = productIds[line];
+            result.quantities[i] = quantities[line];
+        }
+        result.size = size;
+        result.totalQuantity = totalQuantity;
+        result.rehash(Integer.highestOneBit(size) * 4);
+        return result;
+    }
+
+    /**
+     * Chuyển từ danh sách OrderItem (gộp các item trùng product)
+     */
+    public static OrderLines of(List<OrderItem> items) {
+        OrderLines lines = new OrderLines(items.size());
+        for (OrderItem item : items) {
+            lines.add(item.getProductId(), item.getQty());
+        }
+        return lines;
+    }
+
+    /**
+     * Tạo danh sách OrderItem tương ứng (cho code dùng API Order.getItems())
+     */
+    public List<OrderItem> toItems(int orderId) {
+        List<OrderItem> items = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            items.add(new OrderItem(orderId, productIds[i], quantities[i]));
+        }
+        return items;
+    }
+
+    private void rehash(int capacity) {
+        slots = new int[capacity];
+        for (int i = 0; i < size; i++) {
+            insertSlot(productIds[i], i + 1);
+        }
+    }
+
+    private void insertSlot(int productId, int entry) {
+        int mask = slots.length - 1;
+        int slot = hash(productId) & mask;
+        while (slots[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        slots[slot] = entry;
+    }
+
+    private static int hash(int productId) {
+        int h = productId * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("OrderLines[lines=%d, totalQty=%d]", size, totalQuantity);
+    }
+}
@@ -0,0 +1,76 @@
+package model;
+
+import java.time.LocalDateTime;
+
+/**
+ * ProductSales - Số liệu bán hàng của một sản phẩm (product_sales / product_sales_daily)
+ */
+public class ProductSales {
+    private int productId;
+    private String productName;
+    private long unitsSold;
+    private long orderCount;
+    // null nếu sản phẩm chưa bán được
+    private LocalDateTime lastSoldAt;
+
+    // Constructor rỗng
+    public ProductSales() {
+    }
+
+    // Constructor đầy đủ
+    public ProductSales(int productId, String productName, long unitsSold, long orderCount,
+            LocalDateTime lastSoldAt) {
+        this.productId = productId;
+        this.productName = productName;
+        this.unitsSold = unitsSold;
+        this.orderCount = orderCount;
+        this.lastSoldAt = lastSoldAt;
+    }
+
+    // Getters and Setters
+    public int getProductId() {
+        return productId;
+    }
+
+    public void setProductId(int productId) {
+        this.productId = productId;
+    }
+
+    public String getProductName() {
+        return productName;
+    }
+
+    public void setProductName(String productName) {
+        this.productName = productName;
+    }
+
+    public long getUnitsSold() {
+        return unitsSold;
+    }
+
+    public void setUnitsSold(long unitsSold) {
+        this.unitsSold = unitsSold;
+    }
+
+    public long getOrderCount() {
+        return orderCount;
+    }
+
+    public void setOrderCount(long orderCount) {
+        this.orderCount = orderCount;
+    }
+
+    public LocalDateTime getLastSoldAt() {
+        return lastSoldAt;
+    }
+
+    public void setLastSoldAt(LocalDateTime lastSoldAt) {
+        this.lastSoldAt = lastSoldAt;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ProductSales[productId=%d, name=%s, unitsSold=%d, orders=%d, lastSoldAt=%s]",
+                productId, productName, unitsSold, orderCount, lastSoldAt);
+    }
+}
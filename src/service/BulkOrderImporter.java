@@ -0,0 +1,719 @@
+package service;
+
+import config.DatabaseConfig;
+import log.EventSink;
+import model.Order;
+import model.OrderLines;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.postgresql.copy.CopyManager;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+/**
+ * BulkOrderImporter - Nhập hàng loạt đơn hàng bằng COPY
+ *
+ * Dành cho backfill / đơn hàng từ marketplace (hàng trăm nghìn order),
+ * thay vì gọi createOrder từng order một. Mỗi chunk chunkSize order:
+ * 1. COPY các dòng (seq, product_id, qty, created_at) vào bảng tạm
+ * 2. Lock các product liên quan theo thứ tự id, gom bucket về products.stock
+ * 3. Loại các order có product không tồn tại / qty không hợp lệ
+ * 4. Phân bổ tồn kho theo thứ tự input: order được nhận nếu mọi dòng
+ *    còn đủ phần tồn kho chưa được các order nhận trước nó lấy, ngược lại
+ *    bị loại và không trừ gì
+ * 5. Trừ kho, insert orders + order_items bằng câu lệnh set-based, cộng
+ *    dồn product_sales / product_sales_daily qua SalesDelta (nếu bật
+ *    salesAggregation)
+ * 6. Commit - mỗi chunk là một transaction
+ *
+ * Order bị loại được báo qua listener, không làm dừng cả lần import.
+ * Bộ nhớ chỉ phụ thuộc chunkSize, không phụ thuộc kích thước input.
+ *
+ * Sản phẩm chia bucket được gom về products.stock, chạy
+ * StockBucketRebalancer sau khi import. Bảng tạm bị xóa trước khi trả
+ * connection về pool.
+ */
+public class BulkOrderImporter {
+
+    /**
+     * Lý do một order bị loại
+     */
+    public enum RejectReason {
+        EMPTY_ORDER,
+        // Dòng CSV không đọc được (thiếu cột, số / ngày sai định dạng)
+        INVALID_ROW,
+        INVALID_QTY,
+        UNKNOWN_PRODUCT,
+        INSUFFICIENT_STOCK
+    }
+
+    private static final String SQL_CREATE_STAGING =
+            "CREATE TEMP TABLE IF NOT EXISTS import_items ("
+            + "  seq BIGINT NOT NULL, product_id INTEGER NOT NULL, qty INTEGER NOT NULL,"
+            + "  created_at TIMESTAMP"
+            + ") ON COMMIT DELETE ROWS;"
+            + "CREATE TEMP TABLE IF NOT EXISTS import_lines ("
+            + "  seq BIGINT NOT NULL, product_id INTEGER NOT NULL, qty INTEGER NOT NULL,"
+            + "  created_at TIMESTAMP, PRIMARY KEY (seq, product_id)"
+            + ") ON COMMIT DELETE ROWS;"
+            + "CREATE TEMP TABLE IF NOT EXISTS import_rejected ("
+            + "  seq BIGINT PRIMARY KEY, product_id INTEGER, reason TEXT NOT NULL"
+            + ") ON COMMIT DELETE ROWS;"
+            + "CREATE TEMP TABLE IF NOT EXISTS import_orders ("
+            + "  seq BIGINT PRIMARY KEY, order_id INTEGER NOT NULL, created_at TIMESTAMP NOT NULL"
+            + ") ON COMMIT DELETE ROWS";
+
+    private static final String SQL_DROP_STAGING =
+            "DROP TABLE IF EXISTS import_items, import_lines, import_rejected, import_orders";
+
+    private static final String SQL_COPY =
+            "COPY import_items (seq, product_id, qty, created_at) FROM STDIN";
+
+    // Gộp các dòng trùng product trong cùng order (PK order_items là (order_id, product_id))
+    private static final String SQL_MERGE_LINES =
+            "INSERT INTO import_lines (seq, product_id, qty, created_at) "
+            + "SELECT seq, product_id, SUM(qty), MIN(created_at) FROM import_items "
+            + "GROUP BY seq, product_id";
+
+    private static final String SQL_REJECT_INVALID =
+            "INSERT INTO import_rejected (seq, product_id, reason) "
+            + "SELECT DISTINCT ON (i.seq) i.seq, i.product_id,"
+            + "  CASE WHEN i.qty <= 0 THEN 'INVALID_QTY' ELSE 'UNKNOWN_PRODUCT' END "
+            + "FROM import_items i LEFT JOIN products p ON p.id = i.product_id "
+            + "WHERE i.qty <= 0 OR p.id IS NULL "
+            + "ORDER BY i.seq, i.product_id";
+
+    private static final String SQL_LOCK_PRODUCTS =
+            "SELECT id FROM products WHERE id IN (SELECT DISTINCT product_id FROM import_lines) "
+            + "ORDER BY id FOR UPDATE";
+
+    private static final String SQL_FOLD_BUCKETS =
+            "WITH moved AS ("
+            + "  DELETE FROM product_stock_buckets"
+            + "  WHERE product_id IN (SELECT DISTINCT product_id FROM import_lines)"
+            + "  RETURNING product_id, stock"
+            + ") "
+            + "UPDATE products p SET stock = p.stock + m.stock "
+            + "FROM (SELECT product_id, SUM(stock)::int AS stock FROM moved GROUP BY product_id) m "
+            + "WHERE p.id = m.product_id";
+
+    // Tồn kho (đã gom bucket, đang bị lock) của các product trong chunk
+    private static final String SQL_PRODUCT_STOCK =
+            "SELECT id, stock FROM products WHERE id IN (SELECT DISTINCT product_id FROM import_lines)";
+
+    // Kết quả phân bổ tồn kho: (seq, product_id thiếu hàng đầu tiên)
+    private static final String SQL_REJECT_INSUFFICIENT =
+            "INSERT INTO import_rejected (seq, product_id, reason) "
+            + "SELECT r.seq, r.product_id, 'INSUFFICIENT_STOCK' FROM unnest(?::bigint[], ?::int[]) AS r(seq, product_id)";
+
+    private static final String SQL_DECREMENT_STOCK =
+            "UPDATE products p SET stock = p.stock - d.qty, updated_at = CURRENT_TIMESTAMP "
+            + "FROM (SELECT l.product_id, SUM(l.qty)::int AS qty FROM import_lines l"
+            + "      WHERE NOT EXISTS (SELECT 1 FROM import_rejected r WHERE r.seq = l.seq)"
+            + "      GROUP BY l.product_id) d "
+            + "WHERE p.id = d.product_id";
+
+    private static final String SQL_ALLOCATE_ORDERS =
+            "INSERT INTO import_orders (seq, order_id, created_at) "
+            + "SELECT s.seq, nextval('orders_id_seq'), s.created_at FROM ("
+            + "  SELECT l.seq, COALESCE(MIN(l.created_at), CURRENT_TIMESTAMP) AS created_at FROM import_lines l"
+            + "  WHERE NOT EXISTS (SELECT 1 FROM import_rejected r WHERE r.seq = l.seq)"
+            + "  GROUP BY l.seq ORDER BY l.seq"
+            + ") s";
+
+    // Các tháng có order trong chunk (tạo partition còn thiếu khi backfill)
+    private static final String SQL_ORDER_MONTHS =
+            "SELECT DISTINCT date_trunc('month', created_at) FROM import_orders";
+
+    private static final String SQL_INSERT_ORDERS =
+            "INSERT INTO orders (id, created_at) "
+            + "SELECT order_id, created_at FROM import_orders";
+
+    private static final String SQL_INSERT_ITEMS =
+            "INSERT INTO order_items (order_id, order_created_at, product_id, qty) "
+            + "SELECT o.order_id, o.created_at, l.product_id, l.qty "
+            + "FROM import_lines l JOIN import_orders o ON o.seq = l.seq";
+
+    // Nguồn số liệu bán hàng cho SalesDelta: theo ngày created_at của order được import
+    private static final String SQL_SALES_SOURCE =
+            "SELECT l.product_id, o.created_at::date AS sales_date, MAX(o.created_at) AS sold_at,"
+            + " SUM(l.qty) AS units, COUNT(*) AS orders "
+            + "FROM import_lines l JOIN import_orders o ON o.seq = l.seq "
+            + "GROUP BY l.product_id, o.created_at::date";
+
+    private static final int MAX_CHUNK_ATTEMPTS = 3;
+    private static final int COPY_BUFFER_CHARS = 64 * 1024;
+
+    private final DatabaseConfig dbConfig;
+    // Số order trong một transaction
+    private int chunkSize = 5000;
+    // Nhận order bị loại (mặc định bỏ qua, chỉ đếm)
+    private Consumer<Rejection> rejectionListener = rejection -> {
+    };
+    // Ledger của OrderService (nếu có) được load lại sau khi import
+    private StockLedger stockLedger;
+    // Cộng dồn product_sales / product_sales_daily (theo OrderService.isSalesAggregation())
+    private boolean salesAggregation = true;
+
+    public BulkOrderImporter() {
+        this.dbConfig = DatabaseConfig.getInstance();
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public void setChunkSize(int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("chunkSize phải >= 1");
+        }
+        this.chunkSize = chunkSize;
+    }
+
+    public void setRejectionListener(Consumer<Rejection> rejectionListener) {
+        this.rejectionListener = rejectionListener;
+    }
+
+    public void setStockLedger(StockLedger stockLedger) {
+        this.stockLedger = stockLedger;
+    }
+
+    public boolean isSalesAggregation() {
+        return salesAggregation;
+    }
+
+    /**
+     * Đặt bằng OrderService.isSalesAggregation() của ứng dụng: khi tắt, số
+     * liệu của order import được tính lại bởi rebuildSalesAggregates()
+     */
+    public void setSalesAggregation(boolean salesAggregation) {
+        this.salesAggregation = salesAggregation;
+    }
+
+    /**
+     * Import từ file CSV, mỗi dòng: order_no,product_id,qty[,created_at]
+     *
+     * Các dòng liên tiếp cùng order_no thuộc một order. Bỏ qua dòng trống,
+     * dòng bắt đầu bằng '#' và dòng header order_no,product_id,qty[,created_at]
+     * nếu là dòng đầu tiên. created_at theo ISO-8601, VD: 2024-01-15T10:30:00
+     *
+     * Order có dòng không đọc được bị loại cả order (INVALID_ROW, kèm số
+     * dòng trong file), các order khác vẫn được import.
+     */
+    public ImportResult importCsv(Path file) throws SQLException, IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            CsvOrderIterator csv = new CsvOrderIterator(reader);
+            return importOrders(csv, csv.invalidRows);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Import từ một iterator order (đọc dần, không giữ toàn bộ input)
+     *
+     * Order được nhận sẽ có id là Order ID vừa tạo.
+     */
+    public ImportResult importOrders(Iterator<Order> orders) throws SQLException {
+        return importOrders(orders, new IdentityHashMap<>());
+    }
+
+    /**
+     * @param invalidRows Order (rỗng) thay cho order CSV không đọc được → số dòng lỗi
+     */
+    private ImportResult importOrders(Iterator<Order> orders, Map<Order, Integer> invalidRows)
+            throws SQLException {
+        EventSink log = dbConfig.getEventSink();
+        ImportResult result = new ImportResult();
+        long startTime = System.nanoTime();
+        long seq = 0;
+
+        try (Connection conn = dbConfig.getConnection()) {
+            try {
+                try (Statement stmt = conn.createStatement()) {
+                    stmt.execute(SQL_CREATE_STAGING);
+                }
+                conn.setAutoCommit(false);
+
+                List<Order> chunk = new ArrayList<>(chunkSize);
+                while (orders.hasNext()) {
+                    chunk.add(orders.next());
+                    seq++;
+                    result.ordersRead++;
+                    if (chunk.size() == chunkSize) {
+                        importChunkWithRetry(conn, chunk, seq - chunk.size() + 1, invalidRows, result);
+                        chunk.clear();
+                    }
+                }
+                if (!chunk.isEmpty()) {
+                    importChunkWithRetry(conn, chunk, seq - chunk.size() + 1, invalidRows, result);
+                }
+            } finally {
+                dropStaging(conn);
+            }
+        } finally {
+            result.elapsedNanos = System.nanoTime() - startTime;
+        }
+
+        if (stockLedger != null) {
+            stockLedger.load();
+        }
+        log.info("✅ Import xong: %s", result);
+        return result;
+    }
+
+    /**
+     * Chunk bị deadlock / serialization failure với transaction khác thì
+     * chạy lại chunk đó (dữ liệu chunk vẫn còn trong bộ nhớ)
+     */
+    private void importChunkWithRetry(Connection conn, List<Order> chunk, long firstSeq,
+            Map<Order, Integer> invalidRows, ImportResult result) throws SQLException {
+        for (int attempt = 1;; attempt++) {
+            try {
+                importChunk(conn, chunk, firstSeq, invalidRows, result);
+                return;
+            } catch (SQLException e) {
+                conn.rollback();
+                String state = e.getSQLState();
+                boolean retryable = "40P01".equals(state) || "40001".equals(state);
+                if (!retryable || attempt >= MAX_CHUNK_ATTEMPTS) {
+                    throw e;
+                }
+                dbConfig.getEventSink().warn("⚠ Chunk bắt đầu từ order #%d bị hủy (%s), thử lại lần %d",
+                        firstSeq, state, attempt + 1);
+            }
+        }
+    }
+
+    /**
+     * Một chunk = một transaction, order thứ i trong chunk có seq = firstSeq + i
+     */
+    private void importChunk(Connection conn, List<Order> chunk, long firstSeq,
+            Map<Order, Integer> invalidRows, ImportResult result) throws SQLException {
+        EventSink log = dbConfig.getEventSink();
+
+        // 1. COPY vào bảng tạm
+        copyChunk(conn, chunk, firstSeq);
+
+        int lines;
+        Map<Long, Rejection> rejected = new HashMap<>();
+        try (Statement stmt = conn.createStatement()) {
+            lines = stmt.executeUpdate(SQL_MERGE_LINES);
+
+            // 2. Lock product theo thứ tự id, gom bucket về products.stock
+            stmt.execute(SQL_LOCK_PRODUCTS);
+            stmt.executeUpdate(SQL_FOLD_BUCKETS);
+
+            // 3 + 4. Loại order không hợp lệ / không đủ hàng
+            stmt.executeUpdate(SQL_REJECT_INVALID);
+            int insufficient = rejectInsufficient(conn, chunk, firstSeq);
+
+            // 5. Trừ kho + tạo orders / order_items (tạo partition tháng còn thiếu)
+            stmt.executeUpdate(SQL_DECREMENT_STOCK);
+            int orderCount = stmt.executeUpdate(SQL_ALLOCATE_ORDERS);
+            List<YearMonth> months = new ArrayList<>();
+            try (ResultSet rs = stmt.executeQuery(SQL_ORDER_MONTHS)) {
+                while (rs.next()) {
+                    months.add(YearMonth.from(rs.getTimestamp(1).toLocalDateTime()));
+                }
+            }
+            for (YearMonth month : months) {
+                OrderPartitionMaintainer.createPartitions(conn, month, month);
+            }
+            stmt.executeUpdate(SQL_INSERT_ORDERS);
+            int itemCount = stmt.executeUpdate(SQL_INSERT_ITEMS);
+            if (salesAggregation) {
+                SalesDelta.writeFrom(conn, SQL_SALES_SOURCE);
+            }
+
+            // Đọc kết quả trước khi commit (bảng tạm bị xóa khi commit)
+            try (ResultSet rs = stmt.executeQuery("SELECT seq, product_id, reason FROM import_rejected")) {
+                while (rs.next()) {
+                    long seq = rs.getLong("seq");
+                    rejected.put(seq, new Rejection(seq, chunk.get((int) (seq - firstSeq)),
+                            rs.getInt("product_id"), RejectReason.valueOf(rs.getString("reason"))));
+                }
+            }
+            try (ResultSet rs = stmt.executeQuery("SELECT seq, order_id FROM import_orders")) {
+                while (rs.next()) {
+                    chunk.get((int) (rs.getLong("seq") - firstSeq)).setId(rs.getInt("order_id"));
+                }
+            }
+
+            conn.commit();
+
+            result.chunks++;
+            result.ordersImported += orderCount;
+            result.itemsImported += itemCount;
+            result.ordersRejected += rejected.size();
+            log.info("✓ Chunk %d: %d order (%d dòng), %d bị loại (%d không đủ hàng)",
+                    result.chunks, orderCount, lines, rejected.size(), insufficient);
+        }
+
+        // Báo order bị loại theo thứ tự input (order rỗng / dòng CSV lỗi không có dòng trong bảng tạm)
+        for (int i = 0; i < chunk.size(); i++) {
+            long seq = firstSeq + i;
+            Order order = chunk.get(i);
+            Rejection rejection = rejected.get(seq);
+            Integer invalidLine = invalidRows.remove(order);
+            if (invalidLine != null) {
+                rejection = new Rejection(seq, order, 0, RejectReason.INVALID_ROW, invalidLine);
+                result.ordersRejected++;
+            } else if (rejection == null && order.getTotalItems() == 0) {
+                rejection = new Rejection(seq, order, 0, RejectReason.EMPTY_ORDER);
+                result.ordersRejected++;
+            }
+            if (rejection != null) {
+                rejectionListener.accept(rejection);
+            }
+        }
+    }
+
+    /**
+     * Phân bổ tồn kho cho các order hợp lệ theo thứ tự input (seq): order
+     * được nhận nếu mọi product của nó còn đủ phần chưa phân bổ, ngược lại
+     * bị loại với product thiếu hàng có id nhỏ nhất. Order bị loại không
+     * giữ phần nào của tồn kho cho các order sau.
+     *
+     * @return Số order bị loại vì không đủ hàng
+     */
+    private int rejectInsufficient(Connection conn, List<Order> chunk, long firstSeq) throws SQLException {
+        Map<Integer, Integer> remaining = new HashMap<>();
+        Set<Long> invalid = new HashSet<>();
+        try (Statement stmt = conn.createStatement()) {
+            try (ResultSet rs = stmt.executeQuery(SQL_PRODUCT_STOCK)) {
+                while (rs.next()) {
+                    remaining.put(rs.getInt("id"), rs.getInt("stock"));
+                }
+            }
+            try (ResultSet rs = stmt.executeQuery("SELECT seq FROM import_rejected")) {
+                while (rs.next()) {
+                    invalid.add(rs.getLong("seq"));
+                }
+            }
+        }
+
+        List<Long> rejectedSeqs = new ArrayList<>();
+        List<Integer> rejectedProducts = new ArrayList<>();
+        TreeMap<Integer, Integer> orderQty = new TreeMap<>();
+        for (int i = 0; i < chunk.size(); i++) {
+            long seq = firstSeq + i;
+            if (invalid.contains(seq)) {
+                continue;
+            }
+            // Gộp dòng trùng product (giống SQL_MERGE_LINES), theo thứ tự product_id
+            orderQty.clear();
+            OrderLines lines = chunk.get(i).getLines();
+            for (int line = 0; line < lines.size(); line++) {
+                orderQty.merge(lines.productId(line), lines.qty(line), Integer::sum);
+            }
+            int shortProduct = 0;
+            for (Map.Entry<Integer, Integer> entry : orderQty.entrySet()) {
+                if (remaining.getOrDefault(entry.getKey(), 0) < entry.getValue()) {
+                    shortProduct = entry.getKey();
+                    break;
+                }
+            }
+            if (shortProduct != 0) {
+                rejectedSeqs.add(seq);
+                rejectedProducts.add(shortProduct);
+                continue;
+            }
+            for (Map.Entry<Integer, Integer> entry : orderQty.entrySet()) {
+                remaining.merge(entry.getKey(), -entry.getValue(), Integer::sum);
+            }
+        }
+
+        if (!rejectedSeqs.isEmpty()) {
+            try (PreparedStatement pstmt = conn.prepareStatement(SQL_REJECT_INSUFFICIENT)) {
+                pstmt.setArray(1, conn.createArrayOf("bigint", rejectedSeqs.toArray()));
+                pstmt.setArray(2, conn.createArrayOf("integer", rejectedProducts.toArray()));
+                pstmt.executeUpdate();
+            }
+        }
+        return rejectedSeqs.size();
+    }
+
+    /**
+     * Xóa bảng tạm trước khi trả connection về pool (transaction của chunk
+     * cuối đã commit / rollback)
+     */
+    private void dropStaging(Connection conn) {
+        try {
+            conn.setAutoCommit(true);
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute(SQL_DROP_STAGING);
+            }
+        } catch (SQLException e) {
+            dbConfig.getEventSink().warn("✗ Không xóa được bảng tạm của import: %s", e.getMessage());
+        }
+    }
+
+    /**
+     * Ghi chunk vào import_items qua COPY (text format), đẩy dữ liệu theo
+     * từng khối COPY_BUFFER_CHARS ký tự
+     */
+    private void copyChunk(Connection conn, List<Order> chunk, long firstSeq) throws SQLException {
+        CopyManager copyManager = conn.unwrap(PGConnection.class).getCopyAPI();
+        CopyIn copyIn = copyManager.copyIn(SQL_COPY);
+        try {
+            StringBuilder buffer = new StringBuilder(COPY_BUFFER_CHARS + 128);
+            long seq = firstSeq;
+            for (Order order : chunk) {
+                LocalDateTime createdAt = order.getCreatedAt();
+                String createdAtText = createdAt != null ? createdAt.toString() : "\\N";
+                OrderLines lines = order.getLines();
+                for (int line = 0; line < lines.size(); line++) {
+                    buffer.append(seq).append('\t')
+                            .append(lines.productId(line)).append('\t')
+                            .append(lines.qty(line)).append('\t')
+                            .append(createdAtText).append('\n');
+                    if (buffer.length() >= COPY_BUFFER_CHARS) {
+                        writeToCopy(copyIn, buffer);
+                    }
+                }
+                seq++;
+            }
+            writeToCopy(copyIn, buffer);
+            copyIn.endCopy();
+        } finally {
+            if (copyIn.isActive()) {
+                copyIn.cancelCopy();
+            }
+        }
+    }
+
+    private static void writeToCopy(CopyIn copyIn, StringBuilder buffer) throws SQLException {
+        if (buffer.length() > 0) {
+            byte[] bytes = buffer.toString().getBytes(StandardCharsets.UTF_8);
+            copyIn.writeToCopy(bytes, 0, bytes.length);
+            buffer.setLength(0);
+        }
+    }
+
+    /**
+     * Đọc file CSV thành từng Order, mỗi lần một order
+     *
+     * Order có dòng không đọc được được trả về là order rỗng và ghi vào
+     * invalidRows (số dòng lỗi đầu tiên), các dòng còn lại của nó bị bỏ qua.
+     */
+    private static final class CsvOrderIterator implements Iterator<Order> {
+        private static final String[] HEADER = {"order_no", "product_id", "qty", "created_at"};
+
+        private final BufferedReader reader;
+        final Map<Order, Integer> invalidRows = new IdentityHashMap<>();
+        private String[] pendingLine;
+        private int pendingLineNumber;
+        private int lineNumber;
+
+        CsvOrderIterator(BufferedReader reader) {
+            this.reader = reader;
+            this.pendingLine = readLine();
+            if (pendingLine != null && isHeader(pendingLine)) {
+                pendingLine = readLine();
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return pendingLine != null;
+        }
+
+        @Override
+        public Order next() {
+            if (pendingLine == null) {
+                throw new NoSuchElementException();
+            }
+            String orderNo = pendingLine[0];
+            Order order = new Order();
+            int invalidLine = 0;
+            try {
+                if (pendingLine.length > 3 && !pendingLine[3].isEmpty()) {
+                    order.setCreatedAt(LocalDateTime.parse(pendingLine[3]));
+                }
+            } catch (DateTimeParseException e) {
+                invalidLine = pendingLineNumber;
+            }
+            while (pendingLine != null && pendingLine[0].equals(orderNo)) {
+                if (invalidLine == 0 && pendingLine.length < 3) {
+                    invalidLine = pendingLineNumber;
+                } else if (invalidLine == 0) {
+                    try {
+                        order.addItem(Integer.parseInt(pendingLine[1]), Integer.parseInt(pendingLine[2]));
+                    } catch (NumberFormatException e) {
+                        invalidLine = pendingLineNumber;
+                    }
+                }
+                pendingLine = readLine();
+            }
+            if (invalidLine != 0) {
+                // Không import phần nào của order có dòng lỗi
+                Order invalid = new Order();
+                invalidRows.put(invalid, invalidLine);
+                return invalid;
+            }
+            return order;
+        }
+
+        private static boolean isHeader(String[] fields) {
+            if (fields.length < 3 || fields.length > HEADER.length) {
+                return false;
+            }
+            for (int i = 0; i < fields.length; i++) {
+                if (!fields[i].equalsIgnoreCase(HEADER[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private String[] readLine() {
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    lineNumber++;
+                    line = line.trim();
+                    if (line.isEmpty() || line.startsWith("#")) {
+                        continue;
+                    }
+                    String[] fields = line.split(",", -1);
+                    for (int i = 0; i < fields.length; i++) {
+                        fields[i] = fields[i].trim();
+                    }
+                    pendingLineNumber = lineNumber;
+                    return fields;
+                }
+                return null;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Một order bị loại
+     */
+    public static final class Rejection {
+        private final long seq;
+        private final Order order;
+        private final int productId;
+        private final RejectReason reason;
+        private final int lineNumber;
+
+        Rejection(long seq, Order order, int productId, RejectReason reason) {
+            this(seq, order, productId, reason, 0);
+        }
+
+        Rejection(long seq, Order order, int productId, RejectReason reason, int lineNumber) {
+            this.seq = seq;
+            this.order = order;
+            this.productId = productId;
+            this.reason = reason;
+            this.lineNumber = lineNumber;
+        }
+
+        // Thứ tự của order trong input (bắt đầu từ 1)
+        public long getSeq() {
+            return seq;
+        }
+
+        public Order getOrder() {
+            return order;
+        }
+
+        // Product đầu tiên gây lỗi (0 nếu order rỗng)
+        public int getProductId() {
+            return productId;
+        }
+
+        public RejectReason getReason() {
+            return reason;
+        }
+
+        // Dòng lỗi trong file CSV (INVALID_ROW), 0 nếu không có
+        public int getLineNumber() {
+            return lineNumber;
+        }
+
+        @Override
+        public String toString() {
+            return lineNumber == 0
+                    ? String.format("Rejection[seq=%d, productId=%d, reason=%s]", seq, productId, reason)
+                    : String.format("Rejection[seq=%d, line=%d, reason=%s]", seq, lineNumber, reason);
+        }
+    }
+
+    /**
+     * Kết quả của một lần import
+     */
+    public static final class ImportResult {
+        private long ordersRead;
+        private long ordersImported;
+        private long ordersRejected;
+        private long itemsImported;
+        private int chunks;
+        private long elapsedNanos;
+
+        public long getOrdersRead() {
+            return ordersRead;
+        }
+
+        public long getOrdersImported() {
+            return ordersImported;
+        }
+
+        public long getOrdersRejected() {
+            return ordersRejected;
+        }
+
+        public long getItemsImported() {
+            return itemsImported;
+        }
+
+        public int getChunks() {
+            return chunks;
+        }
+
+        public double getElapsedMillis() {
+            return elapsedNanos / 1_000_000.0;
+        }
+
+        // Số order được nhận mỗi giây
+        public double getOrdersPerSecond() {
+            return elapsedNanos == 0 ? 0 : ordersImported * 1_000_000_000.0 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "ImportResult[read=%d, imported=%d, rejected=%d, items=%d, chunks=%d, %.1f ms, %.0f order/s]",
+                    ordersRead, ordersImported, ordersRejected, itemsImported, chunks,
+                    getElapsedMillis(), getOrdersPerSecond());
+        }
+    }
+}
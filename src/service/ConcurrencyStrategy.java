@@ -0,0 +1,21 @@
+package service;
+
+/**
+ * ConcurrencyStrategy - Cách createOrder xử lý các đơn hàng đồng thời
+ * tranh chấp cùng sản phẩm
+ *
+ * Cả ba chiến lược đều trừ kho theo thứ tự product_id tăng dần (lock luôn
+ * được lấy cùng một thứ tự → không deadlock giữa các đơn hàng), và
+ * createOrder tự thử lại khi gặp SQLSTATE 40001 / 40P01.
+ *
+ * PESSIMISTIC / CONDITIONAL_UPDATE chọn câu lệnh cho StockUpdateMode.PER_ITEM;
+ * SET_BASED và BUCKETED giữ câu lệnh riêng. SERIALIZABLE áp dụng cho mọi mode.
+ */
+public enum ConcurrencyStrategy {
+    // SELECT ... FOR UPDATE để kiểm tra tồn kho, sau đó UPDATE
+    PESSIMISTIC,
+    // Không đọc trước: UPDATE ... WHERE stock >= qty, 0 dòng = không đủ hàng
+    CONDITIONAL_UPDATE,
+    // Transaction SERIALIZABLE, đọc + UPDATE thường, xung đột → 40001 → thử lại
+    SERIALIZABLE
+}
@@ -0,0 +1,54 @@
+package service;
+
+import model.Order;
+import model.OrderLines;
+
+/**
+ * Fulfilment - Kết quả trừ kho theo FulfilmentPolicy của một lần đặt hàng
+ *
+ * Chỉ gán vào Order sau khi transaction commit (applyTo): lần thử lại sau
+ * deadlock / serialization failure vẫn dùng các dòng ban đầu của đơn hàng.
+ */
+final class Fulfilment {
+
+    final FulfilmentPolicy policy;
+    final OrderLines fulfilled;
+    final OrderLines unfulfilled = new OrderLines(1);
+
+    Fulfilment(FulfilmentPolicy policy, int expectedLines) {
+        this.policy = policy;
+        this.fulfilled = new OrderLines(expectedLines);
+    }
+
+    /**
+     * Số lượng được trừ cho một dòng khi kho chỉ còn available (< requested)
+     */
+    int takeWhenShort(int available) {
+        return policy == FulfilmentPolicy.PARTIAL ? Math.max(available, 0) : 0;
+    }
+
+    void record(int productId, int requested, int taken) {
+        if (taken > 0) {
+            fulfilled.add(productId, taken);
+        }
+        if (taken < requested) {
+            unfulfilled.add(productId, requested - taken);
+        }
+    }
+
+    /**
+     * Gán kết quả vào order; các dòng đã đặt của order giữ nguyên
+     */
+    void applyTo(Order order) {
+        order.setFulfilled(fulfilled);
+        order.setUnfulfilled(unfulfilled);
+    }
+
+    /**
+     * Xóa kết quả đã gán (transaction chứa order bị rollback)
+     */
+    static void clear(Order order) {
+        order.setFulfilled(null);
+        order.setUnfulfilled(null);
+    }
+}
@@ -0,0 +1,20 @@
+package service;
+
+/**
+ * FulfilmentPolicy - createOrder xử lý thế nào khi có item không đủ hàng
+ *
+ * Ngoài ALL_OR_NOTHING, kho được trừ bằng UPDATE có điều kiện (không câu
+ * lệnh nào lỗi vì thiếu hàng) nên vẫn một transaction cho mỗi đơn hàng dù
+ * bao nhiêu item thiếu. Sau commit, Order.getFulfilled() là các dòng đã giao,
+ * Order.getUnfulfilled() là phần còn thiếu (Order.getLines() vẫn là các
+ * dòng đã đặt). Không dòng nào giao được (hoặc
+ * product không tồn tại với ALL_OR_NOTHING) → rollback như cũ.
+ */
+public enum FulfilmentPolicy {
+    // Một item thiếu → rollback cả đơn hàng (mặc định)
+    ALL_OR_NOTHING,
+    // Bỏ các item không đủ hàng, giao các item còn lại
+    DROP_UNAVAILABLE,
+    // Item không đủ hàng được giao bằng số lượng còn trong kho
+    PARTIAL
+}
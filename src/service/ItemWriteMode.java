@@ -0,0 +1,16 @@
+package service;
+
+/**
+ * ItemWriteMode - Cách gửi nhiều dòng order_items / trừ kho xuống database
+ *
+ * Áp dụng cho bước insert order_items và bước trừ kho của
+ * StockUpdateMode.PER_ITEM; mỗi lần gửi tối đa itemBatchSize dòng.
+ */
+public enum ItemWriteMode {
+    // JDBC batch: mỗi dòng một câu lệnh, gửi theo từng nhóm itemBatchSize dòng
+    BATCH,
+    // Viết lại thành một câu lệnh nhiều dòng: VALUES (?, ?, ?), (?, ?, ?), ...
+    MULTI_VALUES,
+    // Một câu lệnh với tham số mảng: unnest(?::int[], ?::int[])
+    UNNEST
+}
@@ -0,0 +1,168 @@
+package service;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * LongHistogram - Histogram lock-free cho giá trị long >= 0 (latency ns, số item...)
+ *
+ * Bucket log-linear: mỗi khoảng [2^k, 2^(k+1)) chia thành 32 bucket bằng
+ * nhau, nên percentile có sai số tương đối tối đa ~3% với mọi độ lớn, bộ
+ * nhớ cố định (~15 KB). record() chỉ là vài phép tính bit và một lần
+ * incrementAndGet, không lock, không cấp phát.
+ */
+public final class LongHistogram {
+
+    private static final int SUB_BITS = 5;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public void record(long value) {
+        long v = Math.max(value, 0);
+        counts.incrementAndGet(index(v));
+        count.increment();
+        sum.add(v);
+        max.accumulate(v);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Xóa dữ liệu (giá trị ghi đồng thời với reset có thể mất hoặc còn lại)
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        count.reset();
+        sum.reset();
+        max.reset();
+    }
+
+    /**
+     * Chụp lại các percentile, mọi giá trị nhân với scale
+     * (vd 1e-6: nanosecond → millisecond)
+     */
+    public Snapshot snapshot(double scale) {
+        long[] copy = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+            total += copy[i];
+        }
+        long maxValue = max.get();
+        return new Snapshot(total,
+                total == 0 ? 0 : sum.sum() * scale / total,
+                percentile(copy, total, 0.50, maxValue) * scale,
+                percentile(copy, total, 0.90, maxValue) * scale,
+                percentile(copy, total, 0.99, maxValue) * scale,
+                percentile(copy, total, 0.999, maxValue) * scale,
+                maxValue * scale);
+    }
+
+    /**
+     * Cận trên của bucket chứa phần tử thứ ceil(q * total), không vượt quá max
+     */
+    private static long percentile(long[] counts, long total, double q, long maxValue) {
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(q * total));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(upperBound(i), maxValue);
+            }
+        }
+        return maxValue;
+    }
+
+    static int index(long value) {
+        if (value < SUB_COUNT) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        int sub = (int) (value >>> shift) & (SUB_COUNT - 1);
+        return (shift + 1) * SUB_COUNT + sub;
+    }
+
+    static long upperBound(int index) {
+        if (index < SUB_COUNT) {
+            return index;
+        }
+        int shift = index / SUB_COUNT - 1;
+        long lower = (long) (SUB_COUNT + index % SUB_COUNT) << shift;
+        return lower + (1L << shift) - 1;
+    }
+
+    @Override
+    public String toString() {
+        return snapshot(1).toString();
+    }
+
+    /**
+     * Giá trị tại một thời điểm (JMX hiển thị như CompositeData)
+     */
+    public static final class Snapshot {
+        private final long count;
+        private final double mean;
+        private final double p50;
+        private final double p90;
+        private final double p99;
+        private final double p999;
+        private final double max;
+
+        Snapshot(long count, double mean, double p50, double p90, double p99, double p999, double max) {
+            this.count = count;
+            this.mean = mean;
+            this.p50 = p50;
+            this.p90 = p90;
+            this.p99 = p99;
+            this.p999 = p999;
+            this.max = max;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getMean() {
+            return mean;
+        }
+
+        public double getP50() {
+            return p50;
+        }
+
+        public double getP90() {
+            return p90;
+        }
+
+        public double getP99() {
+            return p99;
+        }
+
+        public double getP999() {
+            return p999;
+        }
+
+        public double getMax() {
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("count=%d, mean=%.3f, p50=%.3f, p90=%.3f, p99=%.3f, p999=%.3f, max=%.3f",
+                    count, mean, p50, p90, p99, p999, max);
+        }
+    }
+}
@@ -0,0 +1,295 @@
+package service;
+
+import config.DatabaseConfig;
+import model.Order;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * OrderAdmissionController - Giới hạn số đơn hàng chạy đồng thời trước OrderService
+ *
+ * - Tối đa limit đơn hàng chạy cùng lúc, phần còn lại chờ trong hàng đợi
+ *   FIFO tối đa maxQueueSize; hàng đợi đầy → OverloadException(QUEUE_FULL)
+ *   ngay lập tức, không chờ
+ * - Mỗi request có deadline: không đủ thời gian cho một transaction (theo
+ *   latency quan sát được) thì bị từ chối ngay khi vào / khi đang chờ;
+ *   OrderService kiểm tra lại deadline trước khi lấy connection và trước
+ *   khi commit
+ * - limit tự điều chỉnh theo latency transaction (kiểu gradient):
+ *   gradient = tolerance * latency dài hạn / latency gần đây, kẹp trong
+ *   [0.5, 1]; limit mới = limit * gradient + sqrt(limit). Database chậm đi →
+ *   latency gần đây tăng → limit giảm, đơn hàng dư bị từ chối sớm thay vì
+ *   xếp hàng trên pool connection. Đơn hàng hết deadline trong OrderService
+ *   làm limit giảm 10%.
+ *
+ * Giữ latency của đơn hàng được nhận ổn định khi quá tải: thời gian chờ bị
+ * chặn bởi kích thước hàng đợi, không phải bởi borrow-timeout của pool.
+ */
+public class OrderAdmissionController {
+
+    // Latency gần đây có thể cao hơn dài hạn bao nhiêu lần trước khi giảm limit
+    private static final double TOLERANCE = 1.5;
+    private static final double SMOOTHING = 0.2;
+    private static final double SHORT_WINDOW = 10;
+    private static final double LONG_WINDOW = 500;
+    private static final double BACKOFF_RATIO = 0.9;
+
+    private final OrderService orderService;
+    private final int maxQueueSize;
+    private final int minLimit;
+    private final int maxLimit;
+    private volatile long defaultTimeoutMillis = 2_000;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition slotFree = lock.newCondition();
+    // Các field dưới đây chỉ đọc/ghi khi giữ lock
+    private double limit;
+    private int inFlight;
+    private int queued;
+    private double shortLatencyNanos;
+    private double longLatencyNanos;
+
+    // Thống kê
+    private final LongAdder admittedCount = new LongAdder();
+    private final LongAdder queueFullCount = new LongAdder();
+    private final LongAdder deadlineRejectedCount = new LongAdder();
+    private final LongAdder deadlineExceededCount = new LongAdder();
+    private final LongHistogram queueWait = new LongHistogram();
+
+    /**
+     * limit nằm trong [1, số connection tối đa của pool], bắt đầu từ một nửa
+     *
+     * @param orderService OrderService thực hiện đơn hàng
+     * @param maxQueueSize Số request tối đa chờ tới lượt
+     */
+    public OrderAdmissionController(OrderService orderService, int maxQueueSize) {
+        this(orderService, maxQueueSize, 1, DatabaseConfig.getInstance().getPoolSettings().getMaxSize());
+    }
+
+    public OrderAdmissionController(OrderService orderService, int maxQueueSize, int minLimit, int maxLimit) {
+        if (maxQueueSize < 0) {
+            throw new IllegalArgumentException("maxQueueSize phải >= 0");
+        }
+        if (minLimit < 1 || maxLimit < minLimit) {
+            throw new IllegalArgumentException("Cần 1 <= minLimit <= maxLimit");
+        }
+        this.orderService = orderService;
+        this.maxQueueSize = maxQueueSize;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = Math.max(minLimit, maxLimit / 2.0);
+    }
+
+    public long getDefaultTimeoutMillis() {
+        return defaultTimeoutMillis;
+    }
+
+    /**
+     * Deadline mặc định của createOrder(order), tính từ lúc gọi
+     */
+    public void setDefaultTimeoutMillis(long defaultTimeoutMillis) {
+        this.defaultTimeoutMillis = defaultTimeoutMillis;
+    }
+
+    public int createOrder(Order order) throws Exception {
+        return createOrder(order, defaultTimeoutMillis);
+    }
+
+    /**
+     * Tạo đơn hàng nếu được nhận trong thời gian timeoutMillis
+     *
+     * @return Order ID của đơn hàng vừa tạo
+     * @throws OverloadException nếu hàng đợi đầy hoặc không kịp deadline
+     *         (chưa ghi gì vào database)
+     * @throws Exception lỗi của OrderService.createOrder (không đủ hàng...)
+     */
+    public int createOrder(Order order, long timeoutMillis) throws Exception {
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        boolean appLimited = acquire(start, deadline);
+
+        long admittedAt = System.nanoTime();
+        boolean dropped = false;
+        try {
+            return orderService.createOrder(order, deadline);
+        } catch (OverloadException e) {
+            dropped = true;
+            deadlineExceededCount.increment();
+            throw e;
+        } finally {
+            release(System.nanoTime() - admittedAt, appLimited, dropped);
+        }
+    }
+
+    /**
+     * Chờ tới lượt (FIFO), từ chối nếu hàng đợi đầy hoặc không còn đủ thời gian
+     *
+     * @return true nếu lúc vào số đơn đang chạy còn xa limit (không dùng để tăng limit)
+     */
+    private boolean acquire(long start, long deadline) throws OverloadException, InterruptedException {
+        lock.lock();
+        try {
+            if (queued == 0 && inFlight < (int) limit) {
+                return admit(start);
+            }
+            if (queued >= maxQueueSize) {
+                queueFullCount.increment();
+                throw new OverloadException(OverloadException.Reason.QUEUE_FULL, String.format(
+                        "❌ Hệ thống quá tải: %d đơn đang chạy, %d đơn đang chờ", inFlight, queued));
+            }
+            // Ước lượng: chờ các đơn phía trước rồi chạy một transaction
+            long expectedNanos = (long) ((queued / limit + 1) * shortLatencyNanos);
+            if (start + expectedNanos - deadline > 0) {
+                deadlineRejectedCount.increment();
+                throw new OverloadException(OverloadException.Reason.DEADLINE_EXCEEDED, String.format(
+                        "❌ Không kịp deadline: %d đơn đang chờ, latency hiện tại ~%.0f ms",
+                        queued, shortLatencyNanos / 1e6));
+            }
+            queued++;
+            try {
+                while (true) {
+                    // Chỉ chờ khi vẫn còn đủ thời gian cho một transaction sau đó
+                    long waitNanos = deadline - System.nanoTime() - (long) shortLatencyNanos;
+                    if (waitNanos <= 0) {
+                        deadlineRejectedCount.increment();
+                        throw new OverloadException(OverloadException.Reason.DEADLINE_EXCEEDED, String.format(
+                                "❌ Không kịp deadline: đã chờ %d ms, latency hiện tại ~%.0f ms",
+                                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), shortLatencyNanos / 1e6));
+                    }
+                    if (inFlight < (int) limit) {
+                        return admit(start);
+                    }
+                    slotFree.awaitNanos(waitNanos);
+                }
+            } finally {
+                queued--;
+                // Request bị từ chối / được nhận: request kế tiếp có thể vào nếu còn chỗ
+                if (inFlight < (int) limit) {
+                    slotFree.signal();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean admit(long start) {
+        inFlight++;
+        admittedCount.increment();
+        queueWait.record(System.nanoTime() - start);
+        return inFlight < limit / 2;
+    }
+
+    /**
+     * Trả chỗ và cập nhật limit theo latency của transaction vừa xong
+     */
+    private void release(long latencyNanos, boolean appLimited, boolean dropped) {
+        lock.lock();
+        try {
+            inFlight--;
+            if (dropped) {
+                limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+            } else {
+                updateLimit(latencyNanos, appLimited);
+            }
+            int free = (int) limit - inFlight;
+            for (int i = 0; i < free && i < queued; i++) {
+                slotFree.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void updateLimit(long latencyNanos, boolean appLimited) {
+        if (longLatencyNanos == 0) {
+            shortLatencyNanos = latencyNanos;
+            longLatencyNanos = latencyNanos;
+            return;
+        }
+        shortLatencyNanos += (latencyNanos - shortLatencyNanos) / SHORT_WINDOW;
+        longLatencyNanos += (latencyNanos - longLatencyNanos) / LONG_WINDOW;
+        // Latency đã giảm hẳn (database hồi phục): kéo mốc dài hạn xuống nhanh hơn
+        if (longLatencyNanos > 2 * shortLatencyNanos) {
+            longLatencyNanos *= 0.95;
+        }
+        // Đang chạy ít hơn nhiều so với limit: latency không nói gì về limit hiện tại
+        if (appLimited) {
+            return;
+        }
+        double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * longLatencyNanos / shortLatencyNanos));
+        double newLimit = limit * gradient + Math.sqrt(limit);
+        limit = Math.max(minLimit, Math.min(maxLimit, limit * (1 - SMOOTHING) + newLimit * SMOOTHING));
+    }
+
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getQueued() {
+        lock.lock();
+        try {
+            return queued;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Getters cho thống kê
+    public long getAdmittedCount() {
+        return admittedCount.sum();
+    }
+
+    // Bị từ chối vì hàng đợi đầy
+    public long getQueueFullCount() {
+        return queueFullCount.sum();
+    }
+
+    // Bị từ chối trước khi chạy vì không kịp deadline
+    public long getDeadlineRejectedCount() {
+        return deadlineRejectedCount.sum();
+    }
+
+    // Đã được nhận nhưng hết deadline trong OrderService (trước khi lấy connection / commit)
+    public long getDeadlineExceededCount() {
+        return deadlineExceededCount.sum();
+    }
+
+    // Thời gian chờ trong hàng đợi của các request được nhận (ns)
+    public LongHistogram getQueueWait() {
+        return queueWait;
+    }
+
+    @Override
+    public String toString() {
+        LongHistogram.Snapshot wait = queueWait.snapshot(1e-6);
+        lock.lock();
+        try {
+            return String.format(
+                    "OrderAdmissionController[limit=%d, inFlight=%d, queued=%d, admitted=%d, queueFull=%d, "
+                            + "deadlineRejected=%d, deadlineExceeded=%d, latency=%.1fms/%.1fms, queueWait p99=%.1fms]",
+                    (int) limit, inFlight, queued, getAdmittedCount(), getQueueFullCount(),
+                    getDeadlineRejectedCount(), getDeadlineExceededCount(), shortLatencyNanos / 1e6,
+                    longLatencyNanos / 1e6, wait.getP99());
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package service;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * OrderIdAllocator - Cấp Order ID theo block, không cần RETURNING mỗi đơn hàng
+ *
+ * Lấy trước blockSize giá trị của orders_id_seq trong một query rồi cấp
+ * dần từ bộ nhớ bằng một phép getAndIncrement (lock-free). Chỉ khi hết
+ * block mới có một thread đi lấy block mới (dùng connection của caller).
+ *
+ * Biết trước Order ID nên createOrder ghi orders + order_items trong cùng
+ * một câu lệnh ở cuối transaction. ID còn thừa trong block khi tắt ứng
+ * dụng sẽ bị bỏ (tạo khoảng trống trong dãy ID), ID cũng không tăng
+ * theo thứ tự commit.
+ */
+public class OrderIdAllocator {
+
+    // generate_series thay vì đổi INCREMENT của sequence: vẫn đúng khi có
+    // nơi khác (BulkOrderImporter, createOrder không dùng allocator) gọi nextval xen kẽ
+    private static final String SQL_NEXT_BLOCK =
+            "SELECT nextval('orders_id_seq') FROM generate_series(1, ?)";
+
+    private static final Block EMPTY = new Block(new int[0]);
+
+    private final int blockSize;
+    private final AtomicReference<Block> current = new AtomicReference<>(EMPTY);
+    private final Object refillLock = new Object();
+
+    // Thống kê
+    private final LongAdder allocatedCount = new LongAdder();
+    private final LongAdder blockCount = new LongAdder();
+
+    /**
+     * @param blockSize Số ID lấy trước mỗi lần truy cập sequence
+     */
+    public OrderIdAllocator(int blockSize) {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("blockSize phải >= 1");
+        }
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * Cấp một Order ID
+     *
+     * @param conn Connection dùng khi cần lấy block mới (nextval không phụ
+     *             thuộc transaction nên có thể là connection đang trong transaction)
+     */
+    public int nextId(Connection conn) throws SQLException {
+        while (true) {
+            Block block = current.get();
+            int index = block.position.getAndIncrement();
+            if (index < block.ids.length) {
+                allocatedCount.increment();
+                return block.ids[index];
+            }
+            // Hết block: chỉ một thread lấy block mới, các thread khác chờ rồi thử lại
+            synchronized (refillLock) {
+                if (current.get() == block) {
+                    current.set(fetchBlock(conn));
+                }
+            }
+        }
+    }
+
+    private Block fetchBlock(Connection conn) throws SQLException {
+        int[] ids = new int[blockSize];
+        int count = 0;
+        try (PreparedStatement pstmt = conn.prepareStatement(SQL_NEXT_BLOCK)) {
+            pstmt.setInt(1, blockSize);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    ids[count++] = rs.getInt(1);
+                }
+            }
+        }
+        blockCount.increment();
+        return new Block(ids);
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    // Getters cho thống kê
+    public long getAllocatedCount() {
+        return allocatedCount.sum();
+    }
+
+    public long getBlockCount() {
+        return blockCount.sum();
+    }
+
+    /**
+     * Một block ID đã lấy từ sequence (không nhất thiết liên tục)
+     */
+    private static final class Block {
+        final int[] ids;
+        final AtomicInteger position = new AtomicInteger();
+
+        Block(int[] ids) {
+            this.ids = ids;
+        }
+    }
+}
@@ -0,0 +1,331 @@
+package service;
+
+import config.DatabaseConfig;
+import model.Order;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * OrderIngestor - Group commit cho đơn hàng
+ *
+ * Gom các Order được submit đồng thời trong tối đa maxWaitMillis (hoặc đủ
+ * maxBatchSize order) rồi ghi chúng trong MỘT transaction:
+ * - Mỗi order chạy dưới một savepoint riêng → order thiếu hàng chỉ rollback
+ *   về savepoint của nó, không ảnh hưởng các order khác trong batch
+ * - Một lần commit (một lần fsync WAL) cho cả batch
+ * - Future của mỗi caller nhận Order ID của chính nó, hoặc lỗi của nó
+ * - Mọi product của batch được lock trước theo thứ tự id, nên hai batch
+ *   (hoặc batch và createOrder) không lock chéo nhau giữa các order
+ * - Deadlock / serialization failure → rollback cả batch và chạy lại
+ *
+ * maxWaitMillis / maxBatchSize càng lớn thì throughput càng cao nhưng
+ * latency của từng order càng tăng. maxBatchSize tối đa MAX_BATCH_SIZE:
+ * mỗi order một subtransaction, quá 64 subtransaction mỗi backend
+ * PostgreSQL phải tràn cache subxid ra pg_subtrans.
+ */
+public class OrderIngestor {
+
+    public static final int MAX_BATCH_SIZE = 32;
+    private static final int MAX_BATCH_ATTEMPTS = 3;
+
+    // Lock tất cả product của batch theo thứ tự id trước khi ghi từng order
+    private static final String SQL_LOCK_PRODUCTS =
+            "SELECT id FROM products WHERE id = ANY(?) ORDER BY id FOR NO KEY UPDATE";
+
+    private final OrderService orderService;
+    private final DatabaseConfig dbConfig;
+    private final int maxBatchSize;
+    private final long maxWaitNanos;
+
+    private final BlockingQueue<PendingOrder> queue = new LinkedBlockingQueue<>();
+    private final Thread worker;
+    private volatile boolean running = true;
+
+    // Thống kê
+    private final LongAdder batchCount = new LongAdder();
+    private final LongAdder committedOrders = new LongAdder();
+    private final LongAdder failedOrders = new LongAdder();
+
+    /**
+     * @param orderService OrderService dùng để ghi từng order
+     * @param maxBatchSize Số order tối đa trong một transaction (1 → MAX_BATCH_SIZE)
+     * @param maxWaitMillis Thời gian tối đa chờ gom thêm order kể từ order đầu tiên
+     */
+    public OrderIngestor(OrderService orderService, int maxBatchSize, long maxWaitMillis) {
+        if (maxBatchSize < 1 || maxBatchSize > MAX_BATCH_SIZE) {
+            throw new IllegalArgumentException("maxBatchSize phải trong khoảng 1 → " + MAX_BATCH_SIZE);
+        }
+        this.orderService = orderService;
+        this.dbConfig = DatabaseConfig.getInstance();
+        this.maxBatchSize = maxBatchSize;
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+        this.worker = new Thread(this::runLoop, "order-ingestor");
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * Gửi order vào hàng đợi group commit
+     *
+     * @return Future hoàn thành với Order ID sau khi batch chứa order được commit,
+     *         hoặc hoàn thành với lỗi nếu order thất bại
+     */
+    public CompletableFuture<Integer> submit(Order order) {
+        PendingOrder pending = new PendingOrder(order);
+        if (!running) {
+            pending.future.completeExceptionally(new IllegalStateException("OrderIngestor đã dừng"));
+            return pending.future;
+        }
+        queue.add(pending);
+        // Worker vừa dừng (shutdown / bị ngắt) sau khi kiểm tra running
+        if (!running && queue.remove(pending)) {
+            pending.future.completeExceptionally(new IllegalStateException("OrderIngestor đã dừng"));
+        }
+        return pending.future;
+    }
+
+    /**
+     * Dừng nhận order mới, ghi nốt các order còn trong hàng đợi rồi dừng worker
+     */
+    public void shutdown() throws InterruptedException {
+        running = false;
+        worker.join();
+        // Order được submit đúng lúc đang dừng
+        failQueued(new IllegalStateException("OrderIngestor đã dừng"));
+    }
+
+    private void runLoop() {
+        List<PendingOrder> batch = new ArrayList<>(maxBatchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingOrder first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+
+                // Gom thêm order cho đến khi đủ batch hoặc hết thời gian chờ
+                long deadline = System.nanoTime() + maxWaitNanos;
+                while (batch.size() < maxBatchSize) {
+                    queue.drainTo(batch, maxBatchSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= maxBatchSize || remaining <= 0) {
+                        break;
+                    }
+                    PendingOrder next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+
+                executeBatch(batch);
+            } catch (InterruptedException e) {
+                // Worker bị ngắt: không ghi tiếp, báo lỗi cho các order đã gom và đang chờ
+                running = false;
+                IllegalStateException stopped = new IllegalStateException("OrderIngestor bị ngắt");
+                failBatch(batch, stopped);
+                failQueued(stopped);
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Ghi cả batch, chạy lại cả batch khi transaction bị hủy vì deadlock /
+     * serialization failure. Future chỉ hoàn thành sau khi có kết quả cuối.
+     */
+    private void executeBatch(List<PendingOrder> batch) {
+        for (int attempt = 1;; attempt++) {
+            try {
+                writeBatch(batch);
+                break;
+            } catch (SQLException e) {
+                String state = e.getSQLState();
+                boolean retryable = "40P01".equals(state) || "40001".equals(state);
+                if (retryable && attempt < MAX_BATCH_ATTEMPTS) {
+                    dbConfig.getEventSink().warn("⚠ Batch %d order bị hủy (%s), thử lại lần %d",
+                            batch.size(), state, attempt + 1);
+                    continue;
+                }
+                failBatch(batch, e);
+                return;
+            } catch (Exception e) {
+                failBatch(batch, e);
+                return;
+            }
+        }
+
+        batchCount.increment();
+        for (PendingOrder pending : batch) {
+            if (pending.error == null) {
+                committedOrders.increment();
+                orderService.invalidateCachedProducts(pending.order);
+                pending.future.complete(pending.orderId);
+            } else {
+                failedOrders.increment();
+                pending.future.completeExceptionally(pending.error);
+            }
+        }
+    }
+
+    /**
+     * Ghi cả batch trong một transaction, mỗi order một savepoint
+     *
+     * @throws SQLException nếu transaction thất bại (đã rollback, trạng thái
+     *         của các order đã được khôi phục)
+     */
+    private void writeBatch(List<PendingOrder> batch) throws SQLException {
+        Connection conn = dbConfig.getConnection();
+        try {
+            conn.setAutoCommit(false);
+            lockProducts(conn, batch);
+            // Số liệu bán hàng của cả batch: một upsert trước commit
+            SalesDelta sales = new SalesDelta();
+
+            for (PendingOrder pending : batch) {
+                Savepoint savepoint = conn.setSavepoint();
+                try {
+                    pending.orderId = orderService.placeOrder(conn, pending.order);
+                    pending.error = null;
+                    conn.releaseSavepoint(savepoint);
+                    sales.add(pending.order.getFulfilled());
+                } catch (SQLException e) {
+                    conn.rollback(savepoint);
+                    pending.reset();
+                    String state = e.getSQLState();
+                    if ("40P01".equals(state) || "40001".equals(state)) {
+                        // Transaction đã bị database hủy → chạy lại cả batch
+                        throw e;
+                    }
+                    pending.error = e;
+                } catch (Exception e) {
+                    // Chỉ hoàn tác order này, các order khác trong batch vẫn giữ nguyên
+                    conn.rollback(savepoint);
+                    pending.reset();
+                    pending.error = e;
+                }
+            }
+
+            if (orderService.isSalesAggregation()) {
+                sales.flush(conn);
+            }
+            conn.commit();
+
+        } catch (SQLException | RuntimeException e) {
+            // Lỗi ở mức transaction (connection, commit...) → hoàn tác cả batch
+            try {
+                conn.rollback();
+            } catch (SQLException rollbackEx) {
+                dbConfig.getEventSink().error("✗ Lỗi khi rollback: %s", rollbackEx.getMessage());
+            }
+            for (PendingOrder pending : batch) {
+                pending.reset();
+            }
+            throw e;
+
+        } finally {
+            try {
+                conn.setAutoCommit(true);
+                conn.close();
+            } catch (SQLException e) {
+                dbConfig.getEventSink().error("✗ Lỗi khi đóng resources: %s", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Lock các product của cả batch theo thứ tự id (cùng thứ tự với
+     * SET_BASED và StockBucketRebalancer), trước khi order nào được ghi
+     */
+    private void lockProducts(Connection conn, List<PendingOrder> batch) throws SQLException {
+        TreeSet<Integer> productIds = new TreeSet<>();
+        for (PendingOrder pending : batch) {
+            for (int productId : pending.order.getLines().productIds()) {
+                productIds.add(productId);
+            }
+        }
+        try (PreparedStatement pstmt = conn.prepareStatement(SQL_LOCK_PRODUCTS)) {
+            pstmt.setArray(1, conn.createArrayOf("integer", productIds.toArray()));
+            pstmt.executeQuery().close();
+        }
+    }
+
+    private void failBatch(List<PendingOrder> batch, Exception e) {
+        for (PendingOrder pending : batch) {
+            if (pending.future.completeExceptionally(e)) {
+                failedOrders.increment();
+            }
+        }
+    }
+
+    private void failQueued(Exception e) {
+        PendingOrder pending;
+        while ((pending = queue.poll()) != null) {
+            pending.future.completeExceptionally(e);
+        }
+    }
+
+    // Getters cho thống kê
+    public long getBatchCount() {
+        return batchCount.sum();
+    }
+
+    public long getCommittedOrders() {
+        return committedOrders.sum();
+    }
+
+    public long getFailedOrders() {
+        return failedOrders.sum();
+    }
+
+    // Số order trung bình trong một transaction
+    public double getAvgBatchSize() {
+        long batches = batchCount.sum();
+        return batches == 0 ? 0 : (double) committedOrders.sum() / batches;
+    }
+
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    /**
+     * Order đang chờ group commit
+     */
+    private static final class PendingOrder {
+        final Order order;
+        final CompletableFuture<Integer> future = new CompletableFuture<>();
+        // ID của order trước khi ghi (khôi phục khi bị rollback)
+        final int originalId;
+        int orderId;
+        Exception error;
+
+        PendingOrder(Order order) {
+            this.order = order;
+            this.originalId = order.getId();
+        }
+
+        /**
+         * Order bị rollback: bỏ ID và kết quả giao hàng đã gán khi ghi
+         */
+        void reset() {
+            orderId = 0;
+            order.setId(originalId);
+            Fulfilment.clear(order);
+        }
+    }
+}
@@ -0,0 +1,817 @@
+package service;
+
+import config.DatabaseConfig;
+import log.EventSink;
+import model.Order;
+import model.OrderLines;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * OrderJournal - Nhận đơn hàng vào journal trên đĩa local, ghi vào database sau
+ *
+ * - append(): ghi order vào file journal (memory-mapped, append-only, mỗi
+ *   entry có CRC32C). Future hoàn thành khi entry đã được fsync, không chờ
+ *   transaction của database
+ * - Thread flush fsync tất cả entry mới mỗi syncIntervalMillis (một lần
+ *   fsync cho nhiều order)
+ * - Thread drain ghi các entry đã fsync vào orders / order_items / products
+ *   bằng OrderService.placeOrder, tối đa drainBatchSize order mỗi transaction
+ *   (mỗi order một savepoint như OrderIngestor). Quy tắc tồn kho được kiểm
+ *   tra lúc drain: order không đủ hàng / không tìm thấy product được báo qua
+ *   outcomeListener. Mọi lỗi khác của database (mất kết nối, lỗi ghi...)
+ *   rollback cả batch và drain lại sau, checkpoint không tăng: order đã xác
+ *   nhận cho client không bao giờ bị bỏ
+ * - Sequence cuối đã drain được lưu vào order_journal_checkpoints trong cùng
+ *   transaction, nên khi khởi động lại sau crash chỉ các entry có sequence
+ *   lớn hơn checkpoint được ghi lại (đúng một lần)
+ *
+ * Journal gồm nhiều segment (orders-&lt;sequence đầu&gt;.journal) kích thước
+ * cố định; segment đã drain hết được xóa. Checkpoint được lưu theo ID của
+ * journal (file journal.id trong thư mục, tạo ở lần mở đầu tiên), không
+ * theo đường dẫn: chuyển / mount thư mục ở nơi khác vẫn giữ checkpoint. Entry bị ghi dở (CRC sai) ở cuối
+ * segment khi crash được bỏ qua, entry đó chưa từng được xác nhận cho client.
+ */
+public class OrderJournal {
+
+    public static final int DEFAULT_SEGMENT_BYTES = 64 << 20;
+
+    // length (int) + crc (int) + sequence (long), sau đó là payload
+    private static final int HEADER_BYTES = 16;
+    private static final String SEGMENT_PREFIX = "orders-";
+    private static final String SEGMENT_SUFFIX = ".journal";
+    private static final String ID_FILE = "journal.id";
+    // Chờ trước khi drain lại khi database lỗi (gấp đôi mỗi lần lỗi liên tiếp)
+    private static final long RETRY_DELAY_MILLIS = 1_000;
+    private static final long MAX_RETRY_DELAY_MILLIS = 30_000;
+
+    private static final String SQL_LOAD_CHECKPOINT =
+            "SELECT last_sequence FROM order_journal_checkpoints WHERE journal_name = ?";
+    private static final String SQL_SAVE_CHECKPOINT =
+            "INSERT INTO order_journal_checkpoints (journal_name, last_sequence) VALUES (?, ?) "
+            + "ON CONFLICT (journal_name) DO UPDATE SET last_sequence = EXCLUDED.last_sequence";
+    // Journal tạo trước khi có journal.id lưu checkpoint theo đường dẫn tuyệt đối
+    private static final String SQL_COPY_CHECKPOINT =
+            "INSERT INTO order_journal_checkpoints (journal_name, last_sequence) "
+            + "SELECT ?, last_sequence FROM order_journal_checkpoints WHERE journal_name = ? "
+            + "ON CONFLICT (journal_name) DO NOTHING";
+    private static final String SQL_DELETE_CHECKPOINT =
+            "DELETE FROM order_journal_checkpoints WHERE journal_name = ?";
+
+    private final OrderService orderService;
+    private final DatabaseConfig dbConfig;
+    private final Path directory;
+    private final String name;
+    private final int segmentBytes;
+    private final int drainBatchSize;
+    private final long syncIntervalMillis;
+
+    // Ghi journal (giữ writeLock)
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    private Segment active;
+    private long nextSequence;
+    private List<Entry> unflushed = new ArrayList<>();
+    private volatile boolean accepting = true;
+
+    // Entry đã fsync, chờ drain (theo thứ tự sequence)
+    private final BlockingQueue<Entry> drainQueue = new LinkedBlockingQueue<>();
+    private volatile long drainedSequence;
+    private volatile boolean running = true;
+    private volatile Consumer<Outcome> outcomeListener = outcome -> { };
+
+    private final Thread flusher;
+    private final Thread drainer;
+
+    // Thống kê
+    private final LongAdder appendedCount = new LongAdder();
+    private final LongAdder syncCount = new LongAdder();
+    private final LongAdder drainBatchCount = new LongAdder();
+    private final LongAdder drainedCount = new LongAdder();
+    private final LongAdder rejectedCount = new LongAdder();
+    private final LongAdder recoveredCount = new LongAdder();
+
+    /**
+     * Mở journal trong directory: đọc checkpoint từ database, đưa các entry
+     * chưa drain vào hàng đợi rồi chạy thread flush và drain
+     *
+     * @param orderService OrderService dùng để ghi từng order lúc drain
+     * @param directory Thư mục chứa các segment và file journal.id
+     * @param drainBatchSize Số order tối đa trong một transaction drain
+     * @param syncIntervalMillis Khoảng thời gian giữa hai lần fsync
+     */
+    public OrderJournal(OrderService orderService, Path directory, int drainBatchSize, long syncIntervalMillis)
+            throws IOException, SQLException {
+        this(orderService, directory, drainBatchSize, syncIntervalMillis, DEFAULT_SEGMENT_BYTES);
+    }
+
+    public OrderJournal(OrderService orderService, Path directory, int drainBatchSize, long syncIntervalMillis,
+            int segmentBytes) throws IOException, SQLException {
+        if (drainBatchSize < 1) {
+            throw new IllegalArgumentException("drainBatchSize phải >= 1");
+        }
+        if (segmentBytes < HEADER_BYTES + 12) {
+            throw new IllegalArgumentException("segmentBytes quá nhỏ");
+        }
+        this.orderService = orderService;
+        this.dbConfig = DatabaseConfig.getInstance();
+        this.directory = directory.toAbsolutePath();
+        this.segmentBytes = segmentBytes;
+        this.drainBatchSize = drainBatchSize;
+        this.syncIntervalMillis = syncIntervalMillis;
+
+        Files.createDirectories(this.directory);
+        this.name = loadOrCreateId();
+        recover();
+
+        this.flusher = new Thread(this::flushLoop, "order-journal-flusher");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+        this.drainer = new Thread(this::drainLoop, "order-journal-drainer");
+        this.drainer.setDaemon(true);
+        this.drainer.start();
+    }
+
+    /**
+     * Nhận kết quả drain của từng order (Order ID hoặc lỗi không đủ hàng...)
+     */
+    public void setOutcomeListener(Consumer<Outcome> outcomeListener) {
+        this.outcomeListener = outcomeListener;
+    }
+
+    /**
+     * Ghi order vào journal
+     *
+     * @return Future hoàn thành với sequence của entry khi entry đã được
+     *         fsync; order được ghi vào database sau đó (xem outcomeListener)
+     */
+    public CompletableFuture<Long> append(Order order) {
+        // Sao chép dòng: caller có thể sửa order sau khi append
+        OrderLines source = order.getLines();
+        OrderLines lines = new OrderLines(source.size());
+        for (int i = 0; i < source.size(); i++) {
+            lines.add(source.productId(i), source.qty(i));
+        }
+        Entry entry = new Entry(lines);
+
+        if (lines.isEmpty()) {
+            entry.durable.completeExceptionally(new IllegalArgumentException("Order không có item"));
+            return entry.durable;
+        }
+        for (int i = 0; i < lines.size(); i++) {
+            if (lines.qty(i) <= 0) {
+                // Không nhận vào journal: lúc drain sẽ lỗi CHECK mãi mãi
+                entry.durable.completeExceptionally(new IllegalArgumentException(
+                        "Số lượng phải > 0 (Product ID: " + lines.productId(i) + ")"));
+                return entry.durable;
+            }
+        }
+        ByteBuffer payload = encode(lines);
+        if (HEADER_BYTES + payload.capacity() > segmentBytes) {
+            entry.durable.completeExceptionally(new IllegalArgumentException(
+                    "Order quá lớn cho một segment (" + lines.size() + " dòng)"));
+            return entry.durable;
+        }
+
+        writeLock.lock();
+        try {
+            if (!accepting) {
+                entry.durable.completeExceptionally(new IllegalStateException("OrderJournal đã dừng"));
+                return entry.durable;
+            }
+            int recordBytes = HEADER_BYTES + payload.capacity();
+            if (active == null || active.position + recordBytes > segmentBytes) {
+                rollSegment();
+            }
+            entry.sequence = nextSequence++;
+            write(active, entry.sequence, payload);
+            unflushed.add(entry);
+            appendedCount.increment();
+        } catch (IOException e) {
+            entry.durable.completeExceptionally(e);
+        } finally {
+            writeLock.unlock();
+        }
+        return entry.durable;
+    }
+
+    /**
+     * Dừng nhận order mới, fsync và drain nốt các entry còn lại rồi dừng
+     *
+     * Database lỗi trong lúc dừng: entry chưa drain vẫn nằm trong journal và
+     * được ghi lại ở lần mở journal tiếp theo.
+     */
+    public void shutdown() throws InterruptedException {
+        accepting = false;
+        running = false;
+        flusher.join();
+        drainer.join();
+    }
+
+    /**
+     * Ghi một record: length ghi sau cùng, CRC phủ sequence + payload
+     */
+    private static void write(Segment segment, long sequence, ByteBuffer payload) {
+        MappedByteBuffer buffer = segment.buffer;
+        int pos = segment.position;
+        int length = payload.capacity();
+        buffer.putLong(pos + 8, sequence);
+        buffer.put(pos + HEADER_BYTES, payload, 0, length);
+
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.slice(pos + 8, 8 + length));
+        buffer.putInt(pos + 4, (int) crc.getValue());
+        buffer.putInt(pos, length);
+
+        segment.position = pos + HEADER_BYTES + length;
+        segment.lastSequence = sequence;
+    }
+
+    /**
+     * Payload: số dòng, sau đó (product_id, qty) của từng dòng
+     */
+    static ByteBuffer encode(OrderLines lines) {
+        ByteBuffer payload = ByteBuffer.allocate(4 + lines.size() * 8);
+        payload.putInt(lines.size());
+        for (int i = 0; i < lines.size(); i++) {
+            payload.putInt(lines.productId(i));
+            payload.putInt(lines.qty(i));
+        }
+        return payload;
+    }
+
+    /**
+     * Segment mới bắt đầu từ nextSequence (segment cũ giữ lại tới khi drain hết)
+     *
+     * File (kích thước) và entry trong thư mục được fsync trước khi ghi entry
+     * đầu tiên: flush chỉ fsync dữ liệu, sau crash segment phải còn đó.
+     * Lỗi giữa chừng: xóa file vừa tạo (chưa có entry nào), lần append sau
+     * tạo lại với cùng tên.
+     */
+    private void rollSegment() throws IOException {
+        Path path = directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, nextSequence, SEGMENT_SUFFIX));
+        MappedByteBuffer buffer;
+        try {
+            try (FileChannel channel = FileChannel.open(path,
+                    StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+                channel.force(true);
+            }
+            syncDirectory();
+        } catch (FileAlreadyExistsException e) {
+            // Không phải file của lần tạo này: không xóa
+            throw e;
+        } catch (IOException | RuntimeException e) {
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException deleteEx) {
+                e.addSuppressed(deleteEx);
+            }
+            throw e;
+        }
+        Segment segment = new Segment(path, buffer);
+        segment.lastSequence = nextSequence - 1;
+        segments.addLast(segment);
+        active = segment;
+    }
+
+    /**
+     * Đọc checkpoint và các segment hiện có; entry chưa drain vào hàng đợi
+     * drain. Entry mới luôn ghi vào segment mới (không ghi tiếp sau phần
+     * có thể bị ghi dở của segment cũ).
+     */
+    private void recover() throws IOException, SQLException {
+        EventSink log = dbConfig.getEventSink();
+        long checkpoint = loadCheckpoint();
+        drainedSequence = checkpoint;
+        long lastSequence = checkpoint;
+
+        List<Path> files;
+        try (Stream<Path> list = Files.list(directory)) {
+            files = list.filter(p -> {
+                String fileName = p.getFileName().toString();
+                return fileName.startsWith(SEGMENT_PREFIX) && fileName.endsWith(SEGMENT_SUFFIX);
+            }).sorted().toList();
+        }
+
+        for (Path path : files) {
+            MappedByteBuffer buffer;
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            }
+            Segment segment = new Segment(path, buffer);
+            segment.lastSequence = lastSequence;
+
+            int pos = 0;
+            while (pos + HEADER_BYTES <= buffer.capacity()) {
+                int length = buffer.getInt(pos);
+                if (length < 4 || pos + HEADER_BYTES + length > buffer.capacity()) {
+                    break;
+                }
+                CRC32C crc = new CRC32C();
+                crc.update(buffer.slice(pos + 8, 8 + length));
+                if ((int) crc.getValue() != buffer.getInt(pos + 4)) {
+                    log.warn("⚠ Journal %s: entry ghi dở tại byte %d, bỏ qua phần còn lại của segment",
+                            path.getFileName(), pos);
+                    break;
+                }
+                long sequence = buffer.getLong(pos + 8);
+                if (sequence > checkpoint) {
+                    Entry entry = new Entry(decode(buffer, pos + HEADER_BYTES, length));
+                    entry.sequence = sequence;
+                    entry.durable.complete(sequence);
+                    drainQueue.add(entry);
+                    recoveredCount.increment();
+                }
+                lastSequence = Math.max(lastSequence, sequence);
+                segment.lastSequence = lastSequence;
+                pos += HEADER_BYTES + length;
+            }
+            if (pos == 0) {
+                // Segment chưa có entry hợp lệ nào (crash / lỗi ngay sau khi tạo):
+                // xóa để segment mới có thể dùng lại tên (cùng sequence đầu)
+                Files.delete(path);
+                continue;
+            }
+            // Segment cũ chỉ để đọc: không ghi thêm, không cần fsync lại
+            segment.position = buffer.capacity();
+            segment.flushedPosition = buffer.capacity();
+            segments.addLast(segment);
+        }
+        nextSequence = lastSequence + 1;
+        deleteDrainedSegments();
+
+        if (recoveredCount.sum() > 0) {
+            log.info("✓ Journal %s: %d entry chưa ghi vào database (checkpoint %d)",
+                    name, recoveredCount.sum(), checkpoint);
+        }
+    }
+
+    /**
+     * fsync thư mục journal (tạo / đổi tên file chỉ bền vững sau bước này)
+     */
+    private void syncDirectory() throws IOException {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+
+    /**
+     * ID của journal trong file journal.id; lần mở đầu tiên tạo ID mới (ghi
+     * file tạm, fsync, đổi tên, fsync thư mục) và chuyển checkpoint cũ lưu
+     * theo đường dẫn sang ID đó
+     */
+    private String loadOrCreateId() throws IOException, SQLException {
+        Path idFile = directory.resolve(ID_FILE);
+        if (Files.exists(idFile)) {
+            String id = Files.readString(idFile, StandardCharsets.UTF_8).trim();
+            if (id.isEmpty()) {
+                throw new IOException("File " + idFile + " rỗng");
+            }
+            return id;
+        }
+
+        String id = UUID.randomUUID().toString();
+        String legacyName = directory.toString();
+        // Chép checkpoint trước khi có file ID: crash ở giữa chỉ để lại một dòng thừa
+        try (Connection conn = dbConfig.getConnection();
+                PreparedStatement pstmt = conn.prepareStatement(SQL_COPY_CHECKPOINT)) {
+            pstmt.setString(1, id);
+            pstmt.setString(2, legacyName);
+            pstmt.executeUpdate();
+        }
+
+        Path tmp = directory.resolve(ID_FILE + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap((id + "\n").getBytes(StandardCharsets.UTF_8)));
+            channel.force(true);
+        }
+        Files.move(tmp, idFile, StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory();
+
+        try (Connection conn = dbConfig.getConnection();
+                PreparedStatement pstmt = conn.prepareStatement(SQL_DELETE_CHECKPOINT)) {
+            pstmt.setString(1, legacyName);
+            pstmt.executeUpdate();
+        }
+        dbConfig.getEventSink().info("✓ Journal %s: ID %s", directory, id);
+        return id;
+    }
+
+    static OrderLines decode(ByteBuffer buffer, int offset, int length) {
+        int count = buffer.getInt(offset);
+        if (4 + count * 8 != length) {
+            throw new UncheckedIOException(new IOException("Entry journal không hợp lệ"));
+        }
+        OrderLines lines = new OrderLines(count);
+        for (int i = 0; i < count; i++) {
+            lines.add(buffer.getInt(offset + 4 + i * 8), buffer.getInt(offset + 8 + i * 8));
+        }
+        return lines;
+    }
+
+    private long loadCheckpoint() throws SQLException {
+        try (Connection conn = dbConfig.getConnection();
+                PreparedStatement pstmt = conn.prepareStatement(SQL_LOAD_CHECKPOINT)) {
+            pstmt.setString(1, name);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : 0;
+            }
+        }
+    }
+
+    private void flushLoop() {
+        while (true) {
+            boolean stopping = !running;
+            try {
+                flush();
+            } catch (RuntimeException e) {
+                dbConfig.getEventSink().error("✗ Lỗi khi fsync journal %s: %s", name, e.getMessage());
+            }
+            if (stopping) {
+                return;
+            }
+            try {
+                Thread.sleep(Math.max(syncIntervalMillis, 1));
+            } catch (InterruptedException e) {
+                running = false;
+            }
+        }
+    }
+
+    /**
+     * fsync phần mới ghi của các segment, xác nhận các entry tương ứng cho
+     * client và chuyển chúng sang hàng đợi drain
+     *
+     * flushedPosition chỉ tăng sau khi fsync thành công. fsync lỗi: batch
+     * được trả lại để lần flush sau fsync lại (đang dừng thì báo lỗi cho
+     * các entry, chúng chưa từng được xác nhận).
+     */
+    private void flush() {
+        List<Entry> batch;
+        List<Segment> dirty = new ArrayList<>();
+        List<int[]> ranges = new ArrayList<>();
+        writeLock.lock();
+        try {
+            if (unflushed.isEmpty()) {
+                return;
+            }
+            batch = unflushed;
+            unflushed = new ArrayList<>();
+            for (Segment segment : segments) {
+                if (segment.position > segment.flushedPosition) {
+                    dirty.add(segment);
+                    ranges.add(new int[] { segment.flushedPosition, segment.position });
+                }
+            }
+        } finally {
+            writeLock.unlock();
+        }
+
+        try {
+            for (int i = 0; i < dirty.size(); i++) {
+                int[] range = ranges.get(i);
+                dirty.get(i).buffer.force(range[0], range[1] - range[0]);
+            }
+        } catch (RuntimeException e) {
+            writeLock.lock();
+            try {
+                if (running) {
+                    batch.addAll(unflushed);
+                    unflushed = batch;
+                }
+            } finally {
+                writeLock.unlock();
+            }
+            if (!running) {
+                for (Entry entry : batch) {
+                    entry.durable.completeExceptionally(e);
+                }
+            }
+            throw e;
+        }
+
+        writeLock.lock();
+        try {
+            for (int i = 0; i < dirty.size(); i++) {
+                Segment segment = dirty.get(i);
+                segment.flushedPosition = Math.max(segment.flushedPosition, ranges.get(i)[1]);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+        syncCount.increment();
+        for (Entry entry : batch) {
+            drainQueue.add(entry);
+            entry.durable.complete(entry.sequence);
+        }
+    }
+
+    private void drainLoop() {
+        List<Entry> batch = new ArrayList<>(drainBatchSize);
+        boolean retrying = false;
+        int failures = 0;
+        while (running || flusher.isAlive() || !drainQueue.isEmpty() || !batch.isEmpty()) {
+            try {
+                if (retrying) {
+                    // Commit có thể đã thành công dù bị báo lỗi: bỏ các entry đã có checkpoint
+                    long checkpoint = loadCheckpoint();
+                    batch.removeIf(entry -> entry.sequence <= checkpoint);
+                    drainedSequence = Math.max(drainedSequence, checkpoint);
+                    retrying = false;
+                }
+                if (batch.isEmpty()) {
+                    Entry first = drainQueue.poll(100, TimeUnit.MILLISECONDS);
+                    if (first == null) {
+                        continue;
+                    }
+                    batch.add(first);
+                    drainQueue.drainTo(batch, drainBatchSize - 1);
+                }
+                drainBatch(batch);
+                batch.clear();
+                failures = 0;
+            } catch (InterruptedException e) {
+                return;
+            } catch (SQLException | RuntimeException e) {
+                // Giữ nguyên batch, thử lại sau (entry vẫn nằm trong journal)
+                retrying = true;
+                if (e instanceof SQLException sqlEx && createMissingPartitions(sqlEx)) {
+                    continue;
+                }
+                failures++;
+                dbConfig.getEventSink().warn("✗ Drain journal %s thất bại (%d order, lần %d): %s",
+                        name, batch.size(), failures, e.getMessage());
+                if (!running && !flusher.isAlive()) {
+                    return;
+                }
+                try {
+                    Thread.sleep(Math.min(RETRY_DELAY_MILLIS << Math.min(failures - 1, 5), MAX_RETRY_DELAY_MILLIS));
+                } catch (InterruptedException ie) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Tháng mới chưa có partition (như OrderService.createOrder): tạo bằng
+     * partition maintainer của OrderService rồi drain lại ngay
+     *
+     * @return true nếu đã tạo partition
+     */
+    private boolean createMissingPartitions(SQLException e) {
+        OrderPartitionMaintainer partitions = orderService.getPartitionMaintainer();
+        if (partitions == null || !OrderService.isMissingPartition(e)) {
+            return false;
+        }
+        dbConfig.getEventSink().warn("⚠ Journal %s: %s - tạo partition còn thiếu rồi drain lại", name, e.getMessage());
+        try {
+            return partitions.maintain() > 0;
+        } catch (SQLException maintainEx) {
+            dbConfig.getEventSink().warn("✗ Không tạo được partition: %s", maintainEx.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Ghi batch và checkpoint trong MỘT transaction, mỗi order một savepoint
+     *
+     * Chỉ lỗi nghiệp vụ của placeOrder (không đủ hàng, không tìm thấy
+     * product: Exception thường) là kết quả cuối của order. SQLException và
+     * RuntimeException làm cả batch rollback, checkpoint giữ nguyên.
+     *
+     * @throws SQLException nếu transaction thất bại (cả batch sẽ được drain lại)
+     */
+    private void drainBatch(List<Entry> batch) throws SQLException {
+        List<Outcome> outcomes = new ArrayList<>(batch.size());
+        Connection conn = dbConfig.getConnection();
+        try {
+            conn.setAutoCommit(false);
+            SalesDelta sales = new SalesDelta();
+            for (Entry entry : batch) {
+                Order order = new Order(entry.lines);
+                Savepoint savepoint = conn.setSavepoint();
+                try {
+                    int orderId = orderService.placeOrder(conn, order);
+                    conn.releaseSavepoint(savepoint);
+                    outcomes.add(new Outcome(entry.sequence, order, orderId, null));
+                    sales.add(order.getFulfilled());
+                } catch (SQLException | RuntimeException e) {
+                    throw e;
+                } catch (Exception e) {
+                    // Không đủ hàng / không tìm thấy product: chỉ hoàn tác order này
+                    conn.rollback(savepoint);
+                    outcomes.add(new Outcome(entry.sequence, order, 0, e));
+                }
+            }
+
+            if (orderService.isSalesAggregation()) {
+                sales.flush(conn);
+            }
+            long lastSequence = batch.get(batch.size() - 1).sequence;
+            try (PreparedStatement pstmt = conn.prepareStatement(SQL_SAVE_CHECKPOINT)) {
+                pstmt.setString(1, name);
+                pstmt.setLong(2, lastSequence);
+                pstmt.executeUpdate();
+            }
+            conn.commit();
+            drainedSequence = lastSequence;
+
+        } catch (SQLException | RuntimeException e) {
+            try {
+                conn.rollback();
+            } catch (SQLException rollbackEx) {
+                dbConfig.getEventSink().error("✗ Lỗi khi rollback: %s", rollbackEx.getMessage());
+            }
+            throw e;
+        } finally {
+            try {
+                conn.setAutoCommit(true);
+                conn.close();
+            } catch (SQLException e) {
+                dbConfig.getEventSink().error("✗ Lỗi khi đóng resources: %s", e.getMessage());
+            }
+        }
+
+        drainBatchCount.increment();
+        Consumer<Outcome> listener = outcomeListener;
+        for (Outcome outcome : outcomes) {
+            if (outcome.isSuccess()) {
+                drainedCount.increment();
+                orderService.invalidateCachedProducts(outcome.order);
+            } else {
+                rejectedCount.increment();
+            }
+            listener.accept(outcome);
+        }
+
+        writeLock.lock();
+        try {
+            deleteDrainedSegments();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Xóa các segment (trừ segment đang ghi) có mọi entry đã được drain
+     */
+    private void deleteDrainedSegments() {
+        while (!segments.isEmpty()) {
+            Segment oldest = segments.peekFirst();
+            if (oldest == active || oldest.lastSequence > drainedSequence) {
+                return;
+            }
+            segments.removeFirst();
+            try {
+                Files.deleteIfExists(oldest.path);
+            } catch (IOException e) {
+                dbConfig.getEventSink().warn("✗ Không xóa được segment %s: %s", oldest.path, e.getMessage());
+            }
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    // Sequence cuối cùng đã ghi vào database
+    public long getDrainedSequence() {
+        return drainedSequence;
+    }
+
+    // Số entry đã fsync nhưng chưa ghi vào database
+    public int getBacklog() {
+        return drainQueue.size();
+    }
+
+    // Getters cho thống kê
+    public long getAppendedCount() {
+        return appendedCount.sum();
+    }
+
+    public long getSyncCount() {
+        return syncCount.sum();
+    }
+
+    public long getDrainBatchCount() {
+        return drainBatchCount.sum();
+    }
+
+    public long getDrainedCount() {
+        return drainedCount.sum();
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.sum();
+    }
+
+    public long getRecoveredCount() {
+        return recoveredCount.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "OrderJournal[appended=%d, syncs=%d, drainBatches=%d, drained=%d, rejected=%d, recovered=%d, backlog=%d]",
+                getAppendedCount(), getSyncCount(), getDrainBatchCount(), getDrainedCount(), getRejectedCount(),
+                getRecoveredCount(), getBacklog());
+    }
+
+    /**
+     * Kết quả drain của một entry: Order ID, hoặc lỗi nếu order bị từ chối
+     */
+    public static final class Outcome {
+        private final long sequence;
+        private final Order order;
+        private final int orderId;
+        private final Exception error;
+
+        Outcome(long sequence, Order order, int orderId, Exception error) {
+            this.sequence = sequence;
+            this.order = order;
+            this.orderId = orderId;
+            this.error = error;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public Order getOrder() {
+            return order;
+        }
+
+        public int getOrderId() {
+            return orderId;
+        }
+
+        public Exception getError() {
+            return error;
+        }
+
+        public boolean isSuccess() {
+            return error == null;
+        }
+    }
+
+    /**
+     * Một segment của journal đã được map vào bộ nhớ
+     */
+    private static final class Segment {
+        final Path path;
+        final MappedByteBuffer buffer;
+        int position;
+        int flushedPosition;
+        long lastSequence;
+
+        Segment(Path path, MappedByteBuffer buffer) {
+            this.path = path;
+            this.buffer = buffer;
+        }
+    }
+
+    /**
+     * Một order trong journal
+     */
+    private static final class Entry {
+        final OrderLines lines;
+        final CompletableFuture<Long> durable = new CompletableFuture<>();
+        long sequence;
+
+        Entry(OrderLines lines) {
+            this.lines = lines;
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package service;
+
+import config.DatabaseConfig;
+
+import jdk.jfr.EventType;
+
+import java.lang.management.ManagementFactory;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * OrderMetrics - Latency theo giai đoạn và bộ đếm của transaction đặt hàng
+ *
+ * - Mỗi OrderPhase một LongHistogram (lock-free), cùng latency của cả
+ *   createOrder và số item mỗi đơn hàng
+ * - Đếm commit và rollback theo nguyên nhân
+ * - Khi JFR đang ghi: event service.OrderPhase cho mỗi giai đoạn (event
+ *   service.OrderTransaction do createOrder ghi)
+ * - registerMBean(): xem các số liệu trên qua JMX (JConsole, JMC...)
+ *
+ * Chi phí khi bật: hai lần System.nanoTime() và vài phép cộng atomic mỗi
+ * giai đoạn; event JFR chỉ được tạo khi recording bật event tương ứng.
+ */
+public class OrderMetrics implements OrderMetricsMXBean {
+
+    /**
+     * Nguyên nhân transaction bị rollback
+     */
+    public enum RollbackCause {
+        // Không đủ hàng / không tìm thấy product
+        REJECTED,
+        // SQLSTATE 40P01
+        DEADLOCK,
+        // SQLSTATE 40001
+        SERIALIZATION_FAILURE,
+        // Hết deadline trước khi commit (OverloadException)
+        DEADLINE_EXCEEDED,
+        // Lỗi SQL / connection khác
+        ERROR
+    }
+
+    private static final EventType PHASE_EVENT = EventType.getEventType(OrderPhaseEvent.class);
+    private static final double NANOS_TO_MILLIS = 1e-6;
+
+    private volatile boolean enabled = true;
+    private final LongHistogram[] phaseLatency = new LongHistogram[OrderPhase.values().length];
+    private final LongHistogram orderLatency = new LongHistogram();
+    private final LongHistogram itemsPerOrder = new LongHistogram();
+    private final LongAdder commits = new LongAdder();
+    private final LongAdder[] rollbacks = new LongAdder[RollbackCause.values().length];
+
+    private ObjectName objectName;
+
+    public OrderMetrics() {
+        for (int i = 0; i < phaseLatency.length; i++) {
+            phaseLatency[i] = new LongHistogram();
+        }
+        for (int i = 0; i < rollbacks.length; i++) {
+            rollbacks[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Đo các giai đoạn của một transaction (không dùng chung giữa các thread)
+     */
+    Trace startTrace() {
+        return enabled ? new Trace(this) : Trace.DISABLED;
+    }
+
+    void recordCommit(long elapsedNanos, int items) {
+        if (!enabled) {
+            return;
+        }
+        commits.increment();
+        orderLatency.record(elapsedNanos);
+        itemsPerOrder.record(items);
+    }
+
+    void recordRollback(Exception cause) {
+        if (enabled) {
+            rollbacks[causeOf(cause).ordinal()].increment();
+        }
+    }
+
+    static RollbackCause causeOf(Exception e) {
+        if (e instanceof OverloadException) {
+            return RollbackCause.DEADLINE_EXCEEDED;
+        }
+        if (!(e instanceof SQLException)) {
+            return RollbackCause.REJECTED;
+        }
+        String state = ((SQLException) e).getSQLState();
+        if ("40P01".equals(state)) {
+            return RollbackCause.DEADLOCK;
+        }
+        if ("40001".equals(state)) {
+            return RollbackCause.SERIALIZATION_FAILURE;
+        }
+        return RollbackCause.ERROR;
+    }
+
+    /**
+     * Đăng ký MBean service:type=OrderMetrics,name=&lt;name&gt; trên platform MBeanServer
+     */
+    public synchronized void registerMBean(String name) throws JMException {
+        unregisterMBean();
+        ObjectName objectName = new ObjectName("service:type=OrderMetrics,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        this.objectName = objectName;
+    }
+
+    public synchronized void unregisterMBean() {
+        if (objectName == null) {
+            return;
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.unregisterMBean(objectName);
+        } catch (JMException e) {
+            DatabaseConfig.getInstance().getEventSink().warn("✗ Không hủy đăng ký được MBean %s: %s",
+                    objectName, e.getMessage());
+        }
+        objectName = null;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    @Override
+    public long getCommits() {
+        return commits.sum();
+    }
+
+    public long getRollbacks(RollbackCause cause) {
+        return rollbacks[cause.ordinal()].sum();
+    }
+
+    @Override
+    public Map<String, Long> getRollbacks() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (RollbackCause cause : RollbackCause.values()) {
+            result.put(cause.name(), getRollbacks(cause));
+        }
+        return result;
+    }
+
+    public LongHistogram getPhaseHistogram(OrderPhase phase) {
+        return phaseLatency[phase.ordinal()];
+    }
+
+    @Override
+    public LongHistogram.Snapshot getOrderLatency() {
+        return orderLatency.snapshot(NANOS_TO_MILLIS);
+    }
+
+    @Override
+    public Map<String, LongHistogram.Snapshot> getPhaseLatency() {
+        Map<String, LongHistogram.Snapshot> result = new LinkedHashMap<>();
+        for (OrderPhase phase : OrderPhase.values()) {
+            result.put(phase.name(), phaseLatency[phase.ordinal()].snapshot(NANOS_TO_MILLIS));
+        }
+        return result;
+    }
+
+    @Override
+    public LongHistogram.Snapshot getItemsPerOrder() {
+        return itemsPerOrder.snapshot(1);
+    }
+
+    @Override
+    public void reset() {
+        for (LongHistogram histogram : phaseLatency) {
+            histogram.reset();
+        }
+        orderLatency.reset();
+        itemsPerOrder.reset();
+        commits.reset();
+        for (LongAdder counter : rollbacks) {
+            counter.reset();
+        }
+    }
+
+    /**
+     * Bảng p50 / p99 / max (ms) theo giai đoạn, dùng cho báo cáo của LoadTest
+     */
+    public String formatPhases() {
+        StringBuilder sb = new StringBuilder(String.format("  %-14s %10s %10s %10s %10s%n",
+                "Phase", "count", "p50 ms", "p99 ms", "max ms"));
+        for (OrderPhase phase : OrderPhase.values()) {
+            LongHistogram.Snapshot s = phaseLatency[phase.ordinal()].snapshot(NANOS_TO_MILLIS);
+            if (s.getCount() > 0) {
+                sb.append(String.format("  %-14s %10d %10.3f %10.3f %10.3f%n",
+                        phase, s.getCount(), s.getP50(), s.getP99(), s.getMax()));
+            }
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        LongHistogram.Snapshot latency = getOrderLatency();
+        return String.format("OrderMetrics[commits=%d, rollbacks=%s, p50=%.3fms, p99=%.3fms, max=%.3fms, items/order p50=%.0f]",
+                getCommits(), getRollbacks(), latency.getP50(), latency.getP99(), latency.getMax(),
+                getItemsPerOrder().getP50());
+    }
+
+    /**
+     * Đo lần lượt các giai đoạn của một transaction: begin(phase) kết thúc
+     * giai đoạn trước (nếu có) và bắt đầu giai đoạn mới, end() kết thúc
+     * giai đoạn hiện tại
+     */
+    static final class Trace {
+        static final Trace DISABLED = new Trace(null);
+
+        private final OrderMetrics metrics;
+        private OrderPhase phase;
+        private long phaseStart;
+        private OrderPhaseEvent event;
+
+        private Trace(OrderMetrics metrics) {
+            this.metrics = metrics;
+        }
+
+        void begin(OrderPhase next) {
+            if (metrics == null) {
+                return;
+            }
+            end();
+            phase = next;
+            if (PHASE_EVENT.isEnabled()) {
+                event = new OrderPhaseEvent();
+                event.phase = next.name();
+                event.begin();
+            }
+            phaseStart = System.nanoTime();
+        }
+
+        void end() {
+            if (phase == null) {
+                return;
+            }
+            metrics.phaseLatency[phase.ordinal()].record(System.nanoTime() - phaseStart);
+            if (event != null) {
+                event.commit();
+                event = null;
+            }
+            phase = null;
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package service;
+
+import java.util.Map;
+
+/**
+ * OrderMetricsMXBean - Số liệu của OrderService qua JMX
+ * (ObjectName service:type=OrderMetrics,name=...)
+ *
+ * Latency tính bằng millisecond, tích lũy từ lúc khởi động hoặc lần reset() gần nhất.
+ */
+public interface OrderMetricsMXBean {
+
+    boolean isEnabled();
+
+    void setEnabled(boolean enabled);
+
+    long getCommits();
+
+    // Số transaction bị rollback theo nguyên nhân (REJECTED, DEADLOCK, ...)
+    Map<String, Long> getRollbacks();
+
+    // createOrder từ đầu đến khi commit (gồm cả các lần thử lại)
+    LongHistogram.Snapshot getOrderLatency();
+
+    // Latency theo OrderPhase
+    Map<String, LongHistogram.Snapshot> getPhaseLatency();
+
+    // Số dòng (product) mỗi đơn hàng đã commit
+    LongHistogram.Snapshot getItemsPerOrder();
+
+    void reset();
+}
@@ -0,0 +1,345 @@
+package service;
+
+import config.DatabaseConfig;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * OrderPartitionMaintainer - Quản lý partition theo tháng của orders / order_items
+ *
+ * - Tạo trước partition cho tháng hiện tại và monthsAhead tháng tiếp theo
+ *   (order rơi vào tháng chưa có partition sẽ bị lỗi khi insert)
+ * - Partition cũ hơn retentionMonths tháng được detach khỏi orders /
+ *   order_items và chuyển sang schema order_archive (hoặc xóa hẳn nếu
+ *   setDropArchived(true)). Bảng đã archive không còn foreign key, có thể
+ *   pg_dump rồi DROP khi không cần nữa.
+ *
+ * Tháng hiện tại lấy theo đồng hồ của database (cùng giá trị với
+ * CURRENT_TIMESTAMP mà OrderService ghi vào created_at), không theo JVM.
+ * DDL lấy lock ACCESS EXCLUSIVE trên bảng cha trong thời gian ngắn; chờ lock
+ * quá LOCK_TIMEOUT thì bỏ qua lần chạy này thay vì chặn các đơn hàng.
+ *
+ * Ứng dụng tạo một maintainer (VD fromSystemProperties()), start() khi khởi
+ * động, stop() khi tắt và đưa cho OrderService.setPartitionMaintainer() để
+ * tạo partition còn thiếu khi insert bị lỗi.
+ */
+public class OrderPartitionMaintainer {
+
+    public static final String ARCHIVE_SCHEMA = "order_archive";
+
+    // Mặc định của fromSystemProperties()
+    public static final int DEFAULT_MONTHS_AHEAD = 3;
+    public static final long DEFAULT_PERIOD_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private static final String LOCK_TIMEOUT = "5s";
+
+    // orders_p2026_10 / order_items_p2026_10
+    private static final Pattern PARTITION_NAME = Pattern.compile("^(orders|order_items)_p(\\d{4})_(\\d{2})$");
+
+    private static final String SQL_LIST_PARTITIONS =
+            "SELECT c.relname FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid "
+            + "WHERE i.inhparent = ?::regclass";
+
+    private static final String SQL_FOREIGN_KEYS =
+            "SELECT conname FROM pg_constraint WHERE conrelid = ?::regclass AND contype = 'f'";
+
+    private final DatabaseConfig dbConfig;
+    private final int monthsAhead;
+    private final int retentionMonths;
+    private boolean dropArchived;
+    private long periodMillis = DEFAULT_PERIOD_MILLIS;
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param monthsAhead Số tháng sau tháng hiện tại cần có partition sẵn
+     * @param retentionMonths Số tháng trước tháng hiện tại giữ lại trong orders /
+     *                        order_items (0 = không archive)
+     */
+    public OrderPartitionMaintainer(int monthsAhead, int retentionMonths) {
+        if (monthsAhead < 0 || retentionMonths < 0) {
+            throw new IllegalArgumentException("monthsAhead và retentionMonths phải >= 0");
+        }
+        this.dbConfig = DatabaseConfig.getInstance();
+        this.monthsAhead = monthsAhead;
+        this.retentionMonths = retentionMonths;
+    }
+
+    /**
+     * Cấu hình từ system property:
+     * -Dpartitions.monthsAhead (3), -Dpartitions.retentionMonths (0 = không
+     * archive), -Dpartitions.dropArchived (false), -Dpartitions.periodMs (1 giờ)
+     */
+    public static OrderPartitionMaintainer fromSystemProperties() {
+        OrderPartitionMaintainer maintainer = new OrderPartitionMaintainer(
+                Integer.getInteger("partitions.monthsAhead", DEFAULT_MONTHS_AHEAD),
+                Integer.getInteger("partitions.retentionMonths", 0));
+        maintainer.setDropArchived(Boolean.getBoolean("partitions.dropArchived"));
+        maintainer.setPeriodMillis(Long.getLong("partitions.periodMs", DEFAULT_PERIOD_MILLIS));
+        return maintainer;
+    }
+
+    /**
+     * true: xóa partition cũ thay vì chuyển sang schema order_archive
+     */
+    public void setDropArchived(boolean dropArchived) {
+        this.dropArchived = dropArchived;
+    }
+
+    public long getPeriodMillis() {
+        return periodMillis;
+    }
+
+    /**
+     * Khoảng thời gian giữa hai lần maintain() của start()
+     */
+    public void setPeriodMillis(long periodMillis) {
+        if (periodMillis < 1) {
+            throw new IllegalArgumentException("periodMillis phải >= 1");
+        }
+        this.periodMillis = periodMillis;
+    }
+
+    /**
+     * Chạy maintain() ngay rồi định kỳ mỗi periodMillis trên thread nền
+     */
+    public void start() {
+        start(periodMillis);
+    }
+
+    /**
+     * Chạy maintain() định kỳ trên thread nền
+     */
+    public synchronized void start(long periodMillis) {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "order-partition-maintainer");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                maintain();
+            } catch (SQLException e) {
+                dbConfig.getEventSink().warn("✗ Lỗi khi bảo trì partition: %s", e.getMessage());
+            }
+        }, 0, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized boolean isRunning() {
+        return scheduler != null;
+    }
+
+    public synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Tạo partition còn thiếu cho các tháng tới, archive partition quá hạn
+     *
+     * @return Số partition (orders + order_items) đã tạo / archive
+     */
+    public int maintain() throws SQLException {
+        YearMonth current = currentMonth();
+        int created = createPartitions(current, current.plusMonths(monthsAhead));
+        int archived = retentionMonths > 0 ? archivePartitionsBefore(current.minusMonths(retentionMonths)).size() : 0;
+        if (created > 0 || archived > 0) {
+            dbConfig.getEventSink().info("✓ Partition orders: tạo %d, archive %d", created, archived);
+        }
+        return created + archived;
+    }
+
+    /**
+     * Tạo partition còn thiếu cho các tháng from..to (gồm cả hai), mỗi tháng
+     * một transaction ngắn
+     *
+     * @return Số partition đã tạo
+     */
+    public int createPartitions(YearMonth from, YearMonth to) throws SQLException {
+        int created = 0;
+        for (YearMonth month = from; !month.isAfter(to); month = month.plusMonths(1)) {
+            Connection conn = null;
+            try {
+                conn = dbConfig.getConnection();
+                conn.setAutoCommit(false);
+                setLockTimeout(conn);
+                created += createPartitions(conn, month, month);
+                conn.commit();
+            } catch (SQLException e) {
+                if (conn != null) {
+                    conn.rollback();
+                }
+                throw e;
+            } finally {
+                if (conn != null) {
+                    conn.setAutoCommit(true);
+                    conn.close();
+                }
+            }
+        }
+        return created;
+    }
+
+    /**
+     * Tạo partition còn thiếu cho các tháng from..to trên connection của
+     * caller (BulkOrderImporter gọi trong transaction của chunk khi backfill
+     * order của tháng cũ). Lock trên orders / order_items giữ tới khi caller
+     * commit.
+     *
+     * @return Số partition đã tạo
+     */
+    static int createPartitions(Connection conn, YearMonth from, YearMonth to) throws SQLException {
+        TreeSet<YearMonth> existingOrders = listPartitions(conn, "orders");
+        TreeSet<YearMonth> existingItems = listPartitions(conn, "order_items");
+        int created = 0;
+        try (Statement stmt = conn.createStatement()) {
+            for (YearMonth month = from; !month.isAfter(to); month = month.plusMonths(1)) {
+                if (!existingOrders.contains(month)) {
+                    stmt.execute(createPartitionSql("orders", month));
+                    created++;
+                }
+                if (!existingItems.contains(month)) {
+                    stmt.execute(createPartitionSql("order_items", month));
+                    created++;
+                }
+            }
+        }
+        return created;
+    }
+
+    /**
+     * Detach các partition của tháng trước cutoff, chuyển sang schema
+     * order_archive (hoặc xóa). Mỗi tháng một transaction: order_items
+     * trước (foreign key trỏ tới orders), sau đó orders.
+     *
+     * @return Tên các partition đã archive / xóa
+     */
+    public List<String> archivePartitionsBefore(YearMonth cutoff) throws SQLException {
+        TreeSet<YearMonth> months = new TreeSet<>();
+        try (Connection conn = dbConfig.getConnection()) {
+            months.addAll(listPartitions(conn, "orders").headSet(cutoff));
+            months.addAll(listPartitions(conn, "order_items").headSet(cutoff));
+        }
+
+        List<String> archived = new ArrayList<>();
+        for (YearMonth month : months) {
+            Connection conn = null;
+            try {
+                conn = dbConfig.getConnection();
+                conn.setAutoCommit(false);
+                setLockTimeout(conn);
+                List<String> tables = new ArrayList<>();
+                try (Statement stmt = conn.createStatement()) {
+                    if (!dropArchived) {
+                        stmt.execute("CREATE SCHEMA IF NOT EXISTS " + ARCHIVE_SCHEMA);
+                    }
+                    for (String parent : new String[] { "order_items", "orders" }) {
+                        String table = partitionName(parent, month);
+                        if (!listPartitions(conn, parent).contains(month)) {
+                            continue;
+                        }
+                        stmt.execute("ALTER TABLE " + parent + " DETACH PARTITION " + table);
+                        if (dropArchived) {
+                            stmt.execute("DROP TABLE " + table);
+                        } else {
+                            // Bảng archive độc lập: xóa product không được cascade xuống lịch sử
+                            for (String constraint : foreignKeys(conn, table)) {
+                                stmt.execute("ALTER TABLE " + table + " DROP CONSTRAINT \"" + constraint + "\"");
+                            }
+                            stmt.execute("ALTER TABLE " + table + " SET SCHEMA " + ARCHIVE_SCHEMA);
+                        }
+                        tables.add(table);
+                    }
+                }
+                conn.commit();
+                archived.addAll(tables);
+                dbConfig.getEventSink().info("✓ %s partition tháng %s: %s",
+                        dropArchived ? "Đã xóa" : "Đã archive", month, tables);
+            } catch (SQLException e) {
+                if (conn != null) {
+                    conn.rollback();
+                }
+                throw e;
+            } finally {
+                if (conn != null) {
+                    conn.setAutoCommit(true);
+                    conn.close();
+                }
+            }
+        }
+        return archived;
+    }
+
+    /**
+     * Các tháng đang có partition của bảng cha (theo tên orders_pYYYY_MM)
+     */
+    static TreeSet<YearMonth> listPartitions(Connection conn, String parent) throws SQLException {
+        TreeSet<YearMonth> months = new TreeSet<>();
+        try (PreparedStatement pstmt = conn.prepareStatement(SQL_LIST_PARTITIONS)) {
+            pstmt.setString(1, parent);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    Matcher m = PARTITION_NAME.matcher(rs.getString(1));
+                    if (m.matches() && m.group(1).equals(parent)) {
+                        months.add(YearMonth.of(Integer.parseInt(m.group(2)), Integer.parseInt(m.group(3))));
+                    }
+                }
+            }
+        }
+        return months;
+    }
+
+    private YearMonth currentMonth() throws SQLException {
+        try (Connection conn = dbConfig.getConnection();
+                Statement stmt = conn.createStatement();
+                ResultSet rs = stmt.executeQuery("SELECT CURRENT_TIMESTAMP::timestamp")) {
+            rs.next();
+            return YearMonth.from(rs.getTimestamp(1).toLocalDateTime());
+        }
+    }
+
+    private static List<String> foreignKeys(Connection conn, String table) throws SQLException {
+        List<String> names = new ArrayList<>();
+        try (PreparedStatement pstmt = conn.prepareStatement(SQL_FOREIGN_KEYS)) {
+            pstmt.setString(1, table);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    names.add(rs.getString(1));
+                }
+            }
+        }
+        return names;
+    }
+
+    private static void setLockTimeout(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("SET LOCAL lock_timeout = '" + LOCK_TIMEOUT + "'");
+        }
+    }
+
+    private static String createPartitionSql(String parent, YearMonth month) {
+        return String.format("CREATE TABLE IF NOT EXISTS %s PARTITION OF %s FOR VALUES FROM ('%s-01') TO ('%s-01')",
+                partitionName(parent, month), parent, month, month.plusMonths(1));
+    }
+
+    private static String partitionName(String parent, YearMonth month) {
+        return String.format("%s_p%04d_%02d", parent, month.getYear(), month.getMonthValue());
+    }
+}
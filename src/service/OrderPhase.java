@@ -0,0 +1,26 @@
+package service;
+
+/**
+ * OrderPhase - Các giai đoạn của transaction đặt hàng được đo latency
+ * (OrderMetrics, event JFR service.OrderPhase)
+ *
+ * SET_BASED / BUCKETED / CONDITIONAL_UPDATE kiểm tra và trừ kho trong cùng
+ * câu lệnh: toàn bộ thời gian tính vào STOCK_UPDATE. Bật OrderIdAllocator:
+ * ORDER_INSERT chỉ là cấp ID, order được insert trong ITEMS_INSERT.
+ */
+public enum OrderPhase {
+    // Lấy connection từ pool (gồm thời gian chờ khi pool hết connection)
+    CONNECTION,
+    // INSERT INTO orders ... RETURNING id, hoặc cấp ID từ OrderIdAllocator
+    ORDER_INSERT,
+    // SELECT tồn kho từng item (PESSIMISTIC: gồm thời gian chờ lock dòng products)
+    STOCK_CHECK,
+    // UPDATE products / bucket
+    STOCK_UPDATE,
+    // Insert order_items
+    ITEMS_INSERT,
+    // Upsert product_sales / product_sales_daily
+    SALES_UPDATE,
+    COMMIT,
+    ROLLBACK
+}
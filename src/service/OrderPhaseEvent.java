@@ -0,0 +1,18 @@
+package service;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Event JFR cho mỗi giai đoạn của transaction đặt hàng (xem OrderPhase)
+ */
+@Name("service.OrderPhase")
+@Label("Order Phase")
+@Category({ "Order Service" })
+final class OrderPhaseEvent extends Event {
+
+    @Label("Phase")
+    String phase;
+}
@@ -1,12 +1,35 @@
 package service;
 
+import config.ConnectionPool;
 import config.DatabaseConfig;
+import log.EventSink;
+import log.Level;
 import model.Order;
-import model.OrderItem;
+import model.OrderLines;
 import model.Product;
+import model.ProductSales;
+
+import org.postgresql.PGConnection;
 
 import java.sql.*;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * OrderService - Xử lý business logic cho đơn hàng
@@ -17,209 +40,1861 @@ import java.util.List;
  * - Trừ kho
  * - Insert order items bằng batch
  * - Quản lý transaction (commit/rollback)
+ * - API bất đồng bộ (CompletableFuture) chạy trên virtual threads
+ * 
+ * Log/event đi qua EventSink của DatabaseConfig: chi tiết từng bước/từng item
+ * ở mức DEBUG, commit/rollback ở mức INFO.
  */
 public class OrderService {
 
+    /**
+     * Kiểm tra + trừ kho cho cả đơn hàng trong một câu lệnh:
+     * - req: gộp (product_id, qty) từ 2 mảng tham số
+     * - locked: khóa các product theo thứ tự id (tránh deadlock giữa các
+     *   đơn hàng chứa cùng sản phẩm), đọc tồn kho mới nhất
+     * - upd: UPDATE có điều kiện stock >= qty, trả về các product đã trừ
+     * - SELECT cuối: mỗi product kèm tồn kho trước khi trừ và cờ updated
+     *   (product không tồn tại → name null)
+     */
+    private static final String SQL_SET_BASED_STOCK =
+            "WITH req AS ("
+            + "  SELECT r.product_id, SUM(r.qty)::int AS qty"
+            + "  FROM unnest(?::int[], ?::int[]) AS r(product_id, qty)"
+            + "  GROUP BY r.product_id"
+            + "), locked AS MATERIALIZED ("
+            + "  SELECT p.id, p.name, p.stock FROM products p"
+            + "  WHERE p.id IN (SELECT product_id FROM req)"
+            + "  ORDER BY p.id"
+            + "  FOR UPDATE OF p"
+            + "), upd AS ("
+            + "  UPDATE products p SET stock = p.stock - req.qty"
+            + "  FROM req JOIN locked ON locked.id = req.product_id"
+            + "  WHERE p.id = req.product_id AND p.stock >= req.qty"
+            + "  RETURNING p.id"
+            + ") "
+            + "SELECT req.product_id, req.qty, locked.name, locked.stock, upd.id IS NOT NULL AS updated "
+            + "FROM req "
+            + "LEFT JOIN locked ON locked.id = req.product_id "
+            + "LEFT JOIN upd ON upd.id = req.product_id";
+
+    /**
+     * Trừ kho theo FulfilmentPolicy khác ALL_OR_NOTHING trong một câu lệnh:
+     * như SQL_SET_BASED_STOCK nhưng mỗi product trừ min(qty, stock) (PARTIAL,
+     * tham số thứ 3 = true) hoặc 0 nếu không đủ (DROP_UNAVAILABLE). Kết quả:
+     * mỗi product kèm tồn kho trước khi trừ và số lượng đã trừ (taken).
+     */
+    private static final String SQL_TAKE_AVAILABLE_STOCK =
+            "WITH req AS ("
+            + "  SELECT r.product_id, SUM(r.qty)::int AS qty"
+            + "  FROM unnest(?::int[], ?::int[]) AS r(product_id, qty)"
+            + "  GROUP BY r.product_id"
+            + "), locked AS MATERIALIZED ("
+            + "  SELECT p.id, p.name, p.stock FROM products p"
+            + "  WHERE p.id IN (SELECT product_id FROM req)"
+            + "  ORDER BY p.id"
+            + "  FOR UPDATE OF p"
+            + "), take AS ("
+            + "  SELECT req.product_id,"
+            + "    CASE WHEN locked.stock >= req.qty THEN req.qty WHEN ? THEN locked.stock ELSE 0 END AS qty"
+            + "  FROM req JOIN locked ON locked.id = req.product_id"
+            + "), upd AS ("
+            + "  UPDATE products p SET stock = p.stock - take.qty"
+            + "  FROM take"
+            + "  WHERE p.id = take.product_id AND take.qty > 0"
+            + "  RETURNING p.id, take.qty"
+            + ") "
+            + "SELECT req.product_id, req.qty, locked.name, locked.stock, COALESCE(upd.qty, 0) AS taken "
+            + "FROM req "
+            + "LEFT JOIN locked ON locked.id = req.product_id "
+            + "LEFT JOIN upd ON upd.id = req.product_id";
+
+    // BUCKETED: thông tin sản phẩm + số bucket hiện có cho cả đơn hàng
+    private static final String SQL_BUCKET_INFO =
+            "SELECT p.id, p.name,"
+            + " (SELECT COUNT(*) FROM product_stock_buckets b WHERE b.product_id = p.id) AS buckets "
+            + "FROM products p WHERE p.id = ANY(?)";
+
+    // BUCKETED: trừ trên một bucket ngẫu nhiên còn đủ hàng, bỏ qua bucket đang bị lock
+    private static final String SQL_TAKE_FROM_BUCKET =
+            "UPDATE product_stock_buckets b SET stock = b.stock - ? "
+            + "FROM (SELECT bucket_no FROM product_stock_buckets"
+            + "      WHERE product_id = ? AND stock >= ?"
+            + "      ORDER BY random() LIMIT 1"
+            + "      FOR UPDATE SKIP LOCKED) pick "
+            + "WHERE b.product_id = ? AND b.bucket_no = pick.bucket_no";
+
+    // Trừ kho có điều kiện trên dòng products (CONDITIONAL_UPDATE, sản phẩm không chia bucket)
+    private static final String SQL_TAKE_FROM_PRODUCT =
+            "UPDATE products SET stock = stock - ? WHERE id = ? AND stock >= ?";
+
+    /**
+     * Gom các bucket của product về products.stock: lock dòng products trước
+     * (cùng thứ tự với StockBucketRebalancer) rồi xóa bucket và cộng vào
+     * products.stock. Kết quả: mỗi product có bucket kèm số lượng đã gom.
+     */
+    private static final String SQL_FOLD_BUCKETS =
+            "WITH locked AS MATERIALIZED ("
+            + "  SELECT id FROM products WHERE id = ANY(?) ORDER BY id FOR UPDATE"
+            + "), moved AS ("
+            + "  DELETE FROM product_stock_buckets b USING locked WHERE b.product_id = locked.id"
+            + "  RETURNING b.product_id, b.stock"
+            + ") "
+            + "UPDATE products p SET stock = p.stock + m.stock "
+            + "FROM (SELECT product_id, SUM(stock)::int AS stock FROM moved GROUP BY product_id) m "
+            + "WHERE p.id = m.product_id "
+            + "RETURNING p.id, m.stock";
+
+    // Order ID cấp trước (OrderIdAllocator): tạo order và insert order_items trong một câu lệnh.
+    // order_items.order_created_at (cột partition) = orders.created_at: cả hai là
+    // CURRENT_TIMESTAMP, tức thời điểm bắt đầu transaction, nên luôn bằng nhau
+    private static final String SQL_INSERT_ORDER_WITH_ITEMS =
+            "WITH new_order AS ("
+            + "  INSERT INTO orders (id, created_at) VALUES (?, CURRENT_TIMESTAMP)"
+            + ") "
+            + "INSERT INTO order_items (order_id, order_created_at, product_id, qty) "
+            + "SELECT ?, CURRENT_TIMESTAMP, r.product_id, r.qty FROM unnest(?::int[], ?::int[]) AS r(product_id, qty)";
+
+    // Đọc order kèm các dòng: mỗi order một dòng kết quả, product_id / qty gom
+    // thành hai mảng (tra order_items theo khóa chính, đúng partition của order)
+    private static final String SQL_ORDERS_WITH_ITEMS =
+            "SELECT o.id, o.created_at, i.product_ids, i.qtys FROM orders o "
+            + "LEFT JOIN LATERAL ("
+            + "  SELECT array_agg(oi.product_id ORDER BY oi.product_id) AS product_ids,"
+            + "    array_agg(oi.qty ORDER BY oi.product_id) AS qtys"
+            + "  FROM order_items oi WHERE oi.order_id = o.id AND oi.order_created_at = o.created_at"
+            + ") i ON true ";
+
+    // Giới hạn dòng mỗi câu lệnh nhiều dòng (PostgreSQL tối đa 32767 tham số / câu lệnh)
+    private static final int MAX_ROWS_PER_STATEMENT = 10_000;
+
+    private static final String SQL_INSERT_ITEMS_UNNEST =
+            "INSERT INTO order_items (order_id, order_created_at, product_id, qty) "
+            + "SELECT ?, CURRENT_TIMESTAMP, r.product_id, r.qty FROM unnest(?::int[], ?::int[]) AS r(product_id, qty)";
+
+    // {ROWS} là (?::int, ?::int, ?::int), (...), ... - mỗi dòng (order_id, product_id, qty)
+    private static final String SQL_INSERT_ITEMS_VALUES =
+            "INSERT INTO order_items (order_id, order_created_at, product_id, qty) "
+            + "SELECT r.order_id, CURRENT_TIMESTAMP, r.product_id, r.qty FROM (VALUES {ROWS}) AS r(order_id, product_id, qty)";
+
+    // Trừ kho nhiều product trong một câu lệnh: gộp trùng, lock theo thứ tự id,
+    // {ROWS} là nguồn (id, qty): unnest(...) hoặc VALUES (...), (...)
+    private static final String SQL_DECREMENT_STOCK_MULTI =
+            "WITH v AS ("
+            + "  SELECT r.id, SUM(r.qty)::int AS qty FROM {ROWS} AS r(id, qty) GROUP BY r.id"
+            + "), locked AS MATERIALIZED ("
+            + "  SELECT p.id, v.qty FROM products p JOIN v ON v.id = p.id ORDER BY p.id FOR UPDATE OF p"
+            + ") "
+            + "UPDATE products p SET stock = p.stock - locked.qty "
+            + "FROM locked "
+            + "WHERE p.id = locked.id AND p.stock >= locked.qty "
+            + "RETURNING p.id";
+
+    // Thời gian chờ tối đa giữa hai lần thử lại
+    private static final long MAX_BACKOFF_MILLIS = 1000;
+
+    // createOrder(order, deadlineNanos) không có deadline
+    public static final long NO_DEADLINE = Long.MAX_VALUE;
+
+    // Mỗi request async chạy trên một virtual thread riêng (rẻ, không chiếm platform thread)
+    private static final ExecutorService ASYNC_EXECUTOR = Executors.newVirtualThreadPerTaskExecutor();
+
     private DatabaseConfig dbConfig;
+    private StockUpdateMode stockUpdateMode = StockUpdateMode.PER_ITEM;
+    // Số dòng tối đa mỗi lần gửi khi insert order_items / trừ kho từng item
+    // (0 = một lần cho cả đơn hàng, MULTI_VALUES/UNNEST tối đa MAX_ROWS_PER_STATEMENT)
+    private int itemBatchSize = 0;
+    private ItemWriteMode itemWriteMode = ItemWriteMode.BATCH;
+    // Sổ tồn kho trong JVM (null = tắt), loại sớm đơn hàng chắc chắn không đủ hàng
+    private StockLedger stockLedger;
+    // Cấp Order ID theo block từ bộ nhớ (null = INSERT ... RETURNING id cho mỗi đơn hàng)
+    private OrderIdAllocator orderIdAllocator;
+    // Số dòng mỗi lần fetch khi stream tồn kho bằng cursor
+    private int fetchSize = 1000;
+    // Cache cho getProduct (null = luôn đọc database)
+    private ProductCache productCache;
+    // Tạo partition còn thiếu khi insert order bị lỗi (null = báo lỗi luôn)
+    private OrderPartitionMaintainer partitionMaintainer;
+    // Cộng dồn product_sales / product_sales_daily trong transaction đặt hàng
+    // (dòng theo stripe, xem SalesDelta)
+    private boolean salesAggregation = true;
+    private ConcurrencyStrategy concurrencyStrategy = ConcurrencyStrategy.PESSIMISTIC;
+    private FulfilmentPolicy fulfilmentPolicy = FulfilmentPolicy.ALL_OR_NOTHING;
+    // Số lần thử lại tối đa khi gặp deadlock / serialization failure
+    private int maxRetries = 3;
+    private long retryBackoffMillis = 5;
+    private final Map<ConcurrencyStrategy, StrategyStats> strategyStats = new EnumMap<>(ConcurrencyStrategy.class);
+    // Latency theo giai đoạn, commit / rollback (bật mặc định, xem OrderMetrics)
+    private final OrderMetrics metrics = new OrderMetrics();
+
+    // Giới hạn số request async đang dùng database = số connection tối đa của pool,
+    // các request còn lại chờ trên semaphore (virtual thread chờ gần như không tốn gì)
+    private final Semaphore asyncPermits;
 
     public OrderService() {
         this.dbConfig = DatabaseConfig.getInstance();
+        this.asyncPermits = new Semaphore(dbConfig.getPoolSettings().getMaxSize());
+        for (ConcurrencyStrategy strategy : ConcurrencyStrategy.values()) {
+            strategyStats.put(strategy, new StrategyStats(strategy));
+        }
+    }
+
+    public StockUpdateMode getStockUpdateMode() {
+        return stockUpdateMode;
+    }
+
+    public void setStockUpdateMode(StockUpdateMode stockUpdateMode) {
+        this.stockUpdateMode = stockUpdateMode;
+    }
+
+    public int getItemBatchSize() {
+        return itemBatchSize;
+    }
+
+    public void setItemBatchSize(int itemBatchSize) {
+        this.itemBatchSize = itemBatchSize;
+    }
+
+    public ItemWriteMode getItemWriteMode() {
+        return itemWriteMode;
+    }
+
+    public void setItemWriteMode(ItemWriteMode itemWriteMode) {
+        this.itemWriteMode = itemWriteMode;
+    }
+
+    public StockLedger getStockLedger() {
+        return stockLedger;
+    }
+
+    /**
+     * Bật stock ledger (ledger cần được load() trước), null để tắt
+     */
+    public void setStockLedger(StockLedger stockLedger) {
+        this.stockLedger = stockLedger;
+    }
+
+    public OrderIdAllocator getOrderIdAllocator() {
+        return orderIdAllocator;
+    }
+
+    /**
+     * Bật cấp Order ID theo block, null để quay lại RETURNING id
+     */
+    public void setOrderIdAllocator(OrderIdAllocator orderIdAllocator) {
+        this.orderIdAllocator = orderIdAllocator;
+    }
+
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    public void setFetchSize(int fetchSize) {
+        if (fetchSize < 1) {
+            throw new IllegalArgumentException("fetchSize phải >= 1");
+        }
+        this.fetchSize = fetchSize;
+    }
+
+    public ProductCache getProductCache() {
+        return productCache;
+    }
+
+    /**
+     * Bật cache cho getProduct, null để tắt
+     */
+    public void setProductCache(ProductCache productCache) {
+        this.productCache = productCache;
+    }
+
+    public OrderPartitionMaintainer getPartitionMaintainer() {
+        return partitionMaintainer;
+    }
+
+    /**
+     * Maintainer dùng để tạo partition còn thiếu rồi chạy lại đơn hàng một
+     * lần (vòng đời start/stop do ứng dụng quản lý), null để tắt
+     */
+    public void setPartitionMaintainer(OrderPartitionMaintainer partitionMaintainer) {
+        this.partitionMaintainer = partitionMaintainer;
+    }
+
+    public boolean isSalesAggregation() {
+        return salesAggregation;
+    }
+
+    /**
+     * Bật mặc định: mỗi đơn hàng upsert vào một trong SalesDelta.STRIPES dòng
+     * product_sales của mỗi sản phẩm (chọn ngẫu nhiên), nên các đơn đồng thời
+     * của sản phẩm hot hiếm khi chờ nhau. Khi tắt, chạy
+     * rebuildSalesAggregates() định kỳ (và sau khi bật lại).
+     */
+    public void setSalesAggregation(boolean salesAggregation) {
+        this.salesAggregation = salesAggregation;
+    }
+
+    public ConcurrencyStrategy getConcurrencyStrategy() {
+        return concurrencyStrategy;
+    }
+
+    public void setConcurrencyStrategy(ConcurrencyStrategy concurrencyStrategy) {
+        this.concurrencyStrategy = concurrencyStrategy;
+    }
+
+    public FulfilmentPolicy getFulfilmentPolicy() {
+        return fulfilmentPolicy;
+    }
+
+    /**
+     * Giao một phần khi thiếu hàng (DROP_UNAVAILABLE / PARTIAL) thay vì
+     * rollback cả đơn hàng, xem FulfilmentPolicy
+     */
+    public void setFulfilmentPolicy(FulfilmentPolicy fulfilmentPolicy) {
+        this.fulfilmentPolicy = fulfilmentPolicy;
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    public void setMaxRetries(int maxRetries) {
+        this.maxRetries = maxRetries;
+    }
+
+    public long getRetryBackoffMillis() {
+        return retryBackoffMillis;
+    }
+
+    public void setRetryBackoffMillis(long retryBackoffMillis) {
+        this.retryBackoffMillis = retryBackoffMillis;
+    }
+
+    /**
+     * Số commit / thử lại / thất bại của createOrder theo chiến lược
+     */
+    public StrategyStats getStrategyStats(ConcurrencyStrategy strategy) {
+        return strategyStats.get(strategy);
+    }
+
+    /**
+     * Latency theo giai đoạn / bộ đếm của transaction đặt hàng
+     * (registerMBean() để xem qua JMX)
+     */
+    public OrderMetrics getMetrics() {
+        return metrics;
     }
 
     /**
      * Tạo đơn hàng mới với transaction và batch processing
      * 
      * Quy trình:
+     * 0. (Nếu bật StockLedger) trừ trước trên ledger, từ chối ngay nếu không đủ
      * 1. Bắt đầu transaction (setAutoCommit(false))
      * 2. Tạo order mới
      * 3. Kiểm tra tồn kho cho từng item
      * 4. Trừ kho cho từng item
+     *    (SET_BASED: bước 3 + 4 gộp thành một câu lệnh cho cả đơn hàng,
+     *     BUCKETED: trừ trên bucket của sản phẩm hot)
      * 5. Insert order_items bằng batch
-     * 6. Commit nếu thành công, rollback nếu thất bại
+     *    (bật OrderIdAllocator: bước 2 chỉ cấp ID từ bộ nhớ, order được
+     *     insert cùng order_items trong một câu lệnh ở bước này)
+     * 6. Cộng dồn product_sales / product_sales_daily (upsert một câu lệnh),
+     *    commit nếu thành công, rollback nếu thất bại
+     * 
+     * FulfilmentPolicy khác ALL_OR_NOTHING: item thiếu hàng không làm rollback,
+     * sau commit order.getFulfilled() là các dòng đã giao, order.getUnfulfilled()
+     * là phần còn thiếu.
+     * 
+     * Deadlock / serialization failure (SQLSTATE 40P01 / 40001): rollback rồi
+     * chạy lại bước 1 → 6, tối đa maxRetries lần, chờ ngẫu nhiên giữa các lần.
      * 
      * @param order Order cần tạo (chứa danh sách items)
      * @return Order ID của đơn hàng vừa tạo
      * @throws Exception nếu có lỗi xảy ra
      */
     public int createOrder(Order order) throws Exception {
-        Connection conn = null;
-        PreparedStatement pstmtCreateOrder = null;
-        PreparedStatement pstmtCheckStock = null;
-        PreparedStatement pstmtUpdateStock = null;
-        PreparedStatement pstmtInsertItems = null;
-        ResultSet rs = null;
-
-        int orderId = -1;
-
-        try {
-            // 1. Lấy connection và tắt auto-commit
-            conn = dbConfig.getConnection();
-            conn.setAutoCommit(false);
-            System.out.println("═══════════════════════════════════════════════════");
-            System.out.println("🔄 Bắt đầu Transaction");
-            System.out.println("═══════════════════════════════════════════════════");
-
-            // 2. Tạo order mới
-            String sqlCreateOrder = "INSERT INTO orders (created_at) VALUES (CURRENT_TIMESTAMP) RETURNING id";
-            pstmtCreateOrder = conn.prepareStatement(sqlCreateOrder);
-            rs = pstmtCreateOrder.executeQuery();
-
-            if (rs.next()) {
-                orderId = rs.getInt("id");
-                System.out.println("✓ Đã tạo Order ID: " + orderId);
-            }
+        return createOrder(order, NO_DEADLINE);
+    }
 
-            // 3. Kiểm tra tồn kho cho TẤT CẢ items trước
-            System.out.println("\n📦 Kiểm tra tồn kho:");
-            String sqlCheckStock = "SELECT id, name, stock FROM products WHERE id = ?";
-            pstmtCheckStock = conn.prepareStatement(sqlCheckStock);
+    /**
+     * createOrder với deadline (theo System.nanoTime()): kiểm tra trước khi
+     * lấy connection, trước khi commit và trước mỗi lần thử lại; chờ
+     * connection không quá thời gian còn lại. Hết deadline → rollback,
+     * OverloadException(DEADLINE_EXCEEDED).
+     * 
+     * @param deadlineNanos Thời điểm hết hạn, NO_DEADLINE = không giới hạn
+     */
+    public int createOrder(Order order, long deadlineNanos) throws Exception {
+        EventSink log = dbConfig.getEventSink();
+        ConcurrencyStrategy strategy = concurrencyStrategy;
+        FulfilmentPolicy policy = fulfilmentPolicy;
+        StrategyStats stats = strategyStats.get(strategy);
+        long startTime = System.nanoTime();
+        OrderTransactionEvent event = new OrderTransactionEvent();
+        event.begin();
+        String outcome = "REJECTED";
+        int attempt = 0;
+        int orderId = 0;
+        boolean partitionsCreated = false;
+        boolean stockMismatch = false;
 
-            for (OrderItem item : order.getItems()) {
-                pstmtCheckStock.setInt(1, item.getProductId());
-                ResultSet rsStock = pstmtCheckStock.executeQuery();
+        // Kết quả giao hàng một phần của lần đặt trước (nếu order được dùng lại)
+        Fulfilment.clear(order);
 
-                if (rsStock.next()) {
-                    int currentStock = rsStock.getInt("stock");
-                    String productName = rsStock.getString("name");
+        try {
+            // 0. Trừ trước trên ledger, không đủ hàng thì không cần mở transaction
+            //    (giao một phần: chưa biết sẽ trừ bao nhiêu, đồng bộ ledger sau commit)
+            StockLedger ledger = stockLedger;
+            boolean partial = policy != FulfilmentPolicy.ALL_OR_NOTHING;
+            int[] requestedProducts = ledger != null && partial ? order.getLines().productIds() : null;
+            StockLedger.Reservation reservation = ledger != null && !partial ? ledger.reserve(order) : null;
 
-                    System.out.printf("  - Product ID %d (%s): Tồn kho = %d, Cần = %d%n",
-                            item.getProductId(), productName, currentStock, item.getQty());
+            try {
+                for (attempt = 1;; attempt++) {
+                    try {
+                        // 1 → 6 (giữ nguyên phần trừ trước trên ledger giữa các lần thử)
+                        orderId = runOrderTransaction(order, strategy, policy, deadlineNanos, ledger, reservation);
+                        long elapsed = System.nanoTime() - startTime;
+                        stats.recordCommit(elapsed);
+                        metrics.recordCommit(elapsed, order.getFulfilled().size());
+                        outcome = "COMMITTED";
+                        invalidateCachedProducts(order);
+                        if (reservation != null) {
+                            ledger.confirm(reservation);
+                            reservation = null;
+                        }
+                        if (requestedProducts != null) {
+                            refreshLedger(ledger, requestedProducts);
+                        }
+                        return orderId;
 
-                    // Kiểm tra đủ hàng không
-                    if (currentStock < item.getQty()) {
-                        throw new Exception(
-                                String.format("❌ KHÔNG ĐỦ HÀNG! Product '%s' (ID: %d) - Tồn kho: %d, Yêu cầu: %d",
-                                        productName, item.getProductId(), currentStock, item.getQty()));
+                    } catch (SQLException e) {
+                        if (reservation != null) {
+                            // Lỗi ngay ở commit: transaction đã rollback
+                            ledger.cancelCommit(reservation);
+                        }
+                        OrderPartitionMaintainer partitions = partitionMaintainer;
+                        if (!partitionsCreated && partitions != null && isMissingPartition(e)) {
+                            // Tháng mới chưa có partition (maintainer chưa kịp chạy): tạo rồi chạy lại
+                            partitionsCreated = true;
+                            log.warn("⚠ %s - tạo partition còn thiếu rồi thử lại", e.getMessage());
+                            partitions.maintain();
+                            continue;
+                        }
+                        if (!isRetryable(e)) {
+                            stats.recordError();
+                            outcome = "ERROR";
+                            throw e;
+                        }
+                        if (attempt > maxRetries) {
+                            stats.recordAbort();
+                            outcome = "ABORTED";
+                            throw e;
+                        }
+                        stats.recordRetry();
+                        log.info("⚠ %s (SQLSTATE %s) - thử lại lần %d", e.getMessage(), e.getSQLState(), attempt);
+                        backoff(attempt);
                     }
-                } else {
-                    throw new Exception("❌ Không tìm thấy Product ID: " + item.getProductId());
                 }
-                rsStock.close();
+            } catch (OverloadException e) {
+                stats.recordRejection();
+                outcome = e.getReason().name();
+                throw e;
+            } catch (InterruptedException e) {
+                // Thread bị interrupt khi chờ thử lại: không phải đơn hàng bị từ chối
+                outcome = "INTERRUPTED";
+                throw e;
+            } catch (Exception e) {
+                // Lỗi SQL đã được ghi nhận trong vòng lặp thử lại (error / abort)
+                if (!(e instanceof SQLException)) {
+                    stats.recordRejection();
+                    // Database từ chối (không đủ hàng) dù ledger cho qua: ledger lệch
+                    stockMismatch = true;
+                }
+                throw e;
+            } finally {
+                // Thất bại: hoàn lại ledger, đồng bộ lại với database nếu ledger
+                // lệch (sau khi trả connection để không giữ 2 connection cùng lúc)
+                if (reservation != null) {
+                    ledger.release(reservation, stockMismatch);
+                }
+            }
+        } finally {
+            if (event.shouldCommit()) {
+                OrderLines lines = order.getFulfilled();
+                event.orderId = orderId;
+                event.outcome = outcome;
+                event.attempts = attempt;
+                event.items = lines.size();
+                event.totalQuantity = lines.getTotalQuantity();
+                event.strategy = strategy.name();
+                event.stockUpdateMode = stockUpdateMode.name();
+                event.commit();
             }
-            System.out.println("✓ Tất cả sản phẩm đều đủ hàng");
+        }
+    }
 
-            // 4. Trừ kho cho từng item
-            System.out.println("\n📉 Trừ kho:");
-            String sqlUpdateStock = "UPDATE products SET stock = stock - ? WHERE id = ?";
-            pstmtUpdateStock = conn.prepareStatement(sqlUpdateStock);
+    private void refreshLedger(StockLedger ledger, int[] productIds) {
+        try {
+            ledger.refresh(productIds);
+        } catch (SQLException e) {
+            dbConfig.getEventSink().warn("✗ Lỗi khi đồng bộ stock ledger: %s", e.getMessage());
+        }
+    }
 
-            for (OrderItem item : order.getItems()) {
-                pstmtUpdateStock.setInt(1, item.getQty());
-                pstmtUpdateStock.setInt(2, item.getProductId());
-                int rowsAffected = pstmtUpdateStock.executeUpdate();
+    /**
+     * Một lần chạy transaction của createOrder (bước 1 → 6). Giao một phần:
+     * các dòng đã giao / còn thiếu chỉ được gán vào order sau khi commit.
+     *
+     * @param reservation Phần trừ trước trên ledger (null = không có),
+     *        chuyển sang trạng thái đang commit ngay trước commit
+     */
+    private int runOrderTransaction(Order order, ConcurrencyStrategy strategy, FulfilmentPolicy policy,
+            long deadlineNanos, StockLedger ledger, StockLedger.Reservation reservation) throws Exception {
+        EventSink log = dbConfig.getEventSink();
+        OrderMetrics.Trace trace = metrics.startTrace();
+        Connection conn = null;
 
-                if (rowsAffected > 0) {
-                    System.out.printf("  ✓ Product ID %d: Trừ %d sản phẩm%n",
-                            item.getProductId(), item.getQty());
-                }
+        try {
+            // 1. Lấy connection và tắt auto-commit
+            trace.begin(OrderPhase.CONNECTION);
+            conn = getConnection(deadlineNanos);
+            conn.setAutoCommit(false);
+            if (strategy == ConcurrencyStrategy.SERIALIZABLE) {
+                conn.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
             }
+            log.debug("═══════════════════════════════════════════════════");
+            log.debug("🔄 Bắt đầu Transaction");
+            log.debug("═══════════════════════════════════════════════════");
 
-            // 5. Insert order_items bằng BATCH
-            System.out.println("\n📝 Insert Order Items (Batch Processing):");
-            String sqlInsertItems = "INSERT INTO order_items (order_id, product_id, qty) VALUES (?, ?, ?)";
-            pstmtInsertItems = conn.prepareStatement(sqlInsertItems);
-
-            for (OrderItem item : order.getItems()) {
-                item.setOrderId(orderId); // Set order ID cho item
+            // 2 → 5. Tạo order, kiểm tra + trừ kho, insert order_items
+            Fulfilment fulfilment = policy != FulfilmentPolicy.ALL_OR_NOTHING
+                    ? new Fulfilment(policy, order.getLines().size())
+                    : null;
+            int orderId = placeOrder(conn, order, strategy, trace, fulfilment);
 
-                pstmtInsertItems.setInt(1, item.getOrderId());
-                pstmtInsertItems.setInt(2, item.getProductId());
-                pstmtInsertItems.setInt(3, item.getQty());
-                pstmtInsertItems.addBatch(); // Thêm vào batch
-
-                System.out.printf("  + Batch: Order ID %d, Product ID %d, Qty %d%n",
-                        item.getOrderId(), item.getProductId(), item.getQty());
+            // 6. Số liệu bán hàng: câu lệnh cuối trước commit nên lock dòng
+            //    product_sales của sản phẩm hot được giữ ngắn nhất
+            if (salesAggregation) {
+                trace.begin(OrderPhase.SALES_UPDATE);
+                SalesDelta.write(conn, fulfilment != null ? fulfilment.fulfilled : order.getLines());
             }
 
-            // Execute batch
-            int[] batchResults = pstmtInsertItems.executeBatch();
-            System.out.printf("✓ Đã insert %d order items bằng batch%n", batchResults.length);
-
-            // 6. Commit transaction
+            // Commit transaction (hết deadline thì rollback: caller đã bỏ cuộc)
+            checkDeadline(deadlineNanos, "trước khi commit");
+            if (reservation != null) {
+                ledger.beginCommit(reservation);
+            }
+            trace.begin(OrderPhase.COMMIT);
             conn.commit();
-            System.out.println("\n✅ COMMIT TRANSACTION - Đơn hàng đã được tạo thành công!");
-            System.out.println("═══════════════════════════════════════════════════");
+            trace.end();
+            if (fulfilment != null) {
+                fulfilment.applyTo(order);
+            }
+            log.info("\n✅ COMMIT TRANSACTION - Đơn hàng đã được tạo thành công!");
+            log.debug("═══════════════════════════════════════════════════");
 
             return orderId;
 
         } catch (Exception e) {
             // Rollback nếu có lỗi
             if (conn != null) {
+                metrics.recordRollback(e);
                 try {
+                    trace.begin(OrderPhase.ROLLBACK);
                     conn.rollback();
-                    System.out.println("\n🔙 ROLLBACK TRANSACTION - Đã hoàn tác tất cả thay đổi");
-                    System.out.println("═══════════════════════════════════════════════════");
+                    trace.end();
+                    log.info("\n🔙 ROLLBACK TRANSACTION - Đã hoàn tác tất cả thay đổi");
+                    log.debug("═══════════════════════════════════════════════════");
                 } catch (SQLException rollbackEx) {
-                    System.err.println("✗ Lỗi khi rollback: " + rollbackEx.getMessage());
+                    log.error("✗ Lỗi khi rollback: %s", rollbackEx.getMessage());
                 }
             }
             throw e; // Re-throw exception
 
         } finally {
-            // Đóng resources
+            trace.end();
+            // Đóng connection (pool tự đưa isolation về mặc định)
             try {
-                if (rs != null)
-                    rs.close();
-                if (pstmtCreateOrder != null)
-                    pstmtCreateOrder.close();
-                if (pstmtCheckStock != null)
-                    pstmtCheckStock.close();
-                if (pstmtUpdateStock != null)
-                    pstmtUpdateStock.close();
-                if (pstmtInsertItems != null)
-                    pstmtInsertItems.close();
                 if (conn != null) {
                     conn.setAutoCommit(true); // Bật lại auto-commit
                     conn.close();
                 }
             } catch (SQLException e) {
-                System.err.println("✗ Lỗi khi đóng resources: " + e.getMessage());
+                log.error("✗ Lỗi khi đóng resources: %s", e.getMessage());
             }
         }
     }
 
     /**
-     * Lấy thông tin sản phẩm theo ID
+     * Lấy connection, với deadline thì chờ pool không quá thời gian còn lại
      */
-    public Product getProduct(int productId) throws SQLException {
-        String sql = "SELECT id, name, stock FROM products WHERE id = ?";
+    private Connection getConnection(long deadlineNanos) throws Exception {
+        if (deadlineNanos == NO_DEADLINE) {
+            return dbConfig.getConnection();
+        }
+        checkDeadline(deadlineNanos, "trước khi lấy connection");
+        long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+        try {
+            return dbConfig.getConnection(remainingMillis);
+        } catch (SQLTimeoutException e) {
+            throw new OverloadException(OverloadException.Reason.DEADLINE_EXCEEDED,
+                    "❌ Hết deadline khi chờ connection: " + e.getMessage());
+        }
+    }
 
-        try (Connection conn = dbConfig.getConnection();
-                PreparedStatement pstmt = conn.prepareStatement(sql)) {
+    private static void checkDeadline(long deadlineNanos, String stage) throws OverloadException {
+        if (deadlineNanos != NO_DEADLINE && System.nanoTime() - deadlineNanos >= 0) {
+            throw new OverloadException(OverloadException.Reason.DEADLINE_EXCEEDED,
+                    "❌ Hết deadline " + stage);
+        }
+    }
 
-            pstmt.setInt(1, productId);
-            ResultSet rs = pstmt.executeQuery();
+    /**
+     * Tồn kho của các product trong đơn hàng vừa commit đã thay đổi → xóa khỏi cache
+     */
+    void invalidateCachedProducts(Order order) {
+        ProductCache cache = productCache;
+        if (cache == null) {
+            return;
+        }
+        cache.invalidate(order.getLines().productIds());
+    }
 
-            if (rs.next()) {
-                return new Product(
-                        rs.getInt("id"),
-                        rs.getString("name"),
-                        rs.getInt("stock"));
-            }
-            return null;
+    /**
+     * Deadlock (40P01) hoặc serialization failure (40001): transaction bị
+     * database hủy, chạy lại từ đầu có thể thành công
+     */
+    private static boolean isRetryable(SQLException e) {
+        String state = e.getSQLState();
+        return "40001".equals(state) || "40P01".equals(state);
+    }
+
+    /**
+     * INSERT vào orders / order_items của tháng chưa có partition
+     * (SQLSTATE 23514: "no partition of relation ... found for row")
+     */
+    static boolean isMissingPartition(SQLException e) {
+        String message = e.getMessage();
+        return "23514".equals(e.getSQLState()) && message != null && message.contains("no partition of relation");
+    }
+
+    /**
+     * Chờ ngẫu nhiên trong [0, retryBackoffMillis * 2^(attempt-1)] (full
+     * jitter) để các transaction vừa xung đột không cùng chạy lại một lúc
+     */
+    private void backoff(int attempt) throws InterruptedException {
+        long maxDelay = Math.min(retryBackoffMillis << Math.min(attempt - 1, 20), MAX_BACKOFF_MILLIS);
+        if (maxDelay > 0) {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(maxDelay + 1));
         }
     }
 
     /**
-     * Hiển thị tồn kho hiện tại
+     * Tạo đơn hàng bất đồng bộ trên virtual thread
+     * 
+     * @return Future hoàn thành với Order ID, hoặc với lỗi nếu đơn hàng thất bại
      */
-    public void displayCurrentStock() throws SQLException {
-        String sql = "SELECT id, name, stock FROM products ORDER BY id";
+    public CompletableFuture<Integer> createOrderAsync(Order order) {
+        return submitAsync(() -> createOrder(order));
+    }
 
-        System.out.println("\n📊 TỒN KHO HIỆN TẠI:");
-        System.out.println("─────────────────────────────────────────────────");
+    /**
+     * Lấy thông tin sản phẩm bất đồng bộ trên virtual thread
+     * 
+     * @return Future hoàn thành với Product (null nếu không tìm thấy)
+     */
+    public CompletableFuture<Product> getProductAsync(int productId) {
+        return submitAsync(() -> getProduct(productId));
+    }
 
-        try (Connection conn = dbConfig.getConnection();
-                PreparedStatement pstmt = conn.prepareStatement(sql);
-                ResultSet rs = pstmt.executeQuery()) {
+    /**
+     * Số request async đang chờ tới lượt dùng database
+     */
+    public int getPendingAsyncRequests() {
+        return asyncPermits.getQueueLength();
+    }
 
-            while (rs.next()) {
-                System.out.printf("Product ID %d: %-25s | Stock: %3d%n",
-                        rs.getInt("id"),
-                        rs.getString("name"),
-                        rs.getInt("stock"));
+    /**
+     * Chạy task trên virtual thread, giới hạn số task chạm database cùng lúc
+     */
+    private <T> CompletableFuture<T> submitAsync(Callable<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        ASYNC_EXECUTOR.execute(() -> {
+            try {
+                asyncPermits.acquire();
+                try {
+                    future.complete(task.call());
+                } finally {
+                    asyncPermits.release();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                future.completeExceptionally(e);
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Ghi một đơn hàng trong transaction đang mở của connection (bước 2 → 5)
+     * 
+     * Không commit/rollback: caller quản lý transaction. Dùng chung cho
+     * createOrder (1 order / transaction) và OrderIngestor (nhiều order /
+     * transaction, mỗi order một savepoint).
+     * 
+     * Giao một phần (FulfilmentPolicy): các dòng đã giao / còn thiếu được gán
+     * vào order ngay khi trả về, trước khi caller commit.
+     * 
+     * @param conn Connection đang ở chế độ auto-commit = false
+     * @param order Order cần ghi
+     * @return Order ID của đơn hàng vừa tạo
+     * @throws Exception nếu không đủ hàng, không tìm thấy product hoặc lỗi SQL
+     */
+    int placeOrder(Connection conn, Order order) throws Exception {
+        OrderMetrics.Trace trace = metrics.startTrace();
+        FulfilmentPolicy policy = fulfilmentPolicy;
+        Fulfilment fulfilment = policy != FulfilmentPolicy.ALL_OR_NOTHING
+                ? new Fulfilment(policy, order.getLines().size())
+                : null;
+        Fulfilment.clear(order);
+        try {
+            int orderId = placeOrder(conn, order, concurrencyStrategy, trace, fulfilment);
+            if (fulfilment != null) {
+                fulfilment.applyTo(order);
             }
+            return orderId;
+        } finally {
+            trace.end();
         }
+    }
+
+    /**
+     * placeOrder, đo từng giai đoạn bằng trace của transaction
+     * (giai đoạn cuối kết thúc ở lần begin() / end() tiếp theo của caller)
+     *
+     * @param strategy ConcurrencyStrategy của transaction (caller đọc một lần,
+     *        cùng giá trị đã dùng để đặt isolation level)
+     * @param fulfilment null = ALL_OR_NOTHING, khác null: ghi nhận các dòng
+     *        đã giao / còn thiếu, chỉ insert order_items cho các dòng đã giao
+     */
+    private int placeOrder(Connection conn, Order order, ConcurrencyStrategy strategy, OrderMetrics.Trace trace,
+            Fulfilment fulfilment) throws Exception {
+        EventSink log = dbConfig.getEventSink();
+        // Kiểm tra level một lần: vòng lặp theo item không format/boxing khi tắt DEBUG
+        boolean debug = log.isEnabled(Level.DEBUG);
+        PreparedStatement pstmtCreateOrder = null;
+        PreparedStatement pstmtCheckStock = null;
+        PreparedStatement pstmtUpdateStock = null;
+        PreparedStatement pstmtInsertItems = null;
+        ResultSet rs = null;
+
+        int orderId = -1;
+        OrderIdAllocator allocator = orderIdAllocator;
+
+        try {
+            // 2. Tạo order mới (hoặc chỉ cấp ID, insert order ở bước 5)
+            trace.begin(OrderPhase.ORDER_INSERT);
+            if (allocator != null) {
+                orderId = allocator.nextId(conn);
+                log.debug("✓ Đã cấp Order ID: %d", orderId);
+            } else {
+                String sqlCreateOrder = "INSERT INTO orders (created_at) VALUES (CURRENT_TIMESTAMP) RETURNING id";
+                pstmtCreateOrder = conn.prepareStatement(sqlCreateOrder);
+                rs = pstmtCreateOrder.executeQuery();
+
+                if (rs.next()) {
+                    orderId = rs.getInt("id");
+                    log.debug("✓ Đã tạo Order ID: %d", orderId);
+                }
+            }
+
+            // Các dòng dạng mảng, mỗi product một dòng
+            OrderLines lines = order.getLines();
+
+            if (fulfilment != null) {
+                // 3 + 4. Trừ phần còn hàng (UPDATE có điều kiện, không lỗi khi thiếu)
+                trace.begin(OrderPhase.STOCK_UPDATE);
+                if (stockUpdateMode == StockUpdateMode.BUCKETED) {
+                    decrementStockBucketed(conn, lines.sortedByProductId(), fulfilment);
+                } else {
+                    takeAvailableStock(conn, lines, fulfilment);
+                }
+                if (fulfilment.fulfilled.isEmpty()) {
+                    throw new Exception("❌ KHÔNG ĐỦ HÀNG! Không sản phẩm nào trong đơn hàng còn hàng");
+                }
+                // 5. chỉ insert các dòng đã giao
+                lines = fulfilment.fulfilled;
+            } else if (stockUpdateMode == StockUpdateMode.SET_BASED) {
+                // 3 + 4. Kiểm tra và trừ kho bằng một câu lệnh
+                trace.begin(OrderPhase.STOCK_UPDATE);
+                checkAndDecrementStock(conn, lines);
+            } else if (stockUpdateMode == StockUpdateMode.BUCKETED) {
+                // 3 + 4. Trừ kho trên bucket (sản phẩm hot) hoặc trên products
+                trace.begin(OrderPhase.STOCK_UPDATE);
+                decrementStockBucketed(conn, lines.sortedByProductId(), null);
+            } else if (strategy == ConcurrencyStrategy.CONDITIONAL_UPDATE) {
+                // 3 + 4. UPDATE có điều kiện cho từng item, không đọc trước
+                trace.begin(OrderPhase.STOCK_UPDATE);
+                decrementStockConditional(conn, lines.sortedByProductId());
+            } else {
+                // Lock theo thứ tự product_id, không theo thứ tự item của caller
+                OrderLines lockOrder = lines.sortedByProductId();
+
+                // 3. Kiểm tra tồn kho cho TẤT CẢ items trước
+                //    (PESSIMISTIC: lock dòng products ngay khi đọc)
+                log.debug("\n📦 Kiểm tra tồn kho:");
+                trace.begin(OrderPhase.STOCK_CHECK);
+                String sqlCheckStock = strategy == ConcurrencyStrategy.PESSIMISTIC
+                        ? "SELECT id, name, stock FROM products WHERE id = ? FOR UPDATE"
+                        : "SELECT id, name, stock FROM products WHERE id = ?";
+                pstmtCheckStock = conn.prepareStatement(sqlCheckStock);
+
+                for (int i = 0; i < lockOrder.size(); i++) {
+                    int productId = lockOrder.productId(i);
+                    int qty = lockOrder.qty(i);
+                    pstmtCheckStock.setInt(1, productId);
+                    ResultSet rsStock = pstmtCheckStock.executeQuery();
+
+                    if (rsStock.next()) {
+                        int currentStock = rsStock.getInt("stock");
+                        String productName = rsStock.getString("name");
+
+                        if (debug) {
+                            log.debug("  - Product ID %d (%s): Tồn kho = %d, Cần = %d",
+                                    productId, productName, currentStock, qty);
+                        }
+
+                        // Sản phẩm từng được chia bucket: gom về products.stock rồi kiểm tra lại
+                        if (currentStock < qty) {
+                            currentStock += foldBuckets(conn, productId);
+                        }
+
+                        // Kiểm tra đủ hàng không
+                        if (currentStock < qty) {
+                            throw new Exception(
+                                    String.format("❌ KHÔNG ĐỦ HÀNG! Product '%s' (ID: %d) - Tồn kho: %d, Yêu cầu: %d",
+                                            productName, productId, currentStock, qty));
+                        }
+                    } else {
+                        throw new Exception("❌ Không tìm thấy Product ID: " + productId);
+                    }
+                    rsStock.close();
+                }
+                log.debug("✓ Tất cả sản phẩm đều đủ hàng");
+
+                // 4. Trừ kho cho từng item
+                log.debug("\n📉 Trừ kho:");
+                trace.begin(OrderPhase.STOCK_UPDATE);
+                if (itemWriteMode != ItemWriteMode.BATCH) {
+                    decrementStockMultiRow(conn, lockOrder);
+                } else {
+                    String sqlUpdateStock = "UPDATE products SET stock = stock - ? WHERE id = ?";
+                    pstmtUpdateStock = conn.prepareStatement(sqlUpdateStock);
+                    int batched = 0;
+
+                    for (int i = 0; i < lockOrder.size(); i++) {
+                        pstmtUpdateStock.setInt(1, lockOrder.qty(i));
+                        pstmtUpdateStock.setInt(2, lockOrder.productId(i));
+                        pstmtUpdateStock.addBatch();
+
+                        if (debug) {
+                            log.debug("  ✓ Product ID %d: Trừ %d sản phẩm",
+                                    lockOrder.productId(i), lockOrder.qty(i));
+                        }
+                        if (itemBatchSize > 0 && ++batched == itemBatchSize) {
+                            pstmtUpdateStock.executeBatch();
+                            batched = 0;
+                        }
+                    }
+                    pstmtUpdateStock.executeBatch();
+                }
+            }
+
+            trace.begin(OrderPhase.ITEMS_INSERT);
+            if (allocator != null) {
+                // 5. Insert order + order_items trong một câu lệnh
+                insertOrderWithItems(conn, orderId, lines);
+            } else if (itemWriteMode != ItemWriteMode.BATCH) {
+                // 5. Insert order_items bằng câu lệnh nhiều dòng
+                insertItemsMultiRow(conn, orderId, lines);
+            } else {
+                // 5. Insert order_items bằng BATCH
+                log.debug("\n📝 Insert Order Items (Batch Processing):");
+                String sqlInsertItems = "INSERT INTO order_items (order_id, order_created_at, product_id, qty) "
+                        + "VALUES (?, CURRENT_TIMESTAMP, ?, ?)";
+                pstmtInsertItems = conn.prepareStatement(sqlInsertItems);
+                int batched = 0;
+                int inserted = 0;
+
+                for (int i = 0; i < lines.size(); i++) {
+                    pstmtInsertItems.setInt(1, orderId);
+                    pstmtInsertItems.setInt(2, lines.productId(i));
+                    pstmtInsertItems.setInt(3, lines.qty(i));
+                    pstmtInsertItems.addBatch(); // Thêm vào batch
+
+                    if (debug) {
+                        log.debug("  + Batch: Order ID %d, Product ID %d, Qty %d",
+                                orderId, lines.productId(i), lines.qty(i));
+                    }
+
+                    // Gửi batch khi đủ itemBatchSize dòng
+                    if (itemBatchSize > 0 && ++batched == itemBatchSize) {
+                        inserted += pstmtInsertItems.executeBatch().length;
+                        batched = 0;
+                    }
+                }
+
+                // Execute batch
+                int[] batchResults = pstmtInsertItems.executeBatch();
+                inserted += batchResults.length;
+                log.debug("✓ Đã insert %d order items bằng batch", inserted);
+            }
+
+            // Set order ID cho order (và các OrderItem nếu order dùng List<OrderItem>)
+            order.setId(orderId);
+            return orderId;
+
+        } finally {
+            // Đóng statements (connection do caller quản lý)
+            try {
+                if (rs != null)
+                    rs.close();
+                if (pstmtCreateOrder != null)
+                    pstmtCreateOrder.close();
+                if (pstmtCheckStock != null)
+                    pstmtCheckStock.close();
+                if (pstmtUpdateStock != null)
+                    pstmtUpdateStock.close();
+                if (pstmtInsertItems != null)
+                    pstmtInsertItems.close();
+            } catch (SQLException e) {
+                log.error("✗ Lỗi khi đóng resources: %s", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Trừ kho từng item bằng UPDATE có điều kiện stock >= qty (CONDITIONAL_UPDATE)
+     * 
+     * Không có bước đọc trước: 0 dòng được cập nhật nghĩa là không đủ hàng
+     * hoặc không có product, khi đó mới gom bucket (nếu có) và thử lại,
+     * rồi đọc lại để báo lỗi.
+     * 
+     * @param lines Các dòng đã sắp xếp theo product_id
+     * @throws Exception nếu có item không đủ hàng hoặc không tìm thấy product
+     */
+    private void decrementStockConditional(Connection conn, OrderLines lines) throws Exception {
+        EventSink log = dbConfig.getEventSink();
+        boolean debug = log.isEnabled(Level.DEBUG);
+
+        log.debug("\n📉 Trừ kho (UPDATE có điều kiện):");
+        if (itemWriteMode != ItemWriteMode.BATCH) {
+            decrementStockMultiRow(conn, lines);
+            return;
+        }
+        try (PreparedStatement pstmt = conn.prepareStatement(SQL_TAKE_FROM_PRODUCT)) {
+            // Gửi theo từng nhóm itemBatchSize dòng, update count = 0 → không đủ hàng
+            int chunk = itemBatchSize > 0 ? itemBatchSize : lines.size();
+            for (int from = 0; from < lines.size(); from += chunk) {
+                int to = Math.min(lines.size(), from + chunk);
+                for (int i = from; i < to; i++) {
+                    pstmt.setInt(1, lines.qty(i));
+                    pstmt.setInt(2, lines.productId(i));
+                    pstmt.setInt(3, lines.qty(i));
+                    pstmt.addBatch();
+                }
+                int[] counts = pstmt.executeBatch();
+                for (int i = from; i < to; i++) {
+                    if (counts[i - from] == 0 && !takeAfterFold(conn, lines.productId(i), lines.qty(i))) {
+                        throw stockFailure(conn, lines.productId(i), lines.qty(i));
+                    }
+                    if (debug) {
+                        log.debug("  ✓ Product ID %d: Trừ %d sản phẩm", lines.productId(i), lines.qty(i));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Trừ kho theo từng nhóm dòng bằng MỘT câu lệnh mỗi nhóm (MULTI_VALUES / UNNEST)
+     * 
+     * Lock theo thứ tự id; product không được trừ (thiếu hàng / không tồn
+     * tại) → gom bucket và thử lại, vẫn không được thì báo lỗi theo product
+     * đầu tiên.
+     * 
+     * @param lines Các dòng đã sắp xếp theo product_id (các nhóm lock nối tiếp theo thứ tự id)
+     */
+    private void decrementStockMultiRow(Connection conn, OrderLines lines) throws Exception {
+        int chunk = rowsPerStatement(lines.size());
+        boolean[] updated = new boolean[lines.size()];
+        for (int from = 0; from < lines.size(); from += chunk) {
+            int to = Math.min(lines.size(), from + chunk);
+
+            // MULTI_VALUES: SQL khác nhau theo số dòng, không đưa vào cache statement của pool
+            try (PreparedStatement pstmt = itemWriteMode == ItemWriteMode.UNNEST
+                    ? conn.prepareStatement(SQL_DECREMENT_STOCK_MULTI.replace("{ROWS}", "unnest(?::int[], ?::int[])"))
+                    : ConnectionPool.prepareUncached(conn,
+                            SQL_DECREMENT_STOCK_MULTI.replace("{ROWS}", "(VALUES " + valuesPlaceholders(to - from, 2) + ")"))) {
+                if (itemWriteMode == ItemWriteMode.UNNEST) {
+                    pstmt.setArray(1, intArray(conn, lines.productIds(from, to)));
+                    pstmt.setArray(2, intArray(conn, lines.quantities(from, to)));
+                } else {
+                    int index = 1;
+                    for (int i = from; i < to; i++) {
+                        pstmt.setInt(index++, lines.productId(i));
+                        pstmt.setInt(index++, lines.qty(i));
+                    }
+                }
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        updated[lines.indexOf(rs.getInt(1))] = true;
+                    }
+                }
+            }
+
+            for (int i = from; i < to; i++) {
+                if (!updated[i] && !takeAfterFold(conn, lines.productId(i), lines.qty(i))) {
+                    throw stockFailure(conn, lines.productId(i), lines.qty(i));
+                }
+            }
+        }
+        dbConfig.getEventSink().debug("✓ Đã trừ kho %d item bằng câu lệnh nhiều dòng (%s)",
+                lines.size(), itemWriteMode);
+    }
+
+    /**
+     * Insert order_items theo từng nhóm bằng MỘT câu lệnh mỗi nhóm (MULTI_VALUES / UNNEST)
+     */
+    private void insertItemsMultiRow(Connection conn, int orderId, OrderLines lines) throws SQLException {
+        int chunk = rowsPerStatement(lines.size());
+        int inserted = 0;
+        for (int from = 0; from < lines.size(); from += chunk) {
+            int to = Math.min(lines.size(), from + chunk);
+
+            if (itemWriteMode == ItemWriteMode.UNNEST) {
+                try (PreparedStatement pstmt = conn.prepareStatement(SQL_INSERT_ITEMS_UNNEST)) {
+                    pstmt.setInt(1, orderId);
+                    pstmt.setArray(2, intArray(conn, lines.productIds(from, to)));
+                    pstmt.setArray(3, intArray(conn, lines.quantities(from, to)));
+                    inserted += pstmt.executeUpdate();
+                }
+            } else {
+                String sql = SQL_INSERT_ITEMS_VALUES.replace("{ROWS}", valuesPlaceholders(to - from, 3));
+                try (PreparedStatement pstmt = ConnectionPool.prepareUncached(conn, sql)) {
+                    int index = 1;
+                    for (int i = from; i < to; i++) {
+                        pstmt.setInt(index++, orderId);
+                        pstmt.setInt(index++, lines.productId(i));
+                        pstmt.setInt(index++, lines.qty(i));
+                    }
+                    inserted += pstmt.executeUpdate();
+                }
+            }
+        }
+        dbConfig.getEventSink().debug("✓ Đã insert %d order items (%s, %d dòng / câu lệnh)",
+                inserted, itemWriteMode, chunk);
+    }
+
+    /**
+     * Số dòng mỗi câu lệnh nhiều dòng: itemBatchSize, hoặc cả đơn hàng nếu
+     * itemBatchSize = 0 (không vượt quá MAX_ROWS_PER_STATEMENT)
+     */
+    private int rowsPerStatement(int rows) {
+        int chunk = itemBatchSize > 0 ? itemBatchSize : Math.max(rows, 1);
+        return Math.min(chunk, MAX_ROWS_PER_STATEMENT);
+    }
+
+    /**
+     * "(?::int, ?::int), (?::int, ?::int), ..." cho rows dòng, mỗi dòng columns cột
+     */
+    private static String valuesPlaceholders(int rows, int columns) {
+        StringBuilder row = new StringBuilder("(");
+        for (int c = 0; c < columns; c++) {
+            row.append(c == 0 ? "?::int" : ", ?::int");
+        }
+        row.append(')');
+        StringBuilder sql = new StringBuilder(rows * (row.length() + 2));
+        for (int r = 0; r < rows; r++) {
+            if (r > 0) {
+                sql.append(", ");
+            }
+            sql.append(row);
+        }
+        return sql.toString();
+    }
+
+    /**
+     * Mảng int[] làm tham số ?::int[] (PgConnection nhận mảng primitive, không cần Integer[])
+     */
+    private static Array intArray(Connection conn, int[] values) throws SQLException {
+        return conn.unwrap(PGConnection.class).createArrayOf("integer", values);
+    }
+
+    /**
+     * Lỗi khi UPDATE có điều kiện không trừ được: không tìm thấy hoặc không đủ hàng
+     */
+    private Exception stockFailure(Connection conn, int productId, int qty) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement("SELECT name, stock FROM products WHERE id = ?")) {
+            pstmt.setInt(1, productId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (!rs.next()) {
+                    return new Exception("❌ Không tìm thấy Product ID: " + productId);
+                }
+                return new Exception(
+                        String.format("❌ KHÔNG ĐỦ HÀNG! Product '%s' (ID: %d) - Tồn kho: %d, Yêu cầu: %d",
+                                rs.getString("name"), productId, rs.getInt("stock"), qty));
+            }
+        }
+    }
+
+    /**
+     * Insert order (ID đã cấp trước) và tất cả order_items bằng MỘT câu lệnh
+     */
+    private void insertOrderWithItems(Connection conn, int orderId, OrderLines lines) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(SQL_INSERT_ORDER_WITH_ITEMS)) {
+            pstmt.setInt(1, orderId);
+            pstmt.setInt(2, orderId);
+            pstmt.setArray(3, intArray(conn, lines.productIds()));
+            pstmt.setArray(4, intArray(conn, lines.quantities()));
+            int inserted = pstmt.executeUpdate();
+            dbConfig.getEventSink().debug("✓ Đã insert Order ID %d + %d order items trong 1 câu lệnh",
+                    orderId, inserted);
+        }
+    }
+
+    /**
+     * Kiểm tra và trừ kho cho cả đơn hàng bằng MỘT câu lệnh (SET_BASED)
+     * 
+     * UPDATE có điều kiện stock >= qty nên không có khoảng hở giữa
+     * check và update (không oversell khi chạy đồng thời). Product nào
+     * không được trừ là product thiếu hàng hoặc không tồn tại (thiếu hàng:
+     * gom bucket nếu có rồi thử lại); các product đã trừ sẽ được hoàn tác
+     * khi rollback.
+     * 
+     * @throws Exception nếu có item không đủ hàng hoặc không tìm thấy product
+     */
+    private void checkAndDecrementStock(Connection conn, OrderLines lines) throws Exception {
+        EventSink log = dbConfig.getEventSink();
+        boolean debug = log.isEnabled(Level.DEBUG);
+
+        // Kết quả theo vị trí dòng: tên (null = không tìm thấy), tồn kho trước khi trừ
+        String[] names = new String[lines.size()];
+        int[] stocks = new int[lines.size()];
+        boolean[] updated = new boolean[lines.size()];
+
+        log.debug("\n📦 Kiểm tra & trừ kho (set-based):");
+        try (PreparedStatement pstmt = conn.prepareStatement(SQL_SET_BASED_STOCK)) {
+            pstmt.setArray(1, intArray(conn, lines.productIds()));
+            pstmt.setArray(2, intArray(conn, lines.quantities()));
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    int line = lines.indexOf(rs.getInt("product_id"));
+                    names[line] = rs.getString("name");
+                    stocks[line] = rs.getInt("stock");
+                    updated[line] = rs.getBoolean("updated");
+                }
+            }
+        }
+
+        // Báo lỗi theo đúng thứ tự item trong đơn hàng
+        for (int i = 0; i < lines.size(); i++) {
+            int productId = lines.productId(i);
+            if (names[i] == null) {
+                throw new Exception("❌ Không tìm thấy Product ID: " + productId);
+            }
+            if (debug) {
+                log.debug("  - Product ID %d (%s): Tồn kho = %d, Cần = %d",
+                        productId, names[i], stocks[i], lines.qty(i));
+            }
+            if (!updated[i] && !takeAfterFold(conn, productId, lines.qty(i))) {
+                throw stockFailure(conn, productId, lines.qty(i));
+            }
+        }
+        log.debug("✓ Đã trừ kho %d sản phẩm trong 1 câu lệnh", lines.size());
+    }
+
+    /**
+     * Trừ kho theo FulfilmentPolicy bằng MỘT câu lệnh (SQL_TAKE_AVAILABLE_STOCK):
+     * lock theo thứ tự id như SET_BASED, product thiếu hàng được trừ phần còn
+     * lại (PARTIAL) hoặc bỏ qua (DROP_UNAVAILABLE), product không tồn tại bị
+     * bỏ qua. Product thiếu hàng có bucket: gom bucket rồi trừ thêm phần còn
+     * thiếu bằng câu lệnh đó một lần nữa.
+     */
+    private void takeAvailableStock(Connection conn, OrderLines lines, Fulfilment fulfilment) throws SQLException {
+        dbConfig.getEventSink().debug("\n📦 Trừ kho phần còn hàng (%s):", fulfilment.policy);
+        boolean[] found = new boolean[lines.size()];
+        int[] taken = takeAvailable(conn, lines, fulfilment.policy, found);
+
+        OrderLines shortLines = new OrderLines(1);
+        for (int i = 0; i < lines.size(); i++) {
+            if (found[i] && taken[i] < lines.qty(i)) {
+                shortLines.add(lines.productId(i), lines.qty(i) - taken[i]);
+            }
+        }
+        if (!shortLines.isEmpty() && foldBuckets(conn, shortLines.productIds()) > 0) {
+            int[] more = takeAvailable(conn, shortLines, fulfilment.policy, new boolean[shortLines.size()]);
+            for (int i = 0; i < shortLines.size(); i++) {
+                taken[lines.indexOf(shortLines.productId(i))] += more[i];
+            }
+        }
+
+        // Giữ thứ tự dòng của đơn hàng
+        for (int i = 0; i < lines.size(); i++) {
+            fulfilment.record(lines.productId(i), lines.qty(i), taken[i]);
+        }
+    }
+
+    /**
+     * Một lần chạy SQL_TAKE_AVAILABLE_STOCK
+     *
+     * @param found Kết quả: product của dòng có tồn tại không
+     * @return Số lượng đã trừ của từng dòng
+     */
+    private int[] takeAvailable(Connection conn, OrderLines lines, FulfilmentPolicy policy, boolean[] found)
+            throws SQLException {
+        EventSink log = dbConfig.getEventSink();
+        boolean debug = log.isEnabled(Level.DEBUG);
+        int[] taken = new int[lines.size()];
+
+        try (PreparedStatement pstmt = conn.prepareStatement(SQL_TAKE_AVAILABLE_STOCK)) {
+            pstmt.setArray(1, intArray(conn, lines.productIds()));
+            pstmt.setArray(2, intArray(conn, lines.quantities()));
+            pstmt.setBoolean(3, policy == FulfilmentPolicy.PARTIAL);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    int line = lines.indexOf(rs.getInt("product_id"));
+                    found[line] = rs.getString("name") != null;
+                    taken[line] = rs.getInt("taken");
+                    if (debug) {
+                        log.debug("  - Product ID %d (%s): Tồn kho = %d, Cần = %d, Trừ = %d",
+                                lines.productId(line), rs.getString("name"), rs.getInt("stock"),
+                                lines.qty(line), taken[line]);
+                    }
+                }
+            }
+        }
+        return taken;
+    }
+
+    /**
+     * Gom các bucket của product về products.stock (sản phẩm được chia bucket
+     * cho chế độ BUCKETED, đang được trừ kho ở chế độ khác). Chỉ gọi khi
+     * products.stock không đủ, nên đơn hàng đủ hàng không tốn thêm câu lệnh.
+     *
+     * @return Tổng số lượng đã chuyển từ bucket về products.stock
+     */
+    private int foldBuckets(Connection conn, int... productIds) throws SQLException {
+        int moved = 0;
+        try (PreparedStatement pstmt = conn.prepareStatement(SQL_FOLD_BUCKETS)) {
+            pstmt.setArray(1, intArray(conn, productIds));
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    moved += rs.getInt(2);
+                }
+            }
+        }
+        if (moved > 0) {
+            dbConfig.getEventSink().debug("  ↺ Đã gom %d sản phẩm từ bucket về products.stock", moved);
+        }
+        return moved;
+    }
+
+    /**
+     * UPDATE có điều kiện không trừ được: gom bucket (nếu có) rồi trừ lại
+     *
+     * @return true nếu đã trừ được qty
+     */
+    private boolean takeAfterFold(Connection conn, int productId, int qty) throws SQLException {
+        if (foldBuckets(conn, productId) == 0) {
+            return false;
+        }
+        try (PreparedStatement pstmt = conn.prepareStatement(SQL_TAKE_FROM_PRODUCT)) {
+            pstmt.setInt(1, qty);
+            pstmt.setInt(2, productId);
+            pstmt.setInt(3, qty);
+            return pstmt.executeUpdate() == 1;
+        }
+    }
+
+    /**
+     * Trừ kho ở chế độ BUCKETED
+     * 
+     * Sản phẩm có bucket: trừ trên một bucket ngẫu nhiên đủ hàng và chưa bị
+     * lock. Sản phẩm không có bucket: UPDATE có điều kiện stock >= qty trên
+     * products. Không được (không bucket nào đủ, tồn kho mới nhập / chưa
+     * chia nằm trên products.stock, hoặc bucket vừa được rebalancer chia lại)
+     * thì trừ trên tổng products.stock + tất cả bucket (takeFromAllStock).
+     * 
+     * @param lines Các dòng đã sắp xếp theo product_id
+     * @param fulfilment null = báo lỗi khi thiếu; khác null: trừ phần còn lại
+     *        theo FulfilmentPolicy và ghi nhận số đã trừ của từng dòng
+     * @throws Exception nếu có item không đủ hàng hoặc không tìm thấy product
+     *         (chỉ khi fulfilment = null)
+     */
+    private void decrementStockBucketed(Connection conn, OrderLines lines, Fulfilment fulfilment)
+            throws Exception {
+        EventSink log = dbConfig.getEventSink();
+        boolean debug = log.isEnabled(Level.DEBUG);
+
+        // Một query lấy tên và số bucket của tất cả sản phẩm
+        String[] names = new String[lines.size()];
+        int[] bucketCounts = new int[lines.size()];
+        try (PreparedStatement pstmt = conn.prepareStatement(SQL_BUCKET_INFO)) {
+            pstmt.setArray(1, intArray(conn, lines.productIds()));
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    int line = lines.indexOf(rs.getInt("id"));
+                    names[line] = rs.getString("name");
+                    bucketCounts[line] = rs.getInt("buckets");
+                }
+            }
+        }
+
+        log.debug("\n📉 Trừ kho (bucketed):");
+        try (PreparedStatement pstmtBucket = conn.prepareStatement(SQL_TAKE_FROM_BUCKET);
+                PreparedStatement pstmtProduct = conn.prepareStatement(SQL_TAKE_FROM_PRODUCT)) {
+
+            for (int i = 0; i < lines.size(); i++) {
+                int productId = lines.productId(i);
+                int qty = lines.qty(i);
+                int taken = qty;
+                if (names[i] == null) {
+                    if (fulfilment == null) {
+                        throw new Exception("❌ Không tìm thấy Product ID: " + productId);
+                    }
+                    fulfilment.record(productId, qty, 0);
+                    continue;
+                }
+
+                boolean done;
+                if (bucketCounts[i] > 0) {
+                    pstmtBucket.setInt(1, qty);
+                    pstmtBucket.setInt(2, productId);
+                    pstmtBucket.setInt(3, qty);
+                    pstmtBucket.setInt(4, productId);
+                    done = pstmtBucket.executeUpdate() > 0;
+                } else {
+                    pstmtProduct.setInt(1, qty);
+                    pstmtProduct.setInt(2, productId);
+                    pstmtProduct.setInt(3, qty);
+                    done = pstmtProduct.executeUpdate() > 0;
+                }
+                if (!done) {
+                    taken = takeFromAllStock(conn, productId, names[i], qty, fulfilment);
+                }
+                if (fulfilment != null) {
+                    fulfilment.record(productId, qty, taken);
+                }
+
+                if (debug) {
+                    log.debug("  ✓ Product ID %d (%s): Trừ %d/%d sản phẩm", productId, names[i], taken, qty);
+                }
+            }
+        }
+    }
+
+    /**
+     * Trừ trên tổng tồn kho của sản phẩm: lock dòng products rồi tất cả
+     * bucket theo thứ tự bucket_no (cùng thứ tự với StockBucketRebalancer,
+     * đọc lại bucket sau khi có lock nên thấy kết quả của lần chia lại vừa
+     * commit), trừ products.stock trước rồi tới từng bucket
+     *
+     * @param fulfilment null = báo lỗi nếu tổng tồn kho không đủ qty
+     * @return Số lượng đã trừ (nhỏ hơn qty chỉ khi giao một phần)
+     */
+    private int takeFromAllStock(Connection conn, int productId, String productName, int qty,
+            Fulfilment fulfilment) throws Exception {
+        int productStock = 0;
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                "SELECT stock FROM products WHERE id = ? FOR UPDATE")) {
+            pstmt.setInt(1, productId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next()) {
+                    productStock = rs.getInt("stock");
+                }
+            }
+        }
+        String sqlLock = "SELECT bucket_no, stock FROM product_stock_buckets "
+                + "WHERE product_id = ? ORDER BY bucket_no FOR UPDATE";
+        List<int[]> buckets = new ArrayList<>();
+        int total = productStock;
+        try (PreparedStatement pstmt = conn.prepareStatement(sqlLock)) {
+            pstmt.setInt(1, productId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    int stock = rs.getInt("stock");
+                    buckets.add(new int[] { rs.getInt("bucket_no"), stock });
+                    total += stock;
+                }
+            }
+        }
+        if (total < qty) {
+            if (fulfilment == null) {
+                throw new Exception(
+                        String.format("❌ KHÔNG ĐỦ HÀNG! Product '%s' (ID: %d) - Tồn kho: %d, Yêu cầu: %d",
+                                productName, productId, total, qty));
+            }
+            qty = fulfilment.takeWhenShort(total);
+            if (qty == 0) {
+                return 0;
+            }
+        }
+
+        int remaining = qty;
+        int fromProduct = Math.min(productStock, remaining);
+        if (fromProduct > 0) {
+            try (PreparedStatement pstmt = conn.prepareStatement(SQL_TAKE_FROM_PRODUCT)) {
+                pstmt.setInt(1, fromProduct);
+                pstmt.setInt(2, productId);
+                pstmt.setInt(3, fromProduct);
+                pstmt.executeUpdate();
+            }
+            remaining -= fromProduct;
+        }
+        if (remaining > 0) {
+            String sqlTake = "UPDATE product_stock_buckets SET stock = stock - ? WHERE product_id = ? AND bucket_no = ?";
+            try (PreparedStatement pstmt = conn.prepareStatement(sqlTake)) {
+                for (int[] bucket : buckets) {
+                    int take = Math.min(bucket[1], remaining);
+                    if (take > 0) {
+                        pstmt.setInt(1, take);
+                        pstmt.setInt(2, productId);
+                        pstmt.setInt(3, bucket[0]);
+                        pstmt.addBatch();
+                        remaining -= take;
+                    }
+                    if (remaining == 0) {
+                        break;
+                    }
+                }
+                pstmt.executeBatch();
+            }
+        }
+        return qty;
+    }
+
+    /**
+     * Lấy thông tin sản phẩm theo ID (qua ProductCache nếu được bật)
+     * 
+     * Không có cache: đọc từ read replica nếu DatabaseConfig có replica, tồn
+     * kho có thể trễ so với primary (tối đa replicaMaxLagMillis nếu được đặt).
+     * Có cache: cache miss đọc từ primary, để giá trị cũ của replica không
+     * được đưa lại vào cache ngay sau khi bị invalidate.
+     */
+    public Product getProduct(int productId) throws SQLException {
+        ProductCache cache = productCache;
+        if (cache == null) {
+            return loadProduct(productId, dbConfig.getReadConnection());
+        }
+        Product cached = cache.get(productId);
+        if (cached != null) {
+            return cached;
+        }
+        // Lấy generation trước khi đọc: bị invalidate trong lúc đọc thì không put
+        long generation = cache.generation(productId);
+        Product product = loadProduct(productId, dbConfig.getConnection());
+        if (product != null) {
+            cache.put(product, generation);
+        }
+        return product;
+    }
+
+    /**
+     * @param conn Connection để đọc (primary hoặc replica), được đóng khi trả về
+     */
+    private Product loadProduct(int productId, Connection conn) throws SQLException {
+        // product_inventory: tồn kho gồm cả các bucket
+        String sql = "SELECT id, name, stock FROM product_inventory WHERE id = ?";
+
+        try (conn;
+                PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            pstmt.setInt(1, productId);
+            ResultSet rs = pstmt.executeQuery();
+
+            if (rs.next()) {
+                return new Product(
+                        rs.getInt("id"),
+                        rs.getString("name"),
+                        rs.getInt("stock"));
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Duyệt toàn bộ tồn kho theo thứ tự id bằng cursor phía server
+     * 
+     * Connection ở chế độ auto-commit = false + fetchSize > 0 nên driver chỉ
+     * giữ fetchSize dòng trong bộ nhớ mỗi lần, không phụ thuộc số product.
+     * Stream giữ một connection cho đến khi được đóng, luôn dùng
+     * try-with-resources:
+     * 
+     *     try (Stream<Product> products = orderService.streamProducts()) { ... }
+     * 
+     * Lỗi SQL trong lúc duyệt được bọc trong RuntimeException (cause là SQLException).
+     * Đọc từ read replica nếu có (cursor giữ lâu trên replica có thể bị hủy
+     * khi xung đột với WAL replay, xem max_standby_streaming_delay).
+     */
+    public Stream<Product> streamProducts() throws SQLException {
+        String sql = "SELECT id, name, stock FROM product_inventory ORDER BY id";
+        return streamQuery(sql, "Lỗi khi đọc tồn kho",
+                rs -> new Product(rs.getInt("id"), rs.getString("name"), rs.getInt("stock")));
+    }
+
+    /**
+     * Đọc một dòng của ResultSet thành object
+     */
+    private interface RowReader<T> {
+        T read(ResultSet rs) throws SQLException;
+    }
+
+    /**
+     * Stream kết quả của câu lệnh chỉ đọc bằng cursor phía server (fetchSize
+     * dòng mỗi lần), giữ connection read cho đến khi stream được đóng
+     */
+    private <T> Stream<T> streamQuery(String sql, String errorMessage, RowReader<T> reader, Object... params)
+            throws SQLException {
+        Connection conn = dbConfig.getReadConnection();
+        PreparedStatement pstmt = null;
+        try {
+            // Cursor chỉ hoạt động trong transaction
+            conn.setAutoCommit(false);
+            conn.setReadOnly(true);
+            pstmt = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            pstmt.setFetchSize(fetchSize);
+            for (int i = 0; i < params.length; i++) {
+                pstmt.setObject(i + 1, params[i]);
+            }
+            ResultSet rs = pstmt.executeQuery();
+
+            PreparedStatement statement = pstmt;
+            Spliterator<T> spliterator = new Spliterators.AbstractSpliterator<T>(
+                    Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+                @Override
+                public boolean tryAdvance(Consumer<? super T> action) {
+                    try {
+                        if (!rs.next()) {
+                            return false;
+                        }
+                        action.accept(reader.read(rs));
+                        return true;
+                    } catch (SQLException e) {
+                        throw new RuntimeException(errorMessage + ": " + e.getMessage(), e);
+                    }
+                }
+            };
+            return StreamSupport.stream(spliterator, false)
+                    .onClose(() -> closeCursor(conn, statement, rs));
+
+        } catch (SQLException | RuntimeException e) {
+            closeCursor(conn, pstmt, null);
+            throw e;
+        }
+    }
+
+    /**
+     * Duyệt toàn bộ tồn kho, gọi action cho từng product (xem streamProducts)
+     */
+    public void forEachProduct(Consumer<Product> action) throws SQLException {
+        try (Stream<Product> products = streamProducts()) {
+            products.forEach(action);
+        } catch (RuntimeException e) {
+            if (e.getCause() instanceof SQLException) {
+                throw (SQLException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private void closeCursor(Connection conn, Statement stmt, ResultSet rs) {
+        try {
+            if (rs != null)
+                rs.close();
+            if (stmt != null)
+                stmt.close();
+            // Transaction chỉ đọc: rollback để đóng cursor
+            conn.rollback();
+            conn.setAutoCommit(true);
+            conn.close();
+        } catch (SQLException e) {
+            dbConfig.getEventSink().error("✗ Lỗi khi đóng resources: %s", e.getMessage());
+        }
+    }
+
+    /**
+     * Một trang tồn kho theo keyset: các product có id > afterId, tăng dần
+     * 
+     * Không dùng OFFSET nên trang sau cũng nhanh như trang đầu. Trang tiếp
+     * theo: afterId = id của product cuối trong trang hiện tại (bắt đầu từ 0).
+     * 
+     * @return Tối đa limit product, rỗng nếu đã hết (đọc từ read replica nếu có)
+     */
+    public List<Product> listProducts(int afterId, int limit) throws SQLException {
+        String sql = "SELECT id, name, stock FROM product_inventory WHERE id > ? ORDER BY id LIMIT ?";
+        List<Product> page = new ArrayList<>(Math.min(limit, 1000));
+
+        try (Connection conn = dbConfig.getReadConnection();
+                PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setInt(1, afterId);
+            pstmt.setInt(2, limit);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    page.add(new Product(rs.getInt("id"), rs.getString("name"), rs.getInt("stock")));
+                }
+            }
+        }
+        return page;
+    }
+
+    /**
+     * Các order theo danh sách ID, kèm các dòng, bằng MỘT câu lệnh
+     * (không N+1: các dòng được gom thành mảng cho từng order)
+     *
+     * @return Các order tìm thấy theo thứ tự id (ID không tồn tại bị bỏ qua)
+     */
+    public List<Order> getOrders(int... orderIds) throws SQLException {
+        String sql = SQL_ORDERS_WITH_ITEMS + "WHERE o.id = ANY(?) ORDER BY o.id";
+
+        try (Connection conn = dbConfig.getReadConnection();
+                PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setArray(1, intArray(conn, orderIds));
+            return readOrders(pstmt, orderIds.length);
+        }
+    }
+
+    /**
+     * Một trang order có created_at trong [from, to), theo (created_at, id)
+     * tăng dần, kèm các dòng - một câu lệnh mỗi trang
+     *
+     * Keyset: trang tiếp theo truyền after = order cuối của trang hiện tại
+     * (null cho trang đầu), không dùng OFFSET nên trang nào cũng nhanh như nhau.
+     *
+     * @return Tối đa limit order, rỗng nếu đã hết (đọc từ read replica nếu có)
+     */
+    public List<Order> listOrders(LocalDateTime from, LocalDateTime to, Order after, int limit)
+            throws SQLException {
+        String sql = SQL_ORDERS_WITH_ITEMS
+                + "WHERE o.created_at >= ? AND o.created_at < ? AND (o.created_at, o.id) > (?, ?) "
+                + "ORDER BY o.created_at, o.id LIMIT ?";
+
+        try (Connection conn = dbConfig.getReadConnection();
+                PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setObject(1, from);
+            pstmt.setObject(2, to);
+            pstmt.setObject(3, after != null ? after.getCreatedAt() : from);
+            pstmt.setInt(4, after != null ? after.getId() : Integer.MIN_VALUE);
+            pstmt.setInt(5, limit);
+            return readOrders(pstmt, limit);
+        }
+    }
+
+    /**
+     * Một trang order có chứa product, theo (created_at, id) tăng dần, kèm
+     * TẤT CẢ các dòng của order (keyset như listOrders)
+     */
+    public List<Order> listOrdersByProduct(int productId, Order after, int limit) throws SQLException {
+        String sql = SQL_ORDERS_WITH_ITEMS
+                + "WHERE (o.id, o.created_at) IN ("
+                + "  SELECT f.order_id, f.order_created_at FROM order_items f"
+                + "  WHERE f.product_id = ? AND (f.order_created_at, f.order_id) > (?, ?)"
+                + "  ORDER BY f.order_created_at, f.order_id LIMIT ?"
+                + ") "
+                + "ORDER BY o.created_at, o.id";
+
+        try (Connection conn = dbConfig.getReadConnection();
+                PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setInt(1, productId);
+            pstmt.setObject(2, after != null ? after.getCreatedAt() : LocalDateTime.MIN);
+            pstmt.setInt(3, after != null ? after.getId() : Integer.MIN_VALUE);
+            pstmt.setInt(4, limit);
+            return readOrders(pstmt, limit);
+        }
+    }
+
+    /**
+     * Duyệt tất cả order có created_at trong [from, to) theo (created_at, id),
+     * kèm các dòng, bằng cursor (export lớn; bộ nhớ chỉ phụ thuộc fetchSize).
+     * Luôn đóng stream bằng try-with-resources (xem streamProducts).
+     */
+    public Stream<Order> streamOrders(LocalDateTime from, LocalDateTime to) throws SQLException {
+        String sql = SQL_ORDERS_WITH_ITEMS
+                + "WHERE o.created_at >= ? AND o.created_at < ? ORDER BY o.created_at, o.id";
+        return streamQuery(sql, "Lỗi khi đọc đơn hàng", OrderService::readOrder, from, to);
+    }
+
+    private static List<Order> readOrders(PreparedStatement pstmt, int expected) throws SQLException {
+        List<Order> result = new ArrayList<>(Math.min(expected, 1000));
+        try (ResultSet rs = pstmt.executeQuery()) {
+            while (rs.next()) {
+                result.add(readOrder(rs));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Một dòng của SQL_ORDERS_WITH_ITEMS thành Order (các dòng theo product_id)
+     */
+    private static Order readOrder(ResultSet rs) throws SQLException {
+        Order order = new Order(rs.getInt("id"), rs.getTimestamp("created_at").toLocalDateTime());
+        Array productIds = rs.getArray("product_ids");
+        if (productIds != null) {
+            Integer[] ids = (Integer[]) productIds.getArray();
+            Integer[] qtys = (Integer[]) rs.getArray("qtys").getArray();
+            OrderLines lines = new OrderLines(ids.length);
+            for (int i = 0; i < ids.length; i++) {
+                lines.add(ids[i], qtys[i]);
+            }
+            order.setLines(lines);
+        }
+        return order;
+    }
+
+    /**
+     * Top sản phẩm bán chạy theo tổng số lượng đã bán (product_sales, không
+     * quét order_items; đọc từ read replica nếu có)
+     *
+     * @param limit Số sản phẩm tối đa
+     */
+    public List<ProductSales> getTopSellers(int limit) throws SQLException {
+        String sql = "SELECT s.product_id, p.name, SUM(s.units_sold) AS units_sold,"
+                + " SUM(s.order_count) AS order_count, MAX(s.last_sold_at) AS last_sold_at "
+                + "FROM product_sales s JOIN products p ON p.id = s.product_id "
+                + "GROUP BY s.product_id, p.name "
+                + "ORDER BY units_sold DESC, s.product_id LIMIT ?";
+
+        try (Connection conn = dbConfig.getReadConnection();
+                PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setInt(1, limit);
+            return readSales(pstmt, limit);
+        }
+    }
+
+    /**
+     * Top sản phẩm bán chạy trong khoảng ngày [from, to] (product_sales_daily)
+     */
+    public List<ProductSales> getTopSellers(LocalDate from, LocalDate to, int limit) throws SQLException {
+        String sql = "SELECT d.product_id, p.name, SUM(d.units_sold) AS units_sold,"
+                + " SUM(d.order_count) AS order_count, MAX(d.last_sold_at) AS last_sold_at "
+                + "FROM product_sales_daily d JOIN products p ON p.id = d.product_id "
+                + "WHERE d.sales_date BETWEEN ? AND ? "
+                + "GROUP BY d.product_id, p.name "
+                + "ORDER BY units_sold DESC, d.product_id LIMIT ?";
+
+        try (Connection conn = dbConfig.getReadConnection();
+                PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setObject(1, from);
+            pstmt.setObject(2, to);
+            pstmt.setInt(3, limit);
+            return readSales(pstmt, limit);
+        }
+    }
+
+    /**
+     * Tổng số liệu bán hàng của một sản phẩm
+     *
+     * @return null nếu không tìm thấy product, số liệu 0 nếu chưa bán được
+     */
+    public ProductSales getProductSales(int productId) throws SQLException {
+        String sql = "SELECT p.id AS product_id, p.name, COALESCE(SUM(s.units_sold), 0) AS units_sold,"
+                + " COALESCE(SUM(s.order_count), 0) AS order_count, MAX(s.last_sold_at) AS last_sold_at "
+                + "FROM products p LEFT JOIN product_sales s ON s.product_id = p.id "
+                + "WHERE p.id = ? GROUP BY p.id, p.name";
+
+        try (Connection conn = dbConfig.getReadConnection();
+                PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setInt(1, productId);
+            List<ProductSales> result = readSales(pstmt, 1);
+            return result.isEmpty() ? null : result.get(0);
+        }
+    }
+
+    private static List<ProductSales> readSales(PreparedStatement pstmt, int expected) throws SQLException {
+        List<ProductSales> result = new ArrayList<>(Math.min(expected, 1000));
+        try (ResultSet rs = pstmt.executeQuery()) {
+            while (rs.next()) {
+                Timestamp lastSoldAt = rs.getTimestamp("last_sold_at");
+                result.add(new ProductSales(
+                        rs.getInt("product_id"),
+                        rs.getString("name"),
+                        rs.getLong("units_sold"),
+                        rs.getLong("order_count"),
+                        lastSoldAt != null ? lastSoldAt.toLocalDateTime() : null));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Tính lại product_sales / product_sales_daily từ order_items (backfill
+     * lần đầu, sau khi bật lại setSalesAggregation, hoặc để đối chiếu)
+     *
+     * Một transaction: lock EXCLUSIVE hai bảng aggregate (vẫn đọc được,
+     * createOrder chờ ở bước upsert) rồi tính lại bằng một lần quét
+     * order_items. Order đã insert order_items nhưng chưa upsert thì chưa
+     * commit nên không được tính, sẽ tự cộng vào sau khi lock được nhả:
+     * không mất và không tính trùng. Partition đã archive (order_archive)
+     * không còn trong order_items nên không được tính lại.
+     *
+     * @return Số sản phẩm có số liệu bán hàng
+     */
+    public int rebuildSalesAggregates() throws SQLException {
+        EventSink log = dbConfig.getEventSink();
+        long start = System.nanoTime();
+        Connection conn = dbConfig.getConnection();
+
+        try (Statement stmt = conn.createStatement()) {
+            conn.setAutoCommit(false);
+            stmt.execute("LOCK TABLE product_sales, product_sales_daily IN EXCLUSIVE MODE");
+            stmt.executeUpdate("DELETE FROM product_sales_daily");
+            stmt.executeUpdate("DELETE FROM product_sales");
+            int days = stmt.executeUpdate(
+                    "INSERT INTO product_sales_daily (product_id, sales_date, units_sold, order_count, last_sold_at) "
+                    + "SELECT product_id, order_created_at::date, SUM(qty), COUNT(*), MAX(order_created_at) "
+                    + "FROM order_items GROUP BY product_id, order_created_at::date");
+            int products = stmt.executeUpdate(
+                    "INSERT INTO product_sales (product_id, units_sold, order_count, last_sold_at) "
+                    + "SELECT product_id, SUM(units_sold), SUM(order_count), MAX(last_sold_at) "
+                    + "FROM product_sales_daily GROUP BY product_id");
+            conn.commit();
+
+            log.info("✓ Đã tính lại số liệu bán hàng: %d sản phẩm, %d dòng theo ngày (%d ms)",
+                    products, days, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            return products;
+
+        } catch (SQLException e) {
+            try {
+                conn.rollback();
+            } catch (SQLException rollbackEx) {
+                log.error("✗ Lỗi khi rollback: %s", rollbackEx.getMessage());
+            }
+            throw e;
+        } finally {
+            try {
+                conn.setAutoCommit(true);
+                conn.close();
+            } catch (SQLException e) {
+                log.error("✗ Lỗi khi đóng resources: %s", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Hiển thị tồn kho hiện tại (stream theo cursor, không load hết vào bộ nhớ)
+     */
+    public void displayCurrentStock() throws SQLException {
+        System.out.println("\n📊 TỒN KHO HIỆN TẠI:");
+        System.out.println("─────────────────────────────────────────────────");
+
+        forEachProduct(product -> System.out.printf("Product ID %d: %-25s | Stock: %3d%n",
+                product.getId(),
+                product.getName(),
+                product.getStock()));
+
         System.out.println("─────────────────────────────────────────────────");
     }
 }
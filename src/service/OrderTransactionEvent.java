@@ -0,0 +1,39 @@
+package service;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Event JFR cho mỗi lần gọi createOrder (gồm cả các lần thử lại)
+ */
+@Name("service.OrderTransaction")
+@Label("Order Transaction")
+@Category({ "Order Service" })
+@Description("createOrder: từ lúc bắt đầu đến khi commit / thất bại")
+final class OrderTransactionEvent extends Event {
+
+    @Label("Order ID")
+    int orderId;
+
+    @Label("Outcome")
+    @Description("COMMITTED, REJECTED, ABORTED, ERROR, INTERRUPTED hoặc DEADLINE_EXCEEDED")
+    String outcome;
+
+    @Label("Attempts")
+    int attempts;
+
+    @Label("Items")
+    int items;
+
+    @Label("Total Quantity")
+    int totalQuantity;
+
+    @Label("Concurrency Strategy")
+    String strategy;
+
+    @Label("Stock Update Mode")
+    String stockUpdateMode;
+}
@@ -0,0 +1,34 @@
+package service;
+
+/**
+ * OverloadException - Đơn hàng bị từ chối do hệ thống quá tải hoặc hết
+ * deadline; chưa có gì được ghi vào database (caller có thể thử lại sau)
+ *
+ * Khác với lỗi không đủ hàng (Exception thường): lỗi này không nói gì về
+ * tồn kho. Không ghi stack trace để việc từ chối nhanh và rẻ khi quá tải.
+ */
+public class OverloadException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Lý do từ chối
+     */
+    public enum Reason {
+        // Hàng đợi của OrderAdmissionController đã đầy
+        QUEUE_FULL,
+        // Hết deadline (hoặc không còn đủ thời gian) trước khi lấy connection / commit
+        DEADLINE_EXCEEDED
+    }
+
+    private final Reason reason;
+
+    public OverloadException(Reason reason, String message) {
+        super(message, null, false, false);
+        this.reason = reason;
+    }
+
+    public Reason getReason() {
+        return reason;
+    }
+}
@@ -0,0 +1,295 @@
+package service;
+
+import config.DatabaseConfig;
+import model.Product;
+
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * ProductCache - Cache Product theo ID cho OrderService.getProduct
+ *
+ * - Giới hạn maxSize entry, vượt quá thì bỏ entry lâu nhất không được
+ *   dùng (LRU, LinkedHashMap access-order)
+ * - Mỗi entry sống tối đa ttlMillis, hết hạn thì đọc lại từ database
+ * - createOrder / OrderIngestor commit xong thì invalidate các product
+ *   của đơn hàng
+ * - (Tùy chọn) startListening(): LISTEN kênh product_changes để nhận thay
+ *   đổi từ JVM khác / BulkOrderImporter / SQL trực tiếp. Cần chạy
+ *   database/product_notify.sql để tạo trigger NOTIFY
+ *
+ * Tránh ghi đè giá trị cũ: getProduct lấy generation trước khi đọc
+ * database, put() bỏ qua kết quả nếu product bị invalidate trong lúc đọc.
+ */
+public class ProductCache {
+
+    public static final String CHANNEL = "product_changes";
+
+    // Số stripe của generation (invalidate một product chỉ ảnh hưởng stripe của nó)
+    private static final int GENERATION_STRIPES = 64;
+
+    private final int maxSize;
+    private final long ttlNanos;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<Integer, Entry> entries;
+    private final long[] generations = new long[GENERATION_STRIPES];
+
+    private volatile Thread listener;
+
+    // Thống kê
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    /**
+     * @param maxSize Số product tối đa trong cache
+     * @param ttlMillis Thời gian sống của mỗi entry
+     */
+    public ProductCache(int maxSize, long ttlMillis) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize phải >= 1");
+        }
+        this.maxSize = maxSize;
+        this.ttlNanos = ttlMillis * 1_000_000L;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Entry> eldest) {
+                if (size() > ProductCache.this.maxSize) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @return Bản sao Product trong cache, null nếu không có hoặc đã hết hạn
+     */
+    public Product get(int productId) {
+        lock.lock();
+        try {
+            Entry entry = entries.get(productId);
+            if (entry == null) {
+                misses.increment();
+                return null;
+            }
+            if (System.nanoTime() - entry.loadedAt >= ttlNanos) {
+                entries.remove(productId);
+                expirations.increment();
+                misses.increment();
+                return null;
+            }
+            hits.increment();
+            return copy(entry.product);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Generation hiện tại của product, lấy TRƯỚC khi đọc database
+     */
+    public long generation(int productId) {
+        lock.lock();
+        try {
+            return generations[stripe(productId)];
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Đưa product vừa đọc từ database vào cache
+     *
+     * @param generation Giá trị generation(id) lấy trước khi đọc; khác hiện tại
+     *                   nghĩa là product đã bị invalidate trong lúc đọc → bỏ qua
+     */
+    public void put(Product product, long generation) {
+        lock.lock();
+        try {
+            if (generations[stripe(product.getId())] == generation) {
+                entries.put(product.getId(), new Entry(copy(product), System.nanoTime()));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Xóa các product khỏi cache (tồn kho / thông tin vừa thay đổi)
+     */
+    public void invalidate(int... productIds) {
+        lock.lock();
+        try {
+            for (int productId : productIds) {
+                generations[stripe(productId)]++;
+                if (entries.remove(productId) != null) {
+                    invalidations.increment();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void invalidateAll() {
+        lock.lock();
+        try {
+            for (int i = 0; i < GENERATION_STRIPES; i++) {
+                generations[i]++;
+            }
+            invalidations.add(entries.size());
+            entries.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Nhận thay đổi của products qua LISTEN/NOTIFY trên một connection riêng
+     * (không chiếm connection của pool). Mất kết nối → xóa toàn bộ cache
+     * (có thể đã lỡ thông báo) rồi kết nối lại.
+     *
+     * @param pollMillis Thời gian chờ thông báo mỗi lần (cũng là độ trễ khi dừng)
+     */
+    public synchronized void startListening(long pollMillis) {
+        if (listener != null) {
+            return;
+        }
+        Thread t = new Thread(() -> listenLoop(pollMillis), "product-cache-listener");
+        t.setDaemon(true);
+        listener = t;
+        t.start();
+    }
+
+    public synchronized void stopListening() {
+        Thread t = listener;
+        listener = null;
+        if (t != null) {
+            t.interrupt();
+        }
+    }
+
+    private void listenLoop(long pollMillis) {
+        DatabaseConfig dbConfig = DatabaseConfig.getInstance();
+        Thread self = Thread.currentThread();
+
+        while (listener == self) {
+            try (Connection conn = dbConfig.openDedicatedConnection()) {
+                try (Statement stmt = conn.createStatement()) {
+                    stmt.execute("LISTEN " + CHANNEL);
+                }
+                // Thay đổi trước khi LISTEN có hiệu lực không nhận được
+                invalidateAll();
+                PGConnection pgConn = conn.unwrap(PGConnection.class);
+
+                while (listener == self) {
+                    PGNotification[] notifications = pgConn.getNotifications((int) pollMillis);
+                    if (notifications == null) {
+                        continue;
+                    }
+                    for (PGNotification notification : notifications) {
+                        onNotification(notification.getParameter());
+                    }
+                }
+            } catch (SQLException e) {
+                invalidateAll();
+                if (listener != self) {
+                    return;
+                }
+                dbConfig.getEventSink().warn("✗ Mất kết nối LISTEN %s: %s", CHANNEL, e.getMessage());
+                try {
+                    Thread.sleep(1000);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Payload là product id, "*" = invalidate toàn bộ
+     */
+    private void onNotification(String payload) {
+        try {
+            invalidate(Integer.parseInt(payload));
+        } catch (NumberFormatException e) {
+            invalidateAll();
+        }
+    }
+
+    private static int stripe(int productId) {
+        return Math.floorMod(productId, GENERATION_STRIPES);
+    }
+
+    private static Product copy(Product product) {
+        return new Product(product.getId(), product.getName(), product.getStock());
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Getters cho thống kê
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public long getExpirations() {
+        return expirations.sum();
+    }
+
+    public long getInvalidations() {
+        return invalidations.sum();
+    }
+
+    public double getHitRatio() {
+        long total = hits.sum() + misses.sum();
+        return total == 0 ? 0 : (double) hits.sum() / total;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "ProductCache[size=%d/%d, hits=%d, misses=%d, hitRatio=%.1f%%, evictions=%d, expirations=%d, invalidations=%d]",
+                size(), maxSize, getHits(), getMisses(), getHitRatio() * 100, getEvictions(),
+                getExpirations(), getInvalidations());
+    }
+
+    /**
+     * Product trong cache và thời điểm đọc từ database
+     */
+    private static final class Entry {
+        final Product product;
+        final long loadedAt;
+
+        Entry(Product product, long loadedAt) {
+            this.product = product;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
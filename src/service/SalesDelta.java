@@ -0,0 +1,121 @@
+package service;
+
+import model.OrderLines;
+
+import org.postgresql.PGConnection;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * SalesDelta - Số liệu bán hàng của các order trong một transaction, cộng
+ * dồn vào product_sales / product_sales_daily bằng MỘT câu lệnh upsert
+ *
+ * Mỗi transaction một SalesDelta: add() sau khi order đã được ghi (group
+ * commit: sau releaseSavepoint), flush() ngay trước commit. Mỗi product
+ * một dòng dù nhiều order cùng mua, upsert theo thứ tự product_id (cùng thứ tự lock với products, không
+ * deadlock giữa các transaction). Ngày bán là ngày của CURRENT_TIMESTAMP,
+ * tức orders.created_at của các order trong transaction.
+ *
+ * Mỗi product có tới STRIPES dòng (cột stripe), mỗi câu lệnh upsert ghi
+ * vào một stripe chọn ngẫu nhiên: các transaction đồng thời của cùng một
+ * sản phẩm hot phần lớn lock các dòng khác nhau thay vì xếp hàng trên một
+ * dòng tới commit. Đọc thì SUM theo product_id.
+ */
+final class SalesDelta {
+
+    // Số dòng product_sales / product_sales_daily tối đa của một product (một ngày)
+    static final int STRIPES = 16;
+
+    // Main query upsert product_sales, CTE upsert product_sales_daily (cùng nguồn d:
+    // product_id, sales_date, sold_at, units, orders); hai tham số cuối là stripe
+    private static final String SQL_UPSERT =
+            "WITH d AS ({SOURCE}), daily AS ("
+            + "  INSERT INTO product_sales_daily (product_id, sales_date, stripe, units_sold, order_count, last_sold_at)"
+            + "  SELECT product_id, sales_date, ?, units, orders, sold_at FROM d"
+            + "  ORDER BY product_id, sales_date"
+            + "  ON CONFLICT (product_id, sales_date, stripe) DO UPDATE SET"
+            + "    units_sold = product_sales_daily.units_sold + EXCLUDED.units_sold,"
+            + "    order_count = product_sales_daily.order_count + EXCLUDED.order_count,"
+            + "    last_sold_at = GREATEST(product_sales_daily.last_sold_at, EXCLUDED.last_sold_at)"
+            + ") "
+            + "INSERT INTO product_sales (product_id, stripe, units_sold, order_count, last_sold_at) "
+            + "SELECT product_id, ?, SUM(units), SUM(orders), MAX(sold_at) FROM d "
+            + "GROUP BY product_id ORDER BY product_id "
+            + "ON CONFLICT (product_id, stripe) DO UPDATE SET"
+            + "  units_sold = product_sales.units_sold + EXCLUDED.units_sold,"
+            + "  order_count = product_sales.order_count + EXCLUDED.order_count,"
+            + "  last_sold_at = GREATEST(product_sales.last_sold_at, EXCLUDED.last_sold_at)";
+
+    // Nguồn: các order của transaction hiện tại (bán hôm nay, lúc CURRENT_TIMESTAMP)
+    private static final String SQL_UPSERT_LINES = SQL_UPSERT.replace("{SOURCE}",
+            "SELECT r.product_id, CURRENT_TIMESTAMP::date AS sales_date,"
+            + " CURRENT_TIMESTAMP::timestamp AS sold_at, r.units, r.orders"
+            + " FROM unnest(?::int[], ?::int[], ?::int[]) AS r(product_id, units, orders)");
+
+    // Số lượng bán và số order theo product (mỗi order +1 cho mỗi product của nó)
+    private final OrderLines units = new OrderLines();
+    private final OrderLines orders = new OrderLines();
+
+    void add(OrderLines lines) {
+        for (int i = 0; i < lines.size(); i++) {
+            units.add(lines.productId(i), lines.qty(i));
+            orders.add(lines.productId(i), 1);
+        }
+    }
+
+    /**
+     * Upsert cộng dồn (connection đang trong transaction của các order)
+     */
+    void flush(Connection conn) throws SQLException {
+        if (!units.isEmpty()) {
+            write(conn, units, orders.quantities());
+        }
+    }
+
+    /**
+     * Upsert cho MỘT order: mỗi product của order tính một order
+     */
+    static void write(Connection conn, OrderLines lines) throws SQLException {
+        int[] ones = new int[lines.size()];
+        Arrays.fill(ones, 1);
+        write(conn, lines, ones);
+    }
+
+    /**
+     * Upsert từ một câu SELECT của caller (VD bảng tạm của BulkOrderImporter)
+     *
+     * @param sourceSql SELECT không tham số trả về các cột product_id,
+     *                  sales_date, sold_at, units, orders; mỗi
+     *                  (product_id, sales_date) tối đa một dòng
+     */
+    static void writeFrom(Connection conn, String sourceSql) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(SQL_UPSERT.replace("{SOURCE}", sourceSql))) {
+            setStripe(pstmt, 1);
+            pstmt.executeUpdate();
+        }
+    }
+
+    private static void write(Connection conn, OrderLines units, int[] orderCounts) throws SQLException {
+        PGConnection pg = conn.unwrap(PGConnection.class);
+        try (PreparedStatement pstmt = conn.prepareStatement(SQL_UPSERT_LINES)) {
+            pstmt.setArray(1, pg.createArrayOf("integer", units.productIds()));
+            pstmt.setArray(2, pg.createArrayOf("integer", units.quantities()));
+            pstmt.setArray(3, pg.createArrayOf("integer", orderCounts));
+            setStripe(pstmt, 4);
+            pstmt.executeUpdate();
+        }
+    }
+
+    /**
+     * Cùng một stripe cho product_sales và product_sales_daily của câu lệnh
+     */
+    private static void setStripe(PreparedStatement pstmt, int index) throws SQLException {
+        int stripe = ThreadLocalRandom.current().nextInt(STRIPES);
+        pstmt.setInt(index, stripe);
+        pstmt.setInt(index + 1, stripe);
+    }
+}
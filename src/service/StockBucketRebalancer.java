@@ -0,0 +1,200 @@
+package service;
+
+import config.DatabaseConfig;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * StockBucketRebalancer - Chia và cân bằng lại tồn kho giữa các bucket
+ *
+ * Với mỗi sản phẩm có products.stock_buckets > 1 (hoặc đang có bucket):
+ * - Chuyển products.stock vào product_stock_buckets, chia đều cho N bucket
+ * - Khi các bucket lệch nhau (bucket nhỏ nhất < một nửa phần chia đều) hoặc
+ *   số bucket thay đổi → chia đều lại
+ * - stock_buckets = 1 → gom toàn bộ bucket về products.stock và xóa bucket
+ *
+ * Mỗi sản phẩm được cân bằng trong một transaction ngắn: lock dòng products
+ * rồi lock các bucket theo thứ tự bucket_no. Tổng tồn kho không đổi.
+ */
+public class StockBucketRebalancer {
+
+    private final DatabaseConfig dbConfig;
+    private ScheduledExecutorService scheduler;
+
+    public StockBucketRebalancer() {
+        this.dbConfig = DatabaseConfig.getInstance();
+    }
+
+    /**
+     * Chạy rebalanceAll() định kỳ trên thread nền
+     */
+    public synchronized void start(long periodMillis) {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "stock-bucket-rebalancer");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                rebalanceAll();
+            } catch (SQLException e) {
+                dbConfig.getEventSink().warn("✗ Lỗi khi cân bằng bucket: %s", e.getMessage());
+            }
+        }, 0, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Cân bằng tất cả sản phẩm cần chia bucket
+     *
+     * @return Số sản phẩm đã được chia/cân bằng lại
+     */
+    public int rebalanceAll() throws SQLException {
+        List<Integer> productIds = new ArrayList<>();
+        String sql = "SELECT id FROM products WHERE stock_buckets > 1 "
+                + "OR EXISTS (SELECT 1 FROM product_stock_buckets b WHERE b.product_id = products.id) "
+                + "ORDER BY id";
+        try (Connection conn = dbConfig.getConnection();
+                Statement stmt = conn.createStatement();
+                ResultSet rs = stmt.executeQuery(sql)) {
+            while (rs.next()) {
+                productIds.add(rs.getInt("id"));
+            }
+        }
+
+        int changed = 0;
+        for (int productId : productIds) {
+            if (rebalance(productId)) {
+                changed++;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Chia/cân bằng lại tồn kho của một sản phẩm
+     *
+     * @return true nếu có thay đổi
+     */
+    public boolean rebalance(int productId) throws SQLException {
+        Connection conn = null;
+        try {
+            conn = dbConfig.getConnection();
+            conn.setAutoCommit(false);
+
+            // Lock dòng products trước, sau đó các bucket theo thứ tự
+            int productStock;
+            int bucketCount;
+            try (PreparedStatement pstmt = conn.prepareStatement(
+                    "SELECT stock, stock_buckets FROM products WHERE id = ? FOR UPDATE")) {
+                pstmt.setInt(1, productId);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    if (!rs.next()) {
+                        conn.rollback();
+                        return false;
+                    }
+                    productStock = rs.getInt("stock");
+                    bucketCount = rs.getInt("stock_buckets");
+                }
+            }
+
+            List<Integer> bucketStocks = new ArrayList<>();
+            try (PreparedStatement pstmt = conn.prepareStatement(
+                    "SELECT bucket_no, stock FROM product_stock_buckets "
+                            + "WHERE product_id = ? ORDER BY bucket_no FOR UPDATE")) {
+                pstmt.setInt(1, productId);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        bucketStocks.add(rs.getInt("stock"));
+                    }
+                }
+            }
+
+            if (!needsRebalance(productStock, bucketCount, bucketStocks)) {
+                conn.rollback();
+                return false;
+            }
+
+            int total = productStock + bucketStocks.stream().mapToInt(Integer::intValue).sum();
+            try (PreparedStatement pstmt = conn.prepareStatement(
+                    "DELETE FROM product_stock_buckets WHERE product_id = ?")) {
+                pstmt.setInt(1, productId);
+                pstmt.executeUpdate();
+            }
+
+            int remainder = total;
+            if (bucketCount > 1) {
+                // Chia đều, phần dư dồn vào các bucket đầu
+                try (PreparedStatement pstmt = conn.prepareStatement(
+                        "INSERT INTO product_stock_buckets (product_id, bucket_no, stock) VALUES (?, ?, ?)")) {
+                    for (int bucketNo = 0; bucketNo < bucketCount; bucketNo++) {
+                        int share = total / bucketCount + (bucketNo < total % bucketCount ? 1 : 0);
+                        pstmt.setInt(1, productId);
+                        pstmt.setInt(2, bucketNo);
+                        pstmt.setInt(3, share);
+                        pstmt.addBatch();
+                    }
+                    pstmt.executeBatch();
+                }
+                remainder = 0;
+            }
+
+            try (PreparedStatement pstmt = conn.prepareStatement(
+                    "UPDATE products SET stock = ?, updated_at = CURRENT_TIMESTAMP WHERE id = ?")) {
+                pstmt.setInt(1, remainder);
+                pstmt.setInt(2, productId);
+                pstmt.executeUpdate();
+            }
+
+            conn.commit();
+            dbConfig.getEventSink().debug("✓ Đã chia tồn kho Product ID %d: %d → %d bucket",
+                    productId, total, bucketCount);
+            return true;
+
+        } catch (SQLException e) {
+            if (conn != null) {
+                conn.rollback();
+            }
+            throw e;
+        } finally {
+            if (conn != null) {
+                conn.setAutoCommit(true);
+                conn.close();
+            }
+        }
+    }
+
+    /**
+     * Cần chia lại khi: còn hàng nằm trên dòng products, số bucket khác cấu
+     * hình, hoặc bucket nhỏ nhất < một nửa phần chia đều
+     */
+    private boolean needsRebalance(int productStock, int bucketCount, List<Integer> bucketStocks) {
+        if (bucketCount <= 1) {
+            return !bucketStocks.isEmpty();
+        }
+        if (productStock > 0 || bucketStocks.size() != bucketCount) {
+            return true;
+        }
+        int total = bucketStocks.stream().mapToInt(Integer::intValue).sum();
+        int min = bucketStocks.stream().mapToInt(Integer::intValue).min().orElse(0);
+        return min * 2 < total / bucketCount;
+    }
+}
@@ -0,0 +1,349 @@
+package service;
+
+import config.DatabaseConfig;
+import model.Order;
+import model.OrderLines;
+
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * StockLedger - Sổ tồn kho trong JVM, đặt trước OrderService
+ *
+ * Giữ số lượng còn có thể bán của từng product (theo Product.id) trong
+ * bộ đếm lock-free (một AtomicLong mỗi product, cập nhật bằng CAS), load
+ * từ view product_inventory (gồm cả bucket).
+ * createOrder trừ trước (optimistic) trên ledger TRƯỚC khi mở transaction:
+ * - Không đủ trên ledger → từ chối ngay, không tốn round trip nào
+ * - Đủ → vào transaction như bình thường; commit thì xác nhận, rollback thì
+ *   hoàn lại (database báo không đủ hàng thì đồng bộ lại product từ database)
+ *
+ * Đồng bộ từ database (load / refresh) không trừ phần đang commit: không
+ * biết commit đó đã có trong kết quả đọc hay chưa, nên ledger chỉ có thể
+ * cho qua nhiều hơn (database quyết định), không từ chối nhầm.
+ *
+ * Database vẫn là nguồn sự thật: ledger chỉ dùng để loại sớm đơn hàng chắc
+ * chắn không đáp ứng được. Product chưa có trong ledger được cho qua để
+ * database quyết định. Nhập thêm hàng từ bên ngoài cần gọi refresh() hoặc
+ * chờ lần reload định kỳ.
+ */
+public class StockLedger {
+
+    private final DatabaseConfig dbConfig;
+    private final ConcurrentHashMap<Integer, Counter> counters = new ConcurrentHashMap<>();
+    private ScheduledExecutorService reloader;
+
+    // Thống kê
+    private final LongAdder reservedCount = new LongAdder();
+    private final LongAdder rejectedCount = new LongAdder();
+    private final LongAdder releasedCount = new LongAdder();
+
+    public StockLedger() {
+        this.dbConfig = DatabaseConfig.getInstance();
+    }
+
+    /**
+     * Load tồn kho của tất cả product từ database
+     */
+    public void load() throws SQLException {
+        try (Connection conn = dbConfig.getConnection();
+                Statement stmt = conn.createStatement();
+                ResultSet rs = stmt.executeQuery("SELECT id, stock FROM product_inventory")) {
+            while (rs.next()) {
+                counterFor(rs.getInt("id")).sync(rs.getInt("stock"));
+            }
+        }
+    }
+
+    /**
+     * Đồng bộ lại một số product từ database
+     */
+    public void refresh(int... productIds) throws SQLException {
+        if (productIds.length == 0) {
+            return;
+        }
+        Integer[] ids = new Integer[productIds.length];
+        for (int i = 0; i < productIds.length; i++) {
+            ids[i] = productIds[i];
+        }
+        String sql = "SELECT id, stock FROM product_inventory WHERE id = ANY(?)";
+        try (Connection conn = dbConfig.getConnection();
+                PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            Array array = conn.createArrayOf("integer", ids);
+            pstmt.setArray(1, array);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    counterFor(rs.getInt("id")).sync(rs.getInt("stock"));
+                }
+            }
+        }
+    }
+
+    /**
+     * Reload toàn bộ ledger định kỳ trên thread nền
+     */
+    public synchronized void startPeriodicReload(long periodMillis) {
+        if (reloader != null) {
+            return;
+        }
+        reloader = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "stock-ledger-reload");
+            t.setDaemon(true);
+            return t;
+        });
+        reloader.scheduleWithFixedDelay(() -> {
+            try {
+                load();
+            } catch (SQLException e) {
+                dbConfig.getEventSink().warn("✗ Lỗi khi reload stock ledger: %s", e.getMessage());
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stopPeriodicReload() {
+        if (reloader != null) {
+            reloader.shutdownNow();
+            reloader = null;
+        }
+    }
+
+    /**
+     * Trừ trước tồn kho trên ledger cho cả đơn hàng
+     *
+     * @return Reservation để xác nhận (commit) hoặc hoàn lại (rollback)
+     * @throws Exception nếu ledger cho thấy có item chắc chắn không đủ hàng
+     */
+    public Reservation reserve(Order order) throws Exception {
+        // OrderLines đã gộp các item trùng product
+        OrderLines demand = order.getLines();
+
+        int[] productIds = new int[demand.size()];
+        int[] quantities = new int[demand.size()];
+        int reserved = 0;
+
+        for (int line = 0; line < demand.size(); line++) {
+            int productId = demand.productId(line);
+            int qty = demand.qty(line);
+            Counter counter = counters.get(productId);
+            if (counter == null) {
+                continue; // Chưa biết → để database quyết định
+            }
+            int available = counter.tryTake(qty);
+            if (available >= 0) {
+                // Không đủ: hoàn lại các product đã trừ trước đó
+                for (int i = 0; i < reserved; i++) {
+                    counters.get(productIds[i]).giveBack(quantities[i]);
+                }
+                rejectedCount.increment();
+                throw new Exception(String.format(
+                        "❌ KHÔNG ĐỦ HÀNG! Product ID %d - Tồn kho: %d, Yêu cầu: %d",
+                        productId, available, qty));
+            }
+            productIds[reserved] = productId;
+            quantities[reserved] = qty;
+            reserved++;
+        }
+
+        reservedCount.increment();
+        return new Reservation(productIds, quantities, reserved);
+    }
+
+    /**
+     * Ngay trước khi commit transaction: từ đây không biết phần trừ trước đã
+     * có trong tồn kho database hay chưa, đồng bộ không trừ phần này nữa
+     */
+    public void beginCommit(Reservation reservation) {
+        if (reservation.committing) {
+            return;
+        }
+        reservation.committing = true;
+        for (int i = 0; i < reservation.size; i++) {
+            counters.get(reservation.productIds[i]).beginCommit(reservation.quantities[i]);
+        }
+    }
+
+    /**
+     * Commit bị lỗi và transaction sẽ chạy lại: phần trừ trước quay về trạng
+     * thái đang giữ chỗ
+     */
+    public void cancelCommit(Reservation reservation) {
+        if (!reservation.committing) {
+            return;
+        }
+        reservation.committing = false;
+        for (int i = 0; i < reservation.size; i++) {
+            counters.get(reservation.productIds[i]).cancelCommit(reservation.quantities[i]);
+        }
+    }
+
+    /**
+     * Transaction đã commit: phần trừ trước trở thành chính thức
+     */
+    public void confirm(Reservation reservation) {
+        beginCommit(reservation);
+    }
+
+    /**
+     * Transaction đã rollback: hoàn lại phần trừ trước
+     *
+     * @param resync true nếu cần đồng bộ lại các product từ database
+     *               (VD: database báo không đủ hàng trong khi ledger cho qua)
+     */
+    public void release(Reservation reservation, boolean resync) {
+        cancelCommit(reservation);
+        for (int i = 0; i < reservation.size; i++) {
+            counters.get(reservation.productIds[i]).giveBack(reservation.quantities[i]);
+        }
+        releasedCount.increment();
+        if (resync && reservation.size > 0) {
+            try {
+                int[] ids = new int[reservation.size];
+                System.arraycopy(reservation.productIds, 0, ids, 0, reservation.size);
+                refresh(ids);
+            } catch (SQLException e) {
+                dbConfig.getEventSink().warn("✗ Lỗi khi đồng bộ stock ledger: %s", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Số lượng còn có thể bán theo ledger
+     *
+     * @return -1 nếu product chưa có trong ledger
+     */
+    public int getAvailable(int productId) {
+        Counter counter = counters.get(productId);
+        return counter != null ? counter.available() : -1;
+    }
+
+    private Counter counterFor(int productId) {
+        return counters.computeIfAbsent(productId, id -> new Counter());
+    }
+
+    // Getters cho thống kê
+    public long getReservedCount() {
+        return reservedCount.sum();
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.sum();
+    }
+
+    public long getReleasedCount() {
+        return releasedCount.sum();
+    }
+
+    /**
+     * Bộ đếm của một product, lock-free
+     *
+     * available: còn có thể bán (= tồn kho database - phần đang giữ chỗ)
+     * inFlight: đã trừ trên ledger, transaction chưa bắt đầu commit
+     *
+     * Hai giá trị nằm chung một AtomicLong (available ở 32 bit cao, inFlight
+     * ở 32 bit thấp), mọi thao tác là một compareAndSet: sync() thấy
+     * available và inFlight cùng một thời điểm, không xen giữa hai bước của
+     * thao tác khác, và các đơn hàng cùng product không chờ lock của nhau.
+     */
+    private static final class Counter {
+        private final AtomicLong state = new AtomicLong();
+
+        private static long pack(int available, int inFlight) {
+            return ((long) available << 32) | (inFlight & 0xFFFFFFFFL);
+        }
+
+        private static int available(long state) {
+            return (int) (state >> 32);
+        }
+
+        private static int inFlight(long state) {
+            return (int) state;
+        }
+
+        /**
+         * @return -1 nếu trừ thành công, ngược lại là số lượng còn lại (không đủ)
+         */
+        int tryTake(int qty) {
+            while (true) {
+                long current = state.get();
+                int available = available(current);
+                if (available < qty) {
+                    return Math.max(available, 0);
+                }
+                if (state.compareAndSet(current, pack(available - qty, inFlight(current) + qty))) {
+                    return -1;
+                }
+            }
+        }
+
+        void giveBack(int qty) {
+            add(qty, -qty);
+        }
+
+        /**
+         * Phần trừ trước bắt đầu commit: không còn tính là đang giữ chỗ
+         */
+        void beginCommit(int qty) {
+            add(0, -qty);
+        }
+
+        void cancelCommit(int qty) {
+            add(0, qty);
+        }
+
+        int available() {
+            return available(state.get());
+        }
+
+        /**
+         * Tồn kho database chỉ thấy các transaction đã commit, nên trừ đi
+         * phần đang giữ chỗ (chưa commit). Phần đang commit có thể đã nằm
+         * trong databaseStock: không trừ, để không từ chối nhầm.
+         */
+        void sync(int databaseStock) {
+            while (true) {
+                long current = state.get();
+                int inFlight = inFlight(current);
+                if (state.compareAndSet(current, pack(databaseStock - inFlight, inFlight))) {
+                    return;
+                }
+            }
+        }
+
+        private void add(int availableDelta, int inFlightDelta) {
+            while (true) {
+                long current = state.get();
+                long next = pack(available(current) + availableDelta, inFlight(current) + inFlightDelta);
+                if (state.compareAndSet(current, next)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Phần tồn kho đã trừ trước cho một đơn hàng
+     */
+    public static final class Reservation {
+        private final int[] productIds;
+        private final int[] quantities;
+        private final int size;
+        // Đã beginCommit (chỉ thread của createOrder đọc/ghi)
+        private boolean committing;
+
+        private Reservation(int[] productIds, int[] quantities, int size) {
+            this.productIds = productIds;
+            this.quantities = quantities;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package service;
+
+/**
+ * StockUpdateMode - Cách OrderService kiểm tra và trừ tồn kho
+ */
+public enum StockUpdateMode {
+    /**
+     * Mỗi item một câu SELECT kiểm tra + một câu UPDATE trừ kho
+     * (2 round trip cho mỗi item)
+     */
+    PER_ITEM,
+
+    /**
+     * Một câu lệnh duy nhất cho cả đơn hàng: UPDATE có điều kiện
+     * stock >= qty trên mảng (product_id, qty), kết quả cho biết chính xác
+     * item nào không đủ hàng. Số round trip không phụ thuộc số item.
+     */
+    SET_BASED,
+
+    /**
+     * Như PER_ITEM, nhưng sản phẩm có bucket (product_stock_buckets) được
+     * trừ trên một bucket chọn ngẫu nhiên còn đủ hàng và chưa bị lock
+     * (SKIP LOCKED), hết thì chuyển sang bucket khác. Đơn hàng đồng thời của
+     * cùng một sản phẩm hot không còn xếp hàng trên một dòng products.
+     * Không bucket nào đủ thì trừ trên tổng products.stock + các bucket.
+     *
+     * Các chế độ khác trừ trên products.stock; khi thiếu hàng, bucket còn
+     * sót lại của sản phẩm được gom về products.stock trước khi báo lỗi.
+     */
+    BUCKETED
+}
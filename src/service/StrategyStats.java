@@ -0,0 +1,86 @@
+package service;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * StrategyStats - Kết quả createOrder theo từng ConcurrencyStrategy
+ *
+ * So sánh các chiến lược trên cùng một tải: commit/s, số lần thử lại
+ * trên mỗi đơn hàng và latency trung bình (tính cả thời gian chờ thử lại).
+ */
+public class StrategyStats {
+    private final ConcurrencyStrategy strategy;
+    private final LongAdder commits = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+    private final LongAdder aborts = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder commitNanos = new LongAdder();
+
+    StrategyStats(ConcurrencyStrategy strategy) {
+        this.strategy = strategy;
+    }
+
+    void recordCommit(long elapsedNanos) {
+        commits.increment();
+        commitNanos.add(elapsedNanos);
+    }
+
+    void recordRetry() {
+        retries.increment();
+    }
+
+    // Không đủ hàng / không tìm thấy product
+    void recordRejection() {
+        rejections.increment();
+    }
+
+    // Vẫn deadlock / serialization failure sau khi hết số lần thử lại
+    void recordAbort() {
+        aborts.increment();
+    }
+
+    // Lỗi khác (connection, SQL...)
+    void recordError() {
+        errors.increment();
+    }
+
+    // Getters
+    public ConcurrencyStrategy getStrategy() {
+        return strategy;
+    }
+
+    public long getCommits() {
+        return commits.sum();
+    }
+
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    public long getRejections() {
+        return rejections.sum();
+    }
+
+    public long getAborts() {
+        return aborts.sum();
+    }
+
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    // Latency trung bình của đơn hàng commit thành công (gồm cả các lần thử lại)
+    public double getAvgCommitMillis() {
+        long count = commits.sum();
+        return count == 0 ? 0 : commitNanos.sum() / 1_000_000.0 / count;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "StrategyStats[%s: commits=%d, retries=%d, rejections=%d, aborts=%d, errors=%d, avgCommit=%.3fms]",
+                strategy, getCommits(), getRetries(), getRejections(), getAborts(), getErrors(),
+                getAvgCommitMillis());
+    }
+}
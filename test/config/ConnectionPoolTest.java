@@ -0,0 +1,202 @@
+package config;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ConnectionPoolTest {
+
+    private static final String SQL = "SELECT ?::int + 1";
+
+    private ConnectionPool pool;
+
+    @BeforeAll
+    static void startDatabase() throws Exception {
+        TestDatabase.start();
+    }
+
+    @AfterAll
+    static void stopDatabase() throws Exception {
+        TestDatabase.stop();
+    }
+
+    @AfterEach
+    void shutdownPool() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    private ConnectionPool newPool(int maxSize) {
+        PoolSettings settings = new PoolSettings();
+        settings.setMaxSize(maxSize);
+        settings.setMinIdle(0);
+        settings.setBorrowTimeoutMs(100);
+        pool = new ConnectionPool(() -> DriverManager.getConnection(TestDatabase.getUrl()), settings);
+        return pool;
+    }
+
+    @Test
+    void borrowTimesOutWhenExhausted() throws Exception {
+        ConnectionPool pool = newPool(2);
+        Connection first = pool.borrow();
+        Connection second = pool.borrow();
+
+        assertThrows(SQLTimeoutException.class, pool::borrow);
+        assertEquals(1, pool.getStats().getTimeoutCount());
+
+        first.close();
+        try (Connection third = pool.borrow()) {
+            assertEquals(2, pool.getStats().getTotal());
+            assertTrue(third.isValid(1));
+        }
+        second.close();
+        assertEquals(0, pool.getStats().getActive());
+        assertEquals(2, pool.getStats().getIdle());
+    }
+
+    @Test
+    void returnedConnectionIsReset() throws Exception {
+        ConnectionPool pool = newPool(1);
+        Connection first = pool.borrow();
+        int defaultIsolation = first.getTransactionIsolation();
+        first.setAutoCommit(false);
+        first.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
+        first.setReadOnly(true);
+        first.close();
+
+        assertTrue(first.isClosed());
+        assertThrows(SQLException.class, first::createStatement);
+        try (Connection second = pool.borrow()) {
+            assertTrue(second.getAutoCommit());
+            assertEquals(defaultIsolation, second.getTransactionIsolation());
+            assertFalse(second.isReadOnly());
+        }
+    }
+
+    @Test
+    void statementCacheReusesStatements() throws Exception {
+        ConnectionPool pool = newPool(1);
+        for (int i = 0; i < 10; i++) {
+            try (Connection conn = pool.borrow();
+                    PreparedStatement pstmt = conn.prepareStatement(SQL)) {
+                assertEquals(i + 1, queryInt(pstmt, i));
+            }
+        }
+
+        assertEquals(9, pool.getStats().getStatementCacheHits());
+        assertEquals(1, pool.getStats().getStatementCacheMisses());
+    }
+
+    @Test
+    void statementInUseIsNotShared() throws Exception {
+        ConnectionPool pool = newPool(1);
+        try (Connection conn = pool.borrow();
+                PreparedStatement first = conn.prepareStatement(SQL);
+                PreparedStatement second = conn.prepareStatement(SQL)) {
+            first.setInt(1, 1);
+            second.setInt(1, 2);
+            assertEquals(2, queryInt(first));
+            assertEquals(3, queryInt(second));
+        }
+    }
+
+    @Test
+    void lateStatementCloseDoesNotTouchNextLease() throws Exception {
+        ConnectionPool pool = newPool(1);
+        Connection first = pool.borrow();
+        PreparedStatement leaked = first.prepareStatement(SQL);
+        // Trả connection khi statement chưa close: statement bị đóng hẳn
+        first.close();
+        assertTrue(leaked.isClosed());
+
+        try (Connection second = pool.borrow()) {
+            PreparedStatement current = second.prepareStatement(SQL);
+            current.setInt(1, 41);
+            // close() muộn của lease trước không được đóng / gỡ statement của lease này
+            leaked.close();
+            assertEquals(42, queryInt(current));
+            current.close();
+
+            long hits = pool.getStats().getStatementCacheHits();
+            try (PreparedStatement again = second.prepareStatement(SQL)) {
+                assertEquals(8, queryInt(again, 7));
+            }
+            assertEquals(hits + 1, pool.getStats().getStatementCacheHits());
+        }
+        assertThrows(SQLException.class, () -> leaked.setInt(1, 1));
+    }
+
+    @Test
+    void statementWithChangedConfigIsNotReused() throws Exception {
+        ConnectionPool pool = newPool(1);
+        try (Connection conn = pool.borrow()) {
+            try (PreparedStatement pstmt = conn.prepareStatement(SQL)) {
+                pstmt.setFetchSize(10);
+                assertEquals(1, queryInt(pstmt, 0));
+            }
+            try (PreparedStatement pstmt = conn.prepareStatement(SQL)) {
+                assertEquals(0, pstmt.getFetchSize());
+            }
+        }
+        assertEquals(0, pool.getStats().getStatementCacheHits());
+    }
+
+    @Test
+    void uncachedStatementBypassesCache() throws Exception {
+        ConnectionPool pool = newPool(1);
+        PreparedStatement closed;
+        try (Connection conn = pool.borrow()) {
+            for (int i = 0; i < 3; i++) {
+                try (PreparedStatement pstmt = ConnectionPool.prepareUncached(conn, SQL)) {
+                    assertEquals(i + 1, queryInt(pstmt, i));
+                    closed = pstmt;
+                }
+                // close() đóng hẳn statement, không giữ lại trong cache
+                assertTrue(closed.isClosed());
+            }
+        }
+
+        assertEquals(0, pool.getStats().getStatementCacheHits());
+        assertEquals(0, pool.getStats().getStatementCacheMisses());
+    }
+
+    @Test
+    void shutdownClosesIdleAndReturnedConnections() throws Exception {
+        ConnectionPool pool = newPool(2);
+        Connection borrowed = pool.borrow();
+        pool.borrow().close();
+        assertEquals(1, pool.getStats().getIdle());
+
+        pool.shutdown();
+        assertEquals(0, pool.getStats().getIdle());
+        assertThrows(SQLException.class, pool::borrow);
+        borrowed.close();
+        assertEquals(0, pool.getStats().getTotal());
+    }
+
+    private static int queryInt(PreparedStatement pstmt, int param) throws SQLException {
+        pstmt.setInt(1, param);
+        return queryInt(pstmt);
+    }
+
+    private static int queryInt(PreparedStatement pstmt) throws SQLException {
+        try (ResultSet rs = pstmt.executeQuery()) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+}
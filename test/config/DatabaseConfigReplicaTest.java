@@ -0,0 +1,116 @@
+package config;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Routing của getReadConnection(): "replica" là chính PostgreSQL embedded
+ * (không phải standby) với application_name riêng để phân biệt với primary
+ */
+class DatabaseConfigReplicaTest {
+
+    // Không có PostgreSQL nào lắng nghe ở port này
+    private static final String DEAD_REPLICA = "jdbc:postgresql://127.0.0.1:1/postgres?connectTimeout=1";
+
+    // application_name mặc định của driver (connection của primary)
+    private static final String PRIMARY = "PostgreSQL JDBC Driver";
+
+    @BeforeAll
+    static void startDatabase() throws Exception {
+        TestDatabase.start();
+    }
+
+    @AfterAll
+    static void stopDatabase() throws Exception {
+        TestDatabase.stop();
+    }
+
+    @AfterEach
+    void clearReplicas() {
+        DatabaseConfig dbConfig = DatabaseConfig.getInstance();
+        dbConfig.setReplicaUrls(List.of());
+        dbConfig.setReplicaMaxLagMillis(0);
+    }
+
+    @Test
+    void readsGoToReplica() throws Exception {
+        DatabaseConfig dbConfig = DatabaseConfig.getInstance();
+        dbConfig.setReplicaUrls(List.of(replicaUrl("replica-a"), replicaUrl("replica-b")));
+        long fallbacks = dbConfig.getPrimaryFallbackCount();
+
+        // Round-robin: hai lần đọc liên tiếp đi tới hai replica khác nhau
+        String first = readApplicationName(dbConfig);
+        String second = readApplicationName(dbConfig);
+        assertEquals(Set.of("replica-a", "replica-b"), Set.of(first, second));
+        assertEquals(first, readApplicationName(dbConfig));
+        assertEquals(fallbacks, dbConfig.getPrimaryFallbackCount());
+
+        try (Connection conn = dbConfig.getConnection()) {
+            assertEquals(PRIMARY, applicationName(conn));
+        }
+    }
+
+    @Test
+    void unreachableReplicaIsSkipped() throws Exception {
+        DatabaseConfig dbConfig = DatabaseConfig.getInstance();
+        dbConfig.setReplicaUrls(List.of(DEAD_REPLICA, replicaUrl("replica-a")));
+
+        for (int i = 0; i < 4; i++) {
+            assertEquals("replica-a", readApplicationName(dbConfig));
+        }
+    }
+
+    @Test
+    void fallsBackToPrimaryWithoutUsableReplica() throws Exception {
+        DatabaseConfig dbConfig = DatabaseConfig.getInstance();
+        dbConfig.setReplicaUrls(List.of(DEAD_REPLICA));
+        long fallbacks = dbConfig.getPrimaryFallbackCount();
+
+        assertEquals(PRIMARY, readApplicationName(dbConfig));
+        assertEquals(PRIMARY, readApplicationName(dbConfig));
+
+        assertEquals(fallbacks + 2, dbConfig.getPrimaryFallbackCount());
+    }
+
+    @Test
+    void primaryServerPassesLagCheck() throws Exception {
+        // Server không ở chế độ recovery: độ trễ 0, vẫn đọc từ replica
+        DatabaseConfig dbConfig = DatabaseConfig.getInstance();
+        dbConfig.setReplicaUrls(List.of(replicaUrl("replica-a")));
+        dbConfig.setReplicaMaxLagMillis(1);
+        long reads = dbConfig.getReplicaReadCount();
+
+        assertEquals("replica-a", readApplicationName(dbConfig));
+        assertEquals(reads + 1, dbConfig.getReplicaReadCount());
+    }
+
+    private static String replicaUrl(String name) {
+        String url = TestDatabase.getUrl();
+        return url + (url.contains("?") ? "&" : "?") + "ApplicationName=" + name;
+    }
+
+    private static String readApplicationName(DatabaseConfig dbConfig) throws SQLException {
+        try (Connection conn = dbConfig.getReadConnection()) {
+            return applicationName(conn);
+        }
+    }
+
+    private static String applicationName(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+                ResultSet rs = stmt.executeQuery("SELECT current_setting('application_name')")) {
+            rs.next();
+            return rs.getString(1);
+        }
+    }
+}
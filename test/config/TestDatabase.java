@@ -0,0 +1,94 @@
+package config;
+
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * TestDatabase - PostgreSQL embedded cho test chạy trên database thật
+ *
+ * Mỗi JVM test (surefire: một JVM cho mỗi class test) khởi động một
+ * PostgreSQL, chạy database/schema.sql và trỏ db.url / db.user /
+ * db.password vào đó trước khi DatabaseConfig được load.
+ */
+public final class TestDatabase {
+
+    private static EmbeddedPostgres postgres;
+    private static String url;
+
+    private TestDatabase() {
+    }
+
+    public static synchronized void start() throws Exception {
+        if (postgres != null) {
+            return;
+        }
+        postgres = EmbeddedPostgres.builder().start();
+        url = postgres.getJdbcUrl("postgres", "postgres");
+        execute(readResource("/schema.sql"));
+
+        // DatabaseConfig đọc các property này khi được load lần đầu
+        System.setProperty("db.url", url);
+        System.setProperty("db.user", "postgres");
+        System.setProperty("db.password", "");
+    }
+
+    /**
+     * Đóng pool của DatabaseConfig rồi dừng PostgreSQL
+     */
+    public static synchronized void stop() throws Exception {
+        if (postgres == null) {
+            return;
+        }
+        DatabaseConfig.getInstance().shutdownPool();
+        postgres.close();
+        postgres = null;
+    }
+
+    public static String getUrl() {
+        return url;
+    }
+
+    /**
+     * Connection trực tiếp (không qua pool của DatabaseConfig)
+     */
+    public static Connection connect() throws SQLException {
+        return DriverManager.getConnection(url);
+    }
+
+    public static void execute(String sql) throws SQLException {
+        try (Connection conn = connect();
+                Statement stmt = conn.createStatement()) {
+            stmt.execute(sql);
+        }
+    }
+
+    public static int queryInt(String sql) throws SQLException {
+        try (Connection conn = connect();
+                Statement stmt = conn.createStatement();
+                ResultSet rs = stmt.executeQuery(sql)) {
+            if (!rs.next()) {
+                throw new SQLException("Không có dòng nào: " + sql);
+            }
+            return rs.getInt(1);
+        }
+    }
+
+    /**
+     * Script SQL trong thư mục database/ (test resource), VD "/product_notify.sql"
+     */
+    public static String readResource(String name) throws Exception {
+        try (InputStream in = TestDatabase.class.getResourceAsStream(name)) {
+            if (in == null) {
+                throw new IllegalStateException("Không tìm thấy " + name + " trong classpath");
+            }
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OrderLinesTest {
+
+    @Test
+    void addMergesSameProduct() {
+        OrderLines lines = new OrderLines(2)
+                .add(7, 1)
+                .add(3, 2)
+                .add(7, 4);
+
+        assertEquals(2, lines.size());
+        assertArrayEquals(new int[] {7, 3}, lines.productIds());
+        assertArrayEquals(new int[] {5, 2}, lines.quantities());
+        assertEquals(7, lines.getTotalQuantity());
+        assertEquals(0, lines.indexOf(7));
+        assertEquals(1, lines.indexOf(3));
+        assertEquals(-1, lines.indexOf(42));
+    }
+
+    @Test
+    void growsPastInitialCapacity() {
+        OrderLines lines = new OrderLines(1);
+        for (int productId = 1000; productId > 0; productId--) {
+            lines.add(productId, 1);
+        }
+        lines.add(500, 1);
+
+        assertEquals(1000, lines.size());
+        assertEquals(1001, lines.getTotalQuantity());
+        for (int productId = 1; productId <= 1000; productId++) {
+            int line = lines.indexOf(productId);
+            assertEquals(productId, lines.productId(line));
+            assertEquals(productId == 500 ? 2 : 1, lines.qty(line));
+        }
+    }
+
+    @Test
+    void sortedByProductIdKeepsQuantities() {
+        OrderLines lines = new OrderLines().add(9, 1).add(2, 3).add(5, 2);
+
+        OrderLines sorted = lines.sortedByProductId();
+
+        assertArrayEquals(new int[] {2, 5, 9}, sorted.productIds());
+        assertArrayEquals(new int[] {3, 2, 1}, sorted.quantities());
+        assertEquals(lines.getTotalQuantity(), sorted.getTotalQuantity());
+        assertEquals(1, sorted.indexOf(5));
+        // Bản gốc giữ nguyên thứ tự add()
+        assertArrayEquals(new int[] {9, 2, 5}, lines.productIds());
+        // Đã đúng thứ tự thì không tạo bản sao
+        assertSame(sorted, sorted.sortedByProductId());
+    }
+
+    @Test
+    void rangeCopies() {
+        OrderLines lines = new OrderLines().add(1, 10).add(2, 20).add(3, 30);
+
+        assertArrayEquals(new int[] {2, 3}, lines.productIds(1, 10));
+        assertArrayEquals(new int[] {10, 20}, lines.quantities(0, 2));
+    }
+
+    @Test
+    void convertsFromAndToItems() {
+        OrderLines lines = OrderLines.of(List.of(
+                new OrderItem(0, 4, 1), new OrderItem(0, 6, 2), new OrderItem(0, 4, 3)));
+
+        assertArrayEquals(new int[] {4, 6}, lines.productIds());
+        assertArrayEquals(new int[] {4, 2}, lines.quantities());
+
+        List<OrderItem> items = lines.toItems(12);
+        assertEquals(2, items.size());
+        assertEquals(12, items.get(0).getOrderId());
+        assertEquals(4, items.get(0).getProductId());
+        assertEquals(4, items.get(0).getQty());
+    }
+
+    @Test
+    void rejectsOutOfRangeLine() {
+        OrderLines lines = new OrderLines().add(1, 1);
+
+        assertThrows(IndexOutOfBoundsException.class, () -> lines.productId(1));
+        assertThrows(IndexOutOfBoundsException.class, () -> lines.qty(-1));
+        assertTrue(new OrderLines().isEmpty());
+    }
+
+    @Test
+    void rejectsQuantityOverflow() {
+        OrderLines lines = new OrderLines().add(1, Integer.MAX_VALUE);
+
+        assertThrows(ArithmeticException.class, () -> lines.add(1, 1));
+    }
+}
@@ -0,0 +1,154 @@
+package service;
+
+import config.DatabaseConfig;
+import config.TestDatabase;
+import model.Order;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BulkOrderImporterTest {
+
+    @TempDir
+    Path dir;
+
+    @BeforeAll
+    static void startDatabase() throws Exception {
+        TestDatabase.start();
+    }
+
+    @AfterAll
+    static void stopDatabase() throws Exception {
+        TestDatabase.stop();
+    }
+
+    @Test
+    void allocatesStockInInputOrder() throws Exception {
+        TestDatabase.execute("UPDATE products SET stock = 5 WHERE id = 1");
+        List<BulkOrderImporter.Rejection> rejections = new ArrayList<>();
+        BulkOrderImporter importer = new BulkOrderImporter();
+        importer.setChunkSize(2);
+        importer.setRejectionListener(rejections::add);
+
+        List<Order> orders = List.of(order(1, 3), order(1, 4), order(1, 2), order(1, 1));
+        BulkOrderImporter.ImportResult result = importer.importOrders(orders.iterator());
+
+        // Order thứ 2 không đủ hàng và không giữ chỗ: order thứ 3 vẫn được nhận
+        assertEquals(4, result.getOrdersRead());
+        assertEquals(2, result.getOrdersImported());
+        assertEquals(2, result.getOrdersRejected());
+        assertEquals(2, result.getChunks());
+        assertEquals(0, TestDatabase.queryInt("SELECT stock FROM products WHERE id = 1"));
+        assertEquals(List.of(2L, 4L), rejections.stream().map(BulkOrderImporter.Rejection::getSeq).toList());
+        assertEquals(BulkOrderImporter.RejectReason.INSUFFICIENT_STOCK, rejections.get(0).getReason());
+        assertTrue(orders.get(0).getId() > 0);
+        assertEquals(0, orders.get(1).getId());
+        assertEquals(2, TestDatabase.queryInt("SELECT qty FROM order_items WHERE order_id = " + orders.get(2).getId()));
+    }
+
+    @Test
+    void rejectsInvalidOrders() throws Exception {
+        TestDatabase.execute("UPDATE products SET stock = 10 WHERE id = 2");
+        List<BulkOrderImporter.Rejection> rejections = new ArrayList<>();
+        BulkOrderImporter importer = new BulkOrderImporter();
+        importer.setRejectionListener(rejections::add);
+
+        Order unknown = order(2, 1);
+        unknown.addItem(999_999, 1);
+        List<Order> orders = List.of(unknown, order(2, 0), new Order(), order(2, 4));
+        BulkOrderImporter.ImportResult result = importer.importOrders(orders.iterator());
+
+        assertEquals(1, result.getOrdersImported());
+        assertEquals(List.of(BulkOrderImporter.RejectReason.UNKNOWN_PRODUCT,
+                BulkOrderImporter.RejectReason.INVALID_QTY,
+                BulkOrderImporter.RejectReason.EMPTY_ORDER),
+                rejections.stream().map(BulkOrderImporter.Rejection::getReason).toList());
+        assertEquals(999_999, rejections.get(0).getProductId());
+        assertEquals(6, TestDatabase.queryInt("SELECT stock FROM products WHERE id = 2"));
+    }
+
+    @Test
+    void dropsStagingTablesBeforeReturningConnection() throws Exception {
+        TestDatabase.execute("UPDATE products SET stock = 10 WHERE id = 3");
+        new BulkOrderImporter().importOrders(List.of(order(3, 1)).iterator());
+
+        // Pool mượn/trả theo LIFO: connection vừa import được cho mượn lại
+        try (Connection conn = DatabaseConfig.getInstance().getConnection();
+                Statement stmt = conn.createStatement();
+                ResultSet rs = stmt.executeQuery("SELECT to_regclass('pg_temp.import_items')::text")) {
+            rs.next();
+            assertNull(rs.getString(1));
+        }
+    }
+
+    @Test
+    void reportsMalformedCsvRowsAndContinues() throws Exception {
+        TestDatabase.execute("UPDATE products SET stock = 10 WHERE id IN (4, 5)");
+        Path file = dir.resolve("orders.csv");
+        Files.writeString(file, String.join("\n",
+                "order_no,product_id,qty,created_at",
+                "A,4,1",
+                "B,5,1",
+                "B,5,x",
+                "# ghi chú",
+                "C,4,2,2024-13-01T00:00:00",
+                "D,5",
+                "E,4,3",
+                ""));
+        List<BulkOrderImporter.Rejection> rejections = new ArrayList<>();
+        BulkOrderImporter importer = new BulkOrderImporter();
+        importer.setRejectionListener(rejections::add);
+
+        BulkOrderImporter.ImportResult result = importer.importCsv(file);
+
+        assertEquals(5, result.getOrdersRead());
+        assertEquals(2, result.getOrdersImported());
+        assertEquals(3, result.getOrdersRejected());
+        assertEquals(List.of(4, 6, 7), rejections.stream().map(BulkOrderImporter.Rejection::getLineNumber).toList());
+        assertEquals(List.of(2L, 3L, 4L), rejections.stream().map(BulkOrderImporter.Rejection::getSeq).toList());
+        for (BulkOrderImporter.Rejection rejection : rejections) {
+            assertEquals(BulkOrderImporter.RejectReason.INVALID_ROW, rejection.getReason());
+        }
+        // Dòng hợp lệ của order B cũng không được import
+        assertEquals(6, TestDatabase.queryInt("SELECT stock FROM products WHERE id = 4"));
+        assertEquals(10, TestDatabase.queryInt("SELECT stock FROM products WHERE id = 5"));
+    }
+
+    @Test
+    void firstDataLineIsNotTakenForHeader() throws Exception {
+        TestDatabase.execute("UPDATE products SET stock = 10 WHERE id = 6");
+        Path file = dir.resolve("no-header.csv");
+        Files.writeString(file, "1,-1,2\n2,6,1\n");
+        List<BulkOrderImporter.Rejection> rejections = new ArrayList<>();
+        BulkOrderImporter importer = new BulkOrderImporter();
+        importer.setRejectionListener(rejections::add);
+
+        BulkOrderImporter.ImportResult result = importer.importCsv(file);
+
+        assertEquals(2, result.getOrdersRead());
+        assertEquals(1, result.getOrdersImported());
+        assertEquals(1, rejections.size());
+        assertEquals(1, rejections.get(0).getSeq());
+        assertEquals(BulkOrderImporter.RejectReason.UNKNOWN_PRODUCT, rejections.get(0).getReason());
+        assertEquals(9, TestDatabase.queryInt("SELECT stock FROM products WHERE id = 6"));
+    }
+
+    private static Order order(int productId, int qty) {
+        Order order = new Order();
+        order.addItem(productId, qty);
+        return order;
+    }
+}
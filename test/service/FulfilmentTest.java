@@ -0,0 +1,67 @@
+package service;
+
+import model.Order;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FulfilmentTest {
+
+    @Test
+    void takeWhenShortDependsOnPolicy() {
+        assertEquals(0, new Fulfilment(FulfilmentPolicy.ALL_OR_NOTHING, 1).takeWhenShort(3));
+        assertEquals(0, new Fulfilment(FulfilmentPolicy.DROP_UNAVAILABLE, 1).takeWhenShort(3));
+        assertEquals(3, new Fulfilment(FulfilmentPolicy.PARTIAL, 1).takeWhenShort(3));
+        // Kho âm (dữ liệu lỗi) không được giao số âm
+        assertEquals(0, new Fulfilment(FulfilmentPolicy.PARTIAL, 1).takeWhenShort(-2));
+    }
+
+    @Test
+    void recordSplitsFulfilledAndUnfulfilled() {
+        Fulfilment fulfilment = new Fulfilment(FulfilmentPolicy.PARTIAL, 3);
+        fulfilment.record(1, 5, 5);
+        fulfilment.record(2, 4, 1);
+        fulfilment.record(3, 2, 0);
+
+        assertArrayEquals(new int[] {1, 2}, fulfilment.fulfilled.productIds());
+        assertArrayEquals(new int[] {5, 1}, fulfilment.fulfilled.quantities());
+        assertArrayEquals(new int[] {2, 3}, fulfilment.unfulfilled.productIds());
+        assertArrayEquals(new int[] {3, 2}, fulfilment.unfulfilled.quantities());
+    }
+
+    @Test
+    void applyToKeepsOrderedLines() {
+        Order order = new Order();
+        order.addItem(1, 5);
+        order.addItem(2, 4);
+        Fulfilment fulfilment = new Fulfilment(FulfilmentPolicy.PARTIAL, 2);
+        fulfilment.record(1, 5, 5);
+        fulfilment.record(2, 4, 1);
+
+        fulfilment.applyTo(order);
+
+        assertSame(fulfilment.fulfilled, order.getFulfilled());
+        assertSame(fulfilment.unfulfilled, order.getUnfulfilled());
+        assertFalse(order.isFullyFulfilled());
+        assertArrayEquals(new int[] {5, 4}, order.getLines().quantities());
+    }
+
+    @Test
+    void clearRestoresUnplacedState() {
+        Order order = new Order();
+        order.addItem(1, 5);
+        Fulfilment fulfilment = new Fulfilment(FulfilmentPolicy.PARTIAL, 1);
+        fulfilment.record(1, 5, 2);
+        fulfilment.applyTo(order);
+
+        Fulfilment.clear(order);
+
+        assertSame(order.getLines(), order.getFulfilled());
+        assertTrue(order.getUnfulfilled().isEmpty());
+        assertTrue(order.isFullyFulfilled());
+    }
+}
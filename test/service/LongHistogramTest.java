@@ -0,0 +1,106 @@
+package service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LongHistogramTest {
+
+    @Test
+    void smallValuesAreExact() {
+        LongHistogram histogram = new LongHistogram();
+        for (int v = 1; v <= 10; v++) {
+            histogram.record(v);
+        }
+
+        LongHistogram.Snapshot snapshot = histogram.snapshot(1);
+        assertEquals(10, snapshot.getCount());
+        assertEquals(5.5, snapshot.getMean(), 1e-9);
+        assertEquals(5, snapshot.getP50());
+        assertEquals(9, snapshot.getP90());
+        assertEquals(10, snapshot.getP99());
+        assertEquals(10, snapshot.getMax());
+    }
+
+    @Test
+    void bucketContainsValue() {
+        long[] values = {0, 31, 32, 33, 63, 64, 1_000, 123_456_789, Long.MAX_VALUE / 3, Long.MAX_VALUE};
+        for (long v : values) {
+            int index = LongHistogram.index(v);
+            assertTrue(LongHistogram.upperBound(index) >= v, "upperBound < " + v);
+            if (index > 0) {
+                assertTrue(LongHistogram.upperBound(index - 1) < v, "bucket trước chứa " + v);
+            }
+        }
+    }
+
+    @Test
+    void percentileRelativeErrorIsBounded() {
+        LongHistogram histogram = new LongHistogram();
+        long[] values = new long[100_000];
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextLong(1_000, 50_000_000);
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+
+        LongHistogram.Snapshot snapshot = histogram.snapshot(1);
+        assertWithin(values[(int) Math.ceil(0.50 * values.length) - 1], snapshot.getP50());
+        assertWithin(values[(int) Math.ceil(0.99 * values.length) - 1], snapshot.getP99());
+        assertEquals(values[values.length - 1], snapshot.getMax());
+    }
+
+    @Test
+    void negativeValuesCountAsZero() {
+        LongHistogram histogram = new LongHistogram();
+        histogram.record(-5);
+
+        assertEquals(1, histogram.getCount());
+        assertEquals(0, histogram.snapshot(1).getMax());
+    }
+
+    @Test
+    void scaleAndReset() {
+        LongHistogram histogram = new LongHistogram();
+        histogram.record(2_000_000);
+
+        assertEquals(2.0, histogram.snapshot(1e-6).getMax(), 1e-9);
+
+        histogram.reset();
+        LongHistogram.Snapshot empty = histogram.snapshot(1);
+        assertEquals(0, empty.getCount());
+        assertEquals(0, empty.getP99());
+        assertEquals(0, empty.getMax());
+    }
+
+    @Test
+    void concurrentRecordsAreNotLost() throws InterruptedException {
+        LongHistogram histogram = new LongHistogram();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    histogram.record(i);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(40_000, histogram.getCount());
+        assertEquals(40_000, histogram.snapshot(1).getCount());
+    }
+
+    // Sai số tương đối tối đa của bucket: 1/32
+    private static void assertWithin(long expected, double actual) {
+        assertTrue(Math.abs(actual - expected) <= expected / 32.0,
+                "expected ~" + expected + " but was " + actual);
+    }
+}
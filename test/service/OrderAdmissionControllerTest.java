@@ -0,0 +1,176 @@
+package service;
+
+import model.Order;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * OrderAdmissionController với OrderService giả (không cần database)
+ */
+class OrderAdmissionControllerTest {
+
+    @Test
+    void admitsAndReturnsOrderId() throws Exception {
+        StubOrderService service = new StubOrderService();
+        OrderAdmissionController controller = new OrderAdmissionController(service, 4, 1, 4);
+
+        assertEquals(1, controller.createOrder(new Order()));
+        assertEquals(2, controller.createOrder(new Order()));
+
+        assertEquals(2, controller.getAdmittedCount());
+        assertEquals(0, controller.getInFlight());
+        assertEquals(2, controller.getQueueWait().getCount());
+    }
+
+    @Test
+    void rejectsWhenQueueFull() throws Exception {
+        StubOrderService service = new StubOrderService();
+        OrderAdmissionController controller = new OrderAdmissionController(service, 0, 1, 1);
+        CompletableFuture<Integer> running = service.blockNext(controller);
+
+        OverloadException e = assertThrows(OverloadException.class,
+                () -> controller.createOrder(new Order()));
+        assertEquals(OverloadException.Reason.QUEUE_FULL, e.getReason());
+        assertEquals(1, controller.getQueueFullCount());
+
+        service.unblock();
+        assertEquals(1, running.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void queuedOrderRunsWhenSlotFrees() throws Exception {
+        StubOrderService service = new StubOrderService();
+        OrderAdmissionController controller = new OrderAdmissionController(service, 1, 1, 1);
+        controller.setDefaultTimeoutMillis(10_000);
+        CompletableFuture<Integer> running = service.blockNext(controller);
+
+        CompletableFuture<Integer> queued = CompletableFuture.supplyAsync(() -> call(controller));
+        waitUntil(() -> controller.getQueued() == 1);
+        assertFalse(queued.isDone());
+
+        service.unblock();
+        assertEquals(1, running.get(5, TimeUnit.SECONDS));
+        assertEquals(2, queued.get(5, TimeUnit.SECONDS));
+        assertEquals(0, controller.getQueued());
+        assertEquals(2, controller.getAdmittedCount());
+    }
+
+    @Test
+    void rejectsQueuedOrderAtDeadline() throws Exception {
+        StubOrderService service = new StubOrderService();
+        OrderAdmissionController controller = new OrderAdmissionController(service, 1, 1, 1);
+        CompletableFuture<Integer> running = service.blockNext(controller);
+
+        long start = System.nanoTime();
+        OverloadException e = assertThrows(OverloadException.class,
+                () -> controller.createOrder(new Order(), 50));
+        assertEquals(OverloadException.Reason.DEADLINE_EXCEEDED, e.getReason());
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+        assertEquals(1, controller.getDeadlineRejectedCount());
+        assertEquals(0, controller.getQueued());
+
+        service.unblock();
+        running.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void deadlineExceededInServiceLowersLimit() {
+        StubOrderService service = new StubOrderService();
+        service.failWith = new OverloadException(OverloadException.Reason.DEADLINE_EXCEEDED, "hết deadline");
+        OrderAdmissionController controller = new OrderAdmissionController(service, 4, 1, 10);
+        assertEquals(5, controller.getLimit());
+
+        assertThrows(OverloadException.class, () -> controller.createOrder(new Order()));
+
+        assertEquals(4, controller.getLimit());
+        assertEquals(1, controller.getDeadlineExceededCount());
+        assertEquals(0, controller.getInFlight());
+    }
+
+    @Test
+    void serviceErrorReleasesSlot() {
+        StubOrderService service = new StubOrderService();
+        service.failWith = new Exception("Không đủ hàng");
+        OrderAdmissionController controller = new OrderAdmissionController(service, 0, 1, 1);
+
+        assertThrows(Exception.class, () -> controller.createOrder(new Order()));
+        assertThrows(Exception.class, () -> controller.createOrder(new Order()));
+
+        assertEquals(2, controller.getAdmittedCount());
+        assertEquals(0, controller.getQueueFullCount());
+        assertEquals(0, controller.getInFlight());
+    }
+
+    @Test
+    void validatesArguments() {
+        StubOrderService service = new StubOrderService();
+
+        assertThrows(IllegalArgumentException.class, () -> new OrderAdmissionController(service, -1, 1, 1));
+        assertThrows(IllegalArgumentException.class, () -> new OrderAdmissionController(service, 0, 0, 1));
+        assertThrows(IllegalArgumentException.class, () -> new OrderAdmissionController(service, 0, 3, 2));
+    }
+
+    private static int call(OrderAdmissionController controller) {
+        try {
+            return controller.createOrder(new Order());
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void waitUntil(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "Hết thời gian chờ");
+            Thread.sleep(5);
+        }
+    }
+
+    /**
+     * OrderService trả Order ID tăng dần, có thể chặn đơn hàng đang chạy
+     */
+    private static final class StubOrderService extends OrderService {
+        private final AtomicInteger nextId = new AtomicInteger();
+        private final AtomicBoolean blockOnce = new AtomicBoolean();
+        private final CountDownLatch entered = new CountDownLatch(1);
+        private final CountDownLatch gate = new CountDownLatch(1);
+        volatile Exception failWith;
+
+        @Override
+        public int createOrder(Order order, long deadlineNanos) throws Exception {
+            if (blockOnce.compareAndSet(true, false)) {
+                entered.countDown();
+                gate.await();
+            }
+            if (failWith != null) {
+                throw failWith;
+            }
+            return nextId.incrementAndGet();
+        }
+
+        /**
+         * Chạy một đơn hàng ở thread khác và chờ tới khi nó giữ chỗ
+         */
+        CompletableFuture<Integer> blockNext(OrderAdmissionController controller) throws InterruptedException {
+            blockOnce.set(true);
+            CompletableFuture<Integer> running = CompletableFuture.supplyAsync(() -> call(controller));
+            assertTrue(entered.await(5, TimeUnit.SECONDS));
+            return running;
+        }
+
+        void unblock() {
+            gate.countDown();
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package service;
+
+import config.TestDatabase;
+import model.Order;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OrderIngestorTest {
+
+    private OrderIngestor ingestor;
+
+    @BeforeAll
+    static void startDatabase() throws Exception {
+        TestDatabase.start();
+    }
+
+    @AfterAll
+    static void stopDatabase() throws Exception {
+        TestDatabase.stop();
+    }
+
+    @AfterEach
+    void shutdownIngestor() throws InterruptedException {
+        if (ingestor != null) {
+            ingestor.shutdown();
+        }
+    }
+
+    @Test
+    void concurrentOrdersShareOneTransaction() throws Exception {
+        TestDatabase.execute("UPDATE products SET stock = 100 WHERE id IN (1, 2)");
+        ingestor = new OrderIngestor(new OrderService(), 8, 1_000);
+
+        List<CompletableFuture<Integer>> futures = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            futures.add(ingestor.submit(order(1 + i % 2, 1)));
+        }
+        Set<Integer> orderIds = new HashSet<>();
+        for (CompletableFuture<Integer> future : futures) {
+            orderIds.add(future.get(10, TimeUnit.SECONDS));
+        }
+
+        assertEquals(5, orderIds.size());
+        assertEquals(1, ingestor.getBatchCount());
+        assertEquals(5, ingestor.getCommittedOrders());
+        assertEquals(195, TestDatabase.queryInt("SELECT SUM(stock) FROM products WHERE id IN (1, 2)"));
+        for (int orderId : orderIds) {
+            assertEquals(1, TestDatabase.queryInt("SELECT COUNT(*) FROM order_items WHERE order_id = " + orderId));
+        }
+    }
+
+    @Test
+    void failingOrderRollsBackOnlyItsSavepoint() throws Exception {
+        TestDatabase.execute("UPDATE products SET stock = 10 WHERE id IN (3, 5)");
+        TestDatabase.execute("UPDATE products SET stock = 1 WHERE id = 4");
+        ingestor = new OrderIngestor(new OrderService(), 8, 1_000);
+
+        CompletableFuture<Integer> first = ingestor.submit(order(3, 2));
+        Order shortOrder = order(4, 5);
+        shortOrder.addItem(5, 1);
+        CompletableFuture<Integer> failing = ingestor.submit(shortOrder);
+        CompletableFuture<Integer> last = ingestor.submit(order(5, 3));
+
+        int firstId = first.get(10, TimeUnit.SECONDS);
+        int lastId = last.get(10, TimeUnit.SECONDS);
+        assertThrows(ExecutionException.class, () -> failing.get(10, TimeUnit.SECONDS));
+
+        assertEquals(1, ingestor.getBatchCount());
+        assertEquals(2, ingestor.getCommittedOrders());
+        assertEquals(1, ingestor.getFailedOrders());
+        // Dòng product 5 của order thiếu hàng cũng được hoàn tác
+        assertEquals(8, TestDatabase.queryInt("SELECT stock FROM products WHERE id = 3"));
+        assertEquals(1, TestDatabase.queryInt("SELECT stock FROM products WHERE id = 4"));
+        assertEquals(7, TestDatabase.queryInt("SELECT stock FROM products WHERE id = 5"));
+        assertEquals(2, TestDatabase.queryInt(
+                "SELECT COUNT(*) FROM orders WHERE id IN (" + firstId + ", " + lastId + ")"));
+        assertEquals(0, shortOrder.getId());
+    }
+
+    @Test
+    void interruptedWorkerFailsPendingOrders() throws Exception {
+        TestDatabase.execute("UPDATE products SET stock = 100 WHERE id = 6");
+        // Chờ gom batch rất lâu: các order nằm trong batch đang gom khi worker bị ngắt
+        ingestor = new OrderIngestor(new OrderService(), 8, 60_000);
+        CompletableFuture<Integer> first = ingestor.submit(order(6, 1));
+        CompletableFuture<Integer> second = ingestor.submit(order(6, 1));
+
+        Thread worker = Thread.getAllStackTraces().keySet().stream()
+                .filter(t -> t.getName().equals("order-ingestor"))
+                .findFirst()
+                .orElseThrow();
+        worker.interrupt();
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> first.get(10, TimeUnit.SECONDS));
+        assertInstanceOf(IllegalStateException.class, e.getCause());
+        assertThrows(ExecutionException.class, () -> second.get(10, TimeUnit.SECONDS));
+        assertTrue(ingestor.submit(order(6, 1)).isCompletedExceptionally());
+        assertEquals(100, TestDatabase.queryInt("SELECT stock FROM products WHERE id = 6"));
+    }
+
+    @Test
+    void rejectsInvalidBatchSize() {
+        OrderService service = new OrderService();
+
+        assertThrows(IllegalArgumentException.class, () -> new OrderIngestor(service, 0, 10));
+        assertThrows(IllegalArgumentException.class,
+                () -> new OrderIngestor(service, OrderIngestor.MAX_BATCH_SIZE + 1, 10));
+    }
+
+    private static Order order(int productId, int qty) {
+        Order order = new Order();
+        order.addItem(productId, qty);
+        return order;
+    }
+}
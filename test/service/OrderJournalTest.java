@@ -0,0 +1,277 @@
+package service;
+
+import config.TestDatabase;
+import model.Order;
+import model.OrderLines;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Mã hóa payload entry (không cần database), drain / khôi phục sau crash
+ * trên PostgreSQL embedded
+ */
+class OrderJournalTest {
+
+    @TempDir
+    Path dir;
+
+    @BeforeAll
+    static void startDatabase() throws Exception {
+        TestDatabase.start();
+    }
+
+    @AfterAll
+    static void stopDatabase() throws Exception {
+        TestDatabase.stop();
+    }
+
+    @Test
+    void encodeDecodeRoundTrip() {
+        OrderLines lines = new OrderLines().add(42, 3).add(7, 1).add(Integer.MAX_VALUE, 100);
+
+        ByteBuffer payload = OrderJournal.encode(lines);
+        assertEquals(4 + 3 * 8, payload.capacity());
+
+        OrderLines decoded = OrderJournal.decode(payload, 0, payload.capacity());
+        assertArrayEquals(lines.productIds(), decoded.productIds());
+        assertArrayEquals(lines.quantities(), decoded.quantities());
+    }
+
+    @Test
+    void decodeAtOffsetInsideSegment() {
+        OrderLines lines = new OrderLines().add(5, 2);
+        ByteBuffer payload = OrderJournal.encode(lines);
+        ByteBuffer segment = ByteBuffer.allocate(64);
+        segment.put(16, payload, 0, payload.capacity());
+
+        OrderLines decoded = OrderJournal.decode(segment, 16, payload.capacity());
+
+        assertArrayEquals(new int[] {5}, decoded.productIds());
+        assertArrayEquals(new int[] {2}, decoded.quantities());
+    }
+
+    @Test
+    void rejectsLengthMismatch() {
+        ByteBuffer payload = OrderJournal.encode(new OrderLines().add(1, 1).add(2, 2));
+
+        assertThrows(UncheckedIOException.class,
+                () -> OrderJournal.decode(payload, 0, payload.capacity() - 8));
+        // Số dòng bị hỏng
+        payload.putInt(0, 1_000);
+        assertThrows(UncheckedIOException.class,
+                () -> OrderJournal.decode(payload, 0, payload.capacity()));
+    }
+
+    @Test
+    void drainsAppendedOrdersAndRejectsShortStock() throws Exception {
+        TestDatabase.execute("UPDATE products SET stock = 5 WHERE id = 1");
+        List<OrderJournal.Outcome> outcomes = new CopyOnWriteArrayList<>();
+        OrderJournal journal = new OrderJournal(new OrderService(), dir, 10, 1);
+        journal.setOutcomeListener(outcomes::add);
+
+        long first = journal.append(order(1, 3)).get(10, TimeUnit.SECONDS);
+        journal.append(order(1, 3)).get(10, TimeUnit.SECONDS);
+        long last = journal.append(order(1, 2)).get(10, TimeUnit.SECONDS);
+        journal.shutdown();
+
+        assertEquals(1, first);
+        assertEquals(last, journal.getDrainedSequence());
+        assertEquals(last, checkpoint(journal));
+        assertEquals(2, journal.getDrainedCount());
+        assertEquals(1, journal.getRejectedCount());
+        assertEquals(List.of(true, false, true), outcomes.stream().map(OrderJournal.Outcome::isSuccess).toList());
+        assertEquals(0, TestDatabase.queryInt("SELECT stock FROM products WHERE id = 1"));
+    }
+
+    @Test
+    void rejectsInvalidQuantityOnAppend() throws Exception {
+        OrderJournal journal = new OrderJournal(new OrderService(), dir, 10, 1);
+        try {
+            ExecutionException e = assertThrows(ExecutionException.class,
+                    () -> journal.append(order(2, 0)).get(10, TimeUnit.SECONDS));
+            assertInstanceOf(IllegalArgumentException.class, e.getCause());
+        } finally {
+            journal.shutdown();
+        }
+        assertEquals(0, journal.getAppendedCount());
+    }
+
+    @Test
+    void databaseErrorIsRetriedNotRejected() throws Exception {
+        TestDatabase.execute("UPDATE products SET stock = 10 WHERE id = 3");
+        failOrderItems();
+        List<OrderJournal.Outcome> outcomes = new CopyOnWriteArrayList<>();
+        OrderJournal journal = new OrderJournal(new OrderService(), dir, 10, 1);
+        journal.setOutcomeListener(outcomes::add);
+        try {
+            long sequence = journal.append(order(3, 4)).get(10, TimeUnit.SECONDS);
+            Thread.sleep(1_500);
+
+            // Batch rollback: không từ chối order, không tăng checkpoint
+            assertTrue(outcomes.isEmpty());
+            assertEquals(0, checkpoint(journal));
+            assertEquals(10, TestDatabase.queryInt("SELECT stock FROM products WHERE id = 3"));
+
+            TestDatabase.execute("DROP TRIGGER trg_fail_order_items ON order_items");
+            assertTrue(waitFor(() -> journal.getDrainedSequence() == sequence));
+        } finally {
+            TestDatabase.execute("DROP TRIGGER IF EXISTS trg_fail_order_items ON order_items");
+            journal.shutdown();
+        }
+        assertEquals(1, outcomes.size());
+        assertTrue(outcomes.get(0).isSuccess());
+        assertEquals(6, TestDatabase.queryInt("SELECT stock FROM products WHERE id = 3"));
+    }
+
+    @Test
+    void unavailableDatabaseKeepsCheckpointAndReopenDrainsOnce() throws Exception {
+        TestDatabase.execute("UPDATE products SET stock = 10 WHERE id = 4");
+        int ordersBefore = TestDatabase.queryInt("SELECT COUNT(*) FROM orders");
+        OrderJournal journal = new OrderJournal(new OrderService(), dir, 10, 1);
+
+        // Connection quản trị vào database khác: database của test không nhận connection mới
+        String adminUrl = TestDatabase.getUrl().replace("/postgres?", "/template1?");
+        try (Connection admin = DriverManager.getConnection(adminUrl);
+                Statement stmt = admin.createStatement()) {
+            stmt.execute("ALTER DATABASE postgres ALLOW_CONNECTIONS false");
+            try {
+                stmt.execute("SELECT pg_terminate_backend(pid) FROM pg_stat_activity"
+                        + " WHERE datname = 'postgres' AND pid <> pg_backend_pid()");
+                for (int i = 0; i < 3; i++) {
+                    // Xác nhận cho client không cần database
+                    journal.append(order(4, 1)).get(10, TimeUnit.SECONDS);
+                }
+                Thread.sleep(1_500);
+                // Crash trước khi drain được: dừng khi database vẫn lỗi, entry còn trong journal
+                journal.shutdown();
+
+                assertEquals(0, journal.getDrainedSequence());
+                assertEquals(0, journal.getRejectedCount());
+            } finally {
+                stmt.execute("ALTER DATABASE postgres ALLOW_CONNECTIONS true");
+            }
+        }
+        assertEquals(ordersBefore, TestDatabase.queryInt("SELECT COUNT(*) FROM orders"));
+        assertEquals(0, checkpoint(journal));
+
+        OrderJournal reopened = new OrderJournal(new OrderService(), dir, 10, 1);
+        assertEquals(3, reopened.getRecoveredCount());
+        reopened.shutdown();
+        assertEquals(3, reopened.getDrainedCount());
+        assertEquals(3, checkpoint(reopened));
+
+        // Mở lại lần nữa: không ghi lại entry nào
+        OrderJournal again = new OrderJournal(new OrderService(), dir, 10, 1);
+        again.shutdown();
+        assertEquals(0, again.getRecoveredCount());
+        assertEquals(ordersBefore + 3, TestDatabase.queryInt("SELECT COUNT(*) FROM orders"));
+        assertEquals(7, TestDatabase.queryInt("SELECT stock FROM products WHERE id = 4"));
+    }
+
+    @Test
+    void leftoverEmptySegmentIsReplaced() throws Exception {
+        TestDatabase.execute("UPDATE products SET stock = 10 WHERE id = 5");
+        failOrderItems();
+        try {
+            // Entry 1 chưa drain được: segment đầu tiên còn lại khi mở lại
+            OrderJournal journal = new OrderJournal(new OrderService(), dir, 10, 1);
+            journal.append(order(5, 1)).get(10, TimeUnit.SECONDS);
+            journal.shutdown();
+            // Segment kế tiếp tạo xong nhưng chưa ghi entry nào (crash ngay sau khi tạo)
+            Files.createFile(dir.resolve(String.format("orders-%020d.journal", 2)));
+
+            OrderJournal reopened = new OrderJournal(new OrderService(), dir, 10, 1);
+            try {
+                assertEquals(2, reopened.append(order(5, 1)).get(10, TimeUnit.SECONDS));
+                TestDatabase.execute("DROP TRIGGER trg_fail_order_items ON order_items");
+                assertTrue(waitFor(() -> reopened.getDrainedSequence() == 2));
+            } finally {
+                reopened.shutdown();
+            }
+        } finally {
+            TestDatabase.execute("DROP TRIGGER IF EXISTS trg_fail_order_items ON order_items");
+        }
+        assertEquals(8, TestDatabase.queryInt("SELECT stock FROM products WHERE id = 5"));
+    }
+
+    @Test
+    void missingPartitionIsCreatedThroughMaintainer() throws Exception {
+        TestDatabase.execute("UPDATE products SET stock = 10 WHERE id = 6");
+        // Như khi sang tháng mới: tháng hiện tại chưa có partition
+        TestDatabase.execute("DELETE FROM orders WHERE created_at >= date_trunc('month', CURRENT_TIMESTAMP)");
+        String suffix = String.format("_p%04d_%02d",
+                TestDatabase.queryInt("SELECT EXTRACT(YEAR FROM CURRENT_TIMESTAMP)::int"),
+                TestDatabase.queryInt("SELECT EXTRACT(MONTH FROM CURRENT_TIMESTAMP)::int"));
+        for (String parent : new String[] { "order_items", "orders" }) {
+            TestDatabase.execute("ALTER TABLE " + parent + " DETACH PARTITION " + parent + suffix);
+            TestDatabase.execute("DROP TABLE " + parent + suffix);
+        }
+        OrderService service = new OrderService();
+        service.setPartitionMaintainer(new OrderPartitionMaintainer(0, 0));
+        List<OrderJournal.Outcome> outcomes = new CopyOnWriteArrayList<>();
+        OrderJournal journal = new OrderJournal(service, dir, 10, 1);
+        journal.setOutcomeListener(outcomes::add);
+
+        journal.append(order(6, 2)).get(10, TimeUnit.SECONDS);
+        journal.shutdown();
+
+        assertEquals(1, outcomes.size());
+        assertTrue(outcomes.get(0).isSuccess());
+        assertEquals(1, TestDatabase.queryInt("SELECT COUNT(*) FROM orders" + suffix));
+        assertEquals(8, TestDatabase.queryInt("SELECT stock FROM products WHERE id = 6"));
+    }
+
+    /**
+     * Lỗi database không phải nghiệp vụ (VD hết chỗ trên đĩa) khi ghi order_items
+     */
+    private static void failOrderItems() throws SQLException {
+        TestDatabase.execute("CREATE OR REPLACE FUNCTION fail_order_items() RETURNS trigger AS $$ BEGIN "
+                + "RAISE EXCEPTION 'disk full' USING ERRCODE = '53100'; END; $$ LANGUAGE plpgsql");
+        TestDatabase.execute("CREATE TRIGGER trg_fail_order_items BEFORE INSERT ON order_items "
+                + "FOR EACH ROW EXECUTE FUNCTION fail_order_items()");
+    }
+
+    private static long checkpoint(OrderJournal journal) throws SQLException {
+        return TestDatabase.queryInt("SELECT COALESCE(MAX(last_sequence), 0) FROM order_journal_checkpoints"
+                + " WHERE journal_name = '" + journal.getName() + "'");
+    }
+
+    private static boolean waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (System.currentTimeMillis() < deadline) {
+            if (condition.getAsBoolean()) {
+                return true;
+            }
+            Thread.sleep(20);
+        }
+        return false;
+    }
+
+    private static Order order(int productId, int qty) {
+        Order order = new Order();
+        order.addItem(productId, qty);
+        return order;
+    }
+}
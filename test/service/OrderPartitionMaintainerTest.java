@@ -0,0 +1,151 @@
+package service;
+
+import config.TestDatabase;
+import model.Order;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.YearMonth;
+import java.util.List;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OrderPartitionMaintainerTest {
+
+    @BeforeAll
+    static void startDatabase() throws Exception {
+        TestDatabase.start();
+    }
+
+    @AfterAll
+    static void stopDatabase() throws Exception {
+        TestDatabase.stop();
+    }
+
+    @Test
+    void createsMissingPartitionsAhead() throws Exception {
+        YearMonth current = currentMonth();
+        OrderPartitionMaintainer maintainer = new OrderPartitionMaintainer(5, 0);
+        assertFalse(months("orders").contains(current.plusMonths(5)));
+
+        assertTrue(maintainer.maintain() > 0);
+        assertEquals(0, maintainer.maintain());
+        assertTrue(months("orders").contains(current.plusMonths(5)));
+        assertTrue(months("order_items").contains(current.plusMonths(5)));
+    }
+
+    @Test
+    void archivesOldPartitionsWithTheirRows() throws Exception {
+        YearMonth old = YearMonth.of(2020, 1);
+        OrderPartitionMaintainer maintainer = new OrderPartitionMaintainer(0, 0);
+        assertEquals(2, maintainer.createPartitions(old, old));
+        TestDatabase.execute("INSERT INTO orders (id, created_at) VALUES (-1, '2020-01-15')");
+        TestDatabase.execute("INSERT INTO order_items (order_id, order_created_at, product_id, qty)"
+                + " VALUES (-1, '2020-01-15', 1, 2)");
+
+        List<String> archived = maintainer.archivePartitionsBefore(YearMonth.of(2020, 2));
+
+        assertEquals(List.of("order_items_p2020_01", "orders_p2020_01"), archived);
+        assertFalse(months("orders").contains(old));
+        assertEquals(0, TestDatabase.queryInt("SELECT COUNT(*) FROM orders WHERE id = -1"));
+        assertEquals(2, TestDatabase.queryInt("SELECT qty FROM order_archive.order_items_p2020_01"));
+        // Bảng archive không còn foreign key tới products / orders
+        assertEquals(0, TestDatabase.queryInt("SELECT COUNT(*) FROM pg_constraint"
+                + " WHERE conrelid = 'order_archive.order_items_p2020_01'::regclass AND contype = 'f'"));
+    }
+
+    @Test
+    void dropsOldPartitionsWhenConfigured() throws Exception {
+        YearMonth old = YearMonth.of(2019, 6);
+        OrderPartitionMaintainer maintainer = new OrderPartitionMaintainer(0, 0);
+        maintainer.setDropArchived(true);
+        maintainer.createPartitions(old, old);
+
+        assertEquals(2, maintainer.archivePartitionsBefore(old.plusMonths(1)).size());
+        assertEquals(0, TestDatabase.queryInt("SELECT COUNT(*) FROM pg_class WHERE relname LIKE '%_p2019_06'"));
+    }
+
+    @Test
+    void createOrderCreatesMissingPartitionThroughMaintainer() throws Exception {
+        TestDatabase.execute("UPDATE products SET stock = 10 WHERE id = 7");
+        String suffix = String.format("_p%04d_%02d", currentMonth().getYear(), currentMonth().getMonthValue());
+        // Chưa có order nào của tháng này trong class test: xóa partition như khi sang tháng mới
+        for (String parent : new String[] { "order_items", "orders" }) {
+            TestDatabase.execute("ALTER TABLE " + parent + " DETACH PARTITION " + parent + suffix);
+            TestDatabase.execute("DROP TABLE " + parent + suffix);
+        }
+        OrderService service = new OrderService();
+
+        // Không có maintainer: lỗi thiếu partition trả thẳng cho caller
+        SQLException e = assertThrows(SQLException.class, () -> service.createOrder(order(7, 1)));
+        assertEquals("23514", e.getSQLState());
+
+        OrderPartitionMaintainer maintainer = new OrderPartitionMaintainer(0, 0);
+        service.setPartitionMaintainer(maintainer);
+        int orderId = service.createOrder(order(7, 1));
+
+        assertEquals(1, TestDatabase.queryInt("SELECT COUNT(*) FROM orders" + suffix + " WHERE id = " + orderId));
+        assertEquals(9, TestDatabase.queryInt("SELECT stock FROM products WHERE id = 7"));
+        assertFalse(maintainer.isRunning());
+    }
+
+    @Test
+    void startRunsMaintenanceUntilStopped() throws Exception {
+        OrderPartitionMaintainer maintainer = new OrderPartitionMaintainer(7, 0);
+        maintainer.setPeriodMillis(60_000);
+        maintainer.start();
+        try {
+            YearMonth target = currentMonth().plusMonths(7);
+            long deadline = System.currentTimeMillis() + 5_000;
+            while (!months("order_items").contains(target) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
+            }
+            assertTrue(months("order_items").contains(target));
+        } finally {
+            maintainer.stop();
+        }
+        assertFalse(maintainer.isRunning());
+    }
+
+    @Test
+    void readsConfigurationFromSystemProperties() {
+        System.setProperty("partitions.periodMs", "1234");
+        try {
+            assertEquals(1234, OrderPartitionMaintainer.fromSystemProperties().getPeriodMillis());
+        } finally {
+            System.clearProperty("partitions.periodMs");
+        }
+        assertEquals(OrderPartitionMaintainer.DEFAULT_PERIOD_MILLIS,
+                OrderPartitionMaintainer.fromSystemProperties().getPeriodMillis());
+    }
+
+    private static TreeSet<YearMonth> months(String parent) throws SQLException {
+        try (Connection conn = TestDatabase.connect()) {
+            return OrderPartitionMaintainer.listPartitions(conn, parent);
+        }
+    }
+
+    private static YearMonth currentMonth() throws SQLException {
+        try (Connection conn = TestDatabase.connect();
+                Statement stmt = conn.createStatement();
+                ResultSet rs = stmt.executeQuery("SELECT CURRENT_TIMESTAMP::timestamp")) {
+            rs.next();
+            return YearMonth.from(rs.getTimestamp(1).toLocalDateTime());
+        }
+    }
+
+    private static Order order(int productId, int qty) {
+        Order order = new Order();
+        order.addItem(productId, qty);
+        return order;
+    }
+}
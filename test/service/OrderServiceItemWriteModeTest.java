@@ -0,0 +1,73 @@
+package service;
+
+import config.DatabaseConfig;
+import config.TestDatabase;
+import model.Order;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class OrderServiceItemWriteModeTest {
+
+    @BeforeAll
+    static void startDatabase() throws Exception {
+        TestDatabase.start();
+    }
+
+    @AfterAll
+    static void stopDatabase() throws Exception {
+        TestDatabase.stop();
+    }
+
+    @ParameterizedTest
+    @EnumSource(ItemWriteMode.class)
+    void writesAllItemsInChunks(ItemWriteMode mode) throws Exception {
+        TestDatabase.execute("UPDATE products SET stock = 100 WHERE id BETWEEN 1 AND 5");
+        OrderService service = new OrderService();
+        service.setItemWriteMode(mode);
+        service.setItemBatchSize(2);
+
+        Order order = new Order();
+        for (int id = 1; id <= 5; id++) {
+            order.addItem(id, id);
+        }
+        int orderId = service.createOrder(order);
+
+        assertEquals(5, TestDatabase.queryInt("SELECT COUNT(*) FROM order_items WHERE order_id = " + orderId));
+        assertEquals(15, TestDatabase.queryInt("SELECT SUM(qty) FROM order_items WHERE order_id = " + orderId));
+        assertEquals(485, TestDatabase.queryInt("SELECT SUM(stock) FROM products WHERE id BETWEEN 1 AND 5"));
+    }
+
+    @Test
+    void multiValuesStatementsBypassStatementCache() throws Exception {
+        TestDatabase.execute("UPDATE products SET stock = 100 WHERE id BETWEEN 6 AND 8");
+        OrderService service = new OrderService();
+        service.setItemWriteMode(ItemWriteMode.MULTI_VALUES);
+        service.setItemBatchSize(0);
+        DatabaseConfig dbConfig = DatabaseConfig.getInstance();
+
+        // Làm nóng cache với các câu lệnh cố định của createOrder
+        service.createOrder(order(6));
+        long misses = dbConfig.getPoolStats().getStatementCacheMisses();
+
+        // Số dòng khác nhau → SQL khác nhau, nhưng không có statement nào mới vào cache
+        service.createOrder(order(6, 7));
+        service.createOrder(order(6, 7, 8));
+        service.createOrder(order(7));
+
+        assertEquals(misses, dbConfig.getPoolStats().getStatementCacheMisses());
+        assertEquals(300 - 7, TestDatabase.queryInt("SELECT SUM(stock) FROM products WHERE id BETWEEN 6 AND 8"));
+    }
+
+    private static Order order(int... productIds) {
+        Order order = new Order();
+        for (int productId : productIds) {
+            order.addItem(productId, 1);
+        }
+        return order;
+    }
+}
@@ -0,0 +1,172 @@
+package service;
+
+import config.TestDatabase;
+import model.Order;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Bất biến tồn kho (như LoadTest) trên PostgreSQL embedded: nhiều thread
+ * cùng đặt các product tồn kho thấp, tổng nhu cầu vượt xa tồn kho.
+ * Sau đó: không kho nào âm, tồn kho ban đầu = còn lại + đã bán, số order
+ * trong database = số createOrder thành công.
+ */
+class OrderServiceOversellTest {
+
+    private static final int[] PRODUCTS = {1, 2, 3, 4};
+    private static final int INITIAL_STOCK = 10;
+    private static final int THREADS = 4;
+    private static final int ORDERS_PER_THREAD = 20;
+
+    @BeforeAll
+    static void startDatabase() throws Exception {
+        TestDatabase.start();
+    }
+
+    @AfterAll
+    static void stopDatabase() throws Exception {
+        TestDatabase.stop();
+    }
+
+    static Stream<Arguments> configurations() {
+        List<Arguments> configurations = new ArrayList<>();
+        for (StockUpdateMode mode : StockUpdateMode.values()) {
+            for (ConcurrencyStrategy strategy : ConcurrencyStrategy.values()) {
+                configurations.add(Arguments.of(mode, strategy, FulfilmentPolicy.ALL_OR_NOTHING, false));
+            }
+            configurations.add(Arguments.of(mode, ConcurrencyStrategy.PESSIMISTIC, FulfilmentPolicy.PARTIAL, false));
+        }
+        configurations.add(Arguments.of(StockUpdateMode.PER_ITEM, ConcurrencyStrategy.CONDITIONAL_UPDATE,
+                FulfilmentPolicy.ALL_OR_NOTHING, true));
+        configurations.add(Arguments.of(StockUpdateMode.SET_BASED, ConcurrencyStrategy.PESSIMISTIC,
+                FulfilmentPolicy.PARTIAL, true));
+        return configurations.stream();
+    }
+
+    @ParameterizedTest(name = "{0} {1} {2} ledger={3}")
+    @MethodSource("configurations")
+    void noOversellNoLostUpdate(StockUpdateMode mode, ConcurrencyStrategy strategy, FulfilmentPolicy policy,
+            boolean ledger) throws Exception {
+        resetStock(mode == StockUpdateMode.BUCKETED);
+        int maxOrderIdBefore = TestDatabase.queryInt("SELECT COALESCE(MAX(id), 0) FROM orders");
+
+        OrderService service = new OrderService();
+        service.setStockUpdateMode(mode);
+        service.setConcurrencyStrategy(strategy);
+        service.setFulfilmentPolicy(policy);
+        if (ledger) {
+            StockLedger stockLedger = new StockLedger();
+            stockLedger.load();
+            service.setStockLedger(stockLedger);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<Integer>> results = new ArrayList<>();
+        try {
+            for (int t = 0; t < THREADS; t++) {
+                results.add(executor.submit(() -> placeOrders(service)));
+            }
+            int committed = 0;
+            for (Future<Integer> result : results) {
+                committed += result.get();
+            }
+
+            assertTrue(committed > 0, "Không đơn hàng nào được commit");
+            assertEquals(committed,
+                    TestDatabase.queryInt("SELECT COUNT(*) FROM orders WHERE id > " + maxOrderIdBefore));
+            assertInvariant(maxOrderIdBefore);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @return Số đơn hàng createOrder thành công
+     */
+    private static int placeOrders(OrderService service) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int committed = 0;
+        for (int i = 0; i < ORDERS_PER_THREAD; i++) {
+            Order order = new Order();
+            int first = random.nextInt(PRODUCTS.length);
+            order.addItem(PRODUCTS[first], random.nextInt(1, 4));
+            if (random.nextBoolean()) {
+                order.addItem(PRODUCTS[(first + 1) % PRODUCTS.length], random.nextInt(1, 4));
+            }
+            try {
+                service.createOrder(order);
+                committed++;
+            } catch (Exception e) {
+                // Không đủ hàng / hết số lần thử lại: đơn hàng không được ghi
+            }
+        }
+        return committed;
+    }
+
+    private static void assertInvariant(int maxOrderIdBefore) throws SQLException {
+        Map<Integer, Integer> sold = new HashMap<>();
+        Map<Integer, Integer> stock = new HashMap<>();
+        try (Connection conn = TestDatabase.connect();
+                Statement stmt = conn.createStatement()) {
+            try (ResultSet rs = stmt.executeQuery("SELECT product_id, SUM(qty) FROM order_items "
+                    + "WHERE order_id > " + maxOrderIdBefore + " GROUP BY product_id")) {
+                while (rs.next()) {
+                    sold.put(rs.getInt(1), rs.getInt(2));
+                }
+            }
+            try (ResultSet rs = stmt.executeQuery("SELECT id, stock FROM product_inventory")) {
+                while (rs.next()) {
+                    stock.put(rs.getInt(1), rs.getInt(2));
+                }
+            }
+        }
+
+        int totalSold = 0;
+        for (int productId : PRODUCTS) {
+            int remaining = stock.get(productId);
+            int soldQty = sold.getOrDefault(productId, 0);
+            assertTrue(remaining >= 0, "Product " + productId + " oversell: còn " + remaining);
+            assertEquals(INITIAL_STOCK, remaining + soldQty,
+                    "Product " + productId + ": còn " + remaining + ", đã bán " + soldQty);
+            totalSold += soldQty;
+        }
+        assertTrue(totalSold > 0);
+        assertEquals(0, TestDatabase.queryInt("SELECT COUNT(*) FROM product_stock_buckets WHERE stock < 0"));
+    }
+
+    /**
+     * Tồn kho thấp cho các product của test; BUCKETED thì chia thành nhiều bucket
+     */
+    private static void resetStock(boolean bucketed) throws SQLException {
+        String ids = "1, 2, 3, 4";
+        try (Connection conn = TestDatabase.connect();
+                Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("DELETE FROM product_stock_buckets");
+            stmt.executeUpdate("UPDATE products SET stock_buckets = " + (bucketed ? 4 : 1)
+                    + ", stock = " + INITIAL_STOCK + " WHERE id IN (" + ids + ")");
+        }
+        if (bucketed) {
+            new StockBucketRebalancer().rebalanceAll();
+        }
+    }
+}
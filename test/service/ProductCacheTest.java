@@ -0,0 +1,157 @@
+package service;
+
+import config.TestDatabase;
+import model.Order;
+import model.Product;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ProductCacheTest {
+
+    @BeforeAll
+    static void startDatabase() throws Exception {
+        TestDatabase.start();
+    }
+
+    @AfterAll
+    static void stopDatabase() throws Exception {
+        TestDatabase.stop();
+    }
+
+    @Test
+    void evictsLeastRecentlyUsed() {
+        ProductCache cache = new ProductCache(2, 60_000);
+        put(cache, 1, 10);
+        put(cache, 2, 20);
+        cache.get(1);
+        put(cache, 3, 30);
+
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictions());
+        assertNull(cache.get(2));
+        assertNotNull(cache.get(1));
+        assertNotNull(cache.get(3));
+    }
+
+    @Test
+    void expiredEntryIsAMiss() throws Exception {
+        ProductCache cache = new ProductCache(10, 20);
+        put(cache, 1, 10);
+        Thread.sleep(50);
+
+        assertNull(cache.get(1));
+        assertEquals(1, cache.getExpirations());
+        assertEquals(1, cache.getMisses());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void getReturnsCopy() {
+        ProductCache cache = new ProductCache(10, 60_000);
+        put(cache, 1, 10);
+
+        cache.get(1).setStock(0);
+
+        assertEquals(10, cache.get(1).getStock());
+    }
+
+    @Test
+    void putWithStaleGenerationIsIgnored() {
+        ProductCache cache = new ProductCache(10, 60_000);
+        // Đọc database sau khi lấy generation, product bị invalidate giữa chừng
+        long generation = cache.generation(1);
+        cache.invalidate(1);
+        cache.put(new Product(1, "P1", 10), generation);
+        assertNull(cache.get(1));
+
+        // invalidateAll cũng làm cũ generation của mọi product
+        long before = cache.generation(2);
+        cache.invalidateAll();
+        cache.put(new Product(2, "P2", 20), before);
+        assertNull(cache.get(2));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void invalidateCountsRemovedEntries() {
+        ProductCache cache = new ProductCache(10, 60_000);
+        put(cache, 1, 10);
+        put(cache, 2, 20);
+        put(cache, 3, 30);
+
+        cache.invalidate(1, 99);
+        assertEquals(1, cache.getInvalidations());
+        assertNull(cache.get(1));
+
+        cache.invalidateAll();
+        assertEquals(3, cache.getInvalidations());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void createOrderInvalidatesCachedProduct() throws Exception {
+        TestDatabase.execute("UPDATE products SET stock = 10 WHERE id = 4");
+        ProductCache cache = new ProductCache(10, 60_000);
+        OrderService service = new OrderService();
+        service.setProductCache(cache);
+
+        assertEquals(10, service.getProduct(4).getStock());
+        assertEquals(10, service.getProduct(4).getStock());
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getHits());
+
+        Order order = new Order();
+        order.addItem(4, 3);
+        service.createOrder(order);
+
+        assertNull(cache.get(4));
+        assertEquals(7, service.getProduct(4).getStock());
+    }
+
+    @Test
+    void notifyInvalidatesAcrossConnections() throws Exception {
+        TestDatabase.execute(TestDatabase.readResource("/product_notify.sql"));
+        TestDatabase.execute("UPDATE products SET stock = 10 WHERE id = 5");
+        ProductCache cache = new ProductCache(10, 60_000);
+        long initial = cache.generation(5);
+        cache.startListening(50);
+        try {
+            // Listener kết nối xong thì invalidateAll (generation đổi)
+            assertTrue(waitFor(() -> cache.generation(5) != initial), "Listener không kết nối được");
+            put(cache, 5, 10);
+            assertNotNull(cache.get(5));
+
+            // Thay đổi từ connection khác (không qua OrderService)
+            TestDatabase.execute("UPDATE products SET stock = 9 WHERE id = 5");
+
+            assertTrue(waitFor(() -> cache.get(5) == null), "Không nhận được NOTIFY");
+        } finally {
+            cache.stopListening();
+            TestDatabase.execute("DROP TRIGGER IF EXISTS trg_products_notify ON products");
+            TestDatabase.execute("DROP TRIGGER IF EXISTS trg_product_stock_buckets_notify ON product_stock_buckets");
+        }
+    }
+
+    private static void put(ProductCache cache, int id, int stock) {
+        cache.put(new Product(id, "P" + id, stock), cache.generation(id));
+    }
+
+    private static boolean waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (System.currentTimeMillis() < deadline) {
+            if (condition.getAsBoolean()) {
+                return true;
+            }
+            Thread.sleep(20);
+        }
+        return false;
+    }
+}
@@ -0,0 +1,125 @@
+package service;
+
+import config.TestDatabase;
+import model.Order;
+import model.ProductSales;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SalesAggregationTest {
+
+    @BeforeAll
+    static void startDatabase() throws Exception {
+        TestDatabase.start();
+    }
+
+    @AfterAll
+    static void stopDatabase() throws Exception {
+        TestDatabase.stop();
+    }
+
+    @Test
+    void createOrderAggregatesByDefault() throws Exception {
+        TestDatabase.execute("UPDATE products SET stock = 100 WHERE id IN (1, 2)");
+        OrderService service = new OrderService();
+        assertTrue(service.isSalesAggregation());
+
+        Order order = order(1, 3);
+        order.addItem(2, 1);
+        service.createOrder(order);
+        service.createOrder(order(1, 2));
+
+        ProductSales sales = service.getProductSales(1);
+        assertEquals(5, sales.getUnitsSold());
+        assertEquals(2, sales.getOrderCount());
+        assertEquals(1, service.getProductSales(2).getOrderCount());
+        assertEquals(5, TestDatabase.queryInt("SELECT SUM(units_sold) FROM product_sales_daily"
+                + " WHERE product_id = 1 AND sales_date = CURRENT_DATE"));
+    }
+
+    @Test
+    void concurrentOrdersOfHotProductSpreadOverStripes() throws Exception {
+        TestDatabase.execute("UPDATE products SET stock = 1000 WHERE id = 3");
+        OrderService service = new OrderService();
+        int orders = 200;
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int i = 0; i < orders; i++) {
+                results.add(executor.submit(() -> service.createOrder(order(3, 1))));
+            }
+            for (Future<Integer> result : results) {
+                result.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertTrue(TestDatabase.queryInt("SELECT COUNT(*) FROM product_sales WHERE product_id = 3") > 1);
+        ProductSales sales = service.getProductSales(3);
+        assertEquals(orders, sales.getUnitsSold());
+        assertEquals(orders, sales.getOrderCount());
+        ProductSales top = service.getTopSellers(1).get(0);
+        assertEquals(3, top.getProductId());
+        assertEquals(orders, top.getUnitsSold());
+
+        // Tính lại từ order_items: cùng tổng, một dòng mỗi sản phẩm
+        service.rebuildSalesAggregates();
+        assertEquals(1, TestDatabase.queryInt("SELECT COUNT(*) FROM product_sales WHERE product_id = 3"));
+        assertEquals(orders, service.getProductSales(3).getUnitsSold());
+    }
+
+    @Test
+    void disabledAggregationSkipsUpsert() throws Exception {
+        TestDatabase.execute("UPDATE products SET stock = 10 WHERE id = 4");
+        OrderService service = new OrderService();
+        service.setSalesAggregation(false);
+
+        service.createOrder(order(4, 1));
+
+        assertEquals(0, service.getProductSales(4).getUnitsSold());
+    }
+
+    @Test
+    void importerAggregatesByOrderDateUnlessDisabled() throws Exception {
+        TestDatabase.execute("UPDATE products SET stock = 100 WHERE id IN (5, 6)");
+        LocalDateTime createdAt = LocalDateTime.now().withDayOfMonth(1).withHour(10).withNano(0);
+        BulkOrderImporter importer = new BulkOrderImporter();
+
+        Order first = order(5, 2);
+        first.setCreatedAt(createdAt);
+        Order second = order(5, 3);
+        second.setCreatedAt(createdAt.plusHours(1));
+        importer.importOrders(List.of(first, second).iterator());
+
+        OrderService service = new OrderService();
+        assertEquals(5, service.getProductSales(5).getUnitsSold());
+        assertEquals(2, service.getProductSales(5).getOrderCount());
+        assertEquals(createdAt.plusHours(1), service.getProductSales(5).getLastSoldAt());
+        assertEquals(5, TestDatabase.queryInt("SELECT SUM(units_sold) FROM product_sales_daily"
+                + " WHERE product_id = 5 AND sales_date = '" + createdAt.toLocalDate() + "'"));
+
+        importer.setSalesAggregation(false);
+        importer.importOrders(List.of(order(6, 4)).iterator());
+        assertEquals(0, service.getProductSales(6).getUnitsSold());
+        assertEquals(96, TestDatabase.queryInt("SELECT stock FROM products WHERE id = 6"));
+    }
+
+    private static Order order(int productId, int qty) {
+        Order order = new Order();
+        order.addItem(productId, qty);
+        return order;
+    }
+}
@@ -0,0 +1,125 @@
+package service;
+
+import config.TestDatabase;
+import model.Order;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class StockLedgerTest {
+
+    @BeforeAll
+    static void startDatabase() throws Exception {
+        TestDatabase.start();
+    }
+
+    @AfterAll
+    static void stopDatabase() throws Exception {
+        TestDatabase.stop();
+    }
+
+    @Test
+    void rejectsWithoutTouchingOtherLines() throws Exception {
+        TestDatabase.execute("UPDATE products SET stock = 5 WHERE id IN (1, 2)");
+        StockLedger ledger = new StockLedger();
+        ledger.refresh(1, 2);
+
+        Order order = order(1, 3);
+        order.addItem(2, 6);
+        assertThrows(Exception.class, () -> ledger.reserve(order));
+
+        assertEquals(5, ledger.getAvailable(1));
+        assertEquals(5, ledger.getAvailable(2));
+        assertEquals(1, ledger.getRejectedCount());
+    }
+
+    @Test
+    void releaseAndConfirm() throws Exception {
+        TestDatabase.execute("UPDATE products SET stock = 5 WHERE id = 3");
+        StockLedger ledger = new StockLedger();
+        ledger.refresh(3);
+
+        StockLedger.Reservation released = ledger.reserve(order(3, 2));
+        assertEquals(3, ledger.getAvailable(3));
+        ledger.release(released, false);
+        assertEquals(5, ledger.getAvailable(3));
+
+        StockLedger.Reservation confirmed = ledger.reserve(order(3, 2));
+        ledger.confirm(confirmed);
+        assertEquals(3, ledger.getAvailable(3));
+        // Product chưa có trong ledger: database quyết định
+        assertEquals(-1, ledger.getAvailable(999_999));
+        ledger.reserve(order(999_999, 1));
+    }
+
+    @Test
+    void syncSubtractsOnlyUncommittedReservations() throws Exception {
+        TestDatabase.execute("UPDATE products SET stock = 10 WHERE id = 4");
+        StockLedger ledger = new StockLedger();
+        ledger.refresh(4);
+
+        StockLedger.Reservation pending = ledger.reserve(order(4, 3));
+        StockLedger.Reservation committing = ledger.reserve(order(4, 2));
+        ledger.beginCommit(committing);
+
+        // Database vẫn 10: phần đang giữ chỗ (3) bị trừ, phần đang commit (2) thì không
+        ledger.refresh(4);
+        assertEquals(7, ledger.getAvailable(4));
+
+        ledger.cancelCommit(committing);
+        ledger.refresh(4);
+        assertEquals(5, ledger.getAvailable(4));
+
+        ledger.release(pending, false);
+        ledger.release(committing, false);
+        assertEquals(10, ledger.getAvailable(4));
+    }
+
+    @Test
+    void concurrentReservationsNeverExceedStock() throws Exception {
+        TestDatabase.execute("UPDATE products SET stock = 100 WHERE id = 5");
+        StockLedger ledger = new StockLedger();
+        ledger.refresh(5);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<Integer>> results = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            results.add(executor.submit(() -> {
+                int reserved = 0;
+                for (int i = 0; i < 1_000; i++) {
+                    try {
+                        ledger.reserve(order(5, 1));
+                        reserved++;
+                    } catch (Exception e) {
+                        // Hết hàng trên ledger
+                    }
+                }
+                return reserved;
+            }));
+        }
+        int reserved = 0;
+        for (Future<Integer> result : results) {
+            reserved += result.get();
+        }
+        executor.shutdown();
+
+        assertEquals(100, reserved);
+        assertEquals(0, ledger.getAvailable(5));
+        assertEquals(3_900, ledger.getRejectedCount());
+    }
+
+    private static Order order(int productId, int qty) {
+        Order order = new Order();
+        order.addItem(productId, qty);
+        return order;
+    }
+}